@@ -0,0 +1,47 @@
+package edu.tamu.tcat.vwise;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ *  A read-only view of a {@link WorkspaceRepository} at a single point in time. All reads
+ *  from a snapshot observe the same set of committed changes, regardless of changes made
+ *  to the repository after the snapshot was taken.
+ *
+ *  <p>Snapshots should be closed promptly. Repositories may retain superseded data for as
+ *  long as a snapshot that can observe it remains open.
+ */
+public interface RepositorySnapshot extends AutoCloseable
+{
+   /**
+    * @return The commit sequence number of the repository state observed by this snapshot.
+    */
+   public long getSequence();
+
+   /**
+    * @return All workspaces that existed (and were not deleted) at the time of the snapshot.
+    */
+   public Collection<WorkspaceMeta> listAll();
+
+   /**
+    * @param id The id of the workspace to retrieve.
+    * @return The workspace as of the time of the snapshot. Will be empty if the workspace
+    *       did not exist or had been deleted.
+    */
+   public Optional<WorkspaceMeta> get(String id);
+
+   /**
+    * Retrieves several workspaces.
+    *
+    * @param ids The ids of the workspaces to retrieve.
+    * @return The workspaces that existed at the time of the snapshot, keyed by id, in the
+    *       order the ids were supplied.
+    */
+   public Map<String, WorkspaceMeta> getAll(Collection<String> ids);
+
+   @Override
+   public void close();
+}
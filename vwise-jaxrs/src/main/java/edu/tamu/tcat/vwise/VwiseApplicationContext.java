@@ -8,10 +8,22 @@ package edu.tamu.tcat.vwise;
  *  and providing access that context as appropriate (e.g. CDI dependency injection, OSGi
  *  declarative services or as a singleton).
  */
-public interface VwiseApplicationContext
+public interface VwiseApplicationContext extends AutoCloseable
 {
    /**
     * Factory method to obtain a workspace repository.
     */
    public WorkspaceRepository getRepository();
+
+   /**
+    * @return The feed of changes made to workspaces in this context's repository.
+    */
+   public WorkspaceChangeFeed getChangeFeed();
+
+   /**
+    * Releases the resources held by this context, including its repository and change
+    * feed. The context must not be used once closed.
+    */
+   @Override
+   public void close() throws Exception;
 }
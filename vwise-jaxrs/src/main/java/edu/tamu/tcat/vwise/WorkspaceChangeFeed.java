@@ -0,0 +1,35 @@
+package edu.tamu.tcat.vwise;
+
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+
+/**
+ *  An ordered, resumable feed of the changes made to the workspaces in a repository.
+ *
+ *  <p>Every create, update, remove and purge is assigned a sequence number. Subscribers
+ *  that record the sequence number of the last change they processed may resume from
+ *  that point. Only a bounded number of recent changes are retained. Subscribers that fall
+ *  further behind receive a {@link WorkspaceChange.Type#RESET} change and should reload
+ *  their state from the repository.
+ */
+public interface WorkspaceChangeFeed
+{
+   /**
+    * Indicates that a subscription should receive only changes published after it was
+    * created.
+    */
+   public static final long LATEST = -1;
+
+   /**
+    * Subscribes to changes published to this feed. Changes are delivered asynchronously.
+    *
+    * @param after The sequence number of the last change seen by the subscriber, or
+    *       {@link #LATEST} to receive only new changes. Use {@code 0} to receive all
+    *       retained changes.
+    * @param scope Restricts the subscription to workspaces in this scope. May be
+    *       {@code null}.
+    * @param wsId Restricts the subscription to a single workspace. May be {@code null}.
+    * @param listener Receives matching changes.
+    * @return A handle that ends the subscription when closed.
+    */
+   public AutoCloseable subscribe(long after, String scope, String wsId, WorkspaceChangeListener listener);
+}
@@ -0,0 +1,18 @@
+package edu.tamu.tcat.vwise;
+
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+
+/**
+ *  Receives changes published to a {@link WorkspaceChangeFeed}.
+ */
+@FunctionalInterface
+public interface WorkspaceChangeListener
+{
+   /**
+    * Invoked for each change, in sequence order. Calls for a single subscription are
+    * never made concurrently.
+    *
+    * @param change The published change.
+    */
+   public void onChange(WorkspaceChange change);
+}
@@ -1,9 +1,15 @@
 package edu.tamu.tcat.vwise;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
 import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
 
 /**
  *  Maintains a collection of workspaces.
@@ -13,17 +19,83 @@ public interface WorkspaceRepository extends AutoCloseable
 
    // IMPL NOTES
    //   * As we add support for users this repo will be scoped to an authenticated user account
-   //   * Add filters/query to list all
    //   * May need to provide asynchronous API for updates at some point.
    //
 
    /**
-    * List all workspaces associated with this repository.
+    * List all workspaces associated with this repository. The returned workspaces reflect
+    * a single consistent state of the repository.
     *
     * @return All workspaces associated with this repository. May be empty.
     */
    public Collection<WorkspaceMeta> listAll();
 
+   /**
+    * Lists the workspaces within a scope. Takes time proportional to the number of
+    * workspaces in the scope rather than in the repository.
+    *
+    * @param scope The scope. If {@code null}, lists workspaces that do not have a scope.
+    * @return The workspaces in the scope that have not been deleted, in the order they
+    *       were created. May be empty.
+    */
+   public Collection<WorkspaceMeta> listScope(String scope);
+
+   /**
+    * @param scope The scope. If {@code null}, summarizes workspaces that do not have a scope.
+    * @return The number of workspaces in the scope. Counts are zero for unknown scopes.
+    */
+   public ScopeSummary getScopeSummary(String scope);
+
+   /**
+    * @return A summary of each scope that contains workspaces, including deleted workspaces
+    *       that have not been purged. The summary of workspaces without a scope has a
+    *       {@code null} scope.
+    */
+   public Collection<ScopeSummary> listScopes();
+
+   /**
+    * Finds the workspaces that match the supplied criteria. Queries read the most recently
+    * committed state of each workspace; updates that have not yet been committed are not
+    * visible.
+    *
+    * @param query The criteria that workspaces must satisfy.
+    * @return The requested page of matching workspaces.
+    * @throws IllegalArgumentException If the query is not valid, for example if its
+    *       cursor was not returned by a query with the same sort order.
+    */
+   public WorkspaceQueryResult query(WorkspaceQuery query);
+
+   /**
+    * Finds the workspaces whose name or description contains every word of the supplied
+    * text, ignoring case and punctuation. Deleted workspaces are not returned.
+    *
+    * @param query The words to search for.
+    * @param limit The maximum number of workspaces to return.
+    * @return The matching workspaces, most relevant first.
+    */
+   public List<SearchHit> search(String query, int limit);
+
+   /**
+    * Completes a partially typed workspace key or name. A workspace matches if its key, its
+    * name, or any word of its name starts with the supplied prefix, ignoring case. Deleted
+    * workspaces are not returned.
+    *
+    * @param prefix The typed text.
+    * @param scope Restricts suggestions to this scope. If {@code null}, suggestions are
+    *       drawn from all scopes.
+    * @param limit The maximum number of workspaces to return.
+    * @return The matching workspaces, ordered by the text that matched.
+    */
+   public List<WorkspaceMeta> suggest(String prefix, String scope, int limit);
+
+   /**
+    * Opens a consistent, read-only view of the current state of this repository. Reads from
+    * the returned snapshot are not affected by subsequent changes and do not block them.
+    *
+    * @return A snapshot of this repository. Must be closed once it is no longer needed.
+    */
+   public RepositorySnapshot snapshot();
+
    /**
     * Get information about a workspace.
     *
@@ -37,12 +109,39 @@ public interface WorkspaceRepository extends AutoCloseable
     * A specific version of a workspace.
     *
     * @param id The id of the workspace to retrieve.
-    * @param version The version of the workspace to retrieve.
+    * @param version The version of the workspace to retrieve. If the version does not
+    *       exist, the closest preceding version is returned. Versions of updates that
+    *       were coalesced return the version they were coalesced into.
     * @return The requested version of the workspace. Will be empty if the requested
-    *       workspace does not exist.
+    *       workspace does not exist or the version is older than the history retained
+    *       by the repository.
     */
    public Optional<WorkspaceMeta> get(String id, String version);
 
+   /**
+    * The version of a workspace that was current at the supplied time.
+    *
+    * @param id The id of the workspace to retrieve.
+    * @param timestamp The time of interest, in milliseconds since the epoch.
+    * @return The most recent version of the workspace recorded at or before the supplied
+    *       time. Will be empty if the workspace does not exist or was created later.
+    */
+   public Optional<WorkspaceMeta> getAsOf(String id, long timestamp);
+
+   /**
+    * Lists the version history of a workspace, newest first. Historical versions of
+    * deleted workspaces remain available.
+    *
+    * @param id The id of the workspace.
+    * @param from The oldest version to include. May be {@code null}.
+    * @param to The newest version to include. May be {@code null}.
+    * @param cursor The {@link VersionPage#next} value of the previous page or {@code null}
+    *       to retrieve the first page.
+    * @param limit The maximum number of versions to return.
+    * @return A page of versions. Will be empty if the workspace does not exist.
+    */
+   public Optional<VersionPage> listVersions(String id, String from, String to, String cursor, int limit);
+
    /**
     * Creates a new workspace based on the supplied data. The id and version values,
     * if supplied, will be ignored.
@@ -65,10 +164,35 @@ public interface WorkspaceRepository extends AutoCloseable
     */
    public WorkspaceMeta update(WorkspaceMeta data);
 
+   /**
+    * Updates the workspace on behalf of an identified client, such as an editor that saves
+    * frequently. Repositories may fold successive updates from the same client into a
+    * single pending version that is committed once a configured interval has elapsed, the
+    * workspace is {@link #flush(String) flushed} or another client updates it. Pending
+    * versions are returned by {@link #get(String)} but are not recorded in the version
+    * history until committed. The version of the returned workspace may be used to
+    * retrieve and update it as usual.
+    *
+    * @param data The updated workspace data.
+    * @param clientId Identifies the client making the update. If {@code null}, the update
+    *       is committed immediately.
+    * @return The updated workspace.
+    * @see #update(WorkspaceMeta)
+    */
+   public WorkspaceMeta update(WorkspaceMeta data, String clientId);
+
+   /**
+    * Commits the pending version of a workspace, if any, produced by coalescing updates.
+    *
+    * @param id The id of the workspace to flush.
+    */
+   public void flush(String id);
+
    /**
     * Deletes the selected workspace. Historical information about the workspace
     * will be retained and can be retrieved by requesting the appropriate version,
-    * but the workspace will not be listed through {@link #listAll()}.
+    * but the workspace will not be listed through {@link #listAll()}. Repositories may
+    * purge deleted workspaces once a configured grace period has elapsed.
     *
     * @param id The id of the workspace to be deleted.
     */
@@ -0,0 +1,78 @@
+package edu.tamu.tcat.vwise.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.Response;
+
+/**
+ * Provides read-your-writes consistency for clients that read from replicas.
+ *
+ * <p>Records the commit sequence number returned by the leader with each successful
+ * change and sends it with subsequent reads as the minimum commit the server must have
+ * applied. A replica that has not applied it waits briefly and otherwise answers
+ * {@code 503 Service Unavailable}, which is retried as described by {@link RequestPolicy}.
+ * Leaders have applied every commit they report, so the requirement never delays them.
+ * Updates that may be coalesced are answered without a commit sequence number, since
+ * they may still be pending; the sequence number is recorded once they are flushed.
+ *
+ * <p>A single instance is shared by the contexts of the leader and the replicas that a
+ * client uses. See {@link RestClientAppContext#RestClientAppContext(java.net.URI,
+ * java.util.Properties, ReadYourWrites)}. The sequence number may also be passed to
+ * another client, so that it observes the changes made by this one.
+ */
+public class ReadYourWrites implements ClientRequestFilter, ClientResponseFilter
+{
+   /** Supplies the commit sequence number of the repository following a change. */
+   public static final String COMMIT_SEQUENCE_HEADER = "X-Commit-Sequence";
+
+   /** Supplies the commit sequence number a server must have applied to answer a read. */
+   public static final String MIN_SEQUENCE_HEADER = "X-Min-Commit-Sequence";
+
+   private final AtomicLong sequence = new AtomicLong();
+
+   /**
+    * @return The commit sequence number of the most recent change observed by this client,
+    *       or {@code 0} if none has been observed.
+    */
+   public long getSequence()
+   {
+      return sequence.get();
+   }
+
+   /**
+    * Requires subsequent reads to observe at least the supplied commit.
+    */
+   public void require(long commit)
+   {
+      sequence.accumulateAndGet(commit, Math::max);
+   }
+
+   @Override
+   public void filter(ClientRequestContext request)
+   {
+      long required = sequence.get();
+      if (required > 0 && isRead(request.getMethod()))
+         request.getHeaders().putSingle(MIN_SEQUENCE_HEADER, Long.valueOf(required));
+   }
+
+   @Override
+   public void filter(ClientRequestContext request, ClientResponseContext response)
+   {
+      if (isRead(request.getMethod()) || response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL)
+         return;
+
+      String commit = response.getHeaderString(COMMIT_SEQUENCE_HEADER);
+      if (commit != null)
+         require(Long.parseLong(commit.trim()));
+   }
+
+   private static boolean isRead(String method)
+   {
+      return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method);
+   }
+}
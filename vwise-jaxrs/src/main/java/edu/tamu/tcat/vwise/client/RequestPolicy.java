@@ -0,0 +1,576 @@
+package edu.tamu.tcat.vwise.client;
+
+import static java.text.MessageFormat.format;
+
+import java.net.ConnectException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * Governs how requests to the vWise REST API are attempted, retried and hedged.
+ *
+ * <p>Idempotent requests that fail with an I/O error or a transient server status
+ * ({@code 502}, {@code 503} or {@code 504}) are retried with exponential backoff and full
+ * jitter. Requests that could not be sent because the server refused the connection, as a
+ * server that is restarting does, are retried in the same way whether or not they are
+ * idempotent.
+ *
+ * <p>A {@code 503} response with a {@code Retry-After} header is sent by a server that
+ * rejected the request before processing it, either because it is overloaded or because a
+ * replica could not yet serve the read. Such requests are retried, whether or not they are
+ * idempotent, once the requested delay has elapsed, plus a random jitter of up to the
+ * backoff so that rejected clients do not return at once. If the delay would pass the
+ * deadline, the response is returned to the caller instead.
+ *
+ * <p>Idempotent reads may also be hedged: if no response has been received once the
+ * configured percentile of recently observed latencies has elapsed, a duplicate request is
+ * sent and whichever response arrives first is used.
+ *
+ * <p>Retries and hedged requests both draw from a shared retry budget. Each request adds a
+ * fraction of a token to the budget and each retry or hedge consumes a full token, so that
+ * retries cannot multiply the load on a server that is already overloaded.
+ *
+ * <p>Configured using the following properties:
+ *
+ * <pre>
+ * # Maximum attempts for an idempotent request, including the first (default: 3)
+ * client.retry.max_attempts=3
+ *
+ * # Base and maximum backoff between attempts in milliseconds (defaults: 50, 2000)
+ * client.retry.backoff_base_ms=50
+ * client.retry.backoff_max_ms=2000
+ *
+ * # Total time in milliseconds after which no further attempts are made (default: 30000)
+ * client.retry.deadline_ms=30000
+ *
+ * # Tokens earned per request and the minimum reserve of retry tokens (defaults: 0.1, 10)
+ * client.retry.budget_ratio=0.1
+ * client.retry.budget_min=10
+ *
+ * # Send hedged reads after the given percentile of observed latency (defaults: false, 95)
+ * client.hedge.enabled=false
+ * client.hedge.percentile=95
+ *
+ * # Lower bound on the hedge delay in milliseconds (default: 5)
+ * client.hedge.min_delay_ms=5
+ * </pre>
+ */
+public class RequestPolicy implements AutoCloseable
+{
+   private final static Logger logger = Logger.getLogger(RequestPolicy.class.getName());
+
+   public static final String PROP_MAX_ATTEMPTS = "client.retry.max_attempts";
+   public static final String PROP_BACKOFF_BASE = "client.retry.backoff_base_ms";
+   public static final String PROP_BACKOFF_MAX = "client.retry.backoff_max_ms";
+   public static final String PROP_DEADLINE = "client.retry.deadline_ms";
+   public static final String PROP_BUDGET_RATIO = "client.retry.budget_ratio";
+   public static final String PROP_BUDGET_MIN = "client.retry.budget_min";
+   public static final String PROP_HEDGE_ENABLED = "client.hedge.enabled";
+   public static final String PROP_HEDGE_PERCENTILE = "client.hedge.percentile";
+   public static final String PROP_HEDGE_MIN_DELAY = "client.hedge.min_delay_ms";
+
+   /**
+    * Describes how a request may be treated.
+    */
+   public enum Mode
+   {
+      /** The request may not be repeated. */
+      ONCE,
+
+      /** The request is idempotent and may be retried. */
+      RETRY,
+
+      /** The request is a read that may be retried or duplicated. */
+      HEDGE
+   }
+
+   private final int maxAttempts;
+   private final long backoffBaseNanos;
+   private final long backoffMaxNanos;
+   private final long deadlineNanos;
+   private final boolean hedgeEnabled;
+   private final double hedgePercentile;
+   private final long hedgeMinDelayNanos;
+
+   private final RetryBudget budget;
+   private final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+   private final ExecutorService executor;
+
+   private final LongAdder requests = new LongAdder();
+   private final LongAdder retries = new LongAdder();
+   private final LongAdder hedges = new LongAdder();
+   private final LongAdder hedgeWins = new LongAdder();
+   private final LongAdder budgetExhausted = new LongAdder();
+   private final LongAdder throttled = new LongAdder();
+
+   public RequestPolicy(Properties config)
+   {
+      maxAttempts = Math.max(1, getIntProperty(config, PROP_MAX_ATTEMPTS, 3));
+      backoffBaseNanos = TimeUnit.MILLISECONDS.toNanos(getIntProperty(config, PROP_BACKOFF_BASE, 50));
+      backoffMaxNanos = TimeUnit.MILLISECONDS.toNanos(getIntProperty(config, PROP_BACKOFF_MAX, 2000));
+      deadlineNanos = TimeUnit.MILLISECONDS.toNanos(getIntProperty(config, PROP_DEADLINE, 30_000));
+
+      double ratio = getDoubleProperty(config, PROP_BUDGET_RATIO, 0.1);
+      budget = new RetryBudget(ratio, getIntProperty(config, PROP_BUDGET_MIN, 10));
+
+      hedgeEnabled = Boolean.parseBoolean(config.getProperty(PROP_HEDGE_ENABLED, "false"));
+      hedgePercentile = getDoubleProperty(config, PROP_HEDGE_PERCENTILE, 95) / 100;
+      hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(getIntProperty(config, PROP_HEDGE_MIN_DELAY, 5));
+      if (hedgePercentile <= 0 || hedgePercentile > 1)
+         throw new IllegalArgumentException(format("The value of {0} must be between 0 and 100", PROP_HEDGE_PERCENTILE));
+
+      executor = hedgeEnabled
+            ? Executors.newCachedThreadPool(r -> {
+                  Thread t = new Thread(r, "vwise-client-hedge");
+                  t.setDaemon(true);
+                  return t;
+               })
+            : null;
+   }
+
+   private static int getIntProperty(Properties props, String key, int defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Integer.parseInt(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   private static double getDoubleProperty(Properties props, String key, double defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Double.parseDouble(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be a number", property, key));
+      }
+   }
+
+   /**
+    * Executes a request according to this policy.
+    *
+    * @param operation A name for the type of request, used to track latency.
+    * @param mode Whether the request may be retried or hedged.
+    * @param request Sends a single attempt of the request. The returned response must
+    *       have been fully read (e.g., buffered) so that it can be closed at any time.
+    * @param handler Processes the accepted response. The response is closed once the
+    *       handler returns.
+    * @return The result of the handler.
+    * @throws ProcessingException If the request could not be completed.
+    */
+   public <T> T execute(String operation, Mode mode, Supplier<Response> request, Function<Response, T> handler)
+   {
+      requests.increment();
+      budget.deposit();
+
+      long start = System.nanoTime();
+      int attempt = 1;
+      while (true)
+      {
+         Response resp;
+         try
+         {
+            resp = mode == Mode.HEDGE && hedgeEnabled
+                  ? sendHedged(operation, request)
+                  : send(operation, request);
+         }
+         catch (ProcessingException ex)
+         {
+            if ((mode == Mode.ONCE && !isRefused(ex)) || !retry(attempt, start, 0))
+               throw ex;
+
+            logger.log(Level.FINE, format("Retrying {0} after failed attempt {1}", operation, Integer.valueOf(attempt)), ex);
+            attempt++;
+            continue;
+         }
+
+         try
+         {
+            int status = resp.getStatus();
+            long retryAfter = getRetryAfter(resp);
+            if (retryAfter >= 0)
+               throttled.increment();
+
+            boolean rejected = status == 503 && retryAfter >= 0;
+            if ((mode == Mode.ONCE && !rejected) || !isTransient(status) || !retry(attempt, start, Math.max(0, retryAfter)))
+               return handler.apply(resp);
+
+            logger.fine(() -> format("Retrying {0} after transient response status {1}", operation, Integer.valueOf(status)));
+         }
+         finally
+         {
+            resp.close();
+         }
+
+         attempt++;
+      }
+   }
+
+   /**
+    * @return {@code true} if the request failed because the connection was refused, so
+    *       that the server cannot have received it.
+    */
+   private static boolean isRefused(ProcessingException ex)
+   {
+      for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause())
+      {
+         if (cause instanceof ConnectException)
+            return true;
+      }
+
+      return false;
+   }
+
+   private static boolean isTransient(int status)
+   {
+      return status == 502 || status == 503 || status == 504;
+   }
+
+   /**
+    * @return The delay, in nanoseconds, requested by the {@code Retry-After} header of a
+    *       transient response, or {@code -1} if there is none or it cannot be parsed.
+    */
+   private static long getRetryAfter(Response resp)
+   {
+      String value = isTransient(resp.getStatus()) ? resp.getHeaderString(HttpHeaders.RETRY_AFTER) : null;
+      if (value == null)
+         return -1;
+
+      value = value.trim();
+      try
+      {
+         return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value)));
+      }
+      catch (NumberFormatException ex)
+      {
+         // an HTTP date
+      }
+
+      try
+      {
+         ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+         long millis = date.toInstant().toEpochMilli() - System.currentTimeMillis();
+         return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+      }
+      catch (DateTimeParseException ex)
+      {
+         logger.fine(() -> format("Ignoring invalid Retry-After header [{0}]", resp.getHeaderString(HttpHeaders.RETRY_AFTER)));
+         return -1;
+      }
+   }
+
+   /**
+    * Determines whether another attempt should be made and, if so, waits for the backoff
+    * period to elapse.
+    *
+    * @param minDelay The time, in nanoseconds, that the server asked the client to wait
+    *       before the next attempt.
+    */
+   private boolean retry(int attempt, long start, long minDelay)
+   {
+      if (attempt >= maxAttempts)
+         return false;
+
+      // full jitter: sleep a random duration up to the exponential backoff
+      long ceiling = Math.min(backoffMaxNanos, backoffBaseNanos << Math.min(attempt - 1, 30));
+      long delay = minDelay + ThreadLocalRandom.current().nextLong(Math.max(1, ceiling));
+      if (System.nanoTime() - start + delay > deadlineNanos)
+         return false;
+
+      if (!budget.tryWithdraw())
+      {
+         budgetExhausted.increment();
+         return false;
+      }
+
+      retries.increment();
+      try
+      {
+         TimeUnit.NANOSECONDS.sleep(delay);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+
+      return true;
+   }
+
+   private Response send(String operation, Supplier<Response> request)
+   {
+      long start = System.nanoTime();
+      Response resp = request.get();
+      tracker(operation).record(System.nanoTime() - start);
+      return resp;
+   }
+
+   private LatencyTracker tracker(String operation)
+   {
+      return latencies.computeIfAbsent(operation, op -> new LatencyTracker());
+   }
+
+   /**
+    * Sends a request and, if it has not completed within the hedge delay for this type of
+    * operation, sends a duplicate. The first response received is returned and any later
+    * response is closed.
+    */
+   private Response sendHedged(String operation, Supplier<Response> request)
+   {
+      long delay = Math.max(hedgeMinDelayNanos, tracker(operation).percentile(hedgePercentile));
+      CompletableFuture<Response> primary = CompletableFuture.supplyAsync(() -> send(operation, request), executor);
+      try
+      {
+         return primary.get(delay, TimeUnit.NANOSECONDS);
+      }
+      catch (TimeoutException ex)
+      {
+         // fall through to send a hedged request
+      }
+      catch (InterruptedException | ExecutionException ex)
+      {
+         if (ex instanceof InterruptedException)
+            Thread.currentThread().interrupt();
+
+         return unwrap(primary);
+      }
+
+      if (!budget.tryWithdraw())
+      {
+         budgetExhausted.increment();
+         return unwrap(primary);
+      }
+
+      hedges.increment();
+      CompletableFuture<Response> hedge = CompletableFuture.supplyAsync(() -> send(operation, request), executor);
+
+      CompletableFuture<Response> first = new CompletableFuture<>();
+      AtomicInteger failures = new AtomicInteger();
+      primary.whenComplete(firstResponse(first, failures, false));
+      hedge.whenComplete(firstResponse(first, failures, true));
+
+      return unwrap(first);
+   }
+
+   /**
+    * Completes the supplied future with the first successful response of a hedged pair,
+    * closing the slower response, or with an error if both requests fail.
+    */
+   private BiConsumer<Response, Throwable> firstResponse(CompletableFuture<Response> first, AtomicInteger failures, boolean isHedge)
+   {
+      return (resp, ex) -> {
+         if (ex == null)
+         {
+            if (!first.complete(resp))
+               resp.close();
+            else if (isHedge)
+               hedgeWins.increment();
+         }
+         else if (failures.incrementAndGet() == 2)
+         {
+            first.completeExceptionally(ex);
+         }
+      };
+   }
+
+   private static Response unwrap(CompletableFuture<Response> future)
+   {
+      try
+      {
+         if (Thread.interrupted())
+            throw new InterruptedException();
+
+         return future.get();
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         future.thenAccept(Response::close);
+         throw new ProcessingException("Interrupted while waiting for a response.", ex);
+      }
+      catch (ExecutionException ex)
+      {
+         Throwable cause = ex.getCause();
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+         if (cause instanceof Error)
+            throw (Error)cause;
+
+         throw new ProcessingException(cause);
+      }
+   }
+
+   /**
+    * @return A snapshot of statistics about requests sent under this policy.
+    */
+   public PolicyStats getStats()
+   {
+      return new PolicyStats(requests.sum(), retries.sum(), hedges.sum(), hedgeWins.sum(), budgetExhausted.sum(), throttled.sum());
+   }
+
+   @Override
+   public void close()
+   {
+      if (executor != null)
+         executor.shutdownNow();
+   }
+
+   /**
+    * Point-in-time statistics about requests sent under a {@link RequestPolicy}.
+    */
+   public static class PolicyStats
+   {
+      /** The number of requests executed. */
+      public final long requests;
+
+      /** The number of additional attempts made after a failure. */
+      public final long retries;
+
+      /** The number of duplicate requests sent after the hedge delay elapsed. */
+      public final long hedges;
+
+      /** The number of hedged requests that responded before the original request. */
+      public final long hedgeWins;
+
+      /** The number of retries or hedges skipped because the retry budget was exhausted. */
+      public final long budgetExhausted;
+
+      /** The number of responses that asked the client to wait before trying again. */
+      public final long throttled;
+
+      PolicyStats(long requests, long retries, long hedges, long hedgeWins, long budgetExhausted, long throttled)
+      {
+         this.requests = requests;
+         this.retries = retries;
+         this.hedges = hedges;
+         this.hedgeWins = hedgeWins;
+         this.budgetExhausted = budgetExhausted;
+         this.throttled = throttled;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "PolicyStats [requests=" + requests + ", retries=" + retries + ", hedges=" + hedges
+               + ", hedgeWins=" + hedgeWins + ", budgetExhausted=" + budgetExhausted + ", throttled=" + throttled + "]";
+      }
+   }
+
+   /**
+    * A token bucket that limits retries to a fraction of the overall request rate.
+    * Balances are tracked in thousandths of a token.
+    */
+   private static class RetryBudget
+   {
+      private static final long SCALE = 1000;
+
+      private final long depositAmount;
+      private final long maxBalance;
+      private final AtomicLong balance;
+
+      RetryBudget(double ratio, int minReserve)
+      {
+         this.depositAmount = (long)(ratio * SCALE);
+         this.maxBalance = Math.max(minReserve, 1) * SCALE * 10;
+         this.balance = new AtomicLong(Math.max(minReserve, 0) * SCALE);
+      }
+
+      void deposit()
+      {
+         balance.accumulateAndGet(depositAmount, (current, amount) -> Math.min(maxBalance, current + amount));
+      }
+
+      boolean tryWithdraw()
+      {
+         while (true)
+         {
+            long current = balance.get();
+            if (current < SCALE)
+               return false;
+
+            if (balance.compareAndSet(current, current - SCALE))
+               return true;
+         }
+      }
+   }
+
+   /**
+    * Tracks recently observed latencies for one type of operation in a fixed-size ring
+    * and periodically recomputes the latency at the hedging percentile.
+    */
+   private static class LatencyTracker
+   {
+      private static final int SAMPLES = 256;
+      private static final int MIN_SAMPLES = 16;
+      private static final int RECOMPUTE_INTERVAL = 32;
+
+      private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+      private final AtomicLong count = new AtomicLong();
+      private volatile double cachedPercentile = -1;
+      private volatile long cachedValue = Long.MAX_VALUE;
+
+      void record(long nanos)
+      {
+         long n = count.getAndIncrement();
+         samples.set((int)(n % SAMPLES), nanos);
+         if (n % RECOMPUTE_INTERVAL == 0)
+            cachedPercentile = -1;
+      }
+
+      /**
+       * @return The latency at the supplied percentile or {@code Long.MAX_VALUE} if too few
+       *       requests have been observed to estimate it.
+       */
+      long percentile(double p)
+      {
+         if (cachedPercentile == p)
+            return cachedValue;
+
+         int n = (int)Math.min(count.get(), SAMPLES);
+         if (n < MIN_SAMPLES)
+            return Long.MAX_VALUE;
+
+         long[] sorted = new long[n];
+         for (int i = 0; i < n; i++)
+            sorted[i] = samples.get(i);
+         Arrays.sort(sorted);
+
+         long value = sorted[Math.min(n - 1, (int)Math.ceil(p * n) - 1)];
+         cachedValue = value;
+         cachedPercentile = p;
+         return value;
+      }
+   }
+}
@@ -0,0 +1,24 @@
+package edu.tamu.tcat.vwise.client;
+
+/**
+ * Indicates that the vWise REST API returned a response that the client could not
+ * interpret as a result of the requested operation.
+ */
+public class RestApiException extends IllegalStateException
+{
+   private final int status;
+
+   public RestApiException(int status, String msg)
+   {
+      super(msg);
+      this.status = status;
+   }
+
+   /**
+    * @return The HTTP status code of the response.
+    */
+   public int getStatus()
+   {
+      return status;
+   }
+}
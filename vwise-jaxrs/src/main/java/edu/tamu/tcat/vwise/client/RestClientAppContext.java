@@ -3,7 +3,12 @@ package edu.tamu.tcat.vwise.client;
 import static java.text.MessageFormat.format;
 
 import java.net.URI;
+import java.util.Optional;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,20 +16,176 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.media.sse.SseFeature;
+
 import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
 import edu.tamu.tcat.vwise.WorkspaceRepository;
 
+/**
+ * Provides access to a remote vWise REST API.
+ *
+ * <p>By default, requests are sent using a pooled, keep-alive HTTP connector. Connections
+ * are shared by all repositories obtained from this context and are released when the
+ * context is {@link #shutdown() shut down}. The connector may be tuned using the following
+ * configuration properties:
+ *
+ * <pre>
+ * # Either 'pooled' (default) or 'default' to use Jersey's HttpURLConnection connector
+ * client.http.connector=pooled
+ *
+ * # Maximum number of open connections, overall and to the API host (defaults: 200, 50)
+ * client.http.pool.max_total=200
+ * client.http.pool.max_per_route=50
+ *
+ * # Time in milliseconds an idle connection is kept alive before it is closed (default: 30000)
+ * client.http.keep_alive_ms=30000
+ *
+ * # Connect and read timeouts in milliseconds (defaults: 5000, 30000)
+ * client.http.connect_timeout_ms=5000
+ * client.http.read_timeout_ms=30000
+ * </pre>
+ *
+ * <p>Workspace reads may optionally be cached. Specific versions are served from the cache
+ * and the latest version of a workspace is revalidated with the server. See
+ * {@link WorkspaceCache}.
+ *
+ * <pre>
+ * # Enable the client-side workspace cache (default: false)
+ * client.cache.enabled=true
+ *
+ * # Maximum number of cached workspace versions (default: 1000)
+ * client.cache.max_entries=1000
+ * </pre>
+ *
+ * <p>Requests that fail with a connection error or a transient status (502, 503, 504) are
+ * retried with exponential backoff if they are safe to repeat. Retries are limited by a
+ * budget shared by all repositories so that a struggling server is not overwhelmed. Reads
+ * may optionally be hedged. See {@link RequestPolicy} for the {@code client.retry.*} and
+ * {@code client.hedge.*} properties.
+ *
+ * <p>Clients that read from replicas may require reads to observe their own changes. See
+ * {@link ReadYourWrites}.
+ */
 public class RestClientAppContext implements VwiseApplicationContext
 {
    private final static Logger logger = Logger.getLogger(RestClientAppContext.class.getName());
 
+   public static final String PROP_CONNECTOR = "client.http.connector";
+   public static final String PROP_MAX_TOTAL = "client.http.pool.max_total";
+   public static final String PROP_MAX_PER_ROUTE = "client.http.pool.max_per_route";
+   public static final String PROP_KEEP_ALIVE = "client.http.keep_alive_ms";
+   public static final String PROP_CONNECT_TIMEOUT = "client.http.connect_timeout_ms";
+   public static final String PROP_READ_TIMEOUT = "client.http.read_timeout_ms";
+   public static final String PROP_CACHE_ENABLED = "client.cache.enabled";
+   public static final String PROP_CACHE_MAX_ENTRIES = "client.cache.max_entries";
+
+   public static final String CONNECTOR_POOLED = "pooled";
+   public static final String CONNECTOR_DEFAULT = "default";
+
    private final Client client;
    private final URI apiEndpoint;
+   private final WorkspaceCache cache;
+   private final RequestPolicy policy;
+   private final RestClientChangeFeed changeFeed;
+
+   private final PoolingHttpClientConnectionManager connectionMgr;
+   private final ScheduledExecutorService idleConnectionMonitor;
 
    public RestClientAppContext(URI apiEndpoint)
+   {
+      this(apiEndpoint, new Properties());
+   }
+
+   public RestClientAppContext(URI apiEndpoint, Properties config)
+   {
+      this(apiEndpoint, config, null);
+   }
+
+   /**
+    * @param session Records the changes made through this context and requires reads to
+    *       observe them. May be shared with the contexts of other servers of a replicated
+    *       deployment. May be {@code null}.
+    */
+   public RestClientAppContext(URI apiEndpoint, Properties config, ReadYourWrites session)
    {
       this.apiEndpoint = apiEndpoint;
-      this.client = ClientBuilder.newClient();
+
+      String connector = config.getProperty(PROP_CONNECTOR, CONNECTOR_POOLED).trim();
+      int connectTimeout = getIntProperty(config, PROP_CONNECT_TIMEOUT, 5000);
+      int readTimeout = getIntProperty(config, PROP_READ_TIMEOUT, 30_000);
+
+      ClientConfig clientConfig = new ClientConfig()
+            .property(ClientProperties.CONNECT_TIMEOUT, Integer.valueOf(connectTimeout))
+            .property(ClientProperties.READ_TIMEOUT, Integer.valueOf(readTimeout));
+
+      if (CONNECTOR_DEFAULT.equalsIgnoreCase(connector))
+      {
+         this.connectionMgr = null;
+         this.idleConnectionMonitor = null;
+      }
+      else if (CONNECTOR_POOLED.equalsIgnoreCase(connector))
+      {
+         int keepAlive = getIntProperty(config, PROP_KEEP_ALIVE, 30_000);
+
+         connectionMgr = new PoolingHttpClientConnectionManager();
+         connectionMgr.setMaxTotal(getIntProperty(config, PROP_MAX_TOTAL, 200));
+         connectionMgr.setDefaultMaxPerRoute(getIntProperty(config, PROP_MAX_PER_ROUTE, 50));
+         connectionMgr.setValidateAfterInactivity(Math.min(keepAlive, 2000));
+
+         clientConfig.connectorProvider(new ApacheConnectorProvider())
+               .property(ApacheClientProperties.CONNECTION_MANAGER, connectionMgr)
+               .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED);
+
+         // evicts connections the server may have closed after sitting idle in the pool
+         idleConnectionMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vwise-client-idle-connections");
+            t.setDaemon(true);
+            return t;
+         });
+         long period = Math.max(keepAlive / 2, 500);
+         idleConnectionMonitor.scheduleWithFixedDelay(() -> {
+            connectionMgr.closeExpiredConnections();
+            connectionMgr.closeIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+         }, period, period, TimeUnit.MILLISECONDS);
+      }
+      else
+      {
+         String msg = "Unsupported value {0} for property {1}. Expected ''{2}'' or ''{3}''.";
+         throw new IllegalArgumentException(format(msg, connector, PROP_CONNECTOR, CONNECTOR_POOLED, CONNECTOR_DEFAULT));
+      }
+
+      clientConfig.register(SseFeature.class);
+      if (session != null)
+         clientConfig.register(session);
+
+      this.client = ClientBuilder.newClient(clientConfig);
+      this.changeFeed = new RestClientChangeFeed(client.target(apiEndpoint));
+
+      this.cache = Boolean.parseBoolean(config.getProperty(PROP_CACHE_ENABLED, "false"))
+            ? new WorkspaceCache(getIntProperty(config, PROP_CACHE_MAX_ENTRIES, 1000))
+            : null;
+
+      this.policy = new RequestPolicy(config);
+   }
+
+   private static int getIntProperty(Properties props, String key, int defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Integer.parseInt(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
    }
 
    @Override
@@ -37,7 +198,44 @@ public class RestClientAppContext implements VwiseApplicationContext
       WebTarget target = client.target(apiEndpoint);
       MonitorImpl monitor = new MonitorImpl(UUID.randomUUID());
 
-      return new RestClientWsRepoImpl(target, monitor);
+      return new RestClientWsRepoImpl(target, monitor, cache, policy);
+   }
+
+   /**
+    * Provides access to the change feed of the remote repository. Subscriptions hold an
+    * open connection to the server and are closed when this context is shut down.
+    */
+   @Override
+   public WorkspaceChangeFeed getChangeFeed()
+   {
+      return changeFeed;
+   }
+
+   /**
+    * @return Statistics for the workspace cache shared by repositories obtained from this
+    *       context. Will be empty if caching is not enabled.
+    */
+   public Optional<WorkspaceCache.CacheStats> getCacheStats()
+   {
+      return Optional.ofNullable(cache).map(WorkspaceCache::getStats);
+   }
+
+   /**
+    * @return Retry and hedging statistics for requests sent by repositories obtained from
+    *       this context.
+    */
+   public RequestPolicy.PolicyStats getRequestStats()
+   {
+      return policy.getStats();
+   }
+
+   /**
+    * Equivalent to {@link #shutdown()}.
+    */
+   @Override
+   public void close()
+   {
+      shutdown();
    }
 
    public void shutdown()
@@ -47,6 +245,21 @@ public class RestClientAppContext implements VwiseApplicationContext
 
       try
       {
+         changeFeed.close();
+
+         if (idleConnectionMonitor != null)
+            idleConnectionMonitor.shutdownNow();
+
+         if (connectionMgr != null)
+            logger.fine(() -> format("Connection pool state at shutdown: {0}", connectionMgr.getTotalStats()));
+
+         if (cache != null)
+            logger.fine(() -> format("Workspace cache state at shutdown: {0}", cache.getStats()));
+
+         logger.fine(() -> format("Request policy state at shutdown: {0}", policy.getStats()));
+         policy.close();
+
+         // also closes the pooled connection manager
          client.close();
       }
       catch (Exception ex)
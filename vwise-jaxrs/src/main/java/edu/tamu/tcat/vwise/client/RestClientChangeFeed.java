@@ -0,0 +1,110 @@
+package edu.tamu.tcat.vwise.client;
+
+import static java.text.MessageFormat.format;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.media.sse.EventListener;
+import org.glassfish.jersey.media.sse.EventSource;
+import org.glassfish.jersey.media.sse.InboundEvent;
+
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceChangeListener;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+
+/**
+ * Subscribes to the server-sent event stream of workspace changes published by the vWise
+ * REST API. Dropped connections are re-established automatically and resume from the last
+ * change received.
+ */
+public class RestClientChangeFeed implements WorkspaceChangeFeed
+{
+   private final static Logger logger = Logger.getLogger(RestClientChangeFeed.class.getName());
+
+   private static final long RECONNECT_DELAY_MS = 500;
+
+   /**
+    * Time to wait for the event reader to stop when a subscription is closed. A reader that
+    * is blocked waiting for data stops on the next event or server heartbeat, so there is
+    * little value in waiting longer.
+    */
+   private static final long CLOSE_WAIT_MS = 100;
+
+   private final WebTarget target;
+   private final Set<EventSource> sources = ConcurrentHashMap.newKeySet();
+
+   public RestClientChangeFeed(WebTarget target)
+   {
+      this.target = target;
+   }
+
+   @Override
+   public AutoCloseable subscribe(long after, String scope, String wsId, WorkspaceChangeListener listener)
+   {
+      Objects.requireNonNull(listener, "A listener must be supplied.");
+
+      WebTarget changes = target.path("changes");
+      if (after >= 0)
+         changes = changes.queryParam("since", Long.valueOf(after));
+      if (scope != null)
+         changes = changes.queryParam("scope", scope);
+      if (wsId != null)
+         changes = changes.queryParam("ws", wsId);
+
+      EventSource source = EventSource.target(changes)
+            .reconnectingEvery(RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS)
+            .build();
+      source.register(new ChangeEventListener(listener));
+
+      sources.add(source);
+      source.open();
+
+      return () -> {
+         sources.remove(source);
+         source.close(CLOSE_WAIT_MS, TimeUnit.MILLISECONDS);
+      };
+   }
+
+   /**
+    * Closes all open subscriptions.
+    */
+   public void close()
+   {
+      sources.forEach(source -> source.close(CLOSE_WAIT_MS, TimeUnit.MILLISECONDS));
+      sources.clear();
+   }
+
+   private static class ChangeEventListener implements EventListener
+   {
+      private final WorkspaceChangeListener listener;
+
+      ChangeEventListener(WorkspaceChangeListener listener)
+      {
+         this.listener = listener;
+      }
+
+      @Override
+      public void onEvent(InboundEvent event)
+      {
+         if (event.isEmpty())
+            return;
+
+         try
+         {
+            listener.onChange(event.readData(WorkspaceChange.class, MediaType.APPLICATION_JSON_TYPE));
+         }
+         catch (RuntimeException ex)
+         {
+            logger.log(Level.WARNING, format("Failed to process workspace change [{0}]", event.getId()), ex);
+         }
+      }
+   }
+}
@@ -1,45 +1,340 @@
 package edu.tamu.tcat.vwise.client;
 
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import edu.tamu.tcat.vwise.RepositorySnapshot;
+import edu.tamu.tcat.vwise.UnauthorizedActionException;
+import edu.tamu.tcat.vwise.UpdateConflictException;
 import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.client.RequestPolicy.Mode;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
 import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
 
 public class RestClientWsRepoImpl implements WorkspaceRepository
 {
 
+   private static final String COMMIT_SEQUENCE_HEADER = "X-Commit-Sequence";
+   private static final String CLIENT_ID_HEADER = "X-Client-Id";
+   private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+   private static final String QUERY_PLAN_HEADER = "X-Query-Plan";
+
    private final WebTarget target;
    private final Monitor monitor;
+   private final WorkspaceCache cache;
+   private final RequestPolicy policy;
 
    public RestClientWsRepoImpl(WebTarget target, Monitor monitor)
+   {
+      this(target, monitor, null, new RequestPolicy(new Properties()));
+   }
+
+   /**
+    * @param target The base target of the vWise REST API.
+    * @param monitor Notified when this repository is closed.
+    * @param cache A cache to be used for workspace reads. May be {@code null} in which
+    *       case every read is sent to the server.
+    * @param policy Determines how requests are retried and hedged.
+    */
+   public RestClientWsRepoImpl(WebTarget target, Monitor monitor, WorkspaceCache cache, RequestPolicy policy)
    {
       this.target = target;
       this.monitor = monitor;
+      this.cache = cache;
+      this.policy = policy;
+   }
+
+   /**
+    * Executes the supplied request under the configured {@link RequestPolicy} and processes
+    * the response. The response is always closed once the handler returns (or throws) so
+    * that the underlying connection is returned to the pool, even if the entity was not read.
+    * Requests that an overloaded server rejects with a {@code Retry-After} header, including
+    * changes, are repeated once the requested delay has elapsed.
+    */
+   private <T> T invoke(String operation, Mode mode, Supplier<Response> request, Function<Response, T> handler)
+   {
+      return policy.execute(operation, mode, () -> {
+         Response resp = request.get();
+         try
+         {
+            // Reads the entity through to the end of the stream. The pooled connector only
+            // returns a connection to the pool once it sees EOF and otherwise discards it on
+            // close. JSON parsers stop at the closing brace without reading EOF.
+            resp.bufferEntity();
+            return resp;
+         }
+         catch (ProcessingException ex)
+         {
+            resp.close();
+            throw ex;
+         }
+      }, handler);
+   }
+
+   /**
+    * Translates a response that does not represent a successful result into an exception.
+    */
+   private static RuntimeException unexpected(Response resp)
+   {
+      int status = resp.getStatus();
+      String detail = resp.hasEntity() && resp.getMediaType() != null && resp.getMediaType().getType().equals("text")
+            ? resp.readEntity(String.class)
+            : resp.getStatusInfo().getReasonPhrase();
+
+      switch (status)
+      {
+         case 403:
+            return new UnauthorizedActionException(detail);
+         case 409:
+            return new UpdateConflictException(detail);
+         default:
+            return new RestApiException(status, format("Unexpected response from the vWise REST API [{0}]: {1}", Integer.valueOf(status), detail));
+      }
    }
 
    @Override
    public Collection<WorkspaceMeta> listAll()
    {
-      Response resp = target.path("workspaces")
+      return invoke("listAll", Mode.HEDGE,
+         () -> target.path("workspaces")
             .request(MediaType.APPLICATION_JSON)
-            .get();
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  List<WorkspaceMeta> workspaces = resp.readEntity(new GenericType<List<WorkspaceMeta>>() {});
+                  return workspaces;
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
 
-      switch (resp.getStatus())
+   @Override
+   public Collection<WorkspaceMeta> listScope(String scope)
+   {
+      // workspaces without a scope cannot be addressed by scope through the API
+      if (scope == null)
+         return listAll().stream().filter(ws -> ws.scope == null).collect(Collectors.toList());
+
+      return invoke("listScope", Mode.HEDGE,
+         () -> target.path("scopes/{scope}/workspaces")
+            .resolveTemplate("scope", scope)
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  List<WorkspaceMeta> workspaces = resp.readEntity(new GenericType<List<WorkspaceMeta>>() {});
+                  return workspaces;
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
+
+   @Override
+   public ScopeSummary getScopeSummary(String scope)
+   {
+      if (scope == null)
       {
-         case 200:
-            List<WorkspaceMeta> workspaces = resp.readEntity(new GenericType<List<WorkspaceMeta>>() {});
-            return workspaces;
-         default:
-            throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+         return listScopes().stream()
+               .filter(summary -> summary.scope == null)
+               .findFirst()
+               .orElseGet(ScopeSummary::new);
       }
+
+      return invoke("getScopeSummary", Mode.HEDGE,
+         () -> target.path("scopes/{scope}")
+            .resolveTemplate("scope", scope)
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  return resp.readEntity(ScopeSummary.class);
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
+
+   @Override
+   public Collection<ScopeSummary> listScopes()
+   {
+      return invoke("listScopes", Mode.HEDGE,
+         () -> target.path("scopes")
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  List<ScopeSummary> scopes = resp.readEntity(new GenericType<List<ScopeSummary>>() {});
+                  return scopes;
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
+
+   /**
+    * Sends the query to the server, which plans and evaluates it against its repository.
+    * The plan chosen by the server is returned with the result.
+    */
+   @Override
+   public WorkspaceQueryResult query(WorkspaceQuery query)
+   {
+      return invoke("query", Mode.HEDGE,
+         () -> queryTarget(query)
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  WorkspaceQueryResult result = new WorkspaceQueryResult();
+                  result.workspaces = resp.readEntity(new GenericType<List<WorkspaceMeta>>() {});
+                  result.next = resp.getHeaderString(NEXT_CURSOR_HEADER);
+                  result.plan = resp.getHeaderString(QUERY_PLAN_HEADER);
+                  return result;
+               case 400:
+                  throw new IllegalArgumentException(format("Invalid query: {0}", resp.readEntity(String.class)));
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
+
+   @Override
+   public List<SearchHit> search(String query, int limit)
+   {
+      if (limit <= 0)
+         return new ArrayList<>();
+
+      return invoke("search", Mode.HEDGE,
+         () -> target.path("workspaces/search")
+            .queryParam("q", query)
+            .queryParam("limit", Integer.valueOf(limit))
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  List<SearchHit> hits = resp.readEntity(new GenericType<List<SearchHit>>() {});
+                  return hits;
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
+
+   @Override
+   public List<WorkspaceMeta> suggest(String prefix, String scope, int limit)
+   {
+      if (limit <= 0)
+         return new ArrayList<>();
+
+      return invoke("suggest", Mode.HEDGE,
+         () -> {
+            WebTarget request = target.path("workspaces/suggest")
+                  .queryParam("prefix", prefix)
+                  .queryParam("limit", Integer.valueOf(limit));
+            if (scope != null)
+               request = request.queryParam("scope", scope);
+
+            return request.request(MediaType.APPLICATION_JSON).get();
+         },
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  List<WorkspaceMeta> workspaces = resp.readEntity(new GenericType<List<WorkspaceMeta>>() {});
+                  return workspaces;
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
+
+   private WebTarget queryTarget(WorkspaceQuery query)
+   {
+      // the sort order and removed policy are always supplied so that the request is
+      // treated as a query even if no other criteria are given
+      WebTarget request = target.path("workspaces")
+            .queryParam("sort", (query.sort == null ? WorkspaceQuery.SortField.ID : query.sort).name().toLowerCase(Locale.ROOT))
+            .queryParam("order", query.descending ? "desc" : "asc")
+            .queryParam("removed", (query.removed == null ? WorkspaceQuery.Removed.EXCLUDE : query.removed).name().toLowerCase(Locale.ROOT));
+
+      if (query.scope != null)
+         request = request.queryParam("scope", query.scope);
+      if (query.scopePrefix != null)
+         request = request.queryParam("scopePrefix", query.scopePrefix);
+      if (query.keyPrefix != null)
+         request = request.queryParam("keyPrefix", query.keyPrefix);
+      if (query.nameContains != null)
+         request = request.queryParam("name", query.nameContains);
+      if (query.offset != 0)
+         request = request.queryParam("offset", Integer.valueOf(query.offset));
+      if (query.limit > 0)
+         request = request.queryParam("limit", Integer.valueOf(query.limit));
+      if (query.cursor != null)
+         request = request.queryParam("cursor", query.cursor);
+
+      return request;
+   }
+
+   /**
+    * Retrieves all workspaces from a single consistent state of the server's repository.
+    * The returned snapshot is held locally and does not retain resources on the server.
+    */
+   @Override
+   public RepositorySnapshot snapshot()
+   {
+      return invoke("listAll", Mode.HEDGE,
+         () -> target.path("workspaces")
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  String sequence = resp.getHeaderString(COMMIT_SEQUENCE_HEADER);
+                  List<WorkspaceMeta> workspaces = resp.readEntity(new GenericType<List<WorkspaceMeta>>() {});
+                  return new LocalSnapshot(sequence == null ? 0 : Long.parseLong(sequence), workspaces);
+               default:
+                  throw unexpected(resp);
+            }
+         });
    }
 
    @Override
@@ -48,19 +343,56 @@ public class RestClientWsRepoImpl implements WorkspaceRepository
       if (wsId == null || wsId.trim().isEmpty())
          throw new IllegalArgumentException("The workspace id must be supplied.");
 
-      Response resp = target.path("workspaces").path(wsId)
-            .request(MediaType.APPLICATION_JSON)
-            .get();
-
-      switch (resp.getStatus())
+      if (cache == null)
       {
-         case 200:
-            return Optional.of(resp.readEntity(WorkspaceMeta.class));
-         case 404:
-            return Optional.empty();
-         default:
-            throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+         return invoke("get", Mode.HEDGE,
+            () -> target.path("workspaces").path(wsId)
+               .request(MediaType.APPLICATION_JSON)
+               .get(),
+            RestClientWsRepoImpl::readOptional);
       }
+
+      return cache.collapse("latest:" + wsId, () -> revalidate(wsId))
+            .map(WorkspaceMeta::copy);
+   }
+
+   /**
+    * Retrieves the latest version of a workspace, sending the version of the cached copy
+    * (if any) as an entity tag so that the server can confirm it is still current without
+    * resending it.
+    */
+   private Optional<WorkspaceMeta> revalidate(String wsId)
+   {
+      WorkspaceMeta cached = cache.getLatest(wsId);
+      Supplier<Response> request = () -> {
+         Invocation.Builder builder = target.path("workspaces").path(wsId)
+               .request(MediaType.APPLICATION_JSON);
+         if (cached != null)
+            builder.header(HttpHeaders.IF_NONE_MATCH, new EntityTag(cached.version));
+
+         return builder.get();
+      };
+
+      return invoke("get", Mode.HEDGE, request, resp -> {
+         switch (resp.getStatus())
+         {
+            case 200:
+               WorkspaceMeta meta = resp.readEntity(WorkspaceMeta.class);
+               cache.recordMiss();
+               cache.putLatest(meta);
+               return Optional.of(meta);
+            case 304:
+               if (cached == null)
+                  throw new IllegalStateException("Server reported an unmodified workspace that was not requested.");
+               cache.recordRevalidated();
+               return Optional.of(cached);
+            case 404:
+               cache.invalidate(wsId);
+               return Optional.empty();
+            default:
+               throw unexpected(resp);
+         }
+      });
    }
 
    @Override
@@ -71,11 +403,111 @@ public class RestClientWsRepoImpl implements WorkspaceRepository
       if (version == null || version.trim().isEmpty())
          throw new IllegalArgumentException("The workspace version must be supplied.");
 
-      Response resp = target.path("workspaces").path(wsId)
+      if (cache == null)
+         return getVersion(wsId, version, RestClientWsRepoImpl::readOptional);
+
+      // superseded versions are immutable and can be returned without contacting the server
+      WorkspaceMeta cached = cache.getVersion(wsId, version);
+      if (cached != null)
+         return Optional.of(cached);
+
+      return cache.collapse("version:" + wsId + "@" + version, () -> getVersion(wsId, version, resp -> {
+               Optional<WorkspaceMeta> result = readOptional(resp);
+
+               // the latest version, which may be a pending update that is later folded into
+               // another, is sent with no-cache. A version that was not recorded resolves
+               // to the nearest prior version or to the version it was folded into
+               if (isImmutable(resp))
+                  result.filter(meta -> version.equals(meta.version))
+                        .ifPresent(cache::putVersion);
+               return result;
+            }))
+            .map(WorkspaceMeta::copy);
+   }
+
+   private Optional<WorkspaceMeta> getVersion(String wsId, String version, Function<Response, Optional<WorkspaceMeta>> handler)
+   {
+      return invoke("getVersion", Mode.HEDGE,
+         () -> target.path("workspaces").path(wsId)
             .queryParam("v", version)
             .request(MediaType.APPLICATION_JSON)
-            .get();
+            .get(),
+         handler);
+   }
+
+   /**
+    * @return {@code true} if the server allows the response to be cached without
+    *       revalidation.
+    */
+   private static boolean isImmutable(Response resp)
+   {
+      String header = resp.getHeaderString(HttpHeaders.CACHE_CONTROL);
+      if (header == null)
+         return false;
+
+      boolean maxAge = false;
+      for (String directive : header.toLowerCase(Locale.ROOT).split(","))
+      {
+         String value = directive.trim();
+         if (value.equals("no-cache") || value.equals("no-store") || value.startsWith("no-cache="))
+            return false;
+         if (value.startsWith("max-age=") && !value.equals("max-age=0"))
+            maxAge = true;
+      }
+
+      return maxAge;
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> getAsOf(String wsId, long timestamp)
+   {
+      if (wsId == null || wsId.trim().isEmpty())
+         throw new IllegalArgumentException("The workspace id must be supplied.");
+
+      return invoke("getAsOf", Mode.HEDGE,
+         () -> target.path("workspaces").path(wsId)
+            .queryParam("asOf", Long.valueOf(timestamp))
+            .request(MediaType.APPLICATION_JSON)
+            .get(),
+         RestClientWsRepoImpl::readOptional);
+   }
+
+   @Override
+   public Optional<VersionPage> listVersions(String wsId, String from, String to, String cursor, int limit)
+   {
+      if (wsId == null || wsId.trim().isEmpty())
+         throw new IllegalArgumentException("The workspace id must be supplied.");
+      if (limit <= 0)
+         throw new IllegalArgumentException(format("The page size must be positive [{0}]", Integer.valueOf(limit)));
+
+      return invoke("listVersions", Mode.HEDGE,
+         () -> {
+            WebTarget versions = target.path("workspaces").path(wsId).path("versions")
+                  .queryParam("limit", Integer.valueOf(limit));
+            if (from != null)
+               versions = versions.queryParam("from", from);
+            if (to != null)
+               versions = versions.queryParam("to", to);
+            if (cursor != null)
+               versions = versions.queryParam("cursor", cursor);
+
+            return versions.request(MediaType.APPLICATION_JSON).get();
+         },
+         resp -> {
+            switch (resp.getStatus())
+            {
+               case 200:
+                  return Optional.of(resp.readEntity(VersionPage.class));
+               case 404:
+                  return Optional.<VersionPage>empty();
+               default:
+                  throw unexpected(resp);
+            }
+         });
+   }
 
+   private static Optional<WorkspaceMeta> readOptional(Response resp)
+   {
       switch (resp.getStatus())
       {
          case 200:
@@ -83,68 +515,116 @@ public class RestClientWsRepoImpl implements WorkspaceRepository
          case 404:
             return Optional.empty();
          default:
-            throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+            throw unexpected(resp);
       }
    }
 
    @Override
    public WorkspaceMeta create(WorkspaceMeta data)
    {
-      Response resp = target.path("workspaces")
+      WorkspaceMeta created = invoke("create", Mode.ONCE,
+         () -> target.path("workspaces")
             .request(MediaType.APPLICATION_JSON)
-            .post(Entity.entity(data, MediaType.APPLICATION_JSON));
+            .post(Entity.entity(data, MediaType.APPLICATION_JSON)),
+         RestClientWsRepoImpl::readWorkspace);
 
-      switch (resp.getStatus())
+      if (cache != null)
       {
-         case 200:
-            return resp.readEntity(WorkspaceMeta.class);
-         default:
-            throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+         cache.putLatest(created);
+         cache.putVersion(created);
       }
+
+      return created;
    }
 
    @Override
    public WorkspaceMeta update(WorkspaceMeta data)
+   {
+      return update(data, null);
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data, String clientId)
    {
       if (data.id == null || data.id.trim().isEmpty())
          throw new IllegalArgumentException("The id of the workspace to be updated must be supplied.");
       if (data.version == null || data.version.trim().isEmpty())
          throw new IllegalArgumentException("The version of the workspace to be updated must be supplied.");
 
-      Response resp = target.path("workspaces").path(data.id)
+      WorkspaceMeta updated = invoke("update", Mode.ONCE,
+         () -> target.path("workspaces").path(data.id)
             .request(MediaType.APPLICATION_JSON)
-            .put(Entity.entity(data, MediaType.APPLICATION_JSON));
+            .header(CLIENT_ID_HEADER, clientId)
+            .put(Entity.entity(data, MediaType.APPLICATION_JSON)),
+         RestClientWsRepoImpl::readWorkspace);
+
+      if (cache != null)
+      {
+         cache.putLatest(updated);
+
+         // coalesced updates are pending until committed and may be folded into later
+         // updates, so their versions are not yet immutable
+         if (clientId == null)
+            cache.putVersion(updated);
+      }
 
+      return updated;
+   }
+
+   @Override
+   public void flush(String id)
+   {
+      invoke("flush", Mode.RETRY,
+         () -> target.path("workspaces").path(id).path("flush")
+            .request()
+            .post(null),
+         RestClientWsRepoImpl::checkNoContent);
+   }
+
+   private static WorkspaceMeta readWorkspace(Response resp)
+   {
       switch (resp.getStatus())
       {
          case 200:
             return resp.readEntity(WorkspaceMeta.class);
          default:
-            throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+            throw unexpected(resp);
       }
    }
 
    @Override
    public void remove(String id)
    {
-      Response resp = target.path("workspaces").path(id)
+      invoke("remove", Mode.ONCE,
+         () -> target.path("workspaces").path(id)
             .request(MediaType.APPLICATION_JSON)
-            .delete();
+            .delete(),
+         RestClientWsRepoImpl::checkNoContent);
 
-      if (resp.getStatus() != 204)
-         throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+      if (cache != null)
+         cache.invalidate(id);
    }
 
    @Override
    public void purge(String id)
    {
-      Response resp = target.path("workspaces").path(id)
-            .queryParam("purge", true)
+      invoke("purge", Mode.RETRY,
+         () -> target.path("workspaces").path(id)
+            .queryParam("purge", Boolean.TRUE)
             .request(MediaType.APPLICATION_JSON)
-            .delete();
+            .delete(),
+         RestClientWsRepoImpl::checkNoContent);
+
+      if (cache != null)
+         cache.purge(id);
+   }
 
+   private static Void checkNoContent(Response resp)
+   {
       if (resp.getStatus() != 204)
-         throw new IllegalStateException();  // TODO  throw the correct exception or otherwise handle response
+         throw unexpected(resp);
+
+      return null;
    }
 
    @Override
@@ -153,4 +633,56 @@ public class RestClientWsRepoImpl implements WorkspaceRepository
       monitor.finish();
    }
 
+   /**
+    * A snapshot materialized from a single listing of the server's workspaces.
+    */
+   private static class LocalSnapshot implements RepositorySnapshot
+   {
+      private final long sequence;
+      private final Map<String, WorkspaceMeta> workspaces = new LinkedHashMap<>();
+
+      LocalSnapshot(long sequence, List<WorkspaceMeta> workspaces)
+      {
+         this.sequence = sequence;
+         workspaces.forEach(ws -> this.workspaces.put(ws.id, ws));
+      }
+
+      @Override
+      public long getSequence()
+      {
+         return sequence;
+      }
+
+      @Override
+      public Collection<WorkspaceMeta> listAll()
+      {
+         List<WorkspaceMeta> result = new ArrayList<>();
+         workspaces.values().forEach(ws -> result.add(WorkspaceMeta.copy(ws)));
+         return result;
+      }
+
+      @Override
+      public Optional<WorkspaceMeta> get(String id)
+      {
+         return Optional.ofNullable(workspaces.get(id)).map(WorkspaceMeta::copy);
+      }
+
+      @Override
+      public Map<String, WorkspaceMeta> getAll(Collection<String> ids)
+      {
+         Map<String, WorkspaceMeta> result = new LinkedHashMap<>();
+         for (String id : ids)
+         {
+            get(id).ifPresent(ws -> result.put(id, ws));
+         }
+
+         return result;
+      }
+
+      @Override
+      public void close()
+      {
+         // no resources are held
+      }
+   }
 }
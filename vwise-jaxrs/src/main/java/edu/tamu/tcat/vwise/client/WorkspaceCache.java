@@ -0,0 +1,303 @@
+package edu.tamu.tcat.vwise.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * A size-bounded, client-side cache of workspace metadata used by {@link RestClientWsRepoImpl}.
+ *
+ * <p>Specific versions of a workspace that have been committed are immutable and may be
+ * served directly from the cache. The latest version of a workspace may change at any
+ * time, so cached entries are used to revalidate the workspace with the server (using its
+ * version as an entity tag) rather than being returned directly. Both are held in least-recently-used order and
+ * evicted once the configured number of entries is exceeded.
+ *
+ * <p>Concurrent requests for the same resource are collapsed into a single request to
+ * the server. All workspaces supplied to and returned from the cache are copied so that
+ * callers may freely modify them.
+ */
+public class WorkspaceCache
+{
+   private final LruMap<String, WorkspaceMeta> versions;
+   private final LruMap<String, WorkspaceMeta> latest;
+   private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder revalidated = new LongAdder();
+   private final LongAdder evictions = new LongAdder();
+   private final LongAdder collapsed = new LongAdder();
+
+   /**
+    * @param maxEntries The maximum number of workspace versions and the maximum number of
+    *       latest workspaces to retain.
+    */
+   public WorkspaceCache(int maxEntries)
+   {
+      if (maxEntries <= 0)
+         throw new IllegalArgumentException("The maximum number of cache entries must be positive.");
+
+      this.versions = new LruMap<>(maxEntries);
+      this.latest = new LruMap<>(maxEntries);
+   }
+
+   private static String versionKey(String id, String version)
+   {
+      return id + "@" + version;
+   }
+
+   /**
+    * @return A copy of the cached version of a workspace or {@code null} if it is not cached.
+    */
+   public WorkspaceMeta getVersion(String id, String version)
+   {
+      WorkspaceMeta meta;
+      synchronized (versions)
+      {
+         meta = versions.get(versionKey(id, version));
+      }
+
+      if (meta == null)
+      {
+         misses.increment();
+         return null;
+      }
+
+      hits.increment();
+      return WorkspaceMeta.copy(meta);
+   }
+
+   /**
+    * Caches a specific version of a workspace. Only committed versions may be cached.
+    * Updates that are pending, such as those that may be coalesced with later updates
+    * from the same client, must not be cached as the content of their version may change.
+    */
+   public void putVersion(WorkspaceMeta meta)
+   {
+      WorkspaceMeta copy = WorkspaceMeta.copy(meta);
+      synchronized (versions)
+      {
+         versions.put(versionKey(meta.id, meta.version), copy);
+      }
+   }
+
+   /**
+    * @return A copy of the most recently seen latest version of a workspace to be
+    *       revalidated with the server or {@code null} if none is cached.
+    */
+   public WorkspaceMeta getLatest(String id)
+   {
+      WorkspaceMeta meta;
+      synchronized (latest)
+      {
+         meta = latest.get(id);
+      }
+
+      return meta == null ? null : WorkspaceMeta.copy(meta);
+   }
+
+   /**
+    * Records a workspace as the latest version known to this client, to be revalidated
+    * with the server. The workspace is not cached as a specific version since the latest
+    * version may be a pending update.
+    */
+   public void putLatest(WorkspaceMeta meta)
+   {
+      WorkspaceMeta copy = WorkspaceMeta.copy(meta);
+      synchronized (latest)
+      {
+         WorkspaceMeta current = latest.get(meta.id);
+         if (current == null || !current.version.equals(meta.version))
+            latest.put(meta.id, copy);
+      }
+   }
+
+   /**
+    * Removes the latest version of a workspace from the cache. Cached versions are retained.
+    */
+   public void invalidate(String id)
+   {
+      synchronized (latest)
+      {
+         latest.remove(id);
+      }
+   }
+
+   /**
+    * Removes all cached information about a workspace.
+    */
+   public void purge(String id)
+   {
+      invalidate(id);
+
+      String prefix = id + "@";
+      synchronized (versions)
+      {
+         versions.keySet().removeIf(key -> key.startsWith(prefix));
+      }
+   }
+
+   void recordMiss()
+   {
+      misses.increment();
+   }
+
+   void recordRevalidated()
+   {
+      revalidated.increment();
+      hits.increment();
+   }
+
+   /**
+    * Ensures that at most one request for a given key is in flight at a time. If another
+    * thread is already loading the same key, waits for and returns that result instead
+    * of invoking the supplied loader.
+    *
+    * <p>Callers that share a result must not modify it; values should be copied before
+    * being returned to client code.
+    *
+    * @param key Identifies the resource being loaded.
+    * @param loader Loads the resource from the server.
+    * @return The loaded value.
+    */
+   @SuppressWarnings("unchecked")
+   public <T> T collapse(String key, Supplier<T> loader)
+   {
+      CompletableFuture<Object> pending = new CompletableFuture<>();
+      CompletableFuture<Object> existing = inFlight.putIfAbsent(key, pending);
+      if (existing != null)
+      {
+         collapsed.increment();
+         return (T)await(existing);
+      }
+
+      try
+      {
+         T value = loader.get();
+         pending.complete(value);
+         return value;
+      }
+      catch (RuntimeException | Error ex)
+      {
+         pending.completeExceptionally(ex);
+         throw ex;
+      }
+      finally
+      {
+         inFlight.remove(key, pending);
+      }
+   }
+
+   private static Object await(CompletableFuture<Object> future)
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while waiting for a concurrent request to complete.", ex);
+      }
+      catch (ExecutionException | CompletionException ex)
+      {
+         Throwable cause = ex.getCause();
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+         if (cause instanceof Error)
+            throw (Error)cause;
+
+         throw new IllegalStateException(cause);
+      }
+   }
+
+   /**
+    * @return A snapshot of the current cache statistics.
+    */
+   public CacheStats getStats()
+   {
+      int size;
+      synchronized (versions)
+      {
+         size = versions.size();
+      }
+      synchronized (latest)
+      {
+         size += latest.size();
+      }
+
+      return new CacheStats(hits.sum(), misses.sum(), revalidated.sum(), evictions.sum(), collapsed.sum(), size);
+   }
+
+   /**
+    * Point-in-time statistics about the use of a {@link WorkspaceCache}.
+    */
+   public static class CacheStats
+   {
+      /** The number of reads answered from the cache, including revalidated reads. */
+      public final long hits;
+
+      /** The number of reads that required the workspace to be retrieved from the server. */
+      public final long misses;
+
+      /** The number of latest-version reads confirmed as unchanged by the server. */
+      public final long revalidated;
+
+      /** The number of entries removed to keep the cache within its size bounds. */
+      public final long evictions;
+
+      /** The number of reads that waited on an identical in-flight request. */
+      public final long collapsed;
+
+      /** The number of entries currently held by the cache. */
+      public final int size;
+
+      CacheStats(long hits, long misses, long revalidated, long evictions, long collapsed, int size)
+      {
+         this.hits = hits;
+         this.misses = misses;
+         this.revalidated = revalidated;
+         this.evictions = evictions;
+         this.collapsed = collapsed;
+         this.size = size;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "CacheStats [hits=" + hits + ", misses=" + misses + ", revalidated=" + revalidated
+               + ", evictions=" + evictions + ", collapsed=" + collapsed + ", size=" + size + "]";
+      }
+   }
+
+   private class LruMap<K, V> extends LinkedHashMap<K, V>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final int maxEntries;
+
+      LruMap(int maxEntries)
+      {
+         super(16, 0.75f, true);
+         this.maxEntries = maxEntries;
+      }
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+      {
+         if (size() <= maxEntries)
+            return false;
+
+         evictions.increment();
+         return true;
+      }
+   }
+}
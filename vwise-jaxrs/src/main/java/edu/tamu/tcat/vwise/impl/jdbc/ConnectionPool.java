@@ -0,0 +1,366 @@
+package edu.tamu.tcat.vwise.impl.jdbc;
+
+import static java.text.MessageFormat.format;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed-size pool of connections to a database.
+ *
+ * <p>Connections are opened when the pool is created and held until it is closed. Each
+ * connection caches the statements prepared on it, keeping the most recently used, so that
+ * the SQL executed by a repository is parsed and planned once per connection rather than
+ * once per call.
+ *
+ * <p>Work is supplied as a function of a {@link PooledConnection}. {@link #read(Work)} runs
+ * it in auto-commit mode. {@link #write(Work)} runs it within a transaction that is
+ * committed if the function returns normally and rolled back otherwise. A connection that
+ * is no longer valid after an error is closed and replaced.
+ */
+class ConnectionPool implements AutoCloseable
+{
+   private final static Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+   /**
+    * Database work performed using a pooled connection.
+    */
+   interface Work<T>
+   {
+      T apply(PooledConnection connection) throws SQLException;
+   }
+
+   private final String url;
+   private final Properties credentials = new Properties();
+   private final long timeout;
+   private final int statementCacheSize;
+   private final BlockingQueue<PooledConnection> idle;
+
+   /** The number of connections that were discarded and have not yet been replaced. */
+   private final AtomicInteger missing = new AtomicInteger();
+
+   private final AtomicLong prepared = new AtomicLong();
+   private volatile boolean closed = false;
+
+   /**
+    * @param url The JDBC URL of the database.
+    * @param user The database user. May be {@code null}.
+    * @param password The password of the database user. May be {@code null}.
+    * @param size The number of connections.
+    * @param timeout The time, in milliseconds, to wait for a connection to become available.
+    * @param statementCacheSize The number of prepared statements cached by each connection.
+    */
+   ConnectionPool(String url, String user, String password, int size, long timeout, int statementCacheSize)
+   {
+      if (size <= 0)
+         throw new IllegalArgumentException(format("The size of a connection pool must be positive [{0}]", Integer.valueOf(size)));
+
+      this.url = url;
+      if (user != null)
+         credentials.setProperty("user", user);
+      if (password != null)
+         credentials.setProperty("password", password);
+
+      this.timeout = timeout;
+      this.statementCacheSize = statementCacheSize;
+      this.idle = new ArrayBlockingQueue<>(size);
+
+      try
+      {
+         for (int i = 0; i < size; i++)
+            idle.add(open());
+      }
+      catch (SQLException ex)
+      {
+         close();
+         throw new IllegalStateException(format("Failed to connect to {0}: {1}", url, ex.getMessage()), ex);
+      }
+   }
+
+   private PooledConnection open() throws SQLException
+   {
+      return new PooledConnection(DriverManager.getConnection(url, credentials));
+   }
+
+   /**
+    * @return The number of statements that have been prepared, which grows only when a
+    *       connection's cache does not already hold the requested statement.
+    */
+   long getPreparedCount()
+   {
+      return prepared.get();
+   }
+
+   /**
+    * Performs work that reads from the database. Each statement observes the committed
+    * state of the database at the time it is executed.
+    *
+    * @throws IllegalStateException If the database reports an error.
+    */
+   <T> T read(Work<T> work)
+   {
+      return run(work, false);
+   }
+
+   /**
+    * Performs work within a transaction.
+    *
+    * @throws IllegalStateException If the database reports an error. The transaction is
+    *       rolled back.
+    */
+   <T> T write(Work<T> work)
+   {
+      return run(work, true);
+   }
+
+   private <T> T run(Work<T> work, boolean transaction)
+   {
+      PooledConnection connection = acquire();
+      boolean valid = true;
+      try
+      {
+         if (!transaction)
+            return work.apply(connection);
+
+         connection.connection.setAutoCommit(false);
+         try
+         {
+            T result = work.apply(connection);
+            connection.connection.commit();
+            return result;
+         }
+         catch (SQLException | RuntimeException ex)
+         {
+            // batches that were not executed remain attached to their statements
+            connection.discardStatements();
+            connection.connection.rollback();
+            throw ex;
+         }
+         finally
+         {
+            connection.connection.setAutoCommit(true);
+         }
+      }
+      catch (SQLException ex)
+      {
+         valid = isValid(connection);
+         throw new IllegalStateException(format("A database operation failed: {0}", ex.getMessage()), ex);
+      }
+      finally
+      {
+         release(connection, valid);
+      }
+   }
+
+   private static boolean isValid(PooledConnection connection)
+   {
+      try
+      {
+         return connection.connection.isValid(1);
+      }
+      catch (SQLException ex)
+      {
+         return false;
+      }
+   }
+
+   private PooledConnection acquire()
+   {
+      if (closed)
+         throw new IllegalStateException("The connection pool has been closed.");
+
+      // replace a connection that was discarded after an error
+      int count = missing.get();
+      if (count > 0 && missing.compareAndSet(count, count - 1))
+      {
+         try
+         {
+            return open();
+         }
+         catch (SQLException ex)
+         {
+            missing.incrementAndGet();
+            logger.log(Level.WARNING, format("Failed to reconnect to {0}", url), ex);
+         }
+      }
+
+      try
+      {
+         PooledConnection connection = idle.poll(timeout, TimeUnit.MILLISECONDS);
+         if (connection == null)
+            throw new IllegalStateException(format("No database connection became available within {0,number,#} ms.", Long.valueOf(timeout)));
+
+         return connection;
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while waiting for a database connection.", ex);
+      }
+   }
+
+   private void release(PooledConnection connection, boolean valid)
+   {
+      if (valid && !closed)
+      {
+         idle.add(connection);
+         return;
+      }
+
+      connection.close();
+      if (!closed)
+         missing.incrementAndGet();
+   }
+
+   /**
+    * Closes idle connections. Connections that are in use are closed when released.
+    */
+   @Override
+   public void close()
+   {
+      closed = true;
+
+      List<PooledConnection> connections = new ArrayList<>();
+      idle.drainTo(connections);
+      connections.forEach(PooledConnection::close);
+   }
+
+   /**
+    * A connection that caches the statements prepared on it.
+    */
+   class PooledConnection
+   {
+      final Connection connection;
+
+      private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+         {
+            if (size() <= statementCacheSize)
+               return false;
+
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+
+      PooledConnection(Connection connection)
+      {
+         this.connection = connection;
+      }
+
+      /**
+       * @return A prepared statement for the supplied SQL. Must not be closed by the caller.
+       *       Parameters set by previous uses may remain set.
+       */
+      PreparedStatement prepare(String sql) throws SQLException
+      {
+         PreparedStatement statement = statements.get(sql);
+         if (statement == null)
+         {
+            statement = connection.prepareStatement(sql);
+            prepared.incrementAndGet();
+            statements.put(sql, statement);
+         }
+
+         return statement;
+      }
+
+      /**
+       * @param sql The statement to be executed for each row.
+       * @param size The number of rows sent to the database at a time.
+       * @return A batch that sends rows to the database once the supplied number have been added.
+       */
+      Batch batch(String sql, int size) throws SQLException
+      {
+         return new Batch(prepare(sql), size);
+      }
+
+      private void discardStatements()
+      {
+         statements.values().forEach(ConnectionPool::closeQuietly);
+         statements.clear();
+      }
+
+      private void close()
+      {
+         discardStatements();
+         try
+         {
+            connection.close();
+         }
+         catch (SQLException ex)
+         {
+            logger.log(Level.FINE, "Failed to close a database connection.", ex);
+         }
+      }
+   }
+
+   /**
+    * Executes a statement for many rows using JDBC batching.
+    */
+   static class Batch
+   {
+      /** The statement whose parameters are set for each row before it is {@link #add() added}. */
+      final PreparedStatement statement;
+
+      private final int size;
+      private int pending = 0;
+
+      Batch(PreparedStatement statement, int size)
+      {
+         this.statement = statement;
+         this.size = Math.max(1, size);
+      }
+
+      /**
+       * Adds a row using the current parameters of the statement.
+       */
+      void add() throws SQLException
+      {
+         statement.addBatch();
+         if (++pending >= size)
+            flush();
+      }
+
+      /**
+       * Sends the rows that have been added to the database.
+       */
+      void flush() throws SQLException
+      {
+         if (pending == 0)
+            return;
+
+         statement.executeBatch();
+         pending = 0;
+      }
+   }
+
+   private static void closeQuietly(PreparedStatement statement)
+   {
+      try
+      {
+         statement.close();
+      }
+      catch (SQLException ex)
+      {
+         logger.log(Level.FINE, "Failed to close a prepared statement.", ex);
+      }
+   }
+}
@@ -0,0 +1,380 @@
+package edu.tamu.tcat.vwise.impl.jdbc;
+
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.engine.SessionInterface;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.MVTableEngine;
+import org.h2.store.fs.FilePath;
+
+import edu.tamu.tcat.vwise.impl.jdbc.ConnectionPool.PooledConnection;
+import edu.tamu.tcat.vwise.internal.ApiUtils;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+
+/**
+ * Copies the file of an embedded H2 database to and from a backup.
+ *
+ * <p>A backup is a directory that holds a copy of the database file and a
+ * {@code manifest.json} that records the commit sequence number of the copied state and
+ * the length and CRC-32 checksum of each file. The manifest is written last, so a
+ * directory without one holds an incomplete backup. Files are copied using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so their
+ * content does not pass through the Java heap, and checksums are computed from
+ * memory-mapped reads of the copies. A backup is verified before it is restored.
+ *
+ * <p>Backups are taken while the database is in use. H2 stores a database in a single
+ * MVStore file to which each commit appends new chunks. While the reuse of free space is
+ * disabled, chunks are only appended, so the file up to its length following a commit
+ * holds exactly the state of that commit and is not modified while it is copied. Only the
+ * store headers at the start of the file are rewritten in place; they are read while the
+ * store is locked. H2's own {@code BACKUP} statement relies on the same property.
+ */
+public final class DatabaseBackup
+{
+   /** The name of the file that describes a backup. */
+   public static final String MANIFEST = "manifest.json";
+
+   private static final String DATABASE_SUFFIX = ".mv.db";
+
+   /** The length of the two store headers at the start of an MVStore file. */
+   private static final int HEADER_LENGTH = 2 * 4096;
+
+   /** The length of the regions of a file that are mapped to compute its checksum. */
+   private static final long CHECKSUM_REGION = 64L << 20;
+
+   private DatabaseBackup()
+   {
+   }
+
+   /**
+    * The file of an open H2 database, from which backups are copied.
+    *
+    * <p>The file is read through a channel of its own. On some platforms, closing any
+    * channel on a file releases every lock the JVM holds on it, including the lock that
+    * prevents another process from opening the database. The channel is therefore opened
+    * once and must not be closed until the database has been closed.
+    */
+   static final class DatabaseFile implements AutoCloseable
+   {
+      private final MVTableEngine.Store store;
+      private final Path path;
+      private final FileChannel channel;
+      private final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+      /** Whether the store reused free space before it was frozen, or {@code null} if it is not frozen. */
+      private Boolean reuseSpace;
+
+      /**
+       * @throws IllegalStateException If the connection is not to an embedded H2 database
+       *       stored in an MVStore file.
+       */
+      static DatabaseFile open(PooledConnection connection) throws SQLException
+      {
+         if (!connection.connection.isWrapperFor(JdbcConnection.class))
+            throw new IllegalStateException("Backups require an embedded H2 database.");
+
+         SessionInterface session = connection.connection.unwrap(JdbcConnection.class).getSession();
+         if (!(session instanceof Session))
+            throw new IllegalStateException("Backups require an embedded H2 database. The database is accessed through a server.");
+
+         Database database = ((Session)session).getDatabase();
+         MVTableEngine.Store store = database.getMvStore();
+         if (!database.isPersistent() || store == null || store.getStore().getFileStore() == null)
+            throw new IllegalStateException(format("Backups require a database stored in an H2 MVStore file [{0}].", database.getName()));
+
+         // H2 names files with the scheme of the file system that accesses them, such as nio:
+         String fileName = store.getStore().getFileStore().getFileName();
+         FilePath file = FilePath.get(fileName).unwrap();
+         if (!"file".equals(file.getScheme()) || !Files.isRegularFile(Paths.get(file.toString())))
+            throw new IllegalStateException(format("The database file {0} cannot be read directly.", fileName));
+
+         Path path = Paths.get(file.toString());
+
+         try
+         {
+            return new DatabaseFile(store, path, FileChannel.open(path, StandardOpenOption.READ));
+         }
+         catch (IOException ex)
+         {
+            throw new UncheckedIOException(format("Failed to open {0}", path), ex);
+         }
+      }
+
+      private DatabaseFile(MVTableEngine.Store store, Path path, FileChannel channel)
+      {
+         this.store = store;
+         this.path = path;
+         this.channel = channel;
+      }
+
+      /**
+       * Disables the reuse of space in the file, writes pending changes and records the
+       * store headers. Must be followed by {@link #thaw()}.
+       *
+       * @return The length of the file that holds the committed state of the database.
+       */
+      long freeze() throws IOException
+      {
+         MVStore mvStore = store.getStore();
+         reuseSpace = Boolean.valueOf(mvStore.getReuseSpace());
+         mvStore.setReuseSpace(false);
+         store.flush();
+
+         // the store writes its headers while holding its own lock
+         synchronized (mvStore)
+         {
+            mvStore.commit();
+            long length = mvStore.getFileStore().size();
+
+            header.clear();
+            header.limit((int)Math.min(HEADER_LENGTH, length));
+            while (header.hasRemaining())
+            {
+               if (channel.read(header, header.position()) < 0)
+                  throw new IOException(format("{0} ended within its header", path));
+            }
+
+            header.flip();
+            return length;
+         }
+      }
+
+      /**
+       * Restores the reuse of space in the file, if it was frozen.
+       */
+      void thaw()
+      {
+         if (reuseSpace != null)
+            store.getStore().setReuseSpace(reuseSpace.booleanValue());
+
+         reuseSpace = null;
+      }
+
+      /**
+       * Copies the frozen state of the file.
+       *
+       * @param length The length returned by {@link #freeze()}.
+       * @return A description of the copy.
+       */
+      BackupManifest.BackupFile copyTo(Path directory, long length) throws IOException
+      {
+         Path target = directory.resolve(path.getFileName());
+         try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+         {
+            ByteBuffer headers = header.duplicate();
+            while (headers.hasRemaining())
+               out.write(headers);
+
+            transfer(channel, header.limit(), length - header.limit(), out, path);
+            out.force(true);
+         }
+
+         return describe(target);
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         channel.close();
+      }
+   }
+
+   /**
+    * Writes a backup of a frozen database file.
+    *
+    * @param sequence The commit sequence number of the frozen state.
+    */
+   static BackupManifest write(DatabaseFile database, long length, long sequence, Path directory)
+   {
+      try
+      {
+         Files.createDirectories(directory);
+         if (Files.exists(directory.resolve(MANIFEST)))
+            throw new IllegalStateException(format("{0} already holds a backup.", directory));
+
+         BackupManifest manifest = new BackupManifest();
+         manifest.id = directory.getFileName().toString();
+         manifest.created = System.currentTimeMillis();
+         manifest.sequence = sequence;
+         manifest.files = new ArrayList<>();
+         manifest.files.add(database.copyTo(directory, length));
+
+         Path pending = directory.resolve(MANIFEST + ".tmp");
+         ApiUtils.getObjectMapper().writeValue(pending.toFile(), manifest);
+         Files.move(pending, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+         return manifest;
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to write a backup to {0}", directory), ex);
+      }
+   }
+
+   /**
+    * @param backup The directory that holds a backup.
+    * @return The manifest of the backup.
+    * @throws IllegalStateException If the directory does not hold a complete backup.
+    */
+   public static BackupManifest readManifest(Path backup)
+   {
+      Path file = backup.resolve(MANIFEST);
+      if (!Files.isRegularFile(file))
+         throw new IllegalStateException(format("{0} does not hold a complete backup.", backup));
+
+      try
+      {
+         return ApiUtils.getObjectMapper().readValue(file.toFile(), BackupManifest.class);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to read {0}", file), ex);
+      }
+   }
+
+   /**
+    * Checks that each file of a backup has the length and checksum recorded by its manifest.
+    *
+    * @param backup The directory that holds a backup.
+    * @return The manifest of the backup.
+    * @throws IllegalStateException If the backup is incomplete or a file does not match.
+    */
+   public static BackupManifest verify(Path backup)
+   {
+      BackupManifest manifest = readManifest(backup);
+      for (BackupManifest.BackupFile file : manifest.files)
+      {
+         Path path = resolve(backup, file.name);
+         if (!Files.isRegularFile(path))
+            throw new IllegalStateException(format("The backup file {0} is missing.", path));
+
+         BackupManifest.BackupFile actual = describe(path);
+         if (actual.size != file.size)
+            throw new IllegalStateException(format("The backup file {0} has length {1,number,#}. Expected {2,number,#}.", path, Long.valueOf(actual.size), Long.valueOf(file.size)));
+         if (!actual.checksum.equals(file.checksum))
+            throw new IllegalStateException(format("The backup file {0} is corrupt. Its checksum is {1}. Expected {2}.", path, actual.checksum, file.checksum));
+      }
+
+      return manifest;
+   }
+
+   /**
+    * Verifies a backup and copies its files to a directory, from which the database may
+    * be opened without replaying its history. Files already in the directory are not
+    * replaced.
+    *
+    * @param backup The directory that holds a backup.
+    * @param directory The directory to which the database is restored. Created if necessary.
+    * @return The JDBC URL of the restored database, for use as {@link JdbcWorkspaceRepo#PROP_URL}.
+    * @throws IllegalStateException If the backup does not verify or the directory already
+    *       holds one of its files.
+    */
+   public static String restore(Path backup, Path directory)
+   {
+      BackupManifest manifest = verify(backup);
+      String database = null;
+      try
+      {
+         Files.createDirectories(directory);
+         for (BackupManifest.BackupFile file : manifest.files)
+         {
+            Path target = resolve(directory, file.name);
+            if (Files.exists(target))
+               throw new IllegalStateException(format("Restoring the backup would replace {0}.", target));
+
+            // a partially copied file is never left under the database's name
+            Path pending = resolve(directory, file.name + ".restoring");
+            try (FileChannel in = FileChannel.open(resolve(backup, file.name), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(pending, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+               transfer(in, 0, file.size, out, backup.resolve(file.name));
+               out.force(true);
+            }
+
+            Files.move(pending, target, StandardCopyOption.ATOMIC_MOVE);
+            if (file.name.endsWith(DATABASE_SUFFIX))
+               database = file.name.substring(0, file.name.length() - DATABASE_SUFFIX.length());
+         }
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to restore {0} to {1}", backup, directory), ex);
+      }
+
+      if (database == null)
+         throw new IllegalStateException(format("{0} does not hold an H2 database file.", backup));
+
+      return "jdbc:h2:" + directory.resolve(database).toAbsolutePath();
+   }
+
+   /**
+    * Resolves the name of a file recorded by a manifest, which must not refer to a file
+    * outside of the supplied directory.
+    */
+   private static Path resolve(Path directory, String name)
+   {
+      Path path = Paths.get(name);
+      if (path.getNameCount() != 1 || path.isAbsolute() || name.equals(".") || name.equals(".."))
+         throw new IllegalStateException(format("Invalid backup file name [{0}].", name));
+
+      return directory.resolve(path);
+   }
+
+   /**
+    * Copies bytes between files. The operating system may transfer fewer bytes than
+    * requested by each call.
+    */
+   private static void transfer(FileChannel source, long position, long count, FileChannel target, Path path) throws IOException
+   {
+      long end = position + count;
+      while (position < end)
+      {
+         long transferred = source.transferTo(position, end - position, target);
+         if (transferred <= 0)
+            throw new IOException(format("{0} ended before byte {1,number,#}", path, Long.valueOf(end)));
+
+         position += transferred;
+      }
+   }
+
+   /**
+    * @return The length and checksum of a file.
+    */
+   private static BackupManifest.BackupFile describe(Path file)
+   {
+      CRC32 crc = new CRC32();
+      long size;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+      {
+         size = channel.size();
+         for (long position = 0; position < size; position += CHECKSUM_REGION)
+            crc.update(channel.map(MapMode.READ_ONLY, position, Math.min(CHECKSUM_REGION, size - position)));
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to read {0}", file), ex);
+      }
+
+      BackupManifest.BackupFile description = new BackupManifest.BackupFile();
+      description.name = file.getFileName().toString();
+      description.size = size;
+      description.checksum = String.format("%08x", Long.valueOf(crc.getValue()));
+      return description;
+   }
+}
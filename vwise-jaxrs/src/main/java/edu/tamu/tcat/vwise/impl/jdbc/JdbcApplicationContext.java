@@ -0,0 +1,128 @@
+package edu.tamu.tcat.vwise.impl.jdbc;
+
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+
+/**
+ * An application context for a {@link JdbcWorkspaceRepo}.
+ *
+ * <p>Backups requested through the REST API are written to subdirectories of a configured
+ * directory on the server:
+ *
+ * <pre>
+ * # Directory that holds backups of the database. Backups are disabled if not set.
+ * # (default: none)
+ * backup.dir=./backups
+ * </pre>
+ */
+public class JdbcApplicationContext implements VwiseApplicationContext
+{
+   public static final String PROP_BACKUP_DIR = "backup.dir";
+
+   private static final DateTimeFormatter BACKUP_ID = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'").withZone(ZoneOffset.UTC);
+
+   private final JdbcWorkspaceRepo repo;
+   private final Path backupDir;
+
+   public JdbcApplicationContext(Properties config)
+   {
+      String dir = config.getProperty(PROP_BACKUP_DIR, "").trim();
+      backupDir = dir.isEmpty() ? null : Paths.get(dir);
+      repo = new JdbcWorkspaceRepo(config);
+   }
+
+   @Override
+   public WorkspaceRepository getRepository()
+   {
+      return repo;
+   }
+
+   @Override
+   public WorkspaceChangeFeed getChangeFeed()
+   {
+      return repo.getChangeLog();
+   }
+
+   @Override
+   public void close() throws Exception
+   {
+      repo.close();
+   }
+
+   /**
+    * @return Whether a directory for backups has been configured.
+    */
+   public boolean isBackupEnabled()
+   {
+      return backupDir != null;
+   }
+
+   /**
+    * Backs up the database to a new subdirectory of the configured backup directory,
+    * named for the time of the backup. See {@link JdbcWorkspaceRepo#backup(Path)}.
+    *
+    * @throws IllegalStateException If backups are not enabled or cannot be taken.
+    */
+   public BackupManifest backup()
+   {
+      if (backupDir == null)
+         throw new IllegalStateException(format("Backups are disabled. Set {0} to enable them.", PROP_BACKUP_DIR));
+
+      return repo.backup(backupDir.resolve(BACKUP_ID.format(Instant.now())));
+   }
+
+   /**
+    * @return The complete backups in the configured backup directory, newest first.
+    */
+   public List<BackupManifest> listBackups()
+   {
+      List<BackupManifest> backups = new ArrayList<>();
+      if (backupDir == null || !Files.isDirectory(backupDir))
+         return backups;
+
+      try (Stream<Path> dirs = Files.list(backupDir))
+      {
+         dirs.filter(dir -> Files.isRegularFile(dir.resolve(DatabaseBackup.MANIFEST)))
+               .map(DatabaseBackup::readManifest)
+               .sorted(Comparator.comparingLong((BackupManifest manifest) -> manifest.created).reversed())
+               .forEach(backups::add);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to list the backups in {0}", backupDir), ex);
+      }
+
+      return backups;
+   }
+
+   /**
+    * @return The directory that holds the backup with the supplied id, if it is complete.
+    */
+   public Optional<Path> getBackup(String id)
+   {
+      if (backupDir == null || id == null || !id.matches("[0-9A-Za-z]+"))
+         return Optional.empty();
+
+      Path dir = backupDir.resolve(id);
+      return Files.isRegularFile(dir.resolve(DatabaseBackup.MANIFEST)) ? Optional.of(dir) : Optional.empty();
+   }
+}
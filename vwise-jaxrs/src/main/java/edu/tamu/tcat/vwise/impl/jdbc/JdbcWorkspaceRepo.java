@@ -0,0 +1,1122 @@
+package edu.tamu.tcat.vwise.impl.jdbc;
+
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.tamu.tcat.vwise.RepositorySnapshot;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.impl.jdbc.ConnectionPool.Batch;
+import edu.tamu.tcat.vwise.impl.jdbc.ConnectionPool.PooledConnection;
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.memory.CommitSequence;
+import edu.tamu.tcat.vwise.internal.IdFactory;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
+
+/**
+ * A workspace repository stored in an embedded SQL database accessed through JDBC.
+ *
+ * <p>The {@code workspaces} table holds the current state of each workspace, keyed by the
+ * numeric value of its id, with an index on {@code (scope, ws_key)}. The {@code versions}
+ * table is append-only and holds every committed version, keyed by workspace and version
+ * number so that versions are read in order. Each version records the commit sequence
+ * number that made it visible. Snapshots read the newest version of each workspace at or
+ * before their sequence number, so they need no locks and are unaffected by later commits.
+ * Purged workspaces are deleted from the database once no open snapshot can observe them.
+ *
+ * <p>Commits are serialized by the repository and each is written in a single transaction.
+ * Reads use any pooled connection and observe committed state. Statements are prepared
+ * once per connection. Bulk operations send rows to the database in batches.
+ *
+ * <p>Updates are committed immediately; updates from identified clients are not
+ * coalesced. Version retention and the expiry of removed workspaces are not enforced.
+ *
+ * <p>A database stored in an H2 file may be backed up while the repository is in use,
+ * using {@link #backup(Path)}, and restored using {@link DatabaseBackup}.
+ *
+ * <p>Configured using the following properties:
+ *
+ * <pre>
+ * # JDBC URL of the database. Any JDBC driver on the class path may be used; H2 is
+ * # included. (default: a private in-memory H2 database that is discarded on close)
+ * jdbc.url=jdbc:h2:./vwise
+ *
+ * # Credentials of the database user. (default: none)
+ * jdbc.user=
+ * jdbc.password=
+ *
+ * # Number of pooled connections. (default: 4)
+ * jdbc.pool.size=4
+ *
+ * # Time, in milliseconds, to wait for a pooled connection. (default: 30000)
+ * jdbc.pool.timeout_ms=30000
+ *
+ * # Number of prepared statements cached by each connection. (default: 64)
+ * jdbc.statement_cache_size=64
+ *
+ * # Number of rows sent to the database at a time by bulk operations. (default: 500)
+ * jdbc.batch_size=500
+ * </pre>
+ */
+public class JdbcWorkspaceRepo implements WorkspaceRepository
+{
+   public static final String PROP_URL = "jdbc.url";
+   public static final String PROP_USER = "jdbc.user";
+   public static final String PROP_PASSWORD = "jdbc.password";
+   public static final String PROP_POOL_SIZE = "jdbc.pool.size";
+   public static final String PROP_POOL_TIMEOUT = "jdbc.pool.timeout_ms";
+   public static final String PROP_STATEMENT_CACHE_SIZE = "jdbc.statement_cache_size";
+   public static final String PROP_BATCH_SIZE = "jdbc.batch_size";
+
+   /** The columns of the {@code workspaces} table read by {@link #readWorkspace(ResultSet)}. */
+   static final String COLUMNS = "w.id, w.version, w.modified, w.scope, w.ws_key, w.name, w.description";
+
+   /** The columns of a version, joined with its workspace, read by {@link #readWorkspace(ResultSet)}. */
+   private static final String VERSION_COLUMNS = "w.id, v.version, v.modified, v.scope, v.ws_key, v.name, v.description";
+
+   private static final String[] SCHEMA = {
+         "CREATE TABLE IF NOT EXISTS repository_state ("
+               + "id INT PRIMARY KEY, "
+               + "commit_seq BIGINT NOT NULL, "
+               + "last_workspace BIGINT NOT NULL, "
+               + "documents BIGINT NOT NULL, "
+               + "text_length BIGINT NOT NULL)",
+         "INSERT INTO repository_state SELECT 1, 0, 0, 0, 0 WHERE NOT EXISTS (SELECT 1 FROM repository_state)",
+         "CREATE TABLE IF NOT EXISTS workspaces ("
+               + "ws_num BIGINT PRIMARY KEY, "
+               + "id VARCHAR NOT NULL, "
+               + "version_num BIGINT NOT NULL, "
+               + "version VARCHAR NOT NULL, "
+               + "modified BIGINT NOT NULL, "
+               + "scope VARCHAR, "
+               + "ws_key VARCHAR, "
+               + "name VARCHAR, "
+               + "description VARCHAR, "
+               + "removed_seq BIGINT, "
+               + "removed_at BIGINT, "
+               + "purged_seq BIGINT)",
+         "CREATE INDEX IF NOT EXISTS workspaces_scope_key ON workspaces (scope, ws_key)",
+         "CREATE TABLE IF NOT EXISTS versions ("
+               + "ws_num BIGINT NOT NULL, "
+               + "version_num BIGINT NOT NULL, "
+               + "seq BIGINT NOT NULL, "
+               + "version VARCHAR NOT NULL, "
+               + "modified BIGINT NOT NULL, "
+               + "scope VARCHAR, "
+               + "ws_key VARCHAR, "
+               + "name VARCHAR, "
+               + "description VARCHAR, "
+               + "PRIMARY KEY (ws_num, version_num))",
+         "CREATE INDEX IF NOT EXISTS versions_modified ON versions (ws_num, modified)"
+   };
+
+   private static final String SELECT_STATE = "SELECT commit_seq, last_workspace FROM repository_state";
+   private static final String UPDATE_STATE = "UPDATE repository_state SET commit_seq = ?, last_workspace = ?";
+
+   private static final String INSERT_WORKSPACE = "INSERT INTO workspaces "
+         + "(ws_num, id, version_num, version, modified, scope, ws_key, name, description) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+   private static final String UPDATE_WORKSPACE = "UPDATE workspaces "
+         + "SET version_num = ?, version = ?, modified = ?, scope = ?, ws_key = ?, name = ?, description = ? WHERE ws_num = ?";
+   private static final String INSERT_VERSION = "INSERT INTO versions "
+         + "(ws_num, version_num, seq, version, modified, scope, ws_key, name, description) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+   private static final String SELECT_CURRENT = "SELECT " + COLUMNS + ", w.version_num, w.removed_seq IS NOT NULL "
+         + "FROM workspaces w WHERE w.ws_num = ? AND w.purged_seq IS NULL";
+   private static final String SELECT_LIVE = "SELECT " + COLUMNS + " FROM workspaces w "
+         + "WHERE w.ws_num = ? AND w.removed_seq IS NULL AND w.purged_seq IS NULL";
+   private static final String SELECT_LIVE_NUMS = "SELECT " + COLUMNS + ", w.ws_num FROM workspaces w "
+         + "WHERE w.ws_num IN (SELECT CAST(x AS BIGINT) FROM TABLE(x VARCHAR = ?)) AND w.removed_seq IS NULL AND w.purged_seq IS NULL";
+   private static final String LIST_ALL = "SELECT " + COLUMNS + " FROM workspaces w "
+         + "WHERE w.removed_seq IS NULL AND w.purged_seq IS NULL ORDER BY w.ws_num";
+   private static final String LIST_SCOPE = "SELECT " + COLUMNS + " FROM workspaces w "
+         + "WHERE w.scope = ? AND w.removed_seq IS NULL AND w.purged_seq IS NULL ORDER BY w.ws_num";
+   private static final String LIST_UNSCOPED = "SELECT " + COLUMNS + " FROM workspaces w "
+         + "WHERE w.scope IS NULL AND w.removed_seq IS NULL AND w.purged_seq IS NULL ORDER BY w.ws_num";
+
+   private static final String SCOPE_SUMMARY = "SELECT COUNT(*) - COUNT(removed_seq), COUNT(removed_seq) FROM workspaces "
+         + "WHERE scope = ? AND purged_seq IS NULL";
+   private static final String UNSCOPED_SUMMARY = "SELECT COUNT(*) - COUNT(removed_seq), COUNT(removed_seq) FROM workspaces "
+         + "WHERE scope IS NULL AND purged_seq IS NULL";
+   private static final String LIST_SCOPES = "SELECT scope, COUNT(*) - COUNT(removed_seq), COUNT(removed_seq) FROM workspaces "
+         + "WHERE purged_seq IS NULL GROUP BY scope ORDER BY scope NULLS FIRST";
+
+   private static final String SELECT_VERSION = "SELECT " + VERSION_COLUMNS + " FROM versions v JOIN workspaces w ON w.ws_num = v.ws_num "
+         + "WHERE v.ws_num = ? AND v.version_num <= ? AND w.purged_seq IS NULL ORDER BY v.version_num DESC LIMIT 1";
+   private static final String SELECT_AS_OF = "SELECT " + VERSION_COLUMNS + " FROM versions v JOIN workspaces w ON w.ws_num = v.ws_num "
+         + "WHERE v.ws_num = ? AND v.modified <= ? AND w.purged_seq IS NULL ORDER BY v.modified DESC, v.version_num DESC LIMIT 1";
+   private static final String EXISTS = "SELECT 1 FROM workspaces WHERE ws_num = ? AND purged_seq IS NULL";
+   private static final String LIST_VERSIONS = "SELECT " + VERSION_COLUMNS + " FROM versions v JOIN workspaces w ON w.ws_num = v.ws_num "
+         + "WHERE v.ws_num = ? AND v.version_num BETWEEN ? AND ? ORDER BY v.version_num DESC LIMIT ?";
+
+   private static final String REMOVE = "UPDATE workspaces SET removed_seq = ?, removed_at = ? WHERE ws_num = ?";
+   private static final String PURGE = "UPDATE workspaces SET purged_seq = ? WHERE ws_num = ?";
+   private static final String RECLAIM_VERSIONS = "DELETE FROM versions WHERE ws_num IN (SELECT ws_num FROM workspaces WHERE purged_seq <= ?)";
+   private static final String RECLAIM_WORKSPACES = "DELETE FROM workspaces WHERE purged_seq <= ?";
+   private static final String COUNT_PURGED = "SELECT COUNT(*) FROM workspaces WHERE purged_seq IS NOT NULL";
+
+   /** Reads the newest version of a workspace visible to a snapshot. */
+   private static final String SNAPSHOT_GET = "SELECT " + VERSION_COLUMNS + " FROM versions v JOIN workspaces w ON w.ws_num = v.ws_num "
+         + "WHERE v.ws_num = ? AND v.seq <= ? AND (w.removed_seq IS NULL OR w.removed_seq > ?) AND (w.purged_seq IS NULL OR w.purged_seq > ?) "
+         + "ORDER BY v.version_num DESC LIMIT 1";
+   private static final String SNAPSHOT_LIST = "SELECT " + VERSION_COLUMNS + " FROM "
+         + "(SELECT ws_num, MAX(version_num) AS version_num FROM versions WHERE seq <= ? GROUP BY ws_num) m "
+         + "JOIN versions v ON v.ws_num = m.ws_num AND v.version_num = m.version_num "
+         + "JOIN workspaces w ON w.ws_num = m.ws_num "
+         + "WHERE (w.removed_seq IS NULL OR w.removed_seq > ?) AND (w.purged_seq IS NULL OR w.purged_seq > ?) ORDER BY m.ws_num";
+
+   private final IdFactory wsIds;
+   private final IdFactory versionIds;
+   private final ConnectionPool pool;
+   private final int batchSize;
+   private final SearchTables search;
+   private final QueryTranslator queries;
+   private final CommitSequence commits;
+   private final ChangeLog changes;
+
+   /** Serializes commits. Commit sequence numbers are assigned while holding this lock. */
+   private final Lock writer = new ReentrantLock();
+
+   /** The numeric id of the most recently created workspace. Guarded by {@link #writer}. */
+   private long lastWorkspace;
+
+   /** The number of purged workspaces that have not been deleted from the database. */
+   private final AtomicInteger retainedPurges = new AtomicInteger();
+
+   /** Serializes backups, each of which suspends the reuse of space in the database file. */
+   private final Lock backupLock = new ReentrantLock();
+
+   /** The file from which backups are copied. Opened by the first backup. Guarded by {@link #backupLock}. */
+   private DatabaseBackup.DatabaseFile databaseFile;
+
+   public JdbcWorkspaceRepo(Properties config)
+   {
+      this.wsIds = new IdFactory(config, "workspaces");
+      this.versionIds = new IdFactory(config, "workspace_version");
+
+      String url = config.getProperty(PROP_URL, "jdbc:h2:mem:vwise-" + UUID.randomUUID()).trim();
+      this.batchSize = getIntProperty(config, PROP_BATCH_SIZE, 500);
+      if (batchSize <= 0)
+         throw new IllegalArgumentException(format("The value of {0} must be positive", PROP_BATCH_SIZE));
+
+      this.pool = new ConnectionPool(url,
+            config.getProperty(PROP_USER),
+            config.getProperty(PROP_PASSWORD),
+            getIntProperty(config, PROP_POOL_SIZE, 4),
+            getIntProperty(config, PROP_POOL_TIMEOUT, 30_000),
+            getIntProperty(config, PROP_STATEMENT_CACHE_SIZE, 64));
+
+      this.search = new SearchTables(batchSize);
+      this.queries = new QueryTranslator(this::toNumber);
+
+      try
+      {
+         long[] state = pool.write(connection -> {
+            try (Statement statement = connection.connection.createStatement())
+            {
+               for (String ddl : SCHEMA)
+                  statement.execute(ddl);
+               for (String ddl : SearchTables.SCHEMA)
+                  statement.execute(ddl);
+            }
+
+            try (ResultSet rs = connection.prepare(SELECT_STATE).executeQuery())
+            {
+               rs.next();
+               return new long[] { rs.getLong(1), rs.getLong(2) };
+            }
+         });
+
+         this.commits = new CommitSequence(state[0]);
+         this.changes = new ChangeLog(config, state[0]);
+         this.lastWorkspace = state[1];
+
+         // workspaces purged before a restart are not visible to any snapshot
+         retainedPurges.set(pool.read(connection -> {
+            try (ResultSet rs = connection.prepare(COUNT_PURGED).executeQuery())
+            {
+               rs.next();
+               return Integer.valueOf(rs.getInt(1));
+            }
+         }).intValue());
+         reclaim();
+      }
+      catch (RuntimeException ex)
+      {
+         pool.close();
+         throw ex;
+      }
+   }
+
+   private static int getIntProperty(Properties props, String key, int defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Integer.parseInt(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   /**
+    * @return The log to which all changes made through this repository are published.
+    */
+   public ChangeLog getChangeLog()
+   {
+      return changes;
+   }
+
+   /**
+    * @return The sequence number of the most recent commit to this repository.
+    */
+   public long getCommitSequence()
+   {
+      return commits.current();
+   }
+
+   /**
+    * @return The number of open snapshots.
+    */
+   public int getOpenSnapshotCount()
+   {
+      return commits.getReaderCount();
+   }
+
+   /**
+    * @return The number of purged workspaces retained for open snapshots.
+    */
+   public int getRetainedPurgeCount()
+   {
+      return retainedPurges.get();
+   }
+
+   /**
+    * @return The number of statements prepared by pooled connections. Statements are
+    *       cached, so this remains small relative to the number of operations performed.
+    */
+   public long getPreparedStatementCount()
+   {
+      return pool.getPreparedCount();
+   }
+
+   /**
+    * @return The numeric value of a workspace id created by this repository, or {@code -1}
+    *       if the id could not have been created by it.
+    */
+   private long toNumber(String id)
+   {
+      return toNumber(id, wsIds);
+   }
+
+   private static long toNumber(String id, IdFactory ids)
+   {
+      if (id == null)
+         return -1;
+
+      // ids are encoded from positive ints; other values do not survive a round trip
+      long value = ids.decode(id);
+      return value > 0 && value <= Integer.MAX_VALUE && id.equals(ids.encode(value)) ? value : -1;
+   }
+
+   /**
+    * Reads a workspace from the columns listed by {@link #COLUMNS}.
+    */
+   static WorkspaceMeta readWorkspace(ResultSet rs) throws SQLException
+   {
+      WorkspaceMeta meta = new WorkspaceMeta();
+      meta.id = rs.getString(1);
+      meta.version = rs.getString(2);
+      meta.modified = rs.getLong(3);
+      meta.scope = rs.getString(4);
+      meta.key = rs.getString(5);
+      meta.name = rs.getString(6);
+      meta.description = rs.getString(7);
+      return meta;
+   }
+
+   private static List<WorkspaceMeta> readWorkspaces(PreparedStatement select) throws SQLException
+   {
+      List<WorkspaceMeta> result = new ArrayList<>();
+      try (ResultSet rs = select.executeQuery())
+      {
+         while (rs.next())
+            result.add(readWorkspace(rs));
+      }
+
+      return result;
+   }
+
+   private static Optional<WorkspaceMeta> readFirst(PreparedStatement select) throws SQLException
+   {
+      try (ResultSet rs = select.executeQuery())
+      {
+         return rs.next() ? Optional.of(readWorkspace(rs)) : Optional.empty();
+      }
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listAll()
+   {
+      // a single statement reads a consistent state
+      return pool.read(connection -> readWorkspaces(connection.prepare(LIST_ALL)));
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listScope(String scope)
+   {
+      return pool.read(connection -> {
+         PreparedStatement select = connection.prepare(scope == null ? LIST_UNSCOPED : LIST_SCOPE);
+         if (scope != null)
+            select.setString(1, scope);
+
+         return readWorkspaces(select);
+      });
+   }
+
+   @Override
+   public ScopeSummary getScopeSummary(String scope)
+   {
+      return pool.read(connection -> {
+         PreparedStatement select = connection.prepare(scope == null ? UNSCOPED_SUMMARY : SCOPE_SUMMARY);
+         if (scope != null)
+            select.setString(1, scope);
+
+         try (ResultSet rs = select.executeQuery())
+         {
+            rs.next();
+            ScopeSummary summary = new ScopeSummary();
+            summary.scope = scope;
+            summary.workspaces = rs.getInt(1);
+            summary.removed = rs.getInt(2);
+            return summary;
+         }
+      });
+   }
+
+   @Override
+   public Collection<ScopeSummary> listScopes()
+   {
+      return pool.read(connection -> {
+         List<ScopeSummary> summaries = new ArrayList<>();
+         try (ResultSet rs = connection.prepare(LIST_SCOPES).executeQuery())
+         {
+            while (rs.next())
+            {
+               ScopeSummary summary = new ScopeSummary();
+               summary.scope = rs.getString(1);
+               summary.workspaces = rs.getInt(2);
+               summary.removed = rs.getInt(3);
+               summaries.add(summary);
+            }
+         }
+
+         return summaries;
+      });
+   }
+
+   @Override
+   public WorkspaceQueryResult query(WorkspaceQuery query)
+   {
+      return pool.read(connection -> queries.execute(connection, query));
+   }
+
+   @Override
+   public List<SearchHit> search(String query, int limit)
+   {
+      return pool.read(connection -> {
+         List<SearchTables.Hit> hits = search.search(connection, query, limit);
+         List<Long> wsNums = new ArrayList<>();
+         hits.forEach(hit -> wsNums.add(Long.valueOf(hit.wsNum)));
+         Map<Long, WorkspaceMeta> workspaces = readLive(connection, wsNums);
+
+         List<SearchHit> results = new ArrayList<>();
+         for (SearchTables.Hit hit : hits)
+         {
+            // the workspace may have been removed since it was found
+            WorkspaceMeta meta = workspaces.get(Long.valueOf(hit.wsNum));
+            if (meta == null)
+               continue;
+
+            SearchHit result = new SearchHit();
+            result.workspace = meta;
+            result.score = hit.score;
+            results.add(result);
+         }
+
+         return results;
+      });
+   }
+
+   @Override
+   public List<WorkspaceMeta> suggest(String prefix, String scope, int limit)
+   {
+      return pool.read(connection -> {
+         List<Long> wsNums = search.suggest(connection, prefix, scope, limit);
+         Map<Long, WorkspaceMeta> workspaces = readLive(connection, wsNums);
+
+         List<WorkspaceMeta> results = new ArrayList<>();
+         for (Long wsNum : wsNums)
+         {
+            // the workspace may have been removed or moved since it was found
+            WorkspaceMeta meta = workspaces.get(wsNum);
+            if (meta != null && (scope == null || scope.equals(meta.scope)))
+               results.add(meta);
+         }
+
+         return results;
+      });
+   }
+
+   /**
+    * @return The workspaces with the supplied numeric ids that have not been removed.
+    */
+   private static Map<Long, WorkspaceMeta> readLive(PooledConnection connection, List<Long> wsNums) throws SQLException
+   {
+      Map<Long, WorkspaceMeta> result = new HashMap<>();
+      if (wsNums.isEmpty())
+         return result;
+
+      // a single array parameter keeps the statement the same for any number of ids
+      PreparedStatement select = connection.prepare(SELECT_LIVE_NUMS);
+      select.setObject(1, wsNums.stream().map(String::valueOf).toArray(String[]::new));
+      try (ResultSet rs = select.executeQuery())
+      {
+         while (rs.next())
+            result.put(Long.valueOf(rs.getLong(8)), readWorkspace(rs));
+      }
+
+      return result;
+   }
+
+   @Override
+   public RepositorySnapshot snapshot()
+   {
+      return new SnapshotImpl(commits.open());
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> get(String id)
+   {
+      long wsNum = toNumber(id);
+      if (wsNum < 0)
+         return Optional.empty();
+
+      return pool.read(connection -> {
+         PreparedStatement select = connection.prepare(SELECT_LIVE);
+         select.setLong(1, wsNum);
+         return readFirst(select);
+      });
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> get(String id, String version)
+   {
+      long wsNum = toNumber(id);
+      long versionNum = toNumber(version, versionIds);
+      if (wsNum < 0 || versionNum < 0)
+         return Optional.empty();
+
+      // NOTE: versions of removed workspaces remain available. A version that was not
+      //       recorded resolves to the closest preceding version
+      return pool.read(connection -> readVersion(connection, wsNum, versionNum));
+   }
+
+   private static Optional<WorkspaceMeta> readVersion(PooledConnection connection, long wsNum, long versionNum) throws SQLException
+   {
+      PreparedStatement select = connection.prepare(SELECT_VERSION);
+      select.setLong(1, wsNum);
+      select.setLong(2, versionNum);
+      return readFirst(select);
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> getAsOf(String id, long timestamp)
+   {
+      long wsNum = toNumber(id);
+      if (wsNum < 0)
+         return Optional.empty();
+
+      return pool.read(connection -> {
+         PreparedStatement select = connection.prepare(SELECT_AS_OF);
+         select.setLong(1, wsNum);
+         select.setLong(2, timestamp);
+         return readFirst(select);
+      });
+   }
+
+   @Override
+   public Optional<VersionPage> listVersions(String id, String from, String to, String cursor, int limit)
+   {
+      if (limit <= 0)
+         throw new IllegalArgumentException(format("The page size must be positive [{0}]", Integer.valueOf(limit)));
+
+      long wsNum = toNumber(id);
+      if (wsNum < 0)
+         return Optional.empty();
+
+      // the cursor narrows the upper bound of the requested range
+      long lower = from != null ? versionIds.decode(from) : Long.MIN_VALUE;
+      long upper = to != null ? versionIds.decode(to) : Long.MAX_VALUE;
+      if (cursor != null)
+         upper = Math.min(upper, versionIds.decode(cursor) - 1);
+
+      long first = lower;
+      long last = upper;
+      return pool.read(connection -> {
+         PreparedStatement exists = connection.prepare(EXISTS);
+         exists.setLong(1, wsNum);
+         try (ResultSet rs = exists.executeQuery())
+         {
+            if (!rs.next())
+               return Optional.empty();
+         }
+
+         PreparedStatement select = connection.prepare(LIST_VERSIONS);
+         select.setLong(1, wsNum);
+         select.setLong(2, first);
+         select.setLong(3, last);
+         select.setInt(4, limit + 1);
+
+         VersionPage page = new VersionPage();
+         page.versions = readWorkspaces(select);
+         boolean more = page.versions.size() > limit;
+         if (more)
+            page.versions.remove(page.versions.size() - 1);
+
+         page.next = more ? page.versions.get(page.versions.size() - 1).version : null;
+         return Optional.of(page);
+      });
+   }
+
+   @Override
+   public WorkspaceMeta create(WorkspaceMeta data)
+   {
+      return createAll(java.util.Collections.singletonList(data)).get(0);
+   }
+
+   /**
+    * Creates several workspaces. Workspaces are written in batches of the configured size.
+    * Each batch is written in a single transaction and becomes visible to snapshots at
+    * once, and a separate change is published for each workspace.
+    *
+    * @param data Initial values for the workspaces to be created. The id and version
+    *       values, if supplied, will be ignored.
+    * @return The created workspaces, in the order supplied.
+    */
+   public List<WorkspaceMeta> createAll(List<WorkspaceMeta> data)
+   {
+      List<WorkspaceMeta> created = new ArrayList<>(data.size());
+      for (int start = 0; start < data.size(); start += batchSize)
+      {
+         List<WorkspaceMeta> batch = data.subList(start, Math.min(data.size(), start + batchSize));
+         writer.lock();
+         try {
+            long first = commits.current() + 1;
+            long now = System.currentTimeMillis();
+            List<Long> wsNums = new ArrayList<>(batch.size());
+            List<WorkspaceMeta> workspaces = new ArrayList<>(batch.size());
+            for (WorkspaceMeta ws : batch)
+            {
+               long wsNum = lastWorkspace + wsNums.size() + 1;
+               WorkspaceMeta meta = WorkspaceMeta.copy(ws);
+               meta.id = wsIds.encode(wsNum);
+               meta.version = versionIds.encode(1);
+               meta.modified = now;
+               wsNums.add(Long.valueOf(wsNum));
+               workspaces.add(meta);
+            }
+
+            pool.write(connection -> {
+               Batch rows = connection.batch(INSERT_WORKSPACE, batchSize);
+               Batch versions = connection.batch(INSERT_VERSION, batchSize);
+               for (int i = 0; i < workspaces.size(); i++)
+               {
+                  long wsNum = wsNums.get(i).longValue();
+                  WorkspaceMeta meta = workspaces.get(i);
+                  setRow(rows.statement, wsNum, 1, meta);
+                  rows.add();
+                  setVersion(versions.statement, wsNum, 1, first + i, meta);
+                  versions.add();
+               }
+
+               rows.flush();
+               versions.flush();
+               search.add(connection, wsNums, workspaces);
+               writeState(connection, first + workspaces.size() - 1, lastWorkspace + workspaces.size());
+               return null;
+            });
+
+            lastWorkspace += workspaces.size();
+            commits.commit(workspaces.size(), seq -> {
+               for (int i = 0; i < workspaces.size(); i++)
+               {
+                  WorkspaceMeta meta = workspaces.get(i);
+                  changes.append(seq + i, WorkspaceChange.Type.CREATED, meta.id, meta.scope, meta);
+               }
+            });
+
+            workspaces.forEach(meta -> created.add(WorkspaceMeta.copy(meta)));
+         } finally {
+            writer.unlock();
+            changes.announce();
+         }
+      }
+
+      return created;
+   }
+
+   private static void setRow(PreparedStatement insert, long wsNum, long versionNum, WorkspaceMeta meta) throws SQLException
+   {
+      insert.setLong(1, wsNum);
+      insert.setString(2, meta.id);
+      insert.setLong(3, versionNum);
+      insert.setString(4, meta.version);
+      insert.setLong(5, meta.modified);
+      insert.setString(6, meta.scope);
+      insert.setString(7, meta.key);
+      insert.setString(8, meta.name);
+      insert.setString(9, meta.description);
+   }
+
+   private static void setVersion(PreparedStatement insert, long wsNum, long versionNum, long seq, WorkspaceMeta meta) throws SQLException
+   {
+      insert.setLong(1, wsNum);
+      insert.setLong(2, versionNum);
+      insert.setLong(3, seq);
+      insert.setString(4, meta.version);
+      insert.setLong(5, meta.modified);
+      insert.setString(6, meta.scope);
+      insert.setString(7, meta.key);
+      insert.setString(8, meta.name);
+      insert.setString(9, meta.description);
+   }
+
+   /**
+    * Records the most recent commit. Must be called from within the commit's transaction
+    * while holding the {@link #writer} lock.
+    */
+   private void writeState(PooledConnection connection, long seq, long last) throws SQLException
+   {
+      PreparedStatement update = connection.prepare(UPDATE_STATE);
+      update.setLong(1, seq);
+      update.setLong(2, last);
+      update.executeUpdate();
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data)
+   {
+      return update(data, null);
+   }
+
+   /**
+    * Updates the workspace. Updates are committed immediately, whether or not a client
+    * is identified.
+    */
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data, String clientId)
+   {
+      String notFoundErr = "Cannot update the workspace, {0} [{1}]. No workspace with this id exists.";
+      String wsDeletedErr = "Cannot update the workspace, {0} [{1}]. It has been deleted.";
+      String noVersionErr = "Cannot update the workspace, {0} [{1}]. "
+            + "The version of the workspace to modify was not referenced or is invalid.";
+
+      if (data.id == null || data.id.trim().isEmpty())
+         throw new IllegalArgumentException("Cannot update workspace. No id supplied.");
+
+      long wsNum = toNumber(data.id);
+      if (wsNum < 0)
+         throw new IllegalArgumentException(format(notFoundErr, data.name, data.id));
+
+      if (data.version == null || data.version.trim().isEmpty())
+         throw new IllegalArgumentException(format(noVersionErr, data.name, data.id));
+
+      writer.lock();
+      try {
+         long seq = commits.current() + 1;
+         WorkspaceMeta updated = pool.write(connection -> {
+            Current current = readCurrent(connection, wsNum)
+                  .orElseThrow(() -> new IllegalArgumentException(format(notFoundErr, data.name, data.id)));
+            if (current.removed)
+               throw new IllegalStateException(format(wsDeletedErr, data.name, data.id));
+
+            // get the referenced version
+            long refNum = toNumber(data.version, versionIds);
+            WorkspaceMeta ref = (refNum < 0 ? Optional.<WorkspaceMeta>empty() : readVersion(connection, wsNum, refNum))
+                  .orElseThrow(() -> new IllegalArgumentException(format(noVersionErr, data.name, data.id)));
+
+            long versionNum = current.versionNum + 1;
+            WorkspaceMeta meta = update(data, ref, current.meta);
+            meta.version = versionIds.encode(versionNum);
+            meta.modified = Math.max(System.currentTimeMillis(), current.meta.modified);
+
+            PreparedStatement insert = connection.prepare(INSERT_VERSION);
+            setVersion(insert, wsNum, versionNum, seq, meta);
+            insert.executeUpdate();
+
+            PreparedStatement update = connection.prepare(UPDATE_WORKSPACE);
+            update.setLong(1, versionNum);
+            update.setString(2, meta.version);
+            update.setLong(3, meta.modified);
+            update.setString(4, meta.scope);
+            update.setString(5, meta.key);
+            update.setString(6, meta.name);
+            update.setString(7, meta.description);
+            update.setLong(8, wsNum);
+            update.executeUpdate();
+
+            search.update(connection, wsNum, current.meta, meta);
+            writeState(connection, seq, lastWorkspace);
+            return meta;
+         });
+
+         commits.commit(s -> changes.append(s, WorkspaceChange.Type.UPDATED, updated.id, updated.scope, updated));
+         return WorkspaceMeta.copy(updated);
+      } finally {
+         writer.unlock();
+         changes.announce();
+      }
+   }
+
+   /**
+    * Applies the fields that differ between the supplied data and the version it was based
+    * on to the current state of a workspace.
+    */
+   private static WorkspaceMeta update(WorkspaceMeta data, WorkspaceMeta ref, WorkspaceMeta current)
+   {
+      WorkspaceMeta updated = WorkspaceMeta.copy(current);
+      if (!Objects.equals(ref.scope, data.scope))
+         updated.scope = data.scope;
+
+      if (!Objects.equals(ref.key, data.key))
+         updated.key = data.key;
+
+      if (!Objects.equals(ref.name, data.name))
+         updated.name = data.name;
+
+      if (!Objects.equals(ref.description, data.description))
+         updated.description = data.description;
+
+      return updated;
+   }
+
+   private static Optional<Current> readCurrent(PooledConnection connection, long wsNum) throws SQLException
+   {
+      PreparedStatement select = connection.prepare(SELECT_CURRENT);
+      select.setLong(1, wsNum);
+      try (ResultSet rs = select.executeQuery())
+      {
+         if (!rs.next())
+            return Optional.empty();
+
+         return Optional.of(new Current(readWorkspace(rs), rs.getLong(8), rs.getBoolean(9)));
+      }
+   }
+
+   /**
+    * Updates are committed immediately, so there is nothing to flush.
+    */
+   @Override
+   public void flush(String id)
+   {
+      // no pending updates
+   }
+
+   @Override
+   public void remove(String id)
+   {
+      long wsNum = toNumber(id);
+      if (wsNum < 0)
+         return;
+
+      writer.lock();
+      try {
+         long seq = commits.current() + 1;
+         WorkspaceMeta removed = pool.write(connection -> {
+            Optional<Current> current = readCurrent(connection, wsNum);
+            if (!current.isPresent() || current.get().removed)
+               return null;
+
+            PreparedStatement update = connection.prepare(REMOVE);
+            update.setLong(1, seq);
+            update.setLong(2, System.currentTimeMillis());
+            update.setLong(3, wsNum);
+            update.executeUpdate();
+
+            writeState(connection, seq, lastWorkspace);
+            return current.get().meta;
+         });
+
+         if (removed != null)
+            commits.commit(s -> changes.append(s, WorkspaceChange.Type.REMOVED, removed.id, removed.scope, removed));
+      } finally {
+         writer.unlock();
+         changes.announce();
+      }
+   }
+
+   @Override
+   public void purge(String id)
+   {
+      long wsNum = toNumber(id);
+      if (wsNum < 0)
+         return;
+
+      writer.lock();
+      try {
+         long seq = commits.current() + 1;
+         WorkspaceMeta last = pool.write(connection -> {
+            Optional<Current> current = readCurrent(connection, wsNum);
+            if (!current.isPresent())
+               return null;
+
+            // the rows are retained for snapshots that predate the purge
+            PreparedStatement update = connection.prepare(PURGE);
+            update.setLong(1, seq);
+            update.setLong(2, wsNum);
+            update.executeUpdate();
+
+            search.remove(connection, wsNum);
+            writeState(connection, seq, lastWorkspace);
+            return current.get().meta;
+         });
+
+         if (last == null)
+            return;
+
+         retainedPurges.incrementAndGet();
+         commits.commit(s -> changes.append(s, WorkspaceChange.Type.PURGED, last.id, last.scope, null));
+      } finally {
+         writer.unlock();
+         changes.announce();
+      }
+
+      reclaim();
+   }
+
+   /**
+    * Deletes purged workspaces that are no longer visible to any open snapshot.
+    */
+   private void reclaim()
+   {
+      if (retainedPurges.get() == 0)
+         return;
+
+      long oldest = commits.oldestReader();
+      int reclaimed = pool.write(connection -> {
+         PreparedStatement versions = connection.prepare(RECLAIM_VERSIONS);
+         versions.setLong(1, oldest);
+         versions.executeUpdate();
+
+         PreparedStatement workspaces = connection.prepare(RECLAIM_WORKSPACES);
+         workspaces.setLong(1, oldest);
+         return Integer.valueOf(workspaces.executeUpdate());
+      }).intValue();
+
+      retainedPurges.addAndGet(-reclaimed);
+   }
+
+   /**
+    * Copies the database to a backup while the repository remains in use. Commits wait
+    * only while pending changes are written to the database file and the extent of the
+    * copy is recorded, not while the file is copied. See {@link DatabaseBackup}.
+    *
+    * @param directory The directory to hold the backup. Created if necessary.
+    * @return A description of the backup.
+    * @throws IllegalStateException If the database is not an embedded H2 database stored
+    *       in a file, the directory already holds a backup, or another backup of this
+    *       repository is in progress.
+    * @throws UncheckedIOException If the backup could not be written.
+    */
+   public BackupManifest backup(Path directory)
+   {
+      if (!backupLock.tryLock())
+         throw new IllegalStateException("A backup of this repository is already in progress.");
+
+      try
+      {
+         if (databaseFile == null)
+            databaseFile = pool.read(DatabaseBackup.DatabaseFile::open);
+
+         try
+         {
+            long length;
+            long sequence;
+            writer.lock();
+            try
+            {
+               // no commit is in progress, so the written file holds exactly this commit
+               length = databaseFile.freeze();
+               sequence = commits.current();
+            }
+            finally
+            {
+               writer.unlock();
+            }
+
+            return DatabaseBackup.write(databaseFile, length, sequence, directory);
+         }
+         catch (IOException ex)
+         {
+            throw new UncheckedIOException(format("Failed to back up the database to {0}", directory), ex);
+         }
+         finally
+         {
+            databaseFile.thaw();
+         }
+      }
+      finally
+      {
+         backupLock.unlock();
+      }
+   }
+
+   /**
+    * Closes the connections to the database. A private in-memory database is discarded.
+    */
+   @Override
+   public void close() throws Exception
+   {
+      changes.close();
+      pool.close();
+
+      // held until now so that closing it does not release the database's file lock
+      if (databaseFile != null)
+         databaseFile.close();
+   }
+
+   /**
+    * Reads the repository at a fixed commit sequence number from the versions that were
+    * committed at or before it.
+    */
+   private class SnapshotImpl implements RepositorySnapshot
+   {
+      private final long sequence;
+      private boolean closed = false;
+
+      SnapshotImpl(long sequence)
+      {
+         this.sequence = sequence;
+      }
+
+      @Override
+      public long getSequence()
+      {
+         return sequence;
+      }
+
+      @Override
+      public Collection<WorkspaceMeta> listAll()
+      {
+         checkOpen();
+         return pool.read(connection -> {
+            PreparedStatement select = connection.prepare(SNAPSHOT_LIST);
+            select.setLong(1, sequence);
+            select.setLong(2, sequence);
+            select.setLong(3, sequence);
+            return readWorkspaces(select);
+         });
+      }
+
+      @Override
+      public Optional<WorkspaceMeta> get(String id)
+      {
+         checkOpen();
+
+         long wsNum = toNumber(id);
+         if (wsNum < 0)
+            return Optional.empty();
+
+         return pool.read(connection -> read(connection, wsNum));
+      }
+
+      private Optional<WorkspaceMeta> read(PooledConnection connection, long wsNum) throws SQLException
+      {
+         PreparedStatement select = connection.prepare(SNAPSHOT_GET);
+         select.setLong(1, wsNum);
+         select.setLong(2, sequence);
+         select.setLong(3, sequence);
+         select.setLong(4, sequence);
+         return readFirst(select);
+      }
+
+      @Override
+      public Map<String, WorkspaceMeta> getAll(Collection<String> ids)
+      {
+         checkOpen();
+         return pool.read(connection -> {
+            Map<String, WorkspaceMeta> result = new LinkedHashMap<>();
+            for (String id : ids)
+            {
+               long wsNum = toNumber(id);
+               if (wsNum >= 0)
+                  read(connection, wsNum).ifPresent(meta -> result.put(id, meta));
+            }
+
+            return result;
+         });
+      }
+
+      private void checkOpen()
+      {
+         if (closed)
+            throw new IllegalStateException("This snapshot has been closed.");
+      }
+
+      @Override
+      public synchronized void close()
+      {
+         if (closed)
+            return;
+
+         closed = true;
+         commits.release(sequence);
+         reclaim();
+      }
+   }
+
+   /**
+    * The current state of a workspace as read within a commit.
+    */
+   private static class Current
+   {
+      final WorkspaceMeta meta;
+      final long versionNum;
+      final boolean removed;
+
+      Current(WorkspaceMeta meta, long versionNum, boolean removed)
+      {
+         this.meta = meta;
+         this.versionNum = versionNum;
+         this.removed = removed;
+      }
+   }
+}
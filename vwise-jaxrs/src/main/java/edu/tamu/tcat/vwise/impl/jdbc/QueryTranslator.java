@@ -0,0 +1,222 @@
+package edu.tamu.tcat.vwise.impl.jdbc;
+
+import static java.text.MessageFormat.format;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+import edu.tamu.tcat.vwise.impl.jdbc.ConnectionPool.PooledConnection;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery.SortField;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryCursor;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
+
+/**
+ * Evaluates {@link WorkspaceQuery queries} as a single SQL statement over the
+ * {@code workspaces} table.
+ *
+ * <p>Criteria become predicates that the database can answer from the index on
+ * {@code (scope, ws_key)} where they constrain the scope. Results are ordered by the
+ * requested field and then by the numeric id, and the page is selected with
+ * {@code OFFSET} and {@code FETCH}, fetching one row beyond the page to determine whether
+ * another follows. Names and keys are compared ignoring case, with workspaces that lack a
+ * value ordered last.
+ *
+ * <p>Cursors identify the last workspace of a page by its sort value and id, as for the
+ * in-memory repository, and become a predicate that selects the workspaces that follow it
+ * in the requested order.
+ */
+class QueryTranslator
+{
+   private final ToLongFunction<String> ids;
+
+   /**
+    * @param ids Supplies the numeric id of a workspace id, or {@code -1} if the id is not valid.
+    */
+   QueryTranslator(ToLongFunction<String> ids)
+   {
+      this.ids = ids;
+   }
+
+   public WorkspaceQueryResult execute(PooledConnection connection, WorkspaceQuery criteria) throws SQLException
+   {
+      if (criteria.offset < 0)
+         throw new IllegalArgumentException("The offset must not be negative");
+
+      WorkspaceQuery query = WorkspaceQuery.copy(criteria);
+      if (query.sort == null)
+         query.sort = SortField.ID;
+      if (query.removed == null)
+         query.removed = WorkspaceQuery.Removed.EXCLUDE;
+
+      List<Object> params = new ArrayList<>();
+      StringBuilder sql = new StringBuilder("SELECT ").append(JdbcWorkspaceRepo.COLUMNS)
+            .append(" FROM workspaces w WHERE w.purged_seq IS NULL");
+
+      if (query.removed == WorkspaceQuery.Removed.EXCLUDE)
+         sql.append(" AND w.removed_seq IS NULL");
+      else if (query.removed == WorkspaceQuery.Removed.ONLY)
+         sql.append(" AND w.removed_seq IS NOT NULL");
+
+      if (query.scope != null)
+      {
+         sql.append(" AND w.scope = ?");
+         params.add(query.scope);
+      }
+
+      if (query.scopePrefix != null)
+      {
+         sql.append(" AND w.scope LIKE ? ESCAPE '\\'");
+         params.add(escape(query.scopePrefix) + "%");
+      }
+
+      if (query.keyPrefix != null)
+      {
+         sql.append(" AND w.ws_key LIKE ? ESCAPE '\\'");
+         params.add(escape(query.keyPrefix) + "%");
+      }
+
+      if (query.nameContains != null)
+      {
+         sql.append(" AND LOWER(w.name) LIKE ? ESCAPE '\\'");
+         params.add("%" + escape(query.nameContains.toLowerCase(Locale.ROOT)) + "%");
+      }
+
+      if (query.cursor != null)
+         appendCursor(sql, params, query);
+
+      appendOrder(sql, query);
+
+      sql.append(" OFFSET ? ROWS");
+      params.add(Integer.valueOf(query.offset));
+      if (query.limit > 0)
+      {
+         // one row beyond the page indicates that another page follows
+         sql.append(" FETCH NEXT ? ROWS ONLY");
+         params.add(Integer.valueOf(query.limit + 1));
+      }
+
+      PreparedStatement select = connection.prepare(sql.toString());
+      for (int i = 0; i < params.size(); i++)
+         select.setObject(i + 1, params.get(i));
+
+      List<WorkspaceMeta> workspaces = new ArrayList<>();
+      try (ResultSet rs = select.executeQuery())
+      {
+         while (rs.next())
+            workspaces.add(JdbcWorkspaceRepo.readWorkspace(rs));
+      }
+
+      boolean more = query.limit > 0 && workspaces.size() > query.limit;
+      if (more)
+         workspaces.remove(workspaces.size() - 1);
+
+      WorkspaceQueryResult result = new WorkspaceQueryResult();
+      result.workspaces = workspaces;
+      result.next = more && !workspaces.isEmpty() ? WorkspaceQueryCursor.encode(workspaces.get(workspaces.size() - 1), query.sort) : null;
+      result.plan = sql.toString();
+      return result;
+   }
+
+   private static String escape(String value)
+   {
+      return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+   }
+
+   private static String column(SortField sort)
+   {
+      switch (sort)
+      {
+         case NAME:
+            return "LOWER(w.name)";
+         case KEY:
+            return "LOWER(w.ws_key)";
+         case MODIFIED:
+            return "w.modified";
+         case ID:
+         default:
+            return null;
+      }
+   }
+
+   private static void appendOrder(StringBuilder sql, WorkspaceQuery query)
+   {
+      String direction = query.descending ? " DESC" : " ASC";
+      String column = column(query.sort);
+
+      sql.append(" ORDER BY ");
+      if (column != null)
+      {
+         // names and keys that are not set are last in ascending order
+         sql.append(column).append(direction);
+         if (query.sort == SortField.NAME || query.sort == SortField.KEY)
+            sql.append(query.descending ? " NULLS FIRST" : " NULLS LAST");
+         sql.append(", ");
+      }
+
+      sql.append("w.ws_num").append(direction);
+   }
+
+   /**
+    * Restricts results to the workspaces that follow the cursor in the requested order.
+    */
+   private void appendCursor(StringBuilder sql, List<Object> params, WorkspaceQuery query)
+   {
+      WorkspaceMeta after = WorkspaceQueryCursor.decode(query.cursor, query.sort);
+      long wsNum = ids.applyAsLong(after.id);
+      if (wsNum < 0)
+         throw new IllegalArgumentException(format("Invalid cursor {0}", query.cursor));
+
+      Long position = Long.valueOf(wsNum);
+      String next = query.descending ? "<" : ">";
+      String column = column(query.sort);
+      switch (query.sort)
+      {
+         case NAME:
+         case KEY:
+            String value = query.sort == SortField.NAME ? after.name : after.key;
+            if (value == null && !query.descending)
+            {
+               // only workspaces without a value follow
+               sql.append(" AND (").append(column).append(" IS NULL AND w.ws_num > ?)");
+               params.add(position);
+            }
+            else if (value == null)
+            {
+               sql.append(" AND (").append(column).append(" IS NOT NULL OR w.ws_num < ?)");
+               params.add(position);
+            }
+            else
+            {
+               String lower = value.toLowerCase(Locale.ROOT);
+               sql.append(" AND (").append(column).append(" ").append(next).append(" ?")
+                     .append(" OR (").append(column).append(" = ? AND w.ws_num ").append(next).append(" ?)");
+               if (!query.descending)
+                  sql.append(" OR ").append(column).append(" IS NULL");
+               sql.append(")");
+               params.add(lower);
+               params.add(lower);
+               params.add(position);
+            }
+            break;
+
+         case MODIFIED:
+            sql.append(" AND (w.modified ").append(next).append(" ? OR (w.modified = ? AND w.ws_num ").append(next).append(" ?))");
+            params.add(Long.valueOf(after.modified));
+            params.add(Long.valueOf(after.modified));
+            params.add(position);
+            break;
+
+         case ID:
+         default:
+            sql.append(" AND w.ws_num ").append(next).append(" ?");
+            params.add(position);
+      }
+   }
+}
@@ -0,0 +1,460 @@
+package edu.tamu.tcat.vwise.impl.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import edu.tamu.tcat.vwise.impl.jdbc.ConnectionPool.Batch;
+import edu.tamu.tcat.vwise.impl.jdbc.ConnectionPool.PooledConnection;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Maintains the tables that support full-text search and completion of workspace keys
+ * and names, and evaluates searches and completions against them.
+ *
+ * <p>Text is divided into terms and ranked in the same way as the in-memory repository.
+ * The {@code terms} table holds the weighted frequency of each term of a workspace's name
+ * and description; terms in the name count {@value #NAME_WEIGHT} times as much. Each row
+ * also holds the weighted length of the workspace's text, so that a search reads
+ * everything it needs to rank a workspace from the rows of its terms. The repository state
+ * row holds the number of indexed workspaces and the total length of their text, which
+ * are also needed to rank results by BM25.
+ *
+ * <p>The {@code suggestions} table holds the lower-case key and name of each workspace and
+ * the remainder of its name from each word after the first. Completing a prefix reads the
+ * range of entries that start with it.
+ *
+ * <p>Removed workspaces remain in the tables until they are purged, and are excluded when
+ * results are read.
+ */
+class SearchTables
+{
+   /** The weight of a term that appears in a workspace name relative to its description. */
+   static final int NAME_WEIGHT = 3;
+
+   /** Terms longer than this are truncated. */
+   static final int MAX_TERM_LENGTH = 64;
+
+   /** The maximum number of distinct terms considered in a search. */
+   static final int MAX_QUERY_TERMS = 16;
+
+   /** The maximum number of words after the first from which a name may be completed. */
+   static final int MAX_NAME_WORDS = 8;
+
+   private static final double K1 = 1.2;
+   private static final double B = 0.75;
+
+   static final String[] SCHEMA = {
+         "CREATE TABLE IF NOT EXISTS terms ("
+               + "term VARCHAR NOT NULL, "
+               + "ws_num BIGINT NOT NULL, "
+               + "tf INT NOT NULL, "
+               + "length INT NOT NULL, "
+               + "PRIMARY KEY (term, ws_num))",
+         "CREATE INDEX IF NOT EXISTS terms_workspace ON terms (ws_num)",
+         "CREATE TABLE IF NOT EXISTS suggestions ("
+               + "entry VARCHAR NOT NULL, "
+               + "ws_num BIGINT NOT NULL, "
+               + "scope VARCHAR)",
+         "CREATE INDEX IF NOT EXISTS suggestions_entry ON suggestions (entry, ws_num)",
+         "CREATE INDEX IF NOT EXISTS suggestions_scope ON suggestions (scope, entry)",
+         "CREATE INDEX IF NOT EXISTS suggestions_workspace ON suggestions (ws_num)"
+   };
+
+   private static final String INSERT_TERM = "INSERT INTO terms (term, ws_num, tf, length) VALUES (?, ?, ?, ?)";
+   private static final String DELETE_TERMS = "DELETE FROM terms WHERE ws_num = ?";
+   private static final String SELECT_LENGTH = "SELECT MAX(length) FROM terms WHERE ws_num = ?";
+   private static final String UPDATE_TOTALS = "UPDATE repository_state SET documents = documents + ?, text_length = text_length + ?";
+   private static final String SELECT_TOTALS = "SELECT documents, text_length FROM repository_state";
+
+   private static final String INSERT_SUGGESTION = "INSERT INTO suggestions (entry, ws_num, scope) VALUES (?, ?, ?)";
+   private static final String DELETE_SUGGESTIONS = "DELETE FROM suggestions WHERE ws_num = ?";
+
+   /** Selects the best matching entry of each live workspace within a range of entries. */
+   private static final String SUGGEST = "SELECT s.ws_num, MIN(s.entry) AS entry FROM suggestions s "
+         + "JOIN workspaces w ON w.ws_num = s.ws_num "
+         + "WHERE s.entry >= ? AND s.entry < ? AND w.removed_seq IS NULL "
+         + "GROUP BY s.ws_num ORDER BY entry, s.ws_num LIMIT ?";
+   private static final String SUGGEST_SCOPE = "SELECT s.ws_num, MIN(s.entry) AS entry FROM suggestions s "
+         + "JOIN workspaces w ON w.ws_num = s.ws_num "
+         + "WHERE s.scope = ? AND s.entry >= ? AND s.entry < ? AND w.removed_seq IS NULL "
+         + "GROUP BY s.ws_num ORDER BY entry, s.ws_num LIMIT ?";
+
+   private final int batchSize;
+
+   /**
+    * @param batchSize The number of rows sent to the database at a time when indexing.
+    */
+   SearchTables(int batchSize)
+   {
+      this.batchSize = batchSize;
+   }
+
+   /**
+    * Splits text into lower-case terms.
+    *
+    * @return The terms in the order in which they first appear, without duplicates.
+    */
+   static Set<String> tokenize(String text)
+   {
+      Set<String> tokens = new LinkedHashSet<>();
+      forEachTerm(text, tokens::add);
+      return tokens;
+   }
+
+   private static void forEachTerm(String text, Consumer<String> consumer)
+   {
+      if (text == null)
+         return;
+
+      int length = text.length();
+      int start = -1;
+      for (int i = 0; i <= length; i++)
+      {
+         boolean inTerm = i < length && Character.isLetterOrDigit(text.charAt(i));
+         if (inTerm && start < 0)
+         {
+            start = i;
+         }
+         else if (!inTerm && start >= 0)
+         {
+            int end = Math.min(i, start + MAX_TERM_LENGTH);
+            consumer.accept(text.substring(start, end).toLowerCase(Locale.ROOT));
+            start = -1;
+         }
+      }
+   }
+
+   /**
+    * @return The weighted frequency of each term in the name and description of a workspace.
+    */
+   private static Map<String, Integer> frequencies(WorkspaceMeta meta)
+   {
+      Map<String, Integer> frequencies = new HashMap<>();
+      forEachTerm(meta.name, term -> frequencies.merge(term, Integer.valueOf(NAME_WEIGHT), Integer::sum));
+      forEachTerm(meta.description, term -> frequencies.merge(term, Integer.valueOf(1), Integer::sum));
+      return frequencies;
+   }
+
+   /**
+    * @return The lower-case form of typed text used to find completions.
+    */
+   static String normalize(String text)
+   {
+      return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+   }
+
+   /**
+    * @return The completion entries contributed by a workspace.
+    */
+   private static List<String> entries(WorkspaceMeta meta)
+   {
+      List<String> result = new ArrayList<>();
+      String key = normalize(meta.key);
+      if (!key.isEmpty())
+         result.add(key);
+
+      String name = normalize(meta.name);
+      if (!name.isEmpty())
+      {
+         result.add(name);
+
+         int words = 0;
+         for (int i = 1; i < name.length() && words < MAX_NAME_WORDS; i++)
+         {
+            if (Character.isLetterOrDigit(name.charAt(i)) && !Character.isLetterOrDigit(name.charAt(i - 1)))
+            {
+               result.add(name.substring(i));
+               words++;
+            }
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Indexes new workspaces.
+    *
+    * @param wsNums The numeric ids of the workspaces.
+    * @param workspaces The workspaces, in the same order as their ids.
+    */
+   void add(PooledConnection connection, List<Long> wsNums, List<WorkspaceMeta> workspaces) throws SQLException
+   {
+      Batch terms = connection.batch(INSERT_TERM, batchSize);
+      Batch suggestions = connection.batch(INSERT_SUGGESTION, batchSize);
+
+      long totalLength = 0;
+      for (int i = 0; i < wsNums.size(); i++)
+      {
+         long wsNum = wsNums.get(i).longValue();
+         WorkspaceMeta meta = workspaces.get(i);
+         totalLength += addText(terms, wsNum, meta);
+         addEntries(suggestions, wsNum, meta);
+      }
+
+      terms.flush();
+      suggestions.flush();
+      updateTotals(connection, wsNums.size(), totalLength);
+   }
+
+   /**
+    * Re-indexes a workspace whose name, description, key or scope may have changed.
+    *
+    * @param before The previously indexed state.
+    * @param after The new state.
+    */
+   void update(PooledConnection connection, long wsNum, WorkspaceMeta before, WorkspaceMeta after) throws SQLException
+   {
+      if (!Objects.equals(before.name, after.name) || !Objects.equals(before.description, after.description))
+      {
+         int previous = removeText(connection, wsNum);
+         Batch terms = connection.batch(INSERT_TERM, batchSize);
+         int length = addText(terms, wsNum, after);
+         terms.flush();
+         updateTotals(connection, 0, length - previous);
+      }
+
+      if (!Objects.equals(before.key, after.key)
+            || !Objects.equals(before.name, after.name)
+            || !Objects.equals(before.scope, after.scope))
+      {
+         removeEntries(connection, wsNum);
+         Batch suggestions = connection.batch(INSERT_SUGGESTION, batchSize);
+         addEntries(suggestions, wsNum, after);
+         suggestions.flush();
+      }
+   }
+
+   /**
+    * Removes a purged workspace.
+    */
+   void remove(PooledConnection connection, long wsNum) throws SQLException
+   {
+      int length = removeText(connection, wsNum);
+      updateTotals(connection, -1, -length);
+      removeEntries(connection, wsNum);
+   }
+
+   /**
+    * @return The weighted length of the workspace's text.
+    */
+   private static int addText(Batch terms, long wsNum, WorkspaceMeta meta) throws SQLException
+   {
+      Map<String, Integer> frequencies = frequencies(meta);
+      int length = 0;
+      for (Integer tf : frequencies.values())
+         length += tf.intValue();
+
+      for (Map.Entry<String, Integer> entry : frequencies.entrySet())
+      {
+         terms.statement.setString(1, entry.getKey());
+         terms.statement.setLong(2, wsNum);
+         terms.statement.setInt(3, entry.getValue().intValue());
+         terms.statement.setInt(4, length);
+         terms.add();
+      }
+
+      return length;
+   }
+
+   /**
+    * @return The weighted length of the removed text.
+    */
+   private static int removeText(PooledConnection connection, long wsNum) throws SQLException
+   {
+      int length = 0;
+      PreparedStatement select = connection.prepare(SELECT_LENGTH);
+      select.setLong(1, wsNum);
+      try (ResultSet rs = select.executeQuery())
+      {
+         // a workspace without text has no rows, and a length of zero
+         if (rs.next())
+            length = rs.getInt(1);
+      }
+
+      PreparedStatement delete = connection.prepare(DELETE_TERMS);
+      delete.setLong(1, wsNum);
+      delete.executeUpdate();
+      return length;
+   }
+
+   private static void updateTotals(PooledConnection connection, long documents, long length) throws SQLException
+   {
+      PreparedStatement update = connection.prepare(UPDATE_TOTALS);
+      update.setLong(1, documents);
+      update.setLong(2, length);
+      update.executeUpdate();
+   }
+
+   private static void addEntries(Batch suggestions, long wsNum, WorkspaceMeta meta) throws SQLException
+   {
+      for (String entry : entries(meta))
+      {
+         suggestions.statement.setString(1, entry);
+         suggestions.statement.setLong(2, wsNum);
+         suggestions.statement.setString(3, meta.scope);
+         suggestions.add();
+      }
+   }
+
+   private static void removeEntries(PooledConnection connection, long wsNum) throws SQLException
+   {
+      PreparedStatement delete = connection.prepare(DELETE_SUGGESTIONS);
+      delete.setLong(1, wsNum);
+      delete.executeUpdate();
+   }
+
+   /**
+    * Finds the workspaces that have not been removed and contain every term in the
+    * supplied text.
+    *
+    * @return The numeric ids of the best matching workspaces with their scores, best first.
+    */
+   List<Hit> search(PooledConnection connection, String text, int limit) throws SQLException
+   {
+      List<String> queryTerms = new ArrayList<>(tokenize(text));
+      if (queryTerms.isEmpty() || limit <= 0)
+         return new ArrayList<>();
+      if (queryTerms.size() > MAX_QUERY_TERMS)
+         queryTerms = queryTerms.subList(0, MAX_QUERY_TERMS);
+
+      long docCount;
+      long totalLength;
+      try (ResultSet rs = connection.prepare(SELECT_TOTALS).executeQuery())
+      {
+         rs.next();
+         docCount = Math.max(1, rs.getLong(1));
+         totalLength = rs.getLong(2);
+      }
+
+      // one statement per number of terms, so that each is prepared once per connection
+      StringBuilder sql = new StringBuilder("SELECT t.ws_num, t.term, t.tf, t.length, w.removed_seq IS NULL FROM terms t "
+            + "JOIN workspaces w ON w.ws_num = t.ws_num WHERE t.term IN (");
+      for (int i = 0; i < queryTerms.size(); i++)
+         sql.append(i == 0 ? "?" : ", ?");
+      sql.append(")");
+
+      PreparedStatement select = connection.prepare(sql.toString());
+      for (int i = 0; i < queryTerms.size(); i++)
+         select.setString(i + 1, queryTerms.get(i));
+
+      // removed workspaces count towards the frequency of terms, as they remain indexed
+      Map<String, Integer> termIndex = new HashMap<>();
+      for (int i = 0; i < queryTerms.size(); i++)
+         termIndex.put(queryTerms.get(i), Integer.valueOf(i));
+
+      int[] df = new int[queryTerms.size()];
+      Map<Long, Candidate> candidates = new HashMap<>();
+      try (ResultSet rs = select.executeQuery())
+      {
+         while (rs.next())
+         {
+            int term = termIndex.get(rs.getString(2)).intValue();
+            df[term]++;
+            if (!rs.getBoolean(5))
+               continue;
+
+            Long wsNum = Long.valueOf(rs.getLong(1));
+            Candidate candidate = candidates.computeIfAbsent(wsNum, k -> new Candidate(df.length));
+            candidate.tf[term] = rs.getInt(3);
+            candidate.length = rs.getInt(4);
+            candidate.matched++;
+         }
+      }
+
+      double avgLength = Math.max(1.0, (double)totalLength / docCount);
+      double[] idf = new double[df.length];
+      for (int i = 0; i < df.length; i++)
+         idf[i] = Math.log(1 + (docCount - df[i] + 0.5) / (df[i] + 0.5));
+
+      List<Hit> hits = new ArrayList<>();
+      for (Map.Entry<Long, Candidate> entry : candidates.entrySet())
+      {
+         Candidate candidate = entry.getValue();
+         if (candidate.matched < df.length)
+            continue;
+
+         double norm = K1 * (1 - B + B * candidate.length / avgLength);
+         double score = 0;
+         for (int i = 0; i < df.length; i++)
+         {
+            int tf = candidate.tf[i];
+            score += idf[i] * tf * (K1 + 1) / (tf + norm);
+         }
+
+         hits.add(new Hit(entry.getKey().longValue(), score));
+      }
+
+      hits.sort(Comparator.comparingDouble((Hit hit) -> hit.score).reversed().thenComparingLong(hit -> hit.wsNum));
+      return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+   }
+
+   /**
+    * Finds the workspaces that have not been removed and whose key or name, or a word of
+    * whose name, starts with the supplied prefix.
+    *
+    * @return The numeric ids of matching workspaces, ordered by the text that matched.
+    */
+   List<Long> suggest(PooledConnection connection, String prefix, String scope, int limit) throws SQLException
+   {
+      String from = normalize(prefix);
+      if (from.isEmpty() || limit <= 0)
+         return Collections.emptyList();
+
+      PreparedStatement select = connection.prepare(scope == null ? SUGGEST : SUGGEST_SCOPE);
+      int ix = 1;
+      if (scope != null)
+         select.setString(ix++, scope);
+      select.setString(ix++, from);
+      select.setString(ix++, from + Character.MAX_VALUE);
+      select.setInt(ix++, limit);
+
+      List<Long> wsNums = new ArrayList<>();
+      try (ResultSet rs = select.executeQuery())
+      {
+         while (rs.next())
+            wsNums.add(Long.valueOf(rs.getLong(1)));
+      }
+
+      return wsNums;
+   }
+
+   /**
+    * A workspace that matches a search.
+    */
+   static class Hit
+   {
+      final long wsNum;
+      final double score;
+
+      Hit(long wsNum, double score)
+      {
+         this.wsNum = wsNum;
+         this.score = score;
+      }
+   }
+
+   private static class Candidate
+   {
+      final int[] tf;
+      int length;
+      int matched;
+
+      Candidate(int terms)
+      {
+         this.tf = new int[terms];
+      }
+   }
+}
@@ -0,0 +1,433 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceChangeListener;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Retains recent workspace changes in a bounded ring and delivers them to subscribers.
+ *
+ * <p>Repositories {@link #append append} changes from within their commits and
+ * {@link #announce() announce} them once the commit lock has been released, so that
+ * subscribers are not woken while a commit is in progress. Changes are visible to readers
+ * only once announced.
+ *
+ * <p>Subscriptions are served by a fixed pool of dispatcher threads. When changes are
+ * announced, each subscription is scheduled to read forward through the ring from its
+ * position and deliver a batch of changes. Publishers never block on slow subscribers. A
+ * subscriber that falls more than the capacity of the ring behind is sent a
+ * {@link WorkspaceChange.Type#RESET} and resumes from the oldest retained change.
+ *
+ * <p>Configured using the following properties:
+ *
+ * <pre>
+ * # Number of recent changes retained for subscribers that resume (default: 4096)
+ * changes.capacity=4096
+ *
+ * # Number of threads that deliver changes to subscribers (default: number of processors)
+ * changes.dispatchers=4
+ * </pre>
+ */
+public class ChangeLog implements WorkspaceChangeFeed
+{
+   private final static Logger logger = Logger.getLogger(ChangeLog.class.getName());
+
+   public static final String PROP_CAPACITY = "changes.capacity";
+   public static final String PROP_DISPATCHERS = "changes.dispatchers";
+
+   private static final int BATCH_SIZE = 256;
+
+   private final Lock lock = new ReentrantLock();
+   private final Condition appended = lock.newCondition();
+
+   private final WorkspaceChange[] ring;
+
+   /** The sequence number of the most recently appended change. Guarded by {@link #lock}. */
+   private long latest;
+
+   /**
+    * The sequence number of the most recently announced change. Changes up to this
+    * sequence number are visible to readers. Only modified while holding {@link #lock}.
+    */
+   private volatile long announced;
+
+   /**
+    * The sequence number of the last change published before this log was created or
+    * rebased. Guarded by {@link #lock}.
+    */
+   private long base;
+
+   private final ExecutorService dispatcher;
+
+   private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+   public ChangeLog(Properties config)
+   {
+      this(config, 0);
+   }
+
+   /**
+    * @param latest The sequence number of the most recent change, for repositories that
+    *       persist their commits. Publishing resumes with the following sequence number.
+    */
+   public ChangeLog(Properties config, long latest)
+   {
+      this.latest = latest;
+      this.announced = latest;
+      this.base = latest;
+      this.ring = new WorkspaceChange[getPositiveInt(config, PROP_CAPACITY, 4096)];
+
+      int threads = getPositiveInt(config, PROP_DISPATCHERS, Runtime.getRuntime().availableProcessors());
+      this.dispatcher = Executors.newFixedThreadPool(threads, r -> {
+         Thread t = new Thread(r, "vwise-change-feed");
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   private static int getPositiveInt(Properties config, String key, int defaultValue)
+   {
+      String property = config.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         int value = Integer.parseInt(property);
+         if (value <= 0)
+            throw new IllegalArgumentException(format("The value of {0} must be positive", key));
+
+         return value;
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   /**
+    * Records and announces a change to a workspace. Changes must be published in sequence
+    * order with no gaps.
+    *
+    * @param sequence The commit sequence number of the change.
+    * @param type The type of change.
+    * @param wsId The id of the changed workspace.
+    * @param scope The scope of the changed workspace. May be {@code null}.
+    * @param meta The state of the workspace following the change. May be {@code null}.
+    * @return The published change.
+    */
+   public WorkspaceChange publish(long sequence, WorkspaceChange.Type type, String wsId, String scope, WorkspaceMeta meta)
+   {
+      WorkspaceChange change = append(sequence, type, wsId, scope, meta);
+      announce();
+      return change;
+   }
+
+   /**
+    * Records a change to a workspace without delivering it. Changes must be appended in
+    * sequence order with no gaps, which is ensured by appending from within a repository
+    * commit. The change is visible to readers once {@link #announce() announced}.
+    *
+    * @param sequence The commit sequence number of the change.
+    * @param type The type of change.
+    * @param wsId The id of the changed workspace.
+    * @param scope The scope of the changed workspace. May be {@code null}.
+    * @param meta The state of the workspace following the change. May be {@code null}.
+    * @return The appended change.
+    */
+   public WorkspaceChange append(long sequence, WorkspaceChange.Type type, String wsId, String scope, WorkspaceMeta meta)
+   {
+      WorkspaceChange change = new WorkspaceChange();
+      change.sequence = sequence;
+      change.type = type;
+      change.timestamp = System.currentTimeMillis();
+      change.id = wsId;
+      change.scope = scope;
+      if (meta != null)
+      {
+         change.version = meta.version;
+         change.workspace = WorkspaceMeta.copy(meta);
+      }
+
+      lock.lock();
+      try
+      {
+         if (sequence != latest + 1)
+            throw new IllegalStateException(format("Change {0,number,#} published out of sequence. Expected {1,number,#}.", Long.valueOf(sequence), Long.valueOf(latest + 1)));
+
+         latest = sequence;
+         ring[(int)(sequence % ring.length)] = change;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      return change;
+   }
+
+   /**
+    * Makes the appended changes visible to readers and schedules subscriptions to deliver
+    * them. Repositories call this after releasing their commit lock. Announcing changes
+    * that have already been announced has no effect.
+    */
+   public void announce()
+   {
+      lock.lock();
+      try
+      {
+         if (announced == latest)
+            return;
+
+         announced = latest;
+         appended.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      for (Subscription sub : subscriptions)
+         sub.schedule();
+   }
+
+   /**
+    * Discards the retained changes and resumes publishing after the supplied sequence
+    * number, for repositories whose state has been replaced by that of another repository.
+    * Subscribers positioned before it are sent a {@link WorkspaceChange.Type#RESET} once
+    * the new position is {@link #announce() announced}.
+    *
+    * @param sequence The sequence number of the state that replaced the repository's state.
+    */
+   public void rebase(long sequence)
+   {
+      lock.lock();
+      try
+      {
+         if (sequence < latest)
+            throw new IllegalStateException(format("Cannot rebase the change log at {0,number,#}. Changes up to {1,number,#} have been published.", Long.valueOf(sequence), Long.valueOf(latest)));
+
+         latest = sequence;
+         base = sequence;
+         Arrays.fill(ring, null);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * @return The sequence number of the most recently announced change, or {@code 0} if
+    *       no changes have been announced.
+    */
+   public long getLatestSequence()
+   {
+      return announced;
+   }
+
+   /**
+    * Reads changes following the supplied sequence number, waiting for one to be published
+    * if none are available.
+    *
+    * @param after The sequence number of the last change read.
+    * @param timeout The maximum time to wait.
+    * @param unit The unit of the timeout.
+    * @return The available changes, in order. Will be empty if the timeout elapsed. If the
+    *       requested changes are no longer retained, the first element is a
+    *       {@link WorkspaceChange.Type#RESET} change whose sequence number precedes the
+    *       oldest retained change. A reset is also returned, without waiting, if the
+    *       supplied sequence number is ahead of this log.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public List<WorkspaceChange> read(long after, long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long remaining = unit.toNanos(timeout);
+
+      lock.lock();
+      try
+      {
+         List<WorkspaceChange> changes = new ArrayList<>();
+
+         // positions ahead of the log were issued by a previous instance (e.g., before a restart)
+         if (after > announced)
+         {
+            changes.add(reset(announced));
+            return changes;
+         }
+
+         while (announced <= after && remaining > 0)
+            remaining = appended.awaitNanos(remaining);
+
+         long oldest = Math.max(base + 1, latest - ring.length + 1);
+         long next = after + 1;
+         if (next < oldest)
+         {
+            changes.add(reset(oldest - 1));
+            next = oldest;
+         }
+
+         long end = Math.min(announced, next + BATCH_SIZE - 1);
+         for (long seq = next; seq <= end; seq++)
+         {
+            changes.add(ring[(int)(seq % ring.length)]);
+         }
+
+         return changes;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   private static WorkspaceChange reset(long sequence)
+   {
+      WorkspaceChange reset = new WorkspaceChange();
+      reset.type = WorkspaceChange.Type.RESET;
+      reset.sequence = sequence;
+      reset.timestamp = System.currentTimeMillis();
+      return reset;
+   }
+
+   @Override
+   public AutoCloseable subscribe(long after, String scope, String wsId, WorkspaceChangeListener listener)
+   {
+      Objects.requireNonNull(listener, "A listener must be supplied.");
+
+      Subscription sub = new Subscription(after < 0 ? getLatestSequence() : after, scope, wsId, listener);
+      subscriptions.add(sub);
+      sub.schedule();
+      return sub;
+   }
+
+   /**
+    * @return The number of open subscriptions.
+    */
+   public int getSubscriptionCount()
+   {
+      return subscriptions.size();
+   }
+
+   /**
+    * Ends all subscriptions.
+    */
+   public void close()
+   {
+      subscriptions.forEach(Subscription::close);
+      dispatcher.shutdownNow();
+   }
+
+   /**
+    * Delivers changes to a subscriber. Runs on a dispatcher thread when scheduled, delivers
+    * at most one batch of changes and then reschedules itself if more are available, so
+    * that subscribers share the dispatcher threads.
+    */
+   private class Subscription implements Runnable, AutoCloseable
+   {
+      private final String scope;
+      private final String wsId;
+      private final WorkspaceChangeListener listener;
+
+      /** Set while the subscription is queued or running on a dispatcher thread. */
+      private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+      private volatile boolean closed = false;
+
+      /** The sequence number of the last change read. Accessed only by the running task. */
+      private long position;
+
+      Subscription(long position, String scope, String wsId, WorkspaceChangeListener listener)
+      {
+         this.position = position;
+         this.scope = scope;
+         this.wsId = wsId;
+         this.listener = listener;
+      }
+
+      void schedule()
+      {
+         if (closed || !scheduled.compareAndSet(false, true))
+            return;
+
+         try
+         {
+            dispatcher.execute(this);
+         }
+         catch (RejectedExecutionException ex)
+         {
+            // the change log has been closed
+            close();
+         }
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            for (WorkspaceChange change : read(position, 0, TimeUnit.NANOSECONDS))
+            {
+               if (closed)
+                  return;
+
+               position = change.sequence;
+               if (matches(change))
+                  listener.onChange(WorkspaceChange.copy(change));
+            }
+         }
+         catch (InterruptedException ex)
+         {
+            // the change log has been closed
+            Thread.currentThread().interrupt();
+            close();
+         }
+         catch (RuntimeException ex)
+         {
+            logger.log(Level.WARNING, format("Change feed listener failed at sequence {0,number,#}. Ending subscription.", Long.valueOf(position)), ex);
+            close();
+         }
+         finally
+         {
+            // changes announced while running could not schedule this task
+            scheduled.set(false);
+            if (position < announced)
+               schedule();
+         }
+      }
+
+      private boolean matches(WorkspaceChange change)
+      {
+         if (change.type == WorkspaceChange.Type.RESET)
+            return true;
+
+         return (wsId == null || wsId.equals(change.id))
+               && (scope == null || scope.equals(change.scope));
+      }
+
+      @Override
+      public void close()
+      {
+         closed = true;
+         subscriptions.remove(this);
+      }
+   }
+}
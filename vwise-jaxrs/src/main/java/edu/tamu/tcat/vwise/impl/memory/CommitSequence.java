@@ -0,0 +1,179 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Assigns a repository-wide, monotonically increasing sequence number to each commit and
+ * tracks the sequence numbers read by open snapshots.
+ *
+ * <p>Commits are applied while holding a single lock so that a snapshot taken at sequence
+ * {@code n} observes every commit numbered {@code n} or less and none after it. Commits
+ * should do no more than install already computed state. Work that follows a commit,
+ * such as announcing it to subscribers, is done by a listener that is called once the
+ * lock has been released. Snapshot readers do not hold the lock while reading.
+ */
+public class CommitSequence
+{
+   private final Lock lock = new ReentrantLock();
+
+   /** The sequence number of the most recent commit. Only modified while holding the lock. */
+   private volatile long committed;
+
+   /** The number of open snapshots at each sequence number. Guarded by {@link #lock}. */
+   private final TreeMap<Long, Integer> readers = new TreeMap<>();
+
+   /** Called after each commit, once the lock has been released. */
+   private final Runnable committedListener;
+
+   public CommitSequence()
+   {
+      this(0);
+   }
+
+   /**
+    * @param committed The sequence number of the most recent commit, for repositories that
+    *       persist their commits.
+    */
+   public CommitSequence(long committed)
+   {
+      this(committed, () -> {});
+   }
+
+   /**
+    * @param committed The sequence number of the most recent commit, for repositories that
+    *       persist their commits.
+    * @param committedListener Called after each commit once the commit lock has been
+    *       released. Commits that complete concurrently may be observed by a single call.
+    */
+   public CommitSequence(long committed, Runnable committedListener)
+   {
+      this.committed = committed;
+      this.committedListener = committedListener;
+   }
+
+   /**
+    * Applies a commit.
+    *
+    * @param action Installs the committed state. Supplied with the sequence number of the
+    *       commit. Called while holding the commit lock.
+    * @return The sequence number of the commit.
+    */
+   public long commit(LongConsumer action)
+   {
+      return commit(1, action);
+   }
+
+   /**
+    * Applies a commit that is assigned several consecutive sequence numbers, such as the
+    * creation of a batch of workspaces. Snapshots observe either all or none of the commit.
+    *
+    * @param count The number of sequence numbers to assign. Must be positive.
+    * @param action Installs the committed state. Supplied with the first sequence number
+    *       of the commit. Called while holding the commit lock.
+    * @return The last sequence number of the commit.
+    */
+   public long commit(long count, LongConsumer action)
+   {
+      if (count <= 0)
+         throw new IllegalArgumentException("A commit must be assigned at least one sequence number");
+
+      long last;
+      lock.lock();
+      try
+      {
+         long first = committed + 1;
+         action.accept(first);
+         committed = first + count - 1;
+         last = committed;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      committedListener.run();
+      return last;
+   }
+
+   /**
+    * @return The sequence number of the most recent commit.
+    */
+   public long current()
+   {
+      return committed;
+   }
+
+   /**
+    * Registers a reader of the current state. The state visible at the returned sequence
+    * number is retained until the reader is {@link #release(long) released}.
+    *
+    * @return The sequence number the reader should use.
+    */
+   public long open()
+   {
+      lock.lock();
+      try
+      {
+         Long sequence = Long.valueOf(committed);
+         readers.merge(sequence, Integer.valueOf(1), (a, b) -> Integer.valueOf(a.intValue() + b.intValue()));
+         return sequence.longValue();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Releases a reader registered by {@link #open()}.
+    */
+   public void release(long sequence)
+   {
+      lock.lock();
+      try
+      {
+         readers.computeIfPresent(Long.valueOf(sequence), (k, count) -> count.intValue() > 1 ? Integer.valueOf(count.intValue() - 1) : null);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * @return The oldest sequence number that may still be read. State that was superseded
+    *       at or before this sequence number is no longer visible to any reader and may be
+    *       reclaimed.
+    */
+   public long oldestReader()
+   {
+      lock.lock();
+      try
+      {
+         return readers.isEmpty() ? committed : readers.firstKey().longValue();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * @return The number of open snapshots.
+    */
+   public int getReaderCount()
+   {
+      lock.lock();
+      try
+      {
+         return readers.values().stream().mapToInt(Integer::intValue).sum();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+}
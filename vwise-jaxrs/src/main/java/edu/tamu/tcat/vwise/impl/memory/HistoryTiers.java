@@ -0,0 +1,313 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the version history of recently and frequently used workspaces in memory and
+ * spills the history of other workspaces to local disk once a memory budget is exceeded.
+ *
+ * <p>The most recent version of every workspace, along with the ids and modification
+ * times of its versions, always remains in memory, so that listing workspaces, reading
+ * their current state and locating historical versions never read from disk. The field
+ * values of historical versions are spilled as a single record per workspace and are
+ * read back the next time a historical version is needed. A history that has not changed
+ * since it was read back is dropped from memory without being written again.
+ *
+ * <p>Histories held in memory are kept in a queue ordered by their most recent use. Each
+ * use also increments a small counter. When the budget is exceeded, histories are taken
+ * from the least recently used end of the queue: one whose counter is positive has its
+ * counter decremented and is returned to the other end, and one whose counter is zero is
+ * spilled. A history that is used repeatedly therefore survives several passes, while one
+ * that was read once is spilled on the first. The budget is enforced on a background
+ * thread after the use that exceeded it, and may be exceeded briefly.
+ *
+ * <p>Configured using the following properties, when {@code versions.storage=tiered}:
+ *
+ * <pre>
+ * # Estimated size, in bytes, of the historical field values held in memory before
+ * # histories are spilled to disk. (default: 67108864)
+ * versions.tiered.memory_budget=67108864
+ *
+ * # Directory in which a directory of spill files is created for each repository. It is
+ * # deleted when the repository is closed. (default: the value of java.io.tmpdir)
+ * versions.tiered.directory=/tmp
+ *
+ * # Size, in bytes, at which a new spill file is started. Files are deleted once all of
+ * # the histories they hold have been read back or discarded. (default: 16777216)
+ * versions.tiered.segment_size=16777216
+ * </pre>
+ */
+public class HistoryTiers implements AutoCloseable
+{
+   private final static Logger logger = Logger.getLogger(HistoryTiers.class.getName());
+
+   public static final String PROP_MEMORY_BUDGET = "versions.tiered.memory_budget";
+   public static final String PROP_DIRECTORY = "versions.tiered.directory";
+   public static final String PROP_SEGMENT_SIZE = "versions.tiered.segment_size";
+
+   /** The number of uses after which further uses no longer protect a history from being spilled. */
+   private static final int MAX_USES = 3;
+
+   /**
+    * A workspace history that can be spilled.
+    */
+   interface Tenant
+   {
+      /**
+       * Spills the history to disk unless it is in use.
+       *
+       * @return {@code true} if the history was spilled, {@code false} if it is in use.
+       */
+      boolean spill();
+   }
+
+   private final long budget;
+   private final SpillFiles files;
+
+   /** Histories held in memory, least recently used first. Guarded by {@code this}. */
+   private final LinkedHashMap<Tenant, Entry> resident = new LinkedHashMap<>();
+   private long residentBytes;
+   private long spills;
+
+   private ExecutorService enforcer;
+   private boolean enforcing;
+
+   public HistoryTiers(Properties config)
+   {
+      this.budget = getLongProperty(config, PROP_MEMORY_BUDGET, 64L * 1024 * 1024);
+      if (budget < 0)
+         throw new IllegalArgumentException(format("The value of {0} must not be negative", PROP_MEMORY_BUDGET));
+
+      String directory = config.getProperty(PROP_DIRECTORY, System.getProperty("java.io.tmpdir")).trim();
+      int segmentSize = (int)getLongProperty(config, PROP_SEGMENT_SIZE, 16 * 1024 * 1024);
+      this.files = new SpillFiles(Paths.get(directory), segmentSize);
+   }
+
+   private static long getLongProperty(Properties props, String key, long defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Long.parseLong(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   /**
+    * @return The files to which histories are spilled.
+    */
+   SpillFiles getFiles()
+   {
+      return files;
+   }
+
+   /**
+    * Records the use of a history. Called while holding the lock of the workspace.
+    *
+    * @param bytes The estimated size of the history held in memory.
+    */
+   synchronized void used(Tenant tenant, long bytes)
+   {
+      // a history that was not read back does not need to be tracked
+      Entry entry = resident.remove(tenant);
+      if (entry == null && bytes == 0)
+         return;
+      if (entry == null)
+         entry = new Entry();
+
+      entry.uses = Math.min(MAX_USES, entry.uses + 1);
+      resize(tenant, entry, bytes);
+   }
+
+   /**
+    * Records a change to the size of a history that does not count as a use, such as the
+    * discarding of old versions. Called while holding the lock of the workspace.
+    */
+   synchronized void resized(Tenant tenant, long bytes)
+   {
+      Entry entry = resident.get(tenant);
+      if (entry == null)
+      {
+         entry = new Entry();
+         if (bytes == 0)
+            return;
+      }
+
+      resize(tenant, entry, bytes);
+   }
+
+   private void resize(Tenant tenant, Entry entry, long bytes)
+   {
+      residentBytes += bytes - entry.bytes;
+      entry.bytes = bytes;
+      resident.put(tenant, entry);
+
+      if (residentBytes > budget && !enforcing)
+      {
+         enforcing = true;
+         if (enforcer == null)
+         {
+            enforcer = Executors.newSingleThreadExecutor(r -> {
+               Thread t = new Thread(r, "vwise-history-tiers");
+               t.setDaemon(true);
+               return t;
+            });
+         }
+
+         enforcer.execute(() -> {
+            try
+            {
+               enforce();
+            }
+            catch (RuntimeException ex)
+            {
+               logger.log(Level.WARNING, "Failed to spill workspace history to disk.", ex);
+            }
+         });
+      }
+   }
+
+   /**
+    * Records that a history has been discarded. Called while holding the lock of the
+    * workspace.
+    */
+   synchronized void removed(Tenant tenant)
+   {
+      Entry entry = resident.remove(tenant);
+      if (entry != null)
+         residentBytes -= entry.bytes;
+   }
+
+   /**
+    * Spills histories until the memory budget is met. Histories that are in use are
+    * skipped.
+    *
+    * @return The number of histories spilled.
+    */
+   public synchronized int enforce()
+   {
+      enforcing = false;
+
+      // each pass either spills a history or decrements its use count, so two passes over
+      // the queue for each possible use are enough to visit every history that can be spilled
+      int count = 0;
+      int steps = resident.size() * (MAX_USES + 1) * 2;
+      Iterator<Map.Entry<Tenant, Entry>> queue = resident.entrySet().iterator();
+      LinkedHashMap<Tenant, Entry> requeued = new LinkedHashMap<>();
+      while (residentBytes > budget && steps-- > 0)
+      {
+         if (!queue.hasNext())
+         {
+            resident.putAll(requeued);
+            requeued.clear();
+            queue = resident.entrySet().iterator();
+            if (!queue.hasNext())
+               break;
+         }
+
+         Map.Entry<Tenant, Entry> next = queue.next();
+         Entry entry = next.getValue();
+         if (entry.uses > 0)
+         {
+            entry.uses--;
+            queue.remove();
+            requeued.put(next.getKey(), entry);
+         }
+         else if (next.getKey().spill())
+         {
+            queue.remove();
+            residentBytes -= entry.bytes;
+            spills++;
+            count++;
+         }
+      }
+
+      resident.putAll(requeued);
+      return count;
+   }
+
+   /**
+    * @return The memory budget, in bytes.
+    */
+   public long getBudget()
+   {
+      return budget;
+   }
+
+   /**
+    * @return The estimated size, in bytes, of the histories held in memory.
+    */
+   public synchronized long getResidentBytes()
+   {
+      return residentBytes;
+   }
+
+   /**
+    * @return The number of histories held in memory.
+    */
+   public synchronized int getResidentCount()
+   {
+      return resident.size();
+   }
+
+   /**
+    * @return The number of bytes of spilled histories held on disk.
+    */
+   public long getSpilledBytes()
+   {
+      return files.getLiveBytes();
+   }
+
+   /**
+    * @return The total number of times a history has been spilled.
+    */
+   public synchronized long getSpillCount()
+   {
+      return spills;
+   }
+
+   /**
+    * @return The total number of times a history has been read back from disk.
+    */
+   public long getReloadCount()
+   {
+      return files.getReadCount();
+   }
+
+   /**
+    * Stops background spilling and deletes all spill files.
+    */
+   @Override
+   public synchronized void close()
+   {
+      if (enforcer != null)
+         enforcer.shutdownNow();
+
+      enforcer = null;
+      resident.clear();
+      residentBytes = 0;
+      files.close();
+   }
+
+   private static class Entry
+   {
+      /** The estimated size, in bytes, of the history held in memory. */
+      long bytes;
+
+      /** Recent uses not yet offset by a pass of the queue. */
+      int uses;
+   }
+}
@@ -4,6 +4,7 @@ import java.util.Properties;
 import java.util.logging.Logger;
 
 import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
 import edu.tamu.tcat.vwise.WorkspaceRepository;
 
 public class InMemoryApplicationContext implements VwiseApplicationContext
@@ -24,4 +25,16 @@ public class InMemoryApplicationContext implements VwiseApplicationContext
    {
       return repo;
    }
+
+   @Override
+   public WorkspaceChangeFeed getChangeFeed()
+   {
+      return repo.getChangeLog();
+   }
+
+   @Override
+   public void close() throws Exception
+   {
+      repo.close();
+   }
 }
@@ -0,0 +1,229 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Stores binary records outside of the Java heap, in direct {@link ByteBuffer} segments
+ * of a fixed size.
+ *
+ * <p>Records are appended to the current segment and identified by a {@code long} handle
+ * that combines the segment number with the record's offset within it. Each record holds
+ * its length followed by its bytes. Records larger than a segment are given a segment of
+ * their own.
+ *
+ * <p>Space is reclaimed a segment at a time: each segment counts the bytes of its records
+ * that have not been freed, and once none remain the segment is returned to a pool from
+ * which later segments are drawn. Because versions are recorded and discarded roughly in
+ * the order they were created, segments tend to be freed as a whole.
+ *
+ * <p>Records may be read concurrently with writes to other records. Callers must ensure
+ * that a record is not read after it has been freed.
+ */
+public class OffHeapArena implements AutoCloseable
+{
+   /** A handle that does not identify a record. */
+   public static final long NONE = -1L;
+
+   private static final int HEADER_BYTES = Integer.BYTES;
+
+   /** The maximum number of empty segments retained for reuse. */
+   private static final int MAX_POOLED_SEGMENTS = 4;
+
+   private final int segmentSize;
+
+   /** Segments indexed by segment number; {@code null} for numbers that are not in use. */
+   private volatile Segment[] segments = new Segment[0];
+   private final Deque<Segment> pool = new ArrayDeque<>();
+   private Segment current;
+
+   private long reservedBytes;
+   private long liveBytes;
+
+   /**
+    * @param segmentSize The size, in bytes, of each segment.
+    */
+   public OffHeapArena(int segmentSize)
+   {
+      if (segmentSize < 1024)
+         throw new IllegalArgumentException(format("The segment size must be at least 1024 bytes [{0,number,#}]", Integer.valueOf(segmentSize)));
+
+      this.segmentSize = segmentSize;
+   }
+
+   /**
+    * Writes a record.
+    *
+    * @param record The bytes of the record.
+    * @return The handle of the record.
+    */
+   public long store(byte[] record)
+   {
+      int length = HEADER_BYTES + record.length;
+      synchronized (this)
+      {
+         Segment segment = reserve(length);
+         int offset = segment.used;
+         ByteBuffer buffer = segment.buffer.duplicate();
+         buffer.position(offset);
+         buffer.putInt(length);
+         buffer.put(record);
+
+         segment.used += length;
+         segment.live += length;
+         liveBytes += length;
+         return ((long)segment.number << 32) | offset;
+      }
+   }
+
+   private Segment reserve(int length)
+   {
+      if (current != null && segmentSize - current.used >= length)
+         return current;
+
+      Segment segment = length > segmentSize ? null : pool.poll();
+      if (segment == null)
+      {
+         int size = Math.max(segmentSize, length);
+         segment = new Segment(ByteBuffer.allocateDirect(size));
+         reservedBytes += size;
+      }
+
+      segment.number = assignNumber(segment);
+      if (length <= segmentSize)
+      {
+         Segment previous = current;
+         current = segment;
+         if (previous != null && previous.live == 0)
+            release(previous);
+      }
+
+      return segment;
+   }
+
+   private int assignNumber(Segment segment)
+   {
+      Segment[] numbered = segments;
+      for (int i = 0; i < numbered.length; i++)
+      {
+         if (numbered[i] == null)
+         {
+            numbered[i] = segment;
+            return i;
+         }
+      }
+
+      Segment[] grown = Arrays.copyOf(numbered, numbered.length + 1);
+      grown[numbered.length] = segment;
+      segments = grown;
+      return numbered.length;
+   }
+
+   /**
+    * Reads a record.
+    *
+    * @param handle The handle of the record.
+    * @return A copy of the bytes of the record.
+    */
+   public byte[] load(long handle)
+   {
+      ByteBuffer buffer = segment(handle).buffer.duplicate();
+      int offset = (int)handle;
+      byte[] record = new byte[buffer.getInt(offset) - HEADER_BYTES];
+      buffer.position(offset + HEADER_BYTES);
+      buffer.get(record);
+      return record;
+   }
+
+   /**
+    * Releases the space used by a record.
+    *
+    * @param handle The handle of the record. Ignored if {@link #NONE}.
+    */
+   public synchronized void free(long handle)
+   {
+      if (handle == NONE)
+         return;
+
+      Segment segment = segment(handle);
+      int length = segment.buffer.getInt((int)handle);
+      segment.live -= length;
+      liveBytes -= length;
+      if (segment.live == 0 && segment != current)
+         release(segment);
+   }
+
+   private void release(Segment segment)
+   {
+      segments[segment.number] = null;
+      if (segment.buffer.capacity() == segmentSize && pool.size() < MAX_POOLED_SEGMENTS)
+      {
+         segment.used = 0;
+         pool.push(segment);
+      }
+      else
+      {
+         // the buffer is released once it is garbage collected
+         reservedBytes -= segment.buffer.capacity();
+      }
+   }
+
+   private Segment segment(long handle)
+   {
+      Segment segment = segments[(int)(handle >>> 32)];
+      if (segment == null)
+         throw new IllegalStateException(format("Record {0,number,#} has been freed", Long.valueOf(handle)));
+
+      return segment;
+   }
+
+   /**
+    * @return The number of bytes of direct memory allocated for segments, including pooled segments.
+    */
+   public synchronized long getReservedBytes()
+   {
+      return reservedBytes;
+   }
+
+   /**
+    * @return The number of bytes held by records that have not been freed.
+    */
+   public synchronized long getLiveBytes()
+   {
+      return liveBytes;
+   }
+
+   /**
+    * Releases all segments. Handles issued by this arena must not be used afterwards.
+    */
+   @Override
+   public synchronized void close()
+   {
+      segments = new Segment[0];
+      pool.clear();
+      current = null;
+      reservedBytes = 0;
+      liveBytes = 0;
+   }
+
+   private static class Segment
+   {
+      final ByteBuffer buffer;
+      int number;
+
+      /** The number of bytes written. */
+      int used;
+
+      /** The number of written bytes that belong to records that have not been freed. */
+      int live;
+
+      Segment(ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+   }
+}
@@ -0,0 +1,266 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery.SortField;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryCursor;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
+
+/**
+ * Evaluates {@link WorkspaceQuery queries} against the committed state of an in-memory
+ * repository.
+ *
+ * <p>The planner reads candidate workspaces from the cheapest available source: the
+ * partition of the {@link ScopeIndex} for a requested scope, the partitions for a scope
+ * prefix, or a scan of every workspace. Candidates are streamed through the query's
+ * predicates one at a time. When the source yields workspaces in the requested order,
+ * evaluation stops once the page is filled; otherwise matches are kept in a heap bounded
+ * by the size of the page.
+ *
+ * <p>Cursors identify the last workspace of a page by its sort value and id, so that
+ * pages remain stable as workspaces are added or removed.
+ */
+class QueryPlanner
+{
+   /**
+    * Reads the committed state of a workspace.
+    */
+   interface StateReader
+   {
+      /**
+       * @return The committed state of the identified workspace, or {@code null} if it
+       *       does not exist or is excluded by the supplied policy. The returned object
+       *       is shared and must not be modified.
+       */
+      WorkspaceMeta read(String id, WorkspaceQuery.Removed removed);
+   }
+
+   private final ScopeIndex scopes;
+   private final Supplier<Collection<String>> allIds;
+   private final Comparator<String> idOrder;
+   private final StateReader reader;
+
+   QueryPlanner(ScopeIndex scopes, Supplier<Collection<String>> allIds, Comparator<String> idOrder, StateReader reader)
+   {
+      this.scopes = scopes;
+      this.allIds = allIds;
+      this.idOrder = idOrder;
+      this.reader = reader;
+   }
+
+   public WorkspaceQueryResult execute(WorkspaceQuery criteria)
+   {
+      if (criteria.offset < 0)
+         throw new IllegalArgumentException("The offset must not be negative");
+
+      WorkspaceQuery query = WorkspaceQuery.copy(criteria);
+      if (query.sort == null)
+         query.sort = SortField.ID;
+      if (query.removed == null)
+         query.removed = WorkspaceQuery.Removed.EXCLUDE;
+
+      Comparator<WorkspaceMeta> order = comparator(query);
+      WorkspaceMeta after = query.cursor == null ? null : WorkspaceQueryCursor.decode(query.cursor, query.sort);
+      Plan plan = plan(query, after);
+
+      Predicate<WorkspaceMeta> predicate = predicate(query);
+      if (after != null)
+         predicate = predicate.and(meta -> order.compare(meta, after) > 0);
+
+      Stream<WorkspaceMeta> matches = plan.ids
+            .map(id -> reader.read(id, query.removed))
+            .filter(Objects::nonNull)
+            .filter(predicate);
+
+      long end = query.limit > 0 ? (long)query.offset + query.limit : Long.MAX_VALUE;
+      List<WorkspaceMeta> selected;
+      boolean more;
+      if (plan.ordered)
+      {
+         // the source is already in the requested order; stop once one match beyond the page is found
+         selected = matches.limit(end == Long.MAX_VALUE ? end : end + 1).collect(toList());
+         more = selected.size() > end;
+      }
+      else if (end < Long.MAX_VALUE)
+      {
+         TopK top = new TopK((int)Math.min(end, Integer.MAX_VALUE), order);
+         matches.forEach(top::offer);
+         selected = top.sorted();
+         more = top.total > end;
+      }
+      else
+      {
+         selected = matches.sorted(order).collect(toList());
+         more = false;
+      }
+
+      int from = Math.min(query.offset, selected.size());
+      int to = (int)Math.min(end, selected.size());
+
+      WorkspaceQueryResult result = new WorkspaceQueryResult();
+      result.workspaces = selected.subList(from, to).stream().map(WorkspaceMeta::copy).collect(toList());
+      result.next = more && to > from ? WorkspaceQueryCursor.encode(selected.get(to - 1), query.sort) : null;
+      result.plan = plan.description;
+      return result;
+   }
+
+   /**
+    * Selects the source of candidate workspaces with the fewest candidates.
+    */
+   private Plan plan(WorkspaceQuery query, WorkspaceMeta after)
+   {
+      boolean byId = query.sort == SortField.ID;
+      if (query.scope != null)
+      {
+         // a single partition is in id order and may be positioned at the cursor
+         NavigableSet<String> ids = scopes.getIds(query.scope);
+         if (byId && after != null)
+            ids = query.descending ? ids.headSet(after.id, false) : ids.tailSet(after.id, false);
+         if (byId && query.descending)
+            ids = ids.descendingSet();
+
+         return new Plan(format("scope index [{0}] (~{1,number,#} candidates)", query.scope, scopes.count(query.scope)), ids.stream(), byId);
+      }
+
+      Collection<String> all = allIds.get();
+      if (query.scopePrefix != null)
+      {
+         long candidates = scopes.countByPrefix(query.scopePrefix);
+         if (candidates < all.size())
+         {
+            List<Collection<String>> partitions = scopes.getIdsByPrefix(query.scopePrefix);
+            return new Plan(format("scope prefix index [{0}] ({1,number,#} partitions, ~{2,number,#} candidates)",
+                  query.scopePrefix, partitions.size(), candidates), partitions.stream().flatMap(Collection::stream), false);
+         }
+      }
+
+      return new Plan(format("full scan (~{0,number,#} candidates)", all.size()), all.stream(), false);
+   }
+
+   private static Predicate<WorkspaceMeta> predicate(WorkspaceQuery query)
+   {
+      Predicate<WorkspaceMeta> predicate = meta -> true;
+      if (query.scope != null)
+      {
+         // the workspace may have been moved to another scope since the ids were read
+         String scope = query.scope;
+         predicate = predicate.and(meta -> scope.equals(meta.scope));
+      }
+
+      if (query.scopePrefix != null)
+      {
+         String prefix = query.scopePrefix;
+         predicate = predicate.and(meta -> meta.scope != null && meta.scope.startsWith(prefix));
+      }
+
+      if (query.keyPrefix != null)
+      {
+         String prefix = query.keyPrefix;
+         predicate = predicate.and(meta -> meta.key != null && meta.key.startsWith(prefix));
+      }
+
+      if (query.nameContains != null)
+      {
+         String term = query.nameContains.toLowerCase(Locale.ROOT);
+         predicate = predicate.and(meta -> meta.name != null && meta.name.toLowerCase(Locale.ROOT).contains(term));
+      }
+
+      return predicate;
+   }
+
+   private Comparator<WorkspaceMeta> comparator(WorkspaceQuery query)
+   {
+      Comparator<WorkspaceMeta> byId = (a, b) -> idOrder.compare(a.id, b.id);
+      Comparator<String> text = Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER);
+
+      Comparator<WorkspaceMeta> order;
+      switch (query.sort)
+      {
+         case NAME:
+            order = Comparator.comparing((WorkspaceMeta meta) -> meta.name, text).thenComparing(byId);
+            break;
+         case KEY:
+            order = Comparator.comparing((WorkspaceMeta meta) -> meta.key, text).thenComparing(byId);
+            break;
+         case MODIFIED:
+            order = Comparator.comparingLong((WorkspaceMeta meta) -> meta.modified).thenComparing(byId);
+            break;
+         case ID:
+         default:
+            order = byId;
+      }
+
+      return query.descending ? order.reversed() : order;
+   }
+
+   private static class Plan
+   {
+      final String description;
+      final Stream<String> ids;
+
+      /** Indicates that the ids are supplied in the requested order. */
+      final boolean ordered;
+
+      Plan(String description, Stream<String> ids, boolean ordered)
+      {
+         this.description = description;
+         this.ids = ids;
+         this.ordered = ordered;
+      }
+   }
+
+   /**
+    * Retains the first {@code k} workspaces offered in a given order.
+    */
+   private static class TopK
+   {
+      private final int k;
+      private final Comparator<WorkspaceMeta> order;
+
+      /** Holds the retained workspaces with the last in order at the head. */
+      private final PriorityQueue<WorkspaceMeta> heap;
+
+      long total;
+
+      TopK(int k, Comparator<WorkspaceMeta> order)
+      {
+         this.k = k;
+         this.order = order;
+         this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), order.reversed());
+      }
+
+      void offer(WorkspaceMeta meta)
+      {
+         total++;
+         if (heap.size() < k)
+            heap.add(meta);
+         else if (k > 0 && order.compare(meta, heap.peek()) < 0)
+         {
+            heap.poll();
+            heap.add(meta);
+         }
+      }
+
+      List<WorkspaceMeta> sorted()
+      {
+         List<WorkspaceMeta> sorted = new ArrayList<>(heap);
+         sorted.sort(order);
+         return sorted;
+      }
+   }
+}
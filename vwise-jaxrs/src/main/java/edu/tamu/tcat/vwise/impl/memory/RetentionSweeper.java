@@ -0,0 +1,243 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Enforces version retention and expires removed workspaces in the background.
+ *
+ * <p>Sweeps run on a single low-priority thread. Each workspace is visited in turn and its
+ * lock is held only while discarding a bounded batch of versions, so that sweeps do not
+ * delay requests for long.
+ *
+ * <p>Configured using the following properties:
+ *
+ * <pre>
+ * # Number of recent versions retained for each workspace. 0 retains all. (default: 0)
+ * versions.retain.max_count=0
+ *
+ * # Age, in milliseconds, after which versions are discarded. 0 retains all. If both this
+ * # and max_count are set, a version is retained if either policy retains it. The most
+ * # recent version of a workspace is always retained. (default: 0)
+ * versions.retain.max_age_ms=0
+ *
+ * # Time, in milliseconds, after which removed workspaces are purged along with their
+ * # history. A negative value retains removed workspaces until they are purged
+ * # explicitly. (default: -1)
+ * workspaces.tombstone.grace_ms=-1
+ *
+ * # Delay, in milliseconds, between background sweeps. 0 disables background sweeps.
+ * # (default: 60000)
+ * retention.sweep.interval_ms=60000
+ *
+ * # Maximum number of versions discarded while holding the lock of a workspace.
+ * # (default: 256)
+ * retention.sweep.batch_size=256
+ * </pre>
+ */
+public class RetentionSweeper
+{
+   private final static Logger logger = Logger.getLogger(RetentionSweeper.class.getName());
+
+   public static final String PROP_MAX_COUNT = "versions.retain.max_count";
+   public static final String PROP_MAX_AGE = "versions.retain.max_age_ms";
+   public static final String PROP_TOMBSTONE_GRACE = "workspaces.tombstone.grace_ms";
+   public static final String PROP_INTERVAL = "retention.sweep.interval_ms";
+   public static final String PROP_BATCH_SIZE = "retention.sweep.batch_size";
+
+   /**
+    * Summarizes the work done by a single sweep.
+    */
+   public static class Report
+   {
+      /** The number of workspaces examined. */
+      public final int examined;
+
+      /** The number of versions discarded. */
+      public final long versionsDiscarded;
+
+      /** The number of removed workspaces that were purged. */
+      public final int workspacesPurged;
+
+      /** The duration of the sweep in milliseconds. */
+      public final long elapsedMillis;
+
+      Report(int examined, long versionsDiscarded, int workspacesPurged, long elapsedMillis)
+      {
+         this.examined = examined;
+         this.versionsDiscarded = versionsDiscarded;
+         this.workspacesPurged = workspacesPurged;
+         this.elapsedMillis = elapsedMillis;
+      }
+   }
+
+   private final WorkspaceRepoImpl repo;
+
+   private final int maxCount;
+   private final long maxAge;
+   private final long tombstoneGrace;
+   private final long interval;
+   private final int batchSize;
+
+   private final AtomicLong totalVersionsDiscarded = new AtomicLong();
+   private final AtomicLong totalWorkspacesPurged = new AtomicLong();
+
+   private ScheduledExecutorService executor;
+
+   RetentionSweeper(Properties config, WorkspaceRepoImpl repo)
+   {
+      this.repo = repo;
+
+      this.maxCount = (int)getLongProperty(config, PROP_MAX_COUNT, 0);
+      this.maxAge = getLongProperty(config, PROP_MAX_AGE, 0);
+      this.tombstoneGrace = getLongProperty(config, PROP_TOMBSTONE_GRACE, -1);
+      this.interval = getLongProperty(config, PROP_INTERVAL, 60_000);
+      this.batchSize = (int)getLongProperty(config, PROP_BATCH_SIZE, 256);
+
+      if (maxCount < 0 || maxAge < 0)
+         throw new IllegalArgumentException(format("The values of {0} and {1} must not be negative", PROP_MAX_COUNT, PROP_MAX_AGE));
+      if (batchSize <= 0)
+         throw new IllegalArgumentException(format("The value of {0} must be positive", PROP_BATCH_SIZE));
+   }
+
+   private static long getLongProperty(Properties props, String key, long defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Long.parseLong(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   /**
+    * @return {@code true} if a retention or tombstone expiry policy is configured.
+    */
+   public boolean isEnabled()
+   {
+      return maxCount > 0 || maxAge > 0 || tombstoneGrace >= 0;
+   }
+
+   /**
+    * Starts background sweeps if a policy is configured and background sweeps are enabled.
+    */
+   synchronized void start()
+   {
+      if (executor != null || !isEnabled() || interval <= 0)
+         return;
+
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "vwise-retention-sweeper");
+         t.setDaemon(true);
+         t.setPriority(Thread.MIN_PRIORITY);
+         return t;
+      });
+      executor.scheduleWithFixedDelay(this::runSweep, interval, interval, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stops background sweeps.
+    */
+   synchronized void close()
+   {
+      if (executor != null)
+         executor.shutdownNow();
+
+      executor = null;
+   }
+
+   private void runSweep()
+   {
+      try
+      {
+         sweep();
+      }
+      catch (RuntimeException ex)
+      {
+         logger.log(Level.WARNING, "Retention sweep failed.", ex);
+      }
+   }
+
+   /**
+    * Applies the configured policies to every workspace in the repository.
+    *
+    * @return A summary of the work done.
+    */
+   public Report sweep()
+   {
+      long start = System.currentTimeMillis();
+
+      int examined = 0;
+      long discarded = 0;
+      int purged = 0;
+
+      boolean retainAll = maxCount == 0 && maxAge == 0;
+      List<String> ids = new ArrayList<>(repo.getWorkspaceIds());
+      for (String id : ids)
+      {
+         if (Thread.currentThread().isInterrupted())
+            break;
+
+         examined++;
+         long now = System.currentTimeMillis();
+         if (tombstoneGrace >= 0 && repo.isRemovedBefore(id, now - tombstoneGrace))
+         {
+            repo.purge(id);
+            purged++;
+            continue;
+         }
+
+         if (retainAll)
+            continue;
+
+         // releases the workspace lock between batches
+         long minModified = maxAge > 0 ? now - maxAge : Long.MAX_VALUE;
+         int count;
+         do
+         {
+            count = repo.discardVersions(id, maxCount, minModified, batchSize);
+            discarded += count;
+         }
+         while (count == batchSize);
+      }
+
+      totalVersionsDiscarded.addAndGet(discarded);
+      totalWorkspacesPurged.addAndGet(purged);
+
+      Report report = new Report(examined, discarded, purged, System.currentTimeMillis() - start);
+      Level level = discarded > 0 || purged > 0 ? Level.INFO : Level.FINE;
+      logger.log(level, () -> format("Retention sweep examined {0,number,#} workspaces, discarded {1,number,#} versions and purged {2,number,#} removed workspaces in {3,number,#} ms.",
+            Integer.valueOf(report.examined), Long.valueOf(report.versionsDiscarded),
+            Integer.valueOf(report.workspacesPurged), Long.valueOf(report.elapsedMillis)));
+
+      return report;
+   }
+
+   /**
+    * @return The number of versions discarded by all sweeps.
+    */
+   public long getTotalVersionsDiscarded()
+   {
+      return totalVersionsDiscarded.get();
+   }
+
+   /**
+    * @return The number of removed workspaces purged by all sweeps.
+    */
+   public long getTotalWorkspacesPurged()
+   {
+      return totalWorkspacesPurged.get();
+   }
+}
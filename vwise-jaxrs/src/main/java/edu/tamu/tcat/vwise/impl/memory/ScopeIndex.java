@@ -0,0 +1,222 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+
+/**
+ * Partitions workspaces by scope. Each partition holds the ids of its workspaces in id
+ * order along with counts of its active and removed workspaces, so that a scope can be
+ * listed or counted without examining workspaces in other scopes. Partitions are ordered by
+ * scope so that the partitions for scopes sharing a prefix are adjacent.
+ *
+ * <p>Partitions reflect committed state. They are modified only from within repository
+ * commits, which are serialized, and may be read concurrently.
+ */
+class ScopeIndex
+{
+   /** The partition key used for workspaces that do not have a scope. */
+   private static final String UNSCOPED = "";
+
+   private final Comparator<String> idOrder;
+   private final ConcurrentSkipListMap<String, Partition> partitions = new ConcurrentSkipListMap<>();
+
+   ScopeIndex(Comparator<String> idOrder)
+   {
+      this.idOrder = idOrder;
+   }
+
+   private static String key(String scope)
+   {
+      return scope == null ? UNSCOPED : scope;
+   }
+
+   /**
+    * Adds a new workspace to its scope.
+    */
+   public void add(String scope, String id)
+   {
+      Partition partition = partitions.computeIfAbsent(key(scope), k -> new Partition(scope, idOrder));
+      partition.ids.add(id);
+      partition.active++;
+   }
+
+   /**
+    * Moves an active workspace to a new scope.
+    */
+   public void move(String from, String to, String id)
+   {
+      if (key(from).equals(key(to)))
+         return;
+
+      Partition partition = partitions.get(key(from));
+      if (partition != null)
+      {
+         partition.ids.remove(id);
+         partition.active--;
+         discardIfEmpty(partition);
+      }
+
+      add(to, id);
+   }
+
+   /**
+    * Records that a workspace was removed. Removed workspaces remain in their scope until
+    * they are purged.
+    */
+   public void markRemoved(String scope, String id)
+   {
+      Partition partition = partitions.get(key(scope));
+      if (partition == null || !partition.ids.contains(id))
+         return;
+
+      partition.active--;
+      partition.removed++;
+   }
+
+   /**
+    * Removes a purged workspace from its scope.
+    *
+    * @param removed Indicates whether the workspace had been removed before it was purged.
+    */
+   public void purge(String scope, String id, boolean removed)
+   {
+      Partition partition = partitions.get(key(scope));
+      if (partition == null || !partition.ids.remove(id))
+         return;
+
+      if (removed)
+         partition.removed--;
+      else
+         partition.active--;
+
+      discardIfEmpty(partition);
+   }
+
+   /**
+    * Removes all partitions.
+    */
+   public void clear()
+   {
+      partitions.clear();
+   }
+
+   private void discardIfEmpty(Partition partition)
+   {
+      if (partition.ids.isEmpty())
+         partitions.remove(key(partition.scope), partition);
+   }
+
+   /**
+    * @return The ids of the active and removed workspaces in a scope, in id order.
+    *       Reflects concurrent changes.
+    */
+   public NavigableSet<String> getIds(String scope)
+   {
+      Partition partition = partitions.get(key(scope));
+      return partition == null ? Collections.emptyNavigableSet() : Collections.unmodifiableNavigableSet(partition.ids);
+   }
+
+   /**
+    * @return The ids of the active and removed workspaces in each scope that starts with
+    *       the supplied prefix, in scope order. Ids are in id order within each scope.
+    *       Workspaces without a scope are not included.
+    */
+   public List<Collection<String>> getIdsByPrefix(String prefix)
+   {
+      List<Collection<String>> ids = new ArrayList<>();
+      prefixRange(prefix).values().forEach(partition -> {
+         if (partition.scope != null)
+            ids.add(Collections.unmodifiableSet(partition.ids));
+      });
+      return ids;
+   }
+
+   /**
+    * @return The number of active and removed workspaces in a scope.
+    */
+   public int count(String scope)
+   {
+      Partition partition = partitions.get(key(scope));
+      return partition == null ? 0 : partition.active + partition.removed;
+   }
+
+   /**
+    * @return The number of active and removed workspaces in scopes that start with the
+    *       supplied prefix.
+    */
+   public long countByPrefix(String prefix)
+   {
+      long count = 0;
+      for (Partition partition : prefixRange(prefix).values())
+      {
+         if (partition.scope != null)
+            count += partition.active + partition.removed;
+      }
+      return count;
+   }
+
+   private NavigableMap<String, Partition> prefixRange(String prefix)
+   {
+      return partitions.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+   }
+
+   /**
+    * @return The number of workspaces in a scope.
+    */
+   public ScopeSummary getSummary(String scope)
+   {
+      Partition partition = partitions.get(key(scope));
+      return partition == null ? summarize(scope, 0, 0) : partition.summarize();
+   }
+
+   /**
+    * @return The number of workspaces in each scope that has any, in no particular order.
+    */
+   public List<ScopeSummary> getSummaries()
+   {
+      List<ScopeSummary> summaries = new ArrayList<>(partitions.size());
+      partitions.values().forEach(partition -> summaries.add(partition.summarize()));
+      return summaries;
+   }
+
+   private static ScopeSummary summarize(String scope, int active, int removed)
+   {
+      ScopeSummary summary = new ScopeSummary();
+      summary.scope = scope;
+      summary.workspaces = active;
+      summary.removed = removed;
+      return summary;
+   }
+
+   private static class Partition
+   {
+      final String scope;
+      final ConcurrentSkipListSet<String> ids;
+
+      /** The number of workspaces that have not been removed. Modified only within commits. */
+      volatile int active;
+
+      /** The number of removed workspaces that have not been purged. Modified only within commits. */
+      volatile int removed;
+
+      Partition(String scope, Comparator<String> idOrder)
+      {
+         this.scope = scope;
+         this.ids = new ConcurrentSkipListSet<>(idOrder);
+      }
+
+      ScopeSummary summarize()
+      {
+         return ScopeIndex.summarize(scope, active, removed);
+      }
+   }
+}
@@ -0,0 +1,308 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Stores records on local disk in a set of append-only segment files.
+ *
+ * <p>Records are appended to the current segment and identified by a {@code long} handle
+ * that combines the segment number with the record's offset within it. Each record is
+ * preceded by its length and a CRC-32 checksum of its content, which is verified when the
+ * record is read. Records larger than a segment are given a segment of their own.
+ *
+ * <p>Each segment counts the bytes of its records that have not been freed. Once none
+ * remain, the segment file is deleted. The files are a cache of state that is also held
+ * in memory, so they are neither synced nor recovered: they are created in a new
+ * directory that is deleted when the store is closed.
+ *
+ * <p>Records may be read concurrently with writes to other records. Callers must ensure
+ * that a record is not read after it has been freed.
+ */
+class SpillFiles implements AutoCloseable
+{
+   /** A handle that does not identify a record. */
+   static final long NONE = -1L;
+
+   private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+   private final Path directory;
+   private final int segmentSize;
+   private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+   private Segment current;
+   private int nextSegment = 0;
+
+   private long liveBytes;
+   private long fileBytes;
+   private final AtomicLong reads = new AtomicLong();
+
+   /**
+    * @param parent The directory in which the directory that holds the segment files is created.
+    * @param segmentSize The size, in bytes, at which a new segment file is started.
+    */
+   SpillFiles(Path parent, int segmentSize)
+   {
+      if (segmentSize < 1024)
+         throw new IllegalArgumentException(format("The segment size must be at least 1024 bytes [{0,number,#}]", Integer.valueOf(segmentSize)));
+
+      this.segmentSize = segmentSize;
+      try
+      {
+         Files.createDirectories(parent);
+         this.directory = Files.createTempDirectory(parent, "vwise-history-");
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to create a directory for spilled history in {0}", parent), ex);
+      }
+   }
+
+   /**
+    * @return The directory that holds the segment files.
+    */
+   Path getDirectory()
+   {
+      return directory;
+   }
+
+   /**
+    * Writes a record.
+    *
+    * @return The handle of the record.
+    */
+   synchronized long write(byte[] content)
+   {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+
+      int length = HEADER_BYTES + content.length;
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      buffer.putInt(content.length);
+      buffer.putInt((int)crc.getValue());
+      buffer.put(content);
+      buffer.flip();
+
+      Segment segment = reserve(length);
+      int offset = segment.used;
+      try
+      {
+         while (buffer.hasRemaining())
+            segment.channel.write(buffer, offset + buffer.position());
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to write to {0}", segment.path), ex);
+      }
+
+      segment.used += length;
+      segment.live += length;
+      liveBytes += length;
+      fileBytes += length;
+      return ((long)segment.number << 32) | offset;
+   }
+
+   private Segment reserve(int length)
+   {
+      if (current != null && segmentSize - current.used >= length)
+         return current;
+
+      Segment segment = open(nextSegment++);
+      if (length <= segmentSize)
+      {
+         Segment previous = current;
+         current = segment;
+         if (previous != null && previous.live == 0)
+            delete(previous);
+      }
+
+      return segment;
+   }
+
+   private Segment open(int number)
+   {
+      Path path = directory.resolve(format("segment-{0,number,#}.spill", Integer.valueOf(number)));
+      try
+      {
+         FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+         Segment segment = new Segment(number, path, channel);
+         segments.put(Integer.valueOf(number), segment);
+         return segment;
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to create {0}", path), ex);
+      }
+   }
+
+   /**
+    * Reads a record.
+    *
+    * @throws IllegalStateException If the record does not match its checksum.
+    */
+   byte[] read(long handle)
+   {
+      Segment segment = segment(handle);
+      long offset = (int)handle;
+      try
+      {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+         readFully(segment.channel, header, offset);
+         header.flip();
+         int length = header.getInt();
+         int checksum = header.getInt();
+
+         ByteBuffer content = ByteBuffer.allocate(length);
+         readFully(segment.channel, content, offset + HEADER_BYTES);
+
+         CRC32 crc = new CRC32();
+         crc.update(content.array());
+         if ((int)crc.getValue() != checksum)
+            throw new IllegalStateException(format("Spilled record {0,number,#} in {1} is corrupt.", Long.valueOf(handle), segment.path));
+
+         reads.incrementAndGet();
+         return content.array();
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to read from {0}", segment.path), ex);
+      }
+   }
+
+   private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+   {
+      while (buffer.hasRemaining())
+      {
+         if (channel.read(buffer, position + buffer.position()) < 0)
+            throw new IOException(format("Unexpected end of file at {0,number,#}", Long.valueOf(position + buffer.position())));
+      }
+   }
+
+   /**
+    * Releases the space used by a record.
+    *
+    * @param handle The handle of the record. Ignored if {@link #NONE}.
+    */
+   synchronized void free(long handle)
+   {
+      if (handle == NONE)
+         return;
+
+      Segment segment = segment(handle);
+      int length;
+      try
+      {
+         ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+         readFully(segment.channel, header, (int)handle);
+         length = HEADER_BYTES + header.getInt(0);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to read from {0}", segment.path), ex);
+      }
+
+      segment.live -= length;
+      liveBytes -= length;
+      if (segment.live == 0 && segment != current)
+         delete(segment);
+   }
+
+   private void delete(Segment segment)
+   {
+      segments.remove(Integer.valueOf(segment.number));
+      fileBytes -= segment.used;
+      try
+      {
+         segment.channel.close();
+         Files.deleteIfExists(segment.path);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to delete {0}", segment.path), ex);
+      }
+   }
+
+   private Segment segment(long handle)
+   {
+      Segment segment = segments.get(Integer.valueOf((int)(handle >>> 32)));
+      if (segment == null)
+         throw new IllegalStateException(format("Spilled record {0,number,#} has been freed", Long.valueOf(handle)));
+
+      return segment;
+   }
+
+   /**
+    * @return The number of bytes held by records that have not been freed.
+    */
+   synchronized long getLiveBytes()
+   {
+      return liveBytes;
+   }
+
+   /**
+    * @return The number of bytes written to segment files that have not been deleted.
+    */
+   synchronized long getFileBytes()
+   {
+      return fileBytes;
+   }
+
+   /**
+    * @return The number of records that have been read.
+    */
+   long getReadCount()
+   {
+      return reads.get();
+   }
+
+   /**
+    * Deletes all segment files and the directory that holds them. Handles issued by this
+    * store must not be used afterwards.
+    */
+   @Override
+   public synchronized void close()
+   {
+      for (Segment segment : segments.values())
+         delete(segment);
+
+      current = null;
+      liveBytes = 0;
+      try
+      {
+         Files.deleteIfExists(directory);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(format("Failed to delete {0}", directory), ex);
+      }
+   }
+
+   private static class Segment
+   {
+      final int number;
+      final Path path;
+      final FileChannel channel;
+
+      /** The number of bytes written. */
+      int used;
+
+      /** The number of written bytes that belong to records that have not been freed. */
+      int live;
+
+      Segment(int number, Path path, FileChannel channel)
+      {
+         this.number = number;
+         this.path = path;
+         this.channel = channel;
+      }
+   }
+}
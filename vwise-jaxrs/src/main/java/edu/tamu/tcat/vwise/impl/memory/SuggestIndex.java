@@ -0,0 +1,207 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * A sorted dictionary of the keys and names of workspaces that supports completion of a
+ * typed prefix.
+ *
+ * <p>Each entry is the lower-case text to be completed followed by the id of its
+ * workspace. A workspace contributes its key, its name, and the remainder of its name from
+ * each word after the first, so that "Field Notes" can be found by typing "no". Entries
+ * are held once in a dictionary of all workspaces and once in a dictionary for the
+ * workspace's scope; both hold the same strings. Completing a prefix scans the range of
+ * entries that start with it, in lexicographic order, and stops as soon as enough
+ * workspaces have been found.
+ *
+ * <p>The entries of a change are {@link #prepare prepared} before the repository commit that
+ * makes it visible and {@link #install installed} within it. Commits are serialized; the
+ * index may be read concurrently.
+ */
+class SuggestIndex
+{
+   /** Separates the completed text from the workspace id within an entry. */
+   private static final char SEPARATOR = '\u0000';
+
+   /** The partition key used for workspaces that do not have a scope. */
+   private static final String UNSCOPED = "";
+
+   /** The maximum number of words after the first from which a name may be completed. */
+   static final int MAX_NAME_WORDS = 8;
+
+   private final ConcurrentSkipListSet<String> entries = new ConcurrentSkipListSet<>();
+   private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> scoped = new ConcurrentHashMap<>();
+
+   private static String key(String scope)
+   {
+      return scope == null ? UNSCOPED : scope;
+   }
+
+   /**
+    * @return The lower-case form of typed text used to find completions.
+    */
+   static String normalize(String text)
+   {
+      return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+   }
+
+   /**
+    * @return The entries contributed by a workspace.
+    */
+   private static List<String> entries(String id, WorkspaceMeta meta)
+   {
+      List<String> result = new ArrayList<>();
+      if (meta == null)
+         return result;
+
+      String key = normalize(meta.key);
+      if (!key.isEmpty())
+         result.add(key + SEPARATOR + id);
+
+      String name = normalize(meta.name);
+      if (!name.isEmpty())
+      {
+         result.add(name + SEPARATOR + id);
+
+         int words = 0;
+         for (int i = 1; i < name.length() && words < MAX_NAME_WORDS; i++)
+         {
+            if (Character.isLetterOrDigit(name.charAt(i)) && !Character.isLetterOrDigit(name.charAt(i - 1)))
+            {
+               result.add(name.substring(i) + SEPARATOR + id);
+               words++;
+            }
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Computes the change to the index that re-indexes a workspace whose key, name or scope
+    * may have changed. Called before the commit that {@link #install(Delta) installs} it.
+    *
+    * @param before The currently indexed state, or {@code null} if the workspace is not indexed.
+    * @param after The new state, or {@code null} to remove the workspace from the index.
+    * @return The change, or {@code null} if the indexed entries are unchanged.
+    */
+   public Delta prepare(String id, WorkspaceMeta before, WorkspaceMeta after)
+   {
+      if (before != null && after != null
+            && Objects.equals(before.key, after.key)
+            && Objects.equals(before.name, after.name)
+            && Objects.equals(before.scope, after.scope))
+         return null;
+
+      return new Delta(before == null ? null : key(before.scope), entries(id, before),
+                       after == null ? null : key(after.scope), entries(id, after));
+   }
+
+   /**
+    * Installs a prepared change. Called from within a repository commit.
+    */
+   public void install(Delta delta)
+   {
+      if (delta.removedFrom != null)
+      {
+         ConcurrentSkipListSet<String> partition = scoped.get(delta.removedFrom);
+         for (String entry : delta.removed)
+         {
+            entries.remove(entry);
+            if (partition != null)
+               partition.remove(entry);
+         }
+
+         if (partition != null && partition.isEmpty())
+            scoped.remove(delta.removedFrom, partition);
+      }
+
+      if (delta.addedTo != null)
+      {
+         ConcurrentSkipListSet<String> partition = scoped.computeIfAbsent(delta.addedTo, k -> new ConcurrentSkipListSet<>());
+         for (String entry : delta.added)
+         {
+            entries.add(entry);
+            partition.add(entry);
+         }
+      }
+   }
+
+   /**
+    * A prepared change to the index. See {@link SuggestIndex#prepare(String, WorkspaceMeta, WorkspaceMeta)}.
+    */
+   static final class Delta
+   {
+      /** The partition of the removed entries, or {@code null} if none are removed. */
+      private final String removedFrom;
+      private final List<String> removed;
+
+      /** The partition of the added entries, or {@code null} if none are added. */
+      private final String addedTo;
+      private final List<String> added;
+
+      private Delta(String removedFrom, List<String> removed, String addedTo, List<String> added)
+      {
+         this.removedFrom = removedFrom;
+         this.removed = removed;
+         this.addedTo = addedTo;
+         this.added = added;
+      }
+   }
+
+   /**
+    * Removes all workspaces from the index.
+    */
+   public void clear()
+   {
+      entries.clear();
+      scoped.clear();
+   }
+
+   /**
+    * Finds the workspaces whose key or name, or a word of whose name, starts with the
+    * supplied prefix.
+    *
+    * @param prefix The typed text. Compared ignoring case.
+    * @param scope Restricts results to this scope. If {@code null}, all scopes are searched.
+    * @param limit The maximum number of workspaces to return.
+    * @param accept Tests whether a workspace may be returned, given its id.
+    * @return The ids of matching workspaces, ordered by the text that matched.
+    */
+   public List<String> suggest(String prefix, String scope, int limit, Predicate<String> accept)
+   {
+      String from = normalize(prefix);
+      if (from.isEmpty() || limit <= 0)
+         return Collections.emptyList();
+
+      NavigableSet<String> dictionary = scope == null ? entries : scoped.get(key(scope));
+      if (dictionary == null)
+         return Collections.emptyList();
+
+      List<String> ids = new ArrayList<>(Math.min(limit, 64));
+      for (String entry : dictionary.subSet(from, true, from + Character.MAX_VALUE, false))
+      {
+         String id = entry.substring(entry.lastIndexOf(SEPARATOR) + 1);
+
+         // a workspace may match through several entries; limits are small
+         if (!ids.contains(id) && accept.test(id))
+         {
+            ids.add(id);
+            if (ids.size() >= limit)
+               break;
+         }
+      }
+
+      return ids;
+   }
+}
@@ -0,0 +1,560 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import edu.tamu.tcat.vwise.internal.IdFactory;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * An inverted index over the names and descriptions of workspaces.
+ *
+ * <p>Text is split into lower-case terms at every character that is not a letter or digit.
+ * Each term maps to a postings list of the workspaces that contain it, ordered by the
+ * numeric value of their ids. Postings are stored as variable-length deltas and are
+ * immutable: a change to a workspace replaces the postings of the affected terms with a
+ * copy that carries the change in a small sorted overlay, which is folded into the
+ * compressed form once it grows beyond {@value #OVERLAY_LIMIT} entries. Searches therefore
+ * never wait for writers, and see each term either before or after a given change.
+ *
+ * <p>Searches return workspaces that contain every query term, ranked by BM25. Terms in a
+ * workspace's name count {@value #NAME_WEIGHT} times as much as terms in its description.
+ *
+ * <p>Changes are {@link #prepare prepared} before the repository commit that makes them
+ * visible: the workspace is tokenized and the updated postings of each affected term are
+ * built from the current postings. The commit then {@link #install installs} the prepared
+ * postings. Commits are serialized. If a concurrent commit replaced the postings of a term
+ * after the change was prepared, that term's change is re-applied to its current postings
+ * when installed, without folding the overlay unless it has grown well beyond its limit.
+ */
+class TextIndex
+{
+   /** The weight of a term that appears in a workspace name relative to its description. */
+   static final int NAME_WEIGHT = 3;
+
+   /** Terms longer than this are truncated. */
+   static final int MAX_TERM_LENGTH = 64;
+
+   /** The maximum number of distinct terms considered in a search. */
+   static final int MAX_QUERY_TERMS = 16;
+
+   private static final int OVERLAY_LIMIT = 32;
+
+   /** The size at which an overlay is folded even while installing a change. */
+   private static final int MAX_OVERLAY = 4 * OVERLAY_LIMIT;
+   private static final double K1 = 1.2;
+   private static final double B = 0.75;
+
+   private final IdFactory ids;
+   private final ConcurrentHashMap<String, Postings> terms = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<Long, Document> documents = new ConcurrentHashMap<>();
+
+   /** The sum of the lengths of all documents. Modified only when changes are installed. */
+   private volatile long totalLength;
+
+   TextIndex(IdFactory ids)
+   {
+      this.ids = ids;
+   }
+
+   /**
+    * Splits text into lower-case terms.
+    *
+    * @return The terms in the order in which they first appear, without duplicates.
+    */
+   static Set<String> tokenize(String text)
+   {
+      Set<String> tokens = new LinkedHashSet<>();
+      forEachTerm(text, tokens::add);
+      return tokens;
+   }
+
+   private static void forEachTerm(String text, Consumer<String> consumer)
+   {
+      if (text == null)
+         return;
+
+      int length = text.length();
+      int start = -1;
+      for (int i = 0; i <= length; i++)
+      {
+         boolean inTerm = i < length && Character.isLetterOrDigit(text.charAt(i));
+         if (inTerm && start < 0)
+         {
+            start = i;
+         }
+         else if (!inTerm && start >= 0)
+         {
+            int end = Math.min(i, start + MAX_TERM_LENGTH);
+            consumer.accept(text.substring(start, end).toLowerCase(Locale.ROOT));
+            start = -1;
+         }
+      }
+   }
+
+   /**
+    * @return The weighted frequency of each term in the name and description of a workspace.
+    */
+   private static Map<String, Integer> frequencies(WorkspaceMeta meta)
+   {
+      Map<String, Integer> frequencies = new HashMap<>();
+      if (meta == null)
+         return frequencies;
+
+      forEachTerm(meta.name, term -> frequencies.merge(term, Integer.valueOf(NAME_WEIGHT), Integer::sum));
+      forEachTerm(meta.description, term -> frequencies.merge(term, Integer.valueOf(1), Integer::sum));
+      return frequencies;
+   }
+
+   private static int length(Map<String, Integer> frequencies)
+   {
+      int length = 0;
+      for (Integer tf : frequencies.values())
+         length += tf.intValue();
+      return length;
+   }
+
+   /**
+    * Computes the change to the index that re-indexes a workspace whose name or description
+    * may have changed. Called before the commit that {@link #install(Delta) installs} it,
+    * while the workspace cannot otherwise be modified.
+    *
+    * @param before The currently indexed state, or {@code null} if the workspace is not indexed.
+    * @param after The new state, or {@code null} to remove the workspace from the index.
+    * @return The change, or {@code null} if the indexed text is unchanged.
+    */
+   public Delta prepare(String id, WorkspaceMeta before, WorkspaceMeta after)
+   {
+      if (before != null && after != null
+            && Objects.equals(before.name, after.name)
+            && Objects.equals(before.description, after.description))
+         return null;
+
+      long doc = ids.decode(id);
+      Map<String, Integer> old = frequencies(before);
+      Map<String, Integer> current = frequencies(after);
+
+      List<TermChange> changes = new ArrayList<>();
+      for (Map.Entry<String, Integer> entry : old.entrySet())
+      {
+         if (!current.containsKey(entry.getKey()))
+            changes.add(new TermChange(entry.getKey(), doc, 0, true));
+      }
+
+      for (Map.Entry<String, Integer> entry : current.entrySet())
+      {
+         Integer previous = old.get(entry.getKey());
+         if (!entry.getValue().equals(previous))
+            changes.add(new TermChange(entry.getKey(), doc, entry.getValue().intValue(), previous != null));
+      }
+
+      int newLength = length(current);
+      Document document = after == null ? null : new Document(id, newLength);
+      return new Delta(doc, changes, newLength - length(old), document);
+   }
+
+   /**
+    * Installs a prepared change. Called from within a repository commit. Changes to a
+    * workspace must be installed in the order they were prepared.
+    */
+   public void install(Delta delta)
+   {
+      for (TermChange change : delta.terms)
+      {
+         Postings current = terms.get(change.term);
+         Postings updated = current == change.base
+               ? change.updated
+               : (current == null ? Postings.EMPTY : current).with(change.doc, change.tf, change.existed, MAX_OVERLAY);
+
+         if (updated.size == 0)
+            terms.remove(change.term);
+         else
+            terms.put(change.term, updated);
+      }
+
+      totalLength += delta.lengthChange;
+      if (delta.document == null)
+         documents.remove(Long.valueOf(delta.doc));
+      else
+         documents.put(Long.valueOf(delta.doc), delta.document);
+   }
+
+   /**
+    * A prepared change to the index. See {@link TextIndex#prepare(String, WorkspaceMeta, WorkspaceMeta)}.
+    */
+   static final class Delta
+   {
+      private final long doc;
+      private final List<TermChange> terms;
+      private final int lengthChange;
+
+      /** The new document, or {@code null} if the workspace is removed from the index. */
+      private final Document document;
+
+      private Delta(long doc, List<TermChange> terms, int lengthChange, Document document)
+      {
+         this.doc = doc;
+         this.terms = terms;
+         this.lengthChange = lengthChange;
+         this.document = document;
+      }
+   }
+
+   /**
+    * A change to the frequency of a term in a document, along with the postings of the
+    * term it was prepared from and the postings that carry the change.
+    */
+   private final class TermChange
+   {
+      final String term;
+      final long doc;
+      final int tf;
+      final boolean existed;
+      final Postings base;
+      final Postings updated;
+
+      TermChange(String term, long doc, int tf, boolean existed)
+      {
+         this.term = term;
+         this.doc = doc;
+         this.tf = tf;
+         this.existed = existed;
+         this.base = terms.get(term);
+         this.updated = (base == null ? Postings.EMPTY : base).with(doc, tf, existed, OVERLAY_LIMIT);
+      }
+   }
+
+   /**
+    * Removes all workspaces from the index.
+    */
+   public void clear()
+   {
+      terms.clear();
+      documents.clear();
+      totalLength = 0;
+   }
+
+   /**
+    * Finds the workspaces that contain every term in the supplied text.
+    *
+    * @param text The search text.
+    * @param limit The maximum number of results.
+    * @param accept Tests whether a workspace may be returned, given its id.
+    * @return The ids of the best matching workspaces with their scores, best first.
+    */
+   public List<Hit> search(String text, int limit, Predicate<String> accept)
+   {
+      List<String> queryTerms = new ArrayList<>(tokenize(text));
+      if (queryTerms.isEmpty() || limit <= 0)
+         return new ArrayList<>();
+      if (queryTerms.size() > MAX_QUERY_TERMS)
+         queryTerms = queryTerms.subList(0, MAX_QUERY_TERMS);
+
+      // capture a consistent view of each term's postings before evaluating the query
+      Postings[] lists = new Postings[queryTerms.size()];
+      for (int i = 0; i < lists.length; i++)
+      {
+         lists[i] = terms.get(queryTerms.get(i));
+         if (lists[i] == null)
+            return new ArrayList<>();
+      }
+
+      // drive the intersection from the rarest term
+      Arrays.sort(lists, Comparator.comparingInt((Postings p) -> p.size));
+
+      int docCount = Math.max(1, documents.size());
+      double avgLength = Math.max(1.0, (double)totalLength / docCount);
+      double[] idf = new double[lists.length];
+      Postings.Cursor[] cursors = new Postings.Cursor[lists.length];
+      for (int i = 0; i < lists.length; i++)
+      {
+         idf[i] = Math.log(1 + (docCount - lists[i].size + 0.5) / (lists[i].size + 0.5));
+         cursors[i] = lists[i].cursor();
+      }
+
+      Comparator<Hit> rank = Comparator.comparingDouble((Hit hit) -> hit.score).reversed().thenComparingLong(hit -> hit.doc);
+      PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(limit, 128) + 1, rank.reversed());
+
+      Postings.Cursor lead = cursors[0];
+      candidates:
+      while (lead.next())
+      {
+         long doc = lead.doc;
+         for (int i = 1; i < cursors.length; i++)
+         {
+            if (!cursors[i].advance(doc))
+               break candidates;
+            if (cursors[i].doc != doc)
+               continue candidates;
+         }
+
+         Document document = documents.get(Long.valueOf(doc));
+         if (document == null)
+            continue;
+
+         double norm = K1 * (1 - B + B * document.length / avgLength);
+         double score = 0;
+         for (int i = 0; i < cursors.length; i++)
+         {
+            int tf = cursors[i].tf;
+            score += idf[i] * tf * (K1 + 1) / (tf + norm);
+         }
+
+         Hit hit = new Hit(doc, document.id, score);
+         if (top.size() >= limit && rank.compare(hit, top.peek()) >= 0)
+            continue;
+         if (!accept.test(document.id))
+            continue;
+
+         top.add(hit);
+         if (top.size() > limit)
+            top.poll();
+      }
+
+      List<Hit> hits = new ArrayList<>(top);
+      hits.sort(rank);
+      return hits;
+   }
+
+   /**
+    * A workspace that matches a search.
+    */
+   static class Hit
+   {
+      final long doc;
+      final String id;
+      final double score;
+
+      Hit(long doc, String id, double score)
+      {
+         this.doc = doc;
+         this.id = id;
+         this.score = score;
+      }
+   }
+
+   private static class Document
+   {
+      final String id;
+
+      /** The sum of the weighted frequencies of the terms in the document. */
+      final int length;
+
+      Document(String id, int length)
+      {
+         this.id = id;
+         this.length = length;
+      }
+   }
+
+   /**
+    * An immutable postings list. Documents are stored in ascending order as variable-length
+    * deltas, each followed by the weighted term frequency. Recent changes are held in a
+    * sorted overlay that takes precedence over the compressed entries; an overlay entry
+    * with a frequency of zero removes the document.
+    */
+   static final class Postings
+   {
+      static final Postings EMPTY = new Postings(new byte[0], 0, new long[0], new int[0], 0);
+
+      final byte[] packed;
+      final int packedLength;
+      final long[] overlayDocs;
+      final int[] overlayTf;
+
+      /** The number of documents that contain the term. */
+      final int size;
+
+      private Postings(byte[] packed, int packedLength, long[] overlayDocs, int[] overlayTf, int size)
+      {
+         this.packed = packed;
+         this.packedLength = packedLength;
+         this.overlayDocs = overlayDocs;
+         this.overlayTf = overlayTf;
+         this.size = size;
+      }
+
+      /**
+       * @param tf The new frequency of the term in the document. {@code 0} removes the document.
+       * @param existed Indicates whether the document currently contains the term.
+       * @param overlayLimit The size beyond which the overlay is folded into the
+       *       compressed entries.
+       * @return A copy of these postings with the supplied change.
+       */
+      Postings with(long doc, int tf, boolean existed, int overlayLimit)
+      {
+         int ix = Arrays.binarySearch(overlayDocs, doc);
+         long[] docs;
+         int[] tfs;
+         if (ix >= 0)
+         {
+            docs = overlayDocs;
+            tfs = overlayTf.clone();
+            tfs[ix] = tf;
+         }
+         else
+         {
+            int at = -ix - 1;
+            docs = new long[overlayDocs.length + 1];
+            tfs = new int[overlayTf.length + 1];
+            System.arraycopy(overlayDocs, 0, docs, 0, at);
+            System.arraycopy(overlayTf, 0, tfs, 0, at);
+            docs[at] = doc;
+            tfs[at] = tf;
+            System.arraycopy(overlayDocs, at, docs, at + 1, overlayDocs.length - at);
+            System.arraycopy(overlayTf, at, tfs, at + 1, overlayTf.length - at);
+         }
+
+         int newSize = size + (tf > 0 ? 1 : 0) - (existed ? 1 : 0);
+         Postings updated = new Postings(packed, packedLength, docs, tfs, newSize);
+         return docs.length > overlayLimit ? updated.compact() : updated;
+      }
+
+      /**
+       * @return A copy of these postings with the overlay folded into the compressed entries.
+       */
+      Postings compact()
+      {
+         byte[] buffer = new byte[Math.max(16, packedLength + overlayDocs.length * 4)];
+         int length = 0;
+         long previous = 0;
+         Cursor cursor = cursor();
+         while (cursor.next())
+         {
+            if (buffer.length - length < 20)
+               buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+            length = writeVarLong(buffer, length, cursor.doc - previous);
+            length = writeVarLong(buffer, length, cursor.tf);
+            previous = cursor.doc;
+         }
+
+         return new Postings(Arrays.copyOf(buffer, length), length, new long[0], new int[0], size);
+      }
+
+      Cursor cursor()
+      {
+         return new Cursor();
+      }
+
+      private static int writeVarLong(byte[] buffer, int pos, long value)
+      {
+         while ((value & ~0x7FL) != 0)
+         {
+            buffer[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+         buffer[pos++] = (byte)value;
+         return pos;
+      }
+
+      /**
+       * Iterates the documents in ascending order, merging the compressed entries with the overlay.
+       */
+      final class Cursor
+      {
+         private int pos;
+         private int overlayIx;
+         private long packedDoc = -1;
+         private int packedTf;
+         private boolean packedDone;
+
+         long doc = -1;
+         int tf;
+
+         Cursor()
+         {
+            readPacked();
+         }
+
+         /**
+          * Moves to the next document.
+          *
+          * @return {@code false} if there are no further documents.
+          */
+         boolean next()
+         {
+            while (true)
+            {
+               long overlayDoc = overlayIx < overlayDocs.length ? overlayDocs[overlayIx] : Long.MAX_VALUE;
+               if (packedDone && overlayDoc == Long.MAX_VALUE)
+                  return false;
+
+               if (!packedDone && packedDoc < overlayDoc)
+               {
+                  doc = packedDoc;
+                  tf = packedTf;
+                  readPacked();
+                  return true;
+               }
+
+               // the overlay entry replaces any compressed entry for the same document
+               if (!packedDone && packedDoc == overlayDoc)
+                  readPacked();
+
+               int overlayFrequency = overlayTf[overlayIx++];
+               if (overlayFrequency > 0)
+               {
+                  doc = overlayDoc;
+                  tf = overlayFrequency;
+                  return true;
+               }
+            }
+         }
+
+         /**
+          * Moves to the first document that is not less than the target.
+          *
+          * @return {@code false} if there is no such document.
+          */
+         boolean advance(long target)
+         {
+            while (doc < target)
+            {
+               if (!next())
+                  return false;
+            }
+            return true;
+         }
+
+         private void readPacked()
+         {
+            if (pos >= packedLength)
+            {
+               packedDone = true;
+               return;
+            }
+
+            packedDoc = (packedDoc < 0 ? 0 : packedDoc) + readVarLong();
+            packedTf = (int)readVarLong();
+         }
+
+         private long readVarLong()
+         {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+               b = packed[pos++];
+               value |= (long)(b & 0x7F) << shift;
+               shift += 7;
+            }
+            while ((b & 0x80) != 0);
+            return value;
+         }
+      }
+   }
+}
@@ -0,0 +1,74 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Commits coalesced workspace updates once their window has elapsed.
+ */
+class UpdateCoalescer
+{
+   private final static Logger logger = Logger.getLogger(UpdateCoalescer.class.getName());
+
+   private final long window;
+   private ScheduledExecutorService scheduler;
+
+   /**
+    * @param window The interval, in milliseconds, during which successive updates from a
+    *       client are coalesced. Updates are not coalesced if not positive.
+    */
+   UpdateCoalescer(long window)
+   {
+      this.window = window;
+   }
+
+   /**
+    * @return {@code true} if updates should be coalesced.
+    */
+   public boolean isEnabled()
+   {
+      return window > 0;
+   }
+
+   /**
+    * Schedules the commit of a window of coalesced updates.
+    *
+    * @param commit Commits the window. Called once the window has elapsed.
+    */
+   public synchronized void schedule(Runnable commit)
+   {
+      if (scheduler == null)
+      {
+         scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vwise-update-coalescer");
+            t.setDaemon(true);
+            return t;
+         });
+      }
+
+      scheduler.schedule(() -> {
+         try
+         {
+            commit.run();
+         }
+         catch (RuntimeException ex)
+         {
+            logger.log(Level.WARNING, "Failed to commit coalesced workspace updates.", ex);
+         }
+      }, window, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stops the commit of pending windows.
+    */
+   public synchronized void close()
+   {
+      if (scheduler != null)
+         scheduler.shutdownNow();
+
+      scheduler = null;
+   }
+}
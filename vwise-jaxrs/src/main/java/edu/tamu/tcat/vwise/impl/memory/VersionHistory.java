@@ -0,0 +1,924 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import static java.text.MessageFormat.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import edu.tamu.tcat.vwise.internal.IdFactory;
+import edu.tamu.tcat.vwise.internal.WorkspaceRecordCodec;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Stores the versions of a single workspace as periodic full checkpoints and field-level
+ * deltas.
+ *
+ * <p>Every {@code checkpointInterval}th version is stored as a checkpoint holding the
+ * values of all fields. The versions in between store only the fields that changed from
+ * the preceding version. Unchanged values are not stored again, so a long description
+ * that is never edited is held once per checkpoint. A version is reconstructed by
+ * applying at most {@code checkpointInterval - 1} deltas to the nearest preceding
+ * checkpoint.
+ *
+ * <p>Version ids and modification times are held in primitive arrays in the order the
+ * versions were recorded. Version ids are stored as their numeric value and are
+ * re-encoded when read.
+ *
+ * <p>The oldest versions may be {@link #trim(int) discarded}. The full state of the oldest
+ * retained version is kept so that versions preceding the first retained checkpoint can
+ * still be reconstructed.
+ *
+ * <p>If an {@link OffHeapArena} is supplied, checkpoints, deltas and the state of the
+ * oldest retained version are written to it as records and only their handles are held
+ * on the heap, alongside the fields of the most recent version. Each record is encoded
+ * by a {@link WorkspaceRecordCodec} and holds only the fields it stores. Records are
+ * decoded when a version is read and are freed when versions are discarded or the history
+ * is {@link #release() released}.
+ *
+ * <p>If {@link SpillFiles} are supplied, the history may be {@link #spill() spilled}: the
+ * checkpoints, deltas and oldest retained state are encoded as workspace records, written
+ * to disk together as a single record and dropped from memory, and are read back when a
+ * version other than the most recent is next reconstructed. Version ids, modification
+ * times and the most recent version remain in memory. The record is kept until the history is modified, so that a history
+ * that has only been read can be spilled again without writing it.
+ *
+ * <p>Not thread safe. Access is guarded by the owning workspace.
+ */
+class VersionHistory
+{
+   private static final int SCOPE = 0;
+   private static final int KEY = 1;
+   private static final int NAME = 2;
+   private static final int DESCRIPTION = 3;
+   private static final int FIELD_COUNT = 4;
+   private static final int ALL_FIELDS = (1 << FIELD_COUNT) - 1;
+
+   private static final int INITIAL_CAPACITY = 2;
+
+   /** The estimated size, in bytes, of an empty string held on the heap, and of each additional character. */
+   private static final int STRING_BYTES = 40;
+   private static final int CHAR_BYTES = 2;
+
+   /** The estimated size, in bytes, of an array holding the values of every field. */
+   private static final int FIELDS_BYTES = 16 + 4 * FIELD_COUNT;
+
+   private final String wsId;
+   private final IdFactory versionIds;
+   private final int checkpointInterval;
+
+   /** Holds field values outside of the heap, or {@code null} if they are held on the heap. */
+   private final OffHeapArena arena;
+
+   /** Holds spilled histories, or {@code null} if this history is not spilled. */
+   private final SpillFiles spill;
+
+   /** Encodes the records held off-heap or spilled, or {@code null} if neither is used. */
+   private final WorkspaceRecordCodec codec;
+
+   /**
+    * The handle of the spilled record that holds the current state of this history, or
+    * {@link SpillFiles#NONE} if this history has been modified since it was last spilled.
+    */
+   private long spilledHandle = SpillFiles.NONE;
+
+   /** The estimated size, in bytes, of the checkpoints, deltas and base held on the heap. */
+   private long residentBytes = 0;
+
+   private int size = 0;
+
+   /** The number of versions that have been discarded. Positions in the arrays are relative to this. */
+   private int offset = 0;
+
+   /** The field values of the oldest retained version. Set once versions have been discarded. */
+   private String[] base;
+
+   /** The handle of the {@link #base} record when stored off-heap. */
+   private long baseHandle = OffHeapArena.NONE;
+
+   /** The numeric value of each version id. Increasing. */
+   private long[] versions = new long[INITIAL_CAPACITY];
+
+   /** The modification time of each version. Non-decreasing. */
+   private long[] modified = new long[INITIAL_CAPACITY];
+
+   /**
+    * The fields of each version that differ from the preceding version, one bit per field.
+    * {@code null} while the history is spilled.
+    */
+   private byte[] changed = new byte[INITIAL_CAPACITY];
+
+   /**
+    * The changed field values of each version. Holds the value itself if a single field
+    * changed and an array of values, in field order, if several did.
+    */
+   private Object[] deltas;
+
+   /** The handle of the delta record of each version when stored off-heap. */
+   private long[] deltaHandles;
+
+   /**
+    * The field values of every {@code checkpointInterval}th version, indexed from the
+    * checkpoint preceding the oldest retained version. The first entry is {@code null} if
+    * that checkpoint has been discarded.
+    */
+   private String[][] checkpoints;
+
+   /** The handle of each checkpoint record when stored off-heap, indexed as {@link #checkpoints}. */
+   private long[] checkpointHandles;
+
+   /** The field values of the most recent version. */
+   private String[] latest;
+
+   public VersionHistory(String wsId, IdFactory versionIds, int checkpointInterval)
+   {
+      this(wsId, versionIds, checkpointInterval, null, null, null);
+   }
+
+   /**
+    * @param arena Holds historical field values outside of the heap. If {@code null},
+    *       they are held on the heap.
+    * @param spill Holds the history while it is spilled. If {@code null}, the history
+    *       cannot be spilled. Must be {@code null} if an arena is supplied.
+    * @param codec Encodes the records written to the arena or spilled. Required if either
+    *       is supplied.
+    */
+   public VersionHistory(String wsId, IdFactory versionIds, int checkpointInterval, OffHeapArena arena, SpillFiles spill, WorkspaceRecordCodec codec)
+   {
+      if (checkpointInterval <= 0)
+         throw new IllegalArgumentException(format("The checkpoint interval must be positive [{0}]", Integer.valueOf(checkpointInterval)));
+      if (arena != null && spill != null)
+         throw new IllegalArgumentException("Histories held off-heap cannot be spilled.");
+      if ((arena != null || spill != null) && codec == null)
+         throw new IllegalArgumentException("A record codec is required to hold histories off-heap or spill them.");
+
+      this.wsId = wsId;
+      this.versionIds = versionIds;
+      this.checkpointInterval = checkpointInterval;
+      this.arena = arena;
+      this.spill = spill;
+      this.codec = codec;
+      if (arena == null)
+      {
+         this.deltas = new Object[INITIAL_CAPACITY];
+         this.checkpoints = new String[1][];
+      }
+      else
+      {
+         this.deltaHandles = new long[INITIAL_CAPACITY];
+         this.checkpointHandles = new long[] { OffHeapArena.NONE };
+      }
+   }
+
+   /**
+    * @return The number of recorded versions.
+    */
+   public int size()
+   {
+      return size;
+   }
+
+   /**
+    * @return The modification time of the most recent version, or {@link Long#MIN_VALUE}
+    *       if no versions have been recorded.
+    */
+   public long getLatestModified()
+   {
+      return size == 0 ? Long.MIN_VALUE : modified[size - 1];
+   }
+
+   /**
+    * Records a new version. The version must be newer than all recorded versions.
+    */
+   public void append(WorkspaceMeta meta)
+   {
+      long version = versionIds.decode(meta.version);
+      if (size > 0 && (version <= versions[size - 1] || meta.modified < modified[size - 1]))
+         throw new IllegalArgumentException(format("Version {0} of workspace {1} is out of order.", meta.version, wsId));
+
+      modify();
+      ensureCapacity(size + 1);
+
+      String[] fields = new String[FIELD_COUNT];
+      fields[SCOPE] = meta.scope;
+      fields[KEY] = meta.key;
+      fields[NAME] = meta.name;
+      fields[DESCRIPTION] = meta.description;
+
+      versions[size] = version;
+      modified[size] = meta.modified;
+
+      if (isCheckpoint(size))
+      {
+         storeCheckpoint(checkpointIndex(size), fields);
+         if (arena != null)
+            deltaHandles[size] = OffHeapArena.NONE;
+      }
+      else
+      {
+         encodeDelta(size, latest, fields);
+      }
+
+      latest = fields;
+      size++;
+   }
+
+   private void encodeDelta(int ix, String[] previous, String[] fields)
+   {
+      int mask = 0;
+      for (int f = 0; f < FIELD_COUNT; f++)
+      {
+         if (!Objects.equals(previous[f], fields[f]))
+            mask |= 1 << f;
+      }
+
+      changed[ix] = (byte)mask;
+      if (arena != null)
+      {
+         deltaHandles[ix] = mask == 0 ? OffHeapArena.NONE : arena.store(toRecord(mask, fields));
+      }
+      else if (Integer.bitCount(mask) == 1)
+      {
+         deltas[ix] = fields[Integer.numberOfTrailingZeros(mask)];
+         residentBytes += sizeOf((String)deltas[ix]);
+      }
+      else if (mask != 0)
+      {
+         deltas[ix] = select(mask, fields);
+         residentBytes += sizeOf((String[])deltas[ix]);
+      }
+   }
+
+   /**
+    * @return The values of the fields identified by the mask, in field order.
+    */
+   private static String[] select(int mask, String[] fields)
+   {
+      String[] values = new String[Integer.bitCount(mask)];
+      int v = 0;
+      for (int f = 0; f < FIELD_COUNT; f++)
+      {
+         if ((mask & (1 << f)) != 0)
+            values[v++] = fields[f];
+      }
+
+      return values;
+   }
+
+   private void storeCheckpoint(int cix, String[] fields)
+   {
+      if (arena == null)
+      {
+         if (cix == checkpoints.length)
+            checkpoints = Arrays.copyOf(checkpoints, grow(cix));
+
+         checkpoints[cix] = fields;
+         residentBytes += sizeOf(fields);
+         return;
+      }
+
+      if (cix == checkpointHandles.length)
+      {
+         int length = grow(cix);
+         checkpointHandles = Arrays.copyOf(checkpointHandles, length);
+         Arrays.fill(checkpointHandles, cix, length, OffHeapArena.NONE);
+      }
+
+      checkpointHandles[cix] = arena.store(toRecord(ALL_FIELDS, fields));
+   }
+
+   /**
+    * @return A new array holding the fields of a checkpoint.
+    */
+   private String[] loadCheckpoint(int cix)
+   {
+      if (arena == null)
+         return checkpoints[cix].clone();
+
+      String[] fields = new String[FIELD_COUNT];
+      fromRecord(arena.load(checkpointHandles[cix]), ALL_FIELDS, fields);
+      return fields;
+   }
+
+   /**
+    * @return A new array holding the fields of the oldest retained version.
+    */
+   private String[] loadBase()
+   {
+      if (arena == null)
+         return base.clone();
+
+      String[] fields = new String[FIELD_COUNT];
+      fromRecord(arena.load(baseHandle), ALL_FIELDS, fields);
+      return fields;
+   }
+
+   private void storeBase(String[] fields)
+   {
+      if (arena == null)
+      {
+         base = fields;
+         return;
+      }
+
+      arena.free(baseHandle);
+      baseHandle = arena.store(toRecord(ALL_FIELDS, fields));
+   }
+
+   /**
+    * Applies the delta recorded for a version to the fields of the preceding version.
+    */
+   private void applyDelta(int ix, String[] fields)
+   {
+      int mask = changed[ix];
+      if (mask == 0)
+         return;
+
+      if (arena == null)
+      {
+         applyDelta(mask, deltas[ix], fields);
+         return;
+      }
+
+      fromRecord(arena.load(deltaHandles[ix]), mask, fields);
+   }
+
+   /**
+    * Encodes the values of the fields identified by the mask as a workspace record. Other
+    * fields are omitted.
+    */
+   private byte[] toRecord(int mask, String[] fields)
+   {
+      WorkspaceMeta meta = new WorkspaceMeta();
+      meta.scope = (mask & (1 << SCOPE)) == 0 ? null : fields[SCOPE];
+      meta.key = (mask & (1 << KEY)) == 0 ? null : fields[KEY];
+      meta.name = (mask & (1 << NAME)) == 0 ? null : fields[NAME];
+      meta.description = (mask & (1 << DESCRIPTION)) == 0 ? null : fields[DESCRIPTION];
+      return codec.encode(meta);
+   }
+
+   /**
+    * Decodes a workspace record into the fields identified by the mask. Other fields are
+    * left unchanged.
+    */
+   private void fromRecord(byte[] record, int mask, String[] fields)
+   {
+      WorkspaceMeta meta = codec.decode(record);
+      if ((mask & (1 << SCOPE)) != 0)
+         fields[SCOPE] = meta.scope;
+      if ((mask & (1 << KEY)) != 0)
+         fields[KEY] = meta.key;
+      if ((mask & (1 << NAME)) != 0)
+         fields[NAME] = meta.name;
+      if ((mask & (1 << DESCRIPTION)) != 0)
+         fields[DESCRIPTION] = meta.description;
+   }
+
+   private boolean isCheckpoint(int ix)
+   {
+      return (offset + ix) % checkpointInterval == 0;
+   }
+
+   private int checkpointIndex(int ix)
+   {
+      return (offset + ix) / checkpointInterval - offset / checkpointInterval;
+   }
+
+   private static void applyDelta(int mask, Object delta, String[] fields)
+   {
+      if (mask == 0)
+         return;
+
+      if (Integer.bitCount(mask) == 1)
+      {
+         fields[Integer.numberOfTrailingZeros(mask)] = (String)delta;
+         return;
+      }
+
+      String[] values = (String[])delta;
+      int v = 0;
+      for (int f = 0; f < FIELD_COUNT; f++)
+      {
+         if ((mask & (1 << f)) != 0)
+            fields[f] = values[v++];
+      }
+   }
+
+   private void ensureCapacity(int capacity)
+   {
+      if (capacity <= versions.length)
+         return;
+
+      int length = grow(versions.length);
+      resize(length);
+   }
+
+   private void resize(int length)
+   {
+      versions = Arrays.copyOf(versions, length);
+      modified = Arrays.copyOf(modified, length);
+      changed = Arrays.copyOf(changed, length);
+      if (arena == null)
+         deltas = Arrays.copyOf(deltas, length);
+      else
+         deltaHandles = Arrays.copyOf(deltaHandles, length);
+   }
+
+   private static int grow(int length)
+   {
+      return length + (length >> 1) + 1;
+   }
+
+   /**
+    * @return A new instance holding the most recent version.
+    * @throws IllegalStateException If no versions have been recorded.
+    */
+   public WorkspaceMeta getLatest()
+   {
+      if (size == 0)
+         throw new IllegalStateException(format("No versions of workspace {0} have been recorded.", wsId));
+
+      return toMeta(size - 1, latest);
+   }
+
+   /**
+    * @param ix The position of a version, in the order versions were recorded.
+    * @return A new instance holding the requested version.
+    */
+   public WorkspaceMeta get(int ix)
+   {
+      if (ix < 0 || ix >= size)
+         throw new IndexOutOfBoundsException(format("No version {0,number,#} of workspace {1}", Integer.valueOf(ix), wsId));
+
+      if (ix == size - 1)
+         return toMeta(ix, latest);
+
+      load();
+      return toMeta(ix, reconstruct(ix));
+   }
+
+   /**
+    * Reconstructs a contiguous range of versions. Deltas are applied once, starting from
+    * the checkpoint that precedes the first version in the range.
+    *
+    * @param from The position of the first version, inclusive.
+    * @param to The position of the last version, inclusive.
+    * @return The versions in the order they were recorded.
+    */
+   public List<WorkspaceMeta> getRange(int from, int to)
+   {
+      List<WorkspaceMeta> result = new ArrayList<>(Math.max(0, to - from + 1));
+      if (from > to)
+         return result;
+
+      if (from < 0 || to >= size)
+         throw new IndexOutOfBoundsException(format("Invalid version range [{0,number,#}, {1,number,#}] for workspace {2}", Integer.valueOf(from), Integer.valueOf(to), wsId));
+
+      load();
+      String[] fields = reconstruct(from);
+      result.add(toMeta(from, fields));
+      for (int ix = from + 1; ix <= to; ix++)
+      {
+         if (isCheckpoint(ix))
+            fields = loadCheckpoint(checkpointIndex(ix));
+         else
+            applyDelta(ix, fields);
+
+         result.add(toMeta(ix, fields));
+      }
+
+      return result;
+   }
+
+   private String[] reconstruct(int ix)
+   {
+      // positions before the first retained checkpoint are reconstructed from the base
+      int checkpoint = Math.max(0, ix - (offset + ix) % checkpointInterval);
+      String[] fields = isCheckpoint(checkpoint) ? loadCheckpoint(checkpointIndex(checkpoint)) : loadBase();
+      for (int i = checkpoint + 1; i <= ix; i++)
+      {
+         applyDelta(i, fields);
+      }
+
+      return fields;
+   }
+
+   private WorkspaceMeta toMeta(int ix, String[] fields)
+   {
+      WorkspaceMeta meta = new WorkspaceMeta();
+      meta.id = wsId;
+      meta.version = versionIds.encode(versions[ix]);
+      meta.modified = modified[ix];
+      meta.scope = fields[SCOPE];
+      meta.key = fields[KEY];
+      meta.name = fields[NAME];
+      meta.description = fields[DESCRIPTION];
+      return meta;
+   }
+
+   /**
+    * Discards the oldest versions. The most recent version is always retained. Takes time
+    * proportional to the number of retained versions.
+    *
+    * @param count The number of versions to discard.
+    * @return The number of versions discarded.
+    */
+   public int trim(int count)
+   {
+      count = Math.min(count, size - 1);
+      if (count <= 0)
+         return 0;
+
+      modify();
+      String[] first = reconstruct(count);
+      int dropped = checkpointIndex(count);
+      int checkpointCount = checkpointIndex(size - 1) + 1;
+
+      if (arena != null)
+      {
+         // the delta of the new first version is superseded by the base
+         for (int ix = 0; ix <= count; ix++)
+            arena.free(deltaHandles[ix]);
+
+         for (int cix = 0; cix < dropped; cix++)
+            arena.free(checkpointHandles[cix]);
+      }
+
+      int remaining = size - count;
+      System.arraycopy(versions, count, versions, 0, remaining);
+      System.arraycopy(modified, count, modified, 0, remaining);
+      System.arraycopy(changed, count, changed, 0, remaining);
+      if (arena == null)
+      {
+         System.arraycopy(deltas, count, deltas, 0, remaining);
+         Arrays.fill(deltas, remaining, size, null);
+         System.arraycopy(checkpoints, dropped, checkpoints, 0, checkpointCount - dropped);
+         Arrays.fill(checkpoints, checkpointCount - dropped, checkpointCount, null);
+      }
+      else
+      {
+         System.arraycopy(deltaHandles, count, deltaHandles, 0, remaining);
+         Arrays.fill(deltaHandles, remaining, size, OffHeapArena.NONE);
+         deltaHandles[0] = OffHeapArena.NONE;
+         System.arraycopy(checkpointHandles, dropped, checkpointHandles, 0, checkpointCount - dropped);
+         Arrays.fill(checkpointHandles, checkpointCount - dropped, checkpointCount, OffHeapArena.NONE);
+      }
+
+      offset += count;
+      size = remaining;
+      storeBase(first);
+      if (!isCheckpoint(0))
+      {
+         if (arena == null)
+         {
+            checkpoints[0] = null;
+         }
+         else
+         {
+            arena.free(checkpointHandles[0]);
+            checkpointHandles[0] = OffHeapArena.NONE;
+         }
+      }
+
+      // releases storage once most of it is unused
+      if (size < versions.length / 4)
+      {
+         resize(Math.max(INITIAL_CAPACITY, grow(size)));
+         int checkpointLength = Math.max(1, checkpointCount - dropped);
+         if (arena == null)
+            checkpoints = Arrays.copyOf(checkpoints, checkpointLength);
+         else
+            checkpointHandles = Arrays.copyOf(checkpointHandles, checkpointLength);
+      }
+
+      if (arena == null)
+         residentBytes = measure();
+
+      return count;
+   }
+
+   /**
+    * Discards all versions and frees any records held off-heap.
+    */
+   public void release()
+   {
+      if (spill != null)
+         spill.free(spilledHandle);
+
+      spilledHandle = SpillFiles.NONE;
+      residentBytes = 0;
+      if (arena != null)
+      {
+         for (int ix = 0; ix < size; ix++)
+            arena.free(deltaHandles[ix]);
+         for (long handle : checkpointHandles)
+            arena.free(handle);
+         arena.free(baseHandle);
+
+         deltaHandles = new long[INITIAL_CAPACITY];
+         checkpointHandles = new long[] { OffHeapArena.NONE };
+         baseHandle = OffHeapArena.NONE;
+      }
+      else
+      {
+         deltas = new Object[INITIAL_CAPACITY];
+         checkpoints = new String[1][];
+         base = null;
+      }
+
+      changed = new byte[INITIAL_CAPACITY];
+      versions = new long[INITIAL_CAPACITY];
+      modified = new long[INITIAL_CAPACITY];
+      latest = null;
+      offset = 0;
+      size = 0;
+   }
+
+   /**
+    * @return {@code true} if this history is spilled and must be read back before older
+    *       versions can be reconstructed.
+    */
+   public boolean isSpilled()
+   {
+      return changed == null;
+   }
+
+   /**
+    * @return The estimated size, in bytes, of the historical field values held in memory.
+    *       Excludes the most recent version. Always zero while the history is spilled or
+    *       if values are held off-heap.
+    */
+   public long getResidentBytes()
+   {
+      return residentBytes;
+   }
+
+   /**
+    * Writes the historical field values to disk, unless they are unchanged since they were
+    * last written, and drops them from memory.
+    *
+    * @throws IllegalStateException If this history cannot be spilled.
+    */
+   public void spill()
+   {
+      if (spill == null)
+         throw new IllegalStateException(format("The history of workspace {0} cannot be spilled.", wsId));
+
+      if (isSpilled() || size == 0)
+         return;
+
+      if (spilledHandle == SpillFiles.NONE)
+         spilledHandle = spill.write(encode());
+
+      changed = null;
+      deltas = null;
+      checkpoints = null;
+      base = null;
+      residentBytes = 0;
+   }
+
+   /**
+    * Reads back the historical field values if this history is spilled.
+    */
+   private void load()
+   {
+      if (isSpilled())
+      {
+         decode(spill.read(spilledHandle));
+         residentBytes = measure();
+      }
+   }
+
+   /**
+    * Reads back the historical field values if this history is spilled and discards the
+    * spilled record, which no longer matches once the history is modified.
+    */
+   private void modify()
+   {
+      if (spill == null)
+         return;
+
+      load();
+      spill.free(spilledHandle);
+      spilledHandle = SpillFiles.NONE;
+   }
+
+   /**
+    * Encodes the changed fields, deltas, checkpoints and base of this history. Deltas,
+    * checkpoints and the base are written as workspace records. Version ids and
+    * modification times are not included.
+    */
+   private byte[] encode()
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes))
+      {
+         out.writeInt(size);
+         out.write(changed, 0, size);
+
+         // the first version is reconstructed from a checkpoint or the base
+         for (int ix = 1; ix < size; ix++)
+         {
+            int mask = changed[ix];
+            if (isCheckpoint(ix) || mask == 0)
+               continue;
+
+            String[] fields = new String[FIELD_COUNT];
+            applyDelta(mask, deltas[ix], fields);
+            writeRecord(out, toRecord(mask, fields));
+         }
+
+         int checkpointCount = checkpointIndex(size - 1) + 1;
+         out.writeInt(checkpointCount);
+         for (int cix = 0; cix < checkpointCount; cix++)
+            writeFields(out, checkpoints[cix]);
+
+         writeFields(out, base);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(ex);
+      }
+
+      return bytes.toByteArray();
+   }
+
+   private void decode(byte[] record)
+   {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record)))
+      {
+         int count = in.readInt();
+         if (count != size)
+            throw new IllegalStateException(format("The spilled history of workspace {0} holds {1,number,#} versions rather than {2,number,#}.", wsId, Integer.valueOf(count), Integer.valueOf(size)));
+
+         changed = new byte[versions.length];
+         deltas = new Object[versions.length];
+         in.readFully(changed, 0, size);
+         for (int ix = 1; ix < size; ix++)
+         {
+            int mask = changed[ix];
+            if (isCheckpoint(ix) || mask == 0)
+               continue;
+
+            String[] fields = new String[FIELD_COUNT];
+            fromRecord(readRecord(in), mask, fields);
+            if (Integer.bitCount(mask) == 1)
+               deltas[ix] = fields[Integer.numberOfTrailingZeros(mask)];
+            else
+               deltas[ix] = select(mask, fields);
+         }
+
+         checkpoints = new String[Math.max(1, in.readInt())][];
+         for (int cix = 0; cix < checkpoints.length; cix++)
+            checkpoints[cix] = readFields(in);
+
+         base = readFields(in);
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(ex);
+      }
+   }
+
+   private void writeFields(DataOutputStream out, String[] fields) throws IOException
+   {
+      writeRecord(out, fields == null ? null : toRecord(ALL_FIELDS, fields));
+   }
+
+   private String[] readFields(DataInputStream in) throws IOException
+   {
+      byte[] record = readRecord(in);
+      if (record == null)
+         return null;
+
+      String[] fields = new String[FIELD_COUNT];
+      fromRecord(record, ALL_FIELDS, fields);
+      return fields;
+   }
+
+   private static void writeRecord(DataOutputStream out, byte[] record) throws IOException
+   {
+      if (record == null)
+      {
+         out.writeInt(-1);
+         return;
+      }
+
+      out.writeInt(record.length);
+      out.write(record);
+   }
+
+   private static byte[] readRecord(DataInputStream in) throws IOException
+   {
+      int length = in.readInt();
+      if (length < 0)
+         return null;
+
+      byte[] record = new byte[length];
+      in.readFully(record);
+      return record;
+   }
+
+   /**
+    * @return The estimated size of the checkpoints, deltas and base held on the heap.
+    */
+   private long measure()
+   {
+      long bytes = sizeOf(base);
+      for (String[] checkpoint : checkpoints)
+         bytes += sizeOf(checkpoint);
+
+      for (int ix = 1; ix < size; ix++)
+      {
+         int mask = changed[ix];
+         if (isCheckpoint(ix) || mask == 0)
+            continue;
+
+         bytes += Integer.bitCount(mask) == 1 ? sizeOf((String)deltas[ix]) : sizeOf((String[])deltas[ix]);
+      }
+
+      return bytes;
+   }
+
+   private static long sizeOf(String[] values)
+   {
+      if (values == null)
+         return 0;
+
+      long bytes = FIELDS_BYTES;
+      for (String value : values)
+         bytes += sizeOf(value);
+
+      return bytes;
+   }
+
+   private static long sizeOf(String value)
+   {
+      return value == null ? 0 : STRING_BYTES + CHAR_BYTES * value.length();
+   }
+
+   /**
+    * @return {@code true} if the supplied version id is newer than every recorded version.
+    */
+   public boolean isNewer(String version)
+   {
+      return size == 0 || versionIds.decode(version) > versions[size - 1];
+   }
+
+   /**
+    * @return The position of the newest version that is no newer than the supplied
+    *       version, or {@code -1} if there is none.
+    */
+   public int floor(String version)
+   {
+      int ix = Arrays.binarySearch(versions, 0, size, versionIds.decode(version));
+      return ix >= 0 ? ix : -(ix + 1) - 1;
+   }
+
+   /**
+    * @return The position of the newest version that is older than the supplied version,
+    *       or {@code -1} if there is none.
+    */
+   public int lower(String version)
+   {
+      int ix = Arrays.binarySearch(versions, 0, size, versionIds.decode(version));
+      return ix >= 0 ? ix - 1 : -(ix + 1) - 1;
+   }
+
+   /**
+    * @return The position of the oldest version that is no older than the supplied
+    *       version. Equal to {@link #size()} if there is none.
+    */
+   public int ceiling(String version)
+   {
+      int ix = Arrays.binarySearch(versions, 0, size, versionIds.decode(version));
+      return ix >= 0 ? ix : -(ix + 1);
+   }
+
+   /**
+    * @return The position of the newest version recorded at or before the supplied time,
+    *       or {@code -1} if there is none.
+    */
+   public int floorTime(long timestamp)
+   {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi)
+      {
+         int mid = (lo + hi) >>> 1;
+         if (modified[mid] <= timestamp)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+
+      return lo - 1;
+   }
+}
@@ -0,0 +1,108 @@
+package edu.tamu.tcat.vwise.impl.memory;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * The secondary indexes of an in-memory repository. Changes are computed before the
+ * repository commit that makes the corresponding change visible, while the workspace is
+ * locked, so that the commit need only {@link Change#install() install} them.
+ */
+class WorkspaceIndexes
+{
+   final ScopeIndex scopes;
+   final TextIndex text;
+   final SuggestIndex suggestions;
+
+   WorkspaceIndexes(ScopeIndex scopes, TextIndex text, SuggestIndex suggestions)
+   {
+      this.scopes = scopes;
+      this.text = text;
+      this.suggestions = suggestions;
+   }
+
+   /**
+    * @return The change that indexes a new workspace.
+    */
+   Change added(String id, WorkspaceMeta meta)
+   {
+      return new Change(() -> scopes.add(meta.scope, id),
+                        text.prepare(id, null, meta),
+                        suggestions.prepare(id, null, meta));
+   }
+
+   /**
+    * @return The change that re-indexes an updated workspace.
+    */
+   Change updated(String id, WorkspaceMeta before, WorkspaceMeta after)
+   {
+      return new Change(() -> scopes.move(before.scope, after.scope, id),
+                        text.prepare(id, before, after),
+                        suggestions.prepare(id, before, after));
+   }
+
+   /**
+    * @return The change that records that a workspace was removed. Removed workspaces
+    *       remain indexed until they are purged.
+    */
+   Change removed(String id, WorkspaceMeta last)
+   {
+      return new Change(() -> scopes.markRemoved(last.scope, id), null, null);
+   }
+
+   /**
+    * @return The change that removes a purged workspace.
+    * @param wasRemoved Indicates whether the workspace had been removed before it was purged.
+    */
+   Change purged(String id, WorkspaceMeta last, boolean wasRemoved)
+   {
+      return new Change(() -> scopes.purge(last.scope, id, wasRemoved),
+                        text.prepare(id, last, null),
+                        suggestions.prepare(id, last, null));
+   }
+
+   /**
+    * Removes all workspaces.
+    */
+   void clear()
+   {
+      scopes.clear();
+      text.clear();
+      suggestions.clear();
+   }
+
+   /**
+    * A computed change to the indexes of a single workspace. Changes to a workspace must be
+    * installed in the order they were computed.
+    */
+   final class Change
+   {
+      /** Updates the scope partitions. These hold only ids and are cheap to modify. */
+      private final Runnable scopeChange;
+
+      /** May be {@code null} if the indexed text is unchanged. */
+      private final TextIndex.Delta textDelta;
+
+      /** May be {@code null} if the suggested entries are unchanged. */
+      private final SuggestIndex.Delta suggestDelta;
+
+      private Change(Runnable scopeChange, TextIndex.Delta textDelta, SuggestIndex.Delta suggestDelta)
+      {
+         this.scopeChange = scopeChange;
+         this.textDelta = textDelta;
+         this.suggestDelta = suggestDelta;
+      }
+
+      /**
+       * Installs this change. Called from within the repository commit that makes the
+       * change to the workspace visible.
+       */
+      void install()
+      {
+         scopeChange.run();
+         if (textDelta != null)
+            text.install(textDelta);
+         if (suggestDelta != null)
+            suggestions.install(suggestDelta);
+      }
+   }
+}
@@ -3,41 +3,337 @@ package edu.tamu.tcat.vwise.impl.memory;
 import static java.text.MessageFormat.format;
 import static java.util.stream.Collectors.toList;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map.Entry;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
+import edu.tamu.tcat.vwise.RepositorySnapshot;
 import edu.tamu.tcat.vwise.WorkspaceRepository;
 import edu.tamu.tcat.vwise.internal.IdFactory;
+import edu.tamu.tcat.vwise.internal.WorkspaceRecordCodec;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
 import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
 
+/**
+ * An in-memory workspace repository.
+ *
+ * <p>Configured using the following properties:
+ *
+ * <pre>
+ * # Number of versions between full copies of a workspace in its version history. Other
+ * # versions store only the fields that changed. Larger values use less memory but make
+ * # reading older versions slower. (default: 16)
+ * versions.checkpoint_interval=16
+ *
+ * # Interval, in milliseconds, during which successive updates to a workspace from the
+ * # same client are folded into a single version. The version is committed at the end of
+ * # the interval. 0 commits every update immediately. (default: 0)
+ * versions.coalesce.window_ms=0
+ *
+ * # Where the field values of historical versions are held: "heap", "offheap" to hold
+ * # them in direct memory outside of the Java heap, or "tiered" to spill the history of
+ * # little-used workspaces to disk as described by HistoryTiers. The most recent version
+ * # of each workspace is always held on the heap. (default: heap)
+ * versions.storage=heap
+ *
+ * # Size, in bytes, of each block of direct memory allocated for off-heap storage.
+ * # (default: 4194304)
+ * versions.offheap.segment_size=4194304
+ * </pre>
+ *
+ * <p>Version retention and the expiry of removed workspaces are configured as described
+ * by {@link RetentionSweeper}.
+ */
 public class WorkspaceRepoImpl implements WorkspaceRepository
 {
+   public static final String PROP_CHECKPOINT_INTERVAL = "versions.checkpoint_interval";
+   public static final String PROP_COALESCE_WINDOW = "versions.coalesce.window_ms";
+   public static final String PROP_STORAGE = "versions.storage";
+   public static final String PROP_OFFHEAP_SEGMENT_SIZE = "versions.offheap.segment_size";
+
    private final Properties config;
+   private final int checkpointInterval;
+
+   /** Holds historical versions outside of the heap, or {@code null} if they are held on the heap. */
+   private final OffHeapArena arena;
+
+   /** Spills little-used histories to disk, or {@code null} if histories are not spilled. */
+   private final HistoryTiers tiers;
+
+   /** Encodes the records held off-heap or spilled, or {@code null} if histories are held on the heap. */
+   private final WorkspaceRecordCodec codec;
    private final IdFactory wsIds;
+   private final ChangeLog changes;
+   private final CommitSequence commits;
    private final ConcurrentHashMap<String, WorkspaceMediator> workspaces = new ConcurrentHashMap<>();
 
+   /**
+    * Purged workspaces that may still be visible to open snapshots. Entries are reclaimed
+    * once every snapshot that predates the purge has been closed.
+    */
+   private final ConcurrentHashMap<String, WorkspaceMediator> purged = new ConcurrentHashMap<>();
+
+   private final ScopeIndex scopes;
+   private final TextIndex text;
+   private final SuggestIndex suggestions;
+   private final WorkspaceIndexes indexes;
+   private final QueryPlanner planner;
+   private final RetentionSweeper sweeper;
+   private final UpdateCoalescer coalescer;
+
    public WorkspaceRepoImpl(Properties config)
    {
       this.config = config;
       this.wsIds = new IdFactory(config, "workspaces");
+      this.scopes = new ScopeIndex(wsIds);
+      this.text = new TextIndex(wsIds);
+      this.suggestions = new SuggestIndex();
+      this.indexes = new WorkspaceIndexes(scopes, text, suggestions);
+      this.planner = new QueryPlanner(scopes, workspaces::keySet, wsIds, (id, removed) -> {
+         WorkspaceMediator mediator = workspaces.get(id);
+         return mediator == null ? null : mediator.peek(removed);
+      });
+      this.changes = new ChangeLog(config);
+      this.commits = new CommitSequence(0, changes::announce);
+      this.checkpointInterval = getIntProperty(config, PROP_CHECKPOINT_INTERVAL, 16);
+      if (checkpointInterval <= 0)
+         throw new IllegalArgumentException(format("The value of {0} must be positive", PROP_CHECKPOINT_INTERVAL));
+
+      String storage = config.getProperty(PROP_STORAGE, "heap").trim();
+      if (!storage.equals("heap") && !storage.equals("offheap") && !storage.equals("tiered"))
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be ''heap'', ''offheap'' or ''tiered''", storage, PROP_STORAGE));
+
+      this.arena = storage.equals("offheap") ? new OffHeapArena(getIntProperty(config, PROP_OFFHEAP_SEGMENT_SIZE, 4 * 1024 * 1024)) : null;
+      this.tiers = storage.equals("tiered") ? new HistoryTiers(config) : null;
+      this.codec = storage.equals("heap") ? null : new WorkspaceRecordCodec(config, new WorkspaceRecordCodec.Dictionary());
+
+      this.coalescer = new UpdateCoalescer(getIntProperty(config, PROP_COALESCE_WINDOW, 0));
+
+      this.sweeper = new RetentionSweeper(config, this);
+      this.sweeper.start();
+   }
+
+   private static int getIntProperty(Properties props, String key, int defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Integer.parseInt(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   private VersionHistory newHistory(String wsId, IdFactory versionIds)
+   {
+      return new VersionHistory(wsId, versionIds, checkpointInterval, arena, tiers == null ? null : tiers.getFiles(), codec);
+   }
+
+   /**
+    * @return The direct memory used to hold historical versions, if they are held off-heap.
+    */
+   public Optional<OffHeapArena> getOffHeapArena()
+   {
+      return Optional.ofNullable(arena);
+   }
+
+   /**
+    * @return The tiers that spill little-used histories to disk, if histories are tiered.
+    */
+   public Optional<HistoryTiers> getHistoryTiers()
+   {
+      return Optional.ofNullable(tiers);
+   }
+
+   /**
+    * @return The log to which all changes made through this repository are published.
+    */
+   public ChangeLog getChangeLog()
+   {
+      return changes;
+   }
+
+   /**
+    * @return The sequence number of the most recent commit to this repository.
+    */
+   public long getCommitSequence()
+   {
+      return commits.current();
+   }
+
+   /**
+    * @return The number of open snapshots.
+    */
+   public int getOpenSnapshotCount()
+   {
+      return commits.getReaderCount();
+   }
+
+   /**
+    * @return The number of purged workspaces retained for open snapshots.
+    */
+   public int getRetainedPurgeCount()
+   {
+      return purged.size();
+   }
+
+   /**
+    * @return The sweeper that enforces version retention and expires removed workspaces.
+    */
+   public RetentionSweeper getRetentionSweeper()
+   {
+      return sweeper;
+   }
+
+   /**
+    * @return The ids of all workspaces that have not been purged, including removed
+    *       workspaces. Reflects concurrent changes.
+    */
+   Collection<String> getWorkspaceIds()
+   {
+      return workspaces.keySet();
+   }
+
+   /**
+    * @return {@code true} if the identified workspace was removed before the supplied time.
+    */
+   boolean isRemovedBefore(String id, long time)
+   {
+      WorkspaceMediator mediator = workspaces.get(id);
+      return mediator != null && mediator.isRemovedBefore(time);
+   }
+
+   /**
+    * Discards the oldest versions of a workspace that are retained by neither of the
+    * supplied policies. The most recent version is always retained.
+    *
+    * @param id The id of the workspace.
+    * @param maxCount The number of recent versions to retain. {@code 0} retains none.
+    * @param minModified Versions recorded before this time are not retained.
+    * @param limit The maximum number of versions to discard.
+    * @return The number of versions discarded.
+    */
+   int discardVersions(String id, int maxCount, long minModified, int limit)
+   {
+      WorkspaceMediator mediator = workspaces.get(id);
+      return mediator != null ? mediator.discardVersions(maxCount, minModified, limit) : 0;
    }
 
    @Override
    public Collection<WorkspaceMeta> listAll()
    {
-      return workspaces.values().stream()
-         .map(WorkspaceMediator::get)
-         .filter(Optional::isPresent)
-         .map(Optional::get)
-         .sorted((a, b) -> wsIds.compare(a.id, b.id))
-         .collect(toList());
+      try (RepositorySnapshot snapshot = snapshot())
+      {
+         return snapshot.listAll();
+      }
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listScope(String scope)
+   {
+      List<WorkspaceMeta> result = new ArrayList<>();
+      for (String id : scopes.getIds(scope))
+      {
+         WorkspaceMediator mediator = workspaces.get(id);
+         if (mediator == null)
+            continue;
+
+         // the workspace may have been moved to another scope since the ids were read
+         mediator.getAt(Long.MAX_VALUE)
+               .filter(meta -> Objects.equals(meta.scope, scope))
+               .ifPresent(result::add);
+      }
+
+      return result;
+   }
+
+   @Override
+   public ScopeSummary getScopeSummary(String scope)
+   {
+      return scopes.getSummary(scope);
+   }
+
+   @Override
+   public Collection<ScopeSummary> listScopes()
+   {
+      List<ScopeSummary> summaries = scopes.getSummaries();
+      summaries.sort(Comparator.comparing((ScopeSummary summary) -> summary.scope, Comparator.nullsFirst(Comparator.naturalOrder())));
+      return summaries;
+   }
+
+   @Override
+   public WorkspaceQueryResult query(WorkspaceQuery query)
+   {
+      return planner.execute(query);
+   }
+
+   @Override
+   public List<SearchHit> search(String query, int limit)
+   {
+      List<SearchHit> results = new ArrayList<>();
+      for (TextIndex.Hit hit : text.search(query, limit, id -> peek(id) != null))
+      {
+         // the workspace may have been removed since it was accepted
+         WorkspaceMeta meta = peek(hit.id);
+         if (meta == null)
+            continue;
+
+         SearchHit result = new SearchHit();
+         result.workspace = WorkspaceMeta.copy(meta);
+         result.score = hit.score;
+         results.add(result);
+      }
+
+      return results;
+   }
+
+   @Override
+   public List<WorkspaceMeta> suggest(String prefix, String scope, int limit)
+   {
+      // the workspace may have been moved to another scope since its entry was read
+      Predicate<WorkspaceMeta> inScope = meta -> meta != null && (scope == null || scope.equals(meta.scope));
+
+      List<WorkspaceMeta> results = new ArrayList<>();
+      for (String id : suggestions.suggest(prefix, scope, limit, id -> inScope.test(peek(id))))
+      {
+         WorkspaceMeta meta = peek(id);
+         if (inScope.test(meta))
+            results.add(WorkspaceMeta.copy(meta));
+      }
+
+      return results;
+   }
+
+   private WorkspaceMeta peek(String id)
+   {
+      WorkspaceMediator mediator = workspaces.get(id);
+      return mediator == null ? null : mediator.peek(WorkspaceQuery.Removed.EXCLUDE);
+   }
+
+   @Override
+   public RepositorySnapshot snapshot()
+   {
+      return new SnapshotImpl(commits.open());
    }
 
    @Override
@@ -54,18 +350,129 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
       return mediator != null ? mediator.get(version) : Optional.empty();
    }
 
+   @Override
+   public Optional<WorkspaceMeta> getAsOf(String id, long timestamp)
+   {
+      WorkspaceMediator mediator = workspaces.get(id);
+      return mediator != null ? mediator.getAsOf(timestamp) : Optional.empty();
+   }
+
+   @Override
+   public Optional<VersionPage> listVersions(String id, String from, String to, String cursor, int limit)
+   {
+      if (limit <= 0)
+         throw new IllegalArgumentException(format("The page size must be positive [{0}]", Integer.valueOf(limit)));
+
+      WorkspaceMediator mediator = workspaces.get(id);
+      return mediator != null ? Optional.of(mediator.listVersions(from, to, cursor, limit)) : Optional.empty();
+   }
+
    @Override
    public WorkspaceMeta create(WorkspaceMeta data)
    {
-      WorkspaceMediator mediator = new WorkspaceMediator(wsIds.get(), data, config);
-      workspaces.put(mediator.wsId, mediator);
+      IdFactory versionIds = new IdFactory(config, "workspace_version");
+      WorkspaceMeta meta = WorkspaceMeta.copy(data);
+      meta.id = wsIds.get();
+      meta.version = versionIds.get();
+
+      return newMediator(meta, versionIds).register(workspaces);
+   }
 
-      return mediator.get()
-            .orElseThrow(() -> new IllegalStateException("Failed to create new workspace."));
+   private WorkspaceMediator newMediator(WorkspaceMeta initial, IdFactory versionIds)
+   {
+      return new WorkspaceMediator(initial, versionIds, this::newHistory, tiers, coalescer, commits, changes, indexes);
+   }
+
+   /**
+    * Replaces the empty state of this repository with the supplied workspaces, as they
+    * were at the supplied commit sequence number of another repository. Used to start a
+    * replica of that repository, which then {@link #apply(WorkspaceChange) applies} its
+    * subsequent changes. The version history of each workspace starts at its supplied
+    * state.
+    *
+    * @param sequence The commit sequence number of the supplied state.
+    * @param data The workspaces, with the ids, versions and modification times assigned
+    *       by the other repository.
+    * @throws IllegalStateException If this repository is not empty.
+    */
+   public void restore(long sequence, Collection<WorkspaceMeta> data)
+   {
+      if (commits.current() != 0 || !workspaces.isEmpty())
+         throw new IllegalStateException("Only an empty repository can be restored.");
+
+      if (sequence <= 0)
+      {
+         if (!data.isEmpty())
+            throw new IllegalArgumentException("Workspaces must be restored at a positive sequence number.");
+         return;
+      }
+
+      List<WorkspaceMediator> restored = data.stream()
+            .map(meta -> newMediator(WorkspaceMeta.copy(meta), new IdFactory(config, "workspace_version")))
+            .collect(toList());
+
+      List<WorkspaceIndexes.Change> indexChanges = restored.stream()
+            .map(WorkspaceMediator::indexRestored)
+            .collect(toList());
+
+      // the state of the other repository is observed in full by the last sequence number
+      commits.commit(sequence, first -> {
+         for (int i = 0; i < restored.size(); i++)
+            restored.get(i).restore(sequence, workspaces, indexChanges.get(i));
+
+         changes.rebase(sequence);
+      });
+   }
+
+   /**
+    * Applies a change published by another repository, preserving its sequence number and
+    * the ids, versions and modification times it assigned. Used to maintain a replica of
+    * that repository. Changes must be applied in order, and a replica must not be modified
+    * in any other way. Changes to workspaces that are not present, such as the purge of a
+    * workspace that was removed before the replica was {@link #restore(long, Collection)
+    * restored}, advance the commit sequence without other effect.
+    *
+    * @param change A change published by the change feed of the other repository.
+    * @throws IllegalStateException If the change does not immediately follow the most
+    *       recent commit to this repository.
+    */
+   public void apply(WorkspaceChange change)
+   {
+      long expected = commits.current() + 1;
+      if (change.sequence != expected || change.type == WorkspaceChange.Type.RESET)
+         throw new IllegalStateException(format("Cannot apply {0} change {1,number,#}. Expected change {2,number,#}.", change.type, Long.valueOf(change.sequence), Long.valueOf(expected)));
+
+      if (change.type == WorkspaceChange.Type.CREATED)
+      {
+         newMediator(WorkspaceMeta.copy(change.workspace), new IdFactory(config, "workspace_version"))
+               .replicate(change, workspaces, null);
+         return;
+      }
+
+      WorkspaceMediator mediator = workspaces.get(change.id);
+      if (mediator == null)
+      {
+         commits.commit(seq -> changes.append(seq, change.type, change.id, change.scope, change.workspace));
+         return;
+      }
+
+      mediator.replicate(change, workspaces, () -> {
+         purged.put(change.id, mediator);
+         workspaces.remove(change.id, mediator);
+      });
+
+      if (change.type == WorkspaceChange.Type.PURGED)
+         reclaim();
    }
 
    @Override
    public WorkspaceMeta update(WorkspaceMeta data)
+   {
+      return update(data, null);
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data, String clientId)
    {
       String notFoundErr = "Cannot update the workspace, {0} [{1}]. No workspace with this id exists.";
 
@@ -76,7 +483,33 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
       if (mediator == null)
          throw new IllegalArgumentException(format(notFoundErr, data.name, data.id));
 
-      return mediator.update(data);
+      return mediator.update(data, clientId);
+   }
+
+   @Override
+   public void flush(String id)
+   {
+      WorkspaceMediator mediator = workspaces.get(id);
+      if (mediator != null)
+         mediator.flush();
+   }
+
+   /**
+    * Commits the pending version of every workspace, as if each had been
+    * {@link #flush(String) flushed}.
+    *
+    * @return The number of workspaces whose pending version was committed.
+    */
+   public int flushAll()
+   {
+      int flushed = 0;
+      for (WorkspaceMediator mediator : workspaces.values())
+      {
+         if (mediator.flush())
+            flushed++;
+      }
+
+      return flushed;
    }
 
    @Override
@@ -90,66 +523,581 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
    @Override
    public void purge(String id)
    {
-      workspaces.remove(id);
+      WorkspaceMediator mediator = workspaces.get(id);
+      if (mediator == null)
+         return;
+
+      // retain the workspace for snapshots that predate the purge. It is added to the
+      // purged workspaces before it is removed so that concurrent snapshots always find it
+      mediator.purge(() -> {
+         purged.put(id, mediator);
+         workspaces.remove(id, mediator);
+      });
+
+      reclaim();
    }
 
+   /**
+    * Discards purged workspaces that are no longer visible to any open snapshot.
+    */
+   private void reclaim()
+   {
+      if (purged.isEmpty())
+         return;
+
+      long oldest = commits.oldestReader();
+      purged.values().removeIf(mediator -> mediator.isReclaimable(oldest));
+   }
+
+   /**
+    * Commits pending versions, so that they are published to the change feed, and then
+    * discards the repository's workspaces.
+    */
    @Override
    public void close() throws Exception
    {
+      sweeper.close();
+      coalescer.close();
+      flushAll();
+      changes.close();
       workspaces.clear();
+      purged.clear();
+      indexes.clear();
+      if (arena != null)
+         arena.close();
+      if (tiers != null)
+         tiers.close();
+   }
+
+   /**
+    * Reads the state of the repository at a fixed commit sequence number. Each workspace
+    * maintains a chain of its commits, newest first. Reads walk the chain to the newest
+    * commit at or before the snapshot and do not acquire workspace locks.
+    */
+   private class SnapshotImpl implements RepositorySnapshot
+   {
+      private final long sequence;
+      private boolean closed = false;
+
+      SnapshotImpl(long sequence)
+      {
+         this.sequence = sequence;
+      }
+
+      @Override
+      public long getSequence()
+      {
+         return sequence;
+      }
+
+      @Override
+      public Collection<WorkspaceMeta> listAll()
+      {
+         checkOpen();
+
+         // a workspace purged during iteration may be found in both maps
+         Map<String, WorkspaceMeta> visible = new LinkedHashMap<>();
+         workspaces.values().forEach(mediator -> mediator.getAt(sequence).ifPresent(meta -> visible.put(meta.id, meta)));
+         purged.values().forEach(mediator -> mediator.getAt(sequence).ifPresent(meta -> visible.put(meta.id, meta)));
+
+         return visible.values().stream()
+               .sorted((a, b) -> wsIds.compare(a.id, b.id))
+               .collect(toList());
+      }
+
+      @Override
+      public Optional<WorkspaceMeta> get(String id)
+      {
+         checkOpen();
+
+         WorkspaceMediator mediator = workspaces.get(id);
+         if (mediator == null)
+            mediator = purged.get(id);
+
+         return mediator != null ? mediator.getAt(sequence) : Optional.empty();
+      }
+
+      @Override
+      public Map<String, WorkspaceMeta> getAll(Collection<String> ids)
+      {
+         Map<String, WorkspaceMeta> result = new LinkedHashMap<>();
+         for (String id : ids)
+         {
+            get(id).ifPresent(meta -> result.put(id, meta));
+         }
+
+         return result;
+      }
+
+      private void checkOpen()
+      {
+         if (closed)
+            throw new IllegalStateException("This snapshot has been closed.");
+      }
+
+      @Override
+      public synchronized void close()
+      {
+         if (closed)
+            return;
+
+         closed = true;
+         commits.release(sequence);
+         reclaim();
+      }
    }
 
    /**
     *  Governs access to versioned history of a single workspace.
     */
-   private static class WorkspaceMediator
+   private static class WorkspaceMediator implements HistoryTiers.Tenant
    {
       private final Lock lock = new ReentrantLock();
 
       public final String wsId;
       private boolean removed = false;
+
+      /** The time at which this workspace was removed. Guarded by {@link #lock}. */
+      private long removedAt;
       private final IdFactory versionIds;
-      private TreeMap<String, WorkspaceMeta> wsVersions;
+      private final CommitSequence commits;
+      private final ChangeLog changes;
+      private final WorkspaceIndexes indexes;
+      private final VersionHistory history;
+
+      /** Spills the history of this workspace while it is not used, or {@code null} if it is never spilled. */
+      private final HistoryTiers tiers;
+      private final UpdateCoalescer coalescer;
+
+      /** The most recent commit to this workspace, linked to its predecessors. */
+      private volatile Commit head;
+
+      /** Coalesced updates that have not been committed. Modified while holding the lock. */
+      private volatile Pending pending;
+
+      /** Identifies successive coalescing windows. Guarded by {@link #lock}. */
+      private long windows = 0;
+
+      /**
+       * The ids of updates that were coalesced into a later version, mapped to the id of
+       * that version. Entries are discarded with the versions they map to. Guarded by
+       * {@link #lock}.
+       */
+      private final Map<String, String> folded = new HashMap<>();
+
+      private final WorkspaceMeta initial;
 
-      public WorkspaceMediator(String wsId, WorkspaceMeta data, Properties props)
+      /**
+       * @param initial The state of the workspace when it is created, including its id and
+       *       version. Not copied.
+       * @param versionIds Assigns the ids of subsequent versions.
+       */
+      public WorkspaceMediator(WorkspaceMeta initial, IdFactory versionIds, BiFunction<String, IdFactory, VersionHistory> histories, HistoryTiers tiers, UpdateCoalescer coalescer, CommitSequence commits, ChangeLog changes, WorkspaceIndexes indexes)
       {
-         this.wsId = wsId;
-         this.versionIds = new IdFactory(props, "workspace_version");
+         this.wsId = initial.id;
+         this.versionIds = versionIds;
+         this.commits = commits;
+         this.changes = changes;
+         this.indexes = indexes;
 
-         WorkspaceMeta meta = WorkspaceMeta.copy(data);
-         meta.id = wsId;
-         meta.version = versionIds.get();
-         wsVersions = new TreeMap<>(this.versionIds);
+         this.history = histories.apply(wsId, versionIds);
+         this.tiers = tiers;
+         this.coalescer = coalescer;
 
-         this.wsVersions.put(meta.version, meta);
+         this.initial = initial;
       }
 
-      public void remove()
+      /**
+       * Makes a new state of this workspace visible. Must be called from within a commit.
+       * Commits that can no longer be read by any snapshot are unlinked from the chain.
+       */
+      private void install(long sequence, WorkspaceMeta state, boolean deleted)
+      {
+         head = new Commit(sequence, state, deleted, head);
+
+         long oldest = commits.oldestReader();
+         for (Commit c = head; c != null; c = c.prev)
+         {
+            if (c.sequence <= oldest)
+            {
+               c.prev = null;
+               break;
+            }
+         }
+      }
+
+      /**
+       * @return The most recently committed state if it is selected by the supplied policy,
+       *       otherwise {@code null}. The returned object is shared and must not be modified.
+       */
+      public WorkspaceMeta peek(WorkspaceQuery.Removed removed)
+      {
+         Commit c = head;
+         if (c == null || c.state == null)
+            return null;
+
+         boolean selected = c.deleted ? removed != WorkspaceQuery.Removed.EXCLUDE : removed != WorkspaceQuery.Removed.ONLY;
+         return selected ? c.state : null;
+      }
+
+      /**
+       * @return The state of this workspace as of the supplied commit sequence number.
+       */
+      public Optional<WorkspaceMeta> getAt(long sequence)
+      {
+         for (Commit c = head; c != null; c = c.prev)
+         {
+            if (c.sequence <= sequence)
+               return c.deleted ? Optional.empty() : Optional.of(WorkspaceMeta.copy(c.state));
+         }
+
+         return Optional.empty();
+      }
+
+      /**
+       * @return {@code true} if this workspace has been purged and no snapshot that can
+       *       observe it remains open.
+       */
+      public boolean isReclaimable(long oldestReader)
+      {
+         Commit c = head;
+         return c != null && c.state == null && c.sequence <= oldestReader;
+      }
+
+      /**
+       * Adds a version to the history, stamping it with a modification time that is never
+       * earlier than that of the preceding version.
+       */
+      private void record(WorkspaceMeta meta)
+      {
+         meta.modified = Math.max(System.currentTimeMillis(), history.getLatestModified());
+         history.append(meta);
+         used();
+      }
+
+      /**
+       * Records a use of the history of this workspace. Must be called while holding the lock.
+       */
+      private void used()
+      {
+         if (tiers != null)
+            tiers.used(this, history.getResidentBytes());
+      }
+
+      @Override
+      public boolean spill()
+      {
+         if (!lock.tryLock())
+            return false;
+
+         try {
+            history.spill();
+            return true;
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Adds this workspace to the supplied index and publishes its creation. The change
+       * is published before any other thread can modify the workspace.
+       */
+      public WorkspaceMeta register(ConcurrentHashMap<String, WorkspaceMediator> index)
       {
          lock.lock();
-         this.removed = true;
-         lock.unlock();
+         try {
+            WorkspaceMeta meta = initial;
+            WorkspaceIndexes.Change indexChange = indexes.added(wsId, meta);
+            commits.commit(seq -> {
+               record(meta);
+               install(seq, meta, false);
+               index.put(wsId, this);
+               indexChange.install();
+               changes.append(seq, WorkspaceChange.Type.CREATED, wsId, meta.scope, meta);
+            });
+
+            return WorkspaceMeta.copy(meta);
+         } finally {
+            lock.unlock();
+         }
       }
 
-      public Optional<WorkspaceMeta> get()
+      /**
+       * @return The change to the secondary indexes that {@link #restore restores} this
+       *       workspace. Computed before the commit that restores it.
+       */
+      public WorkspaceIndexes.Change indexRestored()
+      {
+         return indexes.added(wsId, initial);
+      }
+
+      /**
+       * Adds this workspace to the supplied index in its initial state, as of the supplied
+       * sequence number, without publishing a change. Must be called from within a commit.
+       *
+       * @param indexChange The change to the secondary indexes returned by {@link #indexRestored()}.
+       */
+      public void restore(long sequence, ConcurrentHashMap<String, WorkspaceMediator> index, WorkspaceIndexes.Change indexChange)
+      {
+         lock.lock();
+         try {
+            history.append(initial);
+            used();
+            install(sequence, initial, false);
+            index.put(wsId, this);
+            indexChange.install();
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Applies a change replicated from another repository, recording the state it
+       * supplies rather than computing a new one.
+       *
+       * @param index The index to which a created workspace is added.
+       * @param unregister Removes this workspace from the repository when it is purged.
+       *       Called as part of the commit.
+       */
+      public void replicate(WorkspaceChange change, ConcurrentHashMap<String, WorkspaceMediator> index, Runnable unregister)
+      {
+         lock.lock();
+         try {
+            WorkspaceMeta last = history.size() > 0 ? history.getLatest() : null;
+            WorkspaceMeta meta = change.workspace == null ? null : WorkspaceMeta.copy(change.workspace);
+            boolean wasRemoved = this.removed;
+            WorkspaceIndexes.Change indexChange;
+            switch (change.type)
+            {
+               case CREATED:
+                  indexChange = indexes.added(wsId, initial);
+                  break;
+               case UPDATED:
+                  indexChange = indexes.updated(wsId, head.state, meta);
+                  break;
+               case REMOVED:
+                  indexChange = indexes.removed(wsId, last);
+                  break;
+               case PURGED:
+                  indexChange = indexes.purged(wsId, last, wasRemoved);
+                  break;
+               default:
+                  throw new IllegalStateException(format("Cannot apply a {0} change.", change.type));
+            }
+
+            commits.commit(seq -> {
+               switch (change.type)
+               {
+                  case CREATED:
+                     history.append(initial);
+                     used();
+                     install(seq, initial, false);
+                     index.put(wsId, this);
+                     indexChange.install();
+                     break;
+
+                  case UPDATED:
+                     history.append(meta);
+                     used();
+                     indexChange.install();
+                     install(seq, meta, false);
+                     break;
+
+                  case REMOVED:
+                     this.removed = true;
+                     this.removedAt = change.timestamp;
+                     install(seq, last, true);
+                     indexChange.install();
+                     break;
+
+                  case PURGED:
+                     this.removed = true;
+                     install(seq, null, true);
+                     indexChange.install();
+                     unregister.run();
+                     break;
+
+                  default:
+                     throw new IllegalStateException(format("Cannot apply a {0} change.", change.type));
+               }
+
+               changes.append(seq, change.type, wsId, change.scope, change.workspace);
+            });
+
+            if (change.type == WorkspaceChange.Type.PURGED)
+            {
+               history.release();
+               folded.clear();
+               if (tiers != null)
+                  tiers.removed(this);
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      public void remove()
       {
          lock.lock();
          try {
             if (this.removed)
-               return Optional.empty();
+               return;
+
+            commitPending();
+
+            this.removed = true;
+            this.removedAt = System.currentTimeMillis();
+            WorkspaceMeta meta = history.getLatest();
+            WorkspaceIndexes.Change indexChange = indexes.removed(wsId, meta);
+            commits.commit(seq -> {
+               install(seq, meta, true);
+               indexChange.install();
+               changes.append(seq, WorkspaceChange.Type.REMOVED, wsId, meta.scope, meta);
+            });
+         } finally {
+            lock.unlock();
+         }
+      }
 
-            return getSafe(wsVersions.lastEntry());
+      /**
+       * Marks this workspace as purged.
+       *
+       * @param unregister Removes this workspace from the repository. Called as part of the
+       *       commit.
+       */
+      public void purge(Runnable unregister)
+      {
+         lock.lock();
+         try {
+            boolean wasRemoved = this.removed;
+            this.removed = true;
+            this.pending = null;
+            WorkspaceMeta last = history.getLatest();
+            WorkspaceIndexes.Change indexChange = indexes.purged(wsId, last, wasRemoved);
+            commits.commit(seq -> {
+               install(seq, null, true);
+               indexChange.install();
+               unregister.run();
+               changes.append(seq, WorkspaceChange.Type.PURGED, wsId, last.scope, null);
+            });
+
+            history.release();
+            folded.clear();
+            if (tiers != null)
+               tiers.removed(this);
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      public boolean isRemovedBefore(long time)
+      {
+         lock.lock();
+         try {
+            return removed && removedAt < time;
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      public int discardVersions(int maxCount, long minModified, int limit)
+      {
+         lock.lock();
+         try {
+            int size = history.size();
+            int beyondCount = maxCount > 0 ? size - maxCount : size;
+            int expired = history.floorTime(minModified - 1) + 1;
+            int discarded = history.trim(Math.min(limit, Math.min(beyondCount, expired)));
+            if (discarded > 0)
+               folded.values().removeIf(version -> history.floor(version) < 0);
+
+            // discarding versions is not a use, so it does not keep the history in memory
+            if (discarded > 0 && tiers != null)
+               tiers.resized(this, history.getResidentBytes());
+
+            return discarded;
          } finally {
             lock.unlock();
          }
       }
 
+      public Optional<WorkspaceMeta> get()
+      {
+         // reads the latest state without acquiring the lock. Pending updates are
+         // committed before the workspace is removed
+         Pending p = pending;
+         if (p != null)
+            return Optional.of(WorkspaceMeta.copy(p.state));
+
+         Commit c = head;
+         if (c == null || c.deleted)
+            return Optional.empty();
+
+         return Optional.of(WorkspaceMeta.copy(c.state));
+      }
+
       public Optional<WorkspaceMeta> get(String version)
       {
          lock.lock();
          try {
             // NOTE: for removed entries, we can still retrieve a workspace given a specific version id
-            return getSafe(wsVersions.floorEntry(version));
+            Pending p = pending;
+            if (p != null && history.isNewer(version))
+               return Optional.of(WorkspaceMeta.copy(p.state));
+
+            // ids of coalesced updates identify the version they were folded into
+            int ix = history.floor(folded.getOrDefault(version, version));
+            Optional<WorkspaceMeta> result = ix < 0 ? Optional.empty() : Optional.of(history.get(ix));
+            used();
+            return result;
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      public Optional<WorkspaceMeta> getAsOf(long timestamp)
+      {
+         lock.lock();
+         try {
+            int ix = history.floorTime(timestamp);
+            Optional<WorkspaceMeta> result = ix < 0 ? Optional.empty() : Optional.of(history.get(ix));
+            used();
+            return result;
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Reads a page of versions, newest first. Only the versions on the returned page
+       * are reconstructed.
+       */
+      public VersionPage listVersions(String from, String to, String cursor, int limit)
+      {
+         lock.lock();
+         try {
+            VersionPage page = new VersionPage();
+            page.versions = new ArrayList<>();
+
+            // the cursor narrows the upper bound of the requested range
+            int upper = history.size() - 1;
+            if (to != null)
+               upper = Math.min(upper, history.floor(to));
+            if (cursor != null)
+               upper = Math.min(upper, history.lower(cursor));
+
+            int lower = from != null ? history.ceiling(from) : 0;
+            if (upper < lower)
+               return page;
+
+            int first = Math.max(lower, upper - limit + 1);
+            List<WorkspaceMeta> versions = history.getRange(first, upper);
+            Collections.reverse(versions);
+            used();
+
+            page.versions = versions;
+            page.next = first > lower ? versions.get(versions.size() - 1).version : null;
+            return page;
          } finally {
             lock.unlock();
          }
@@ -164,7 +1112,7 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
        * @throws IllegalStateException If the current state of the mediator prevents it from
        *       being updated. This is most like due to it having been deleted.
        */
-      public WorkspaceMeta update(WorkspaceMeta data)
+      public WorkspaceMeta update(WorkspaceMeta data, String clientId)
       {
          String wsDeletedErr = "Cannot update the workspace, {0} [{1}]. It has been deleted.";                      // 404
          String noVersionErr = "Cannot update the workspace, {0} [{1}]. "
@@ -182,11 +1130,38 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
             // get the referenced version
             WorkspaceMeta ref = this.get(data.version)
                   .orElseThrow(() -> new IllegalArgumentException(format(noVersionErr, data.name, this.wsId)));
+
+            // an update from another client ends the current coalescing window
+            Pending p = pending;
+            if (p != null && !p.clientId.equals(clientId))
+            {
+               commitPending();
+               p = null;
+            }
+
             WorkspaceMeta current = this.get()
                   .orElseThrow(() -> new IllegalStateException(format(notExistsErr, data.name, this.wsId)));
 
             WorkspaceMeta updated = update(data, ref, current);
-            wsVersions.put(updated.version, updated);
+            if (clientId != null && coalescer.isEnabled())
+            {
+               updated.modified = Math.max(System.currentTimeMillis(), history.getLatestModified());
+
+               long window = p != null ? p.window : ++windows;
+               pending = p != null ? p.fold(updated) : new Pending(clientId, window, updated, Collections.emptyList());
+               if (p == null)
+                  coalescer.schedule(() -> commitWindow(window));
+
+               return WorkspaceMeta.copy(updated);
+            }
+
+            WorkspaceIndexes.Change indexChange = indexes.updated(wsId, head.state, updated);
+            commits.commit(seq -> {
+               record(updated);
+               indexChange.install();
+               install(seq, updated, false);
+               changes.append(seq, WorkspaceChange.Type.UPDATED, wsId, updated.scope, updated);
+            });
 
             return WorkspaceMeta.copy(updated);
          } finally {
@@ -194,14 +1169,56 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
          }
       }
 
-      // copies the internal object to return a detached version
-      private Optional<WorkspaceMeta> getSafe(Entry<String, WorkspaceMeta> entry)
+      /**
+       * @return {@code true} if a pending version was committed.
+       */
+      public boolean flush()
       {
-         if (entry == null)
-            return Optional.empty();
+         lock.lock();
+         try {
+            return commitPending();
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      private void commitWindow(long window)
+      {
+         lock.lock();
+         try {
+            Pending p = pending;
+            if (p != null && p.window == window)
+               commitPending();
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Commits coalesced updates as a single version. Must be called while holding the lock.
+       *
+       * @return {@code true} if there were coalesced updates to commit.
+       */
+      private boolean commitPending()
+      {
+         Pending p = pending;
+         if (p == null)
+            return false;
 
-         WorkspaceMeta meta = entry.getValue();
-         return Optional.of(WorkspaceMeta.copy(meta));
+         // readers may be copying the pending state
+         WorkspaceMeta meta = WorkspaceMeta.copy(p.state);
+         WorkspaceIndexes.Change indexChange = indexes.updated(wsId, head.state, meta);
+         commits.commit(seq -> {
+            record(meta);
+            indexChange.install();
+            install(seq, meta, false);
+            pending = null;
+            changes.append(seq, WorkspaceChange.Type.UPDATED, wsId, meta.scope, meta);
+         });
+
+         for (String version : p.folded)
+            folded.put(version, meta.version);
+         return true;
       }
 
       private WorkspaceMeta update(WorkspaceMeta data, WorkspaceMeta ref, WorkspaceMeta current)
@@ -224,4 +1241,62 @@ public class WorkspaceRepoImpl implements WorkspaceRepository
       }
    }
 
+   /**
+    * The state produced by coalescing successive updates from a single client.
+    */
+   private static class Pending
+   {
+      final String clientId;
+
+      /** Identifies the coalescing window that produced this state. */
+      final long window;
+
+      final WorkspaceMeta state;
+
+      /** The ids of earlier updates in the window, which this state supersedes. */
+      final List<String> folded;
+
+      Pending(String clientId, long window, WorkspaceMeta state, List<String> folded)
+      {
+         this.clientId = clientId;
+         this.window = window;
+         this.state = state;
+         this.folded = folded;
+      }
+
+      /**
+       * @return The pending state of a later update in the same window.
+       */
+      Pending fold(WorkspaceMeta later)
+      {
+         List<String> ids = new ArrayList<>(folded);
+         ids.add(state.version);
+         return new Pending(clientId, window, later, ids);
+      }
+   }
+
+   /**
+    * A committed state of a workspace.
+    */
+   private static class Commit
+   {
+      final long sequence;
+
+      /** The state of the workspace. {@code null} if the workspace was purged. */
+      final WorkspaceMeta state;
+
+      /** Indicates that the workspace was deleted by this commit. */
+      final boolean deleted;
+
+      /** The preceding commit. Unlinked once it can no longer be read. */
+      volatile Commit prev;
+
+      Commit(long sequence, WorkspaceMeta state, boolean deleted, Commit prev)
+      {
+         this.sequence = sequence;
+         this.state = state;
+         this.deleted = deleted;
+         this.prev = prev;
+      }
+   }
 }
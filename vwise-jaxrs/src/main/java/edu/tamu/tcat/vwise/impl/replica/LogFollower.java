@@ -0,0 +1,302 @@
+package edu.tamu.tcat.vwise.impl.replica;
+
+import static java.text.MessageFormat.format;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.tamu.tcat.vwise.RepositorySnapshot;
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.ReplicationStatus;
+import edu.tamu.tcat.vwise.model.ReplicationStatus.State;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+
+/**
+ * Keeps a repository up to date with the change feed of a leader.
+ *
+ * <p>Changes are received on the feed's threads and queued for a single applier thread,
+ * which applies them to the repository in sequence order. A replica that starts empty
+ * replays the leader's log from its first change. If the leader no longer retains its
+ * first change, the replica instead loads the leader's current workspaces and follows the
+ * log from the sequence number at which they were read.
+ *
+ * <p>If a running replica is sent a {@link WorkspaceChange.Type#RESET}, it has missed
+ * changes that the leader no longer retains. It stops applying changes and reports that
+ * it has {@link State#DIVERGED diverged}.
+ */
+class LogFollower
+{
+   private final static Logger logger = Logger.getLogger(LogFollower.class.getName());
+
+   private static final long RETRY_DELAY_MS = 1000;
+
+   private final String leaderName;
+   private final VwiseApplicationContext leader;
+   private final WorkspaceRepoImpl repo;
+   private final Thread applier;
+
+   /** Changes received but not yet applied, with the subscription that received them. */
+   private final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+
+   /** Guards the status and is notified when changes are applied or the state changes. */
+   private final Object progress = new Object();
+   private final ReplicationStatus status = new ReplicationStatus();
+
+   /** Identifies the current subscription. Only modified by the applier. */
+   private volatile int generation = 0;
+   private AutoCloseable subscription;
+   private volatile boolean closed = false;
+
+   /**
+    * @param leaderName Identifies the leader in status reports and log messages.
+    * @param leader Provides the leader's workspaces and change feed.
+    * @param repo The repository to which changes are applied. Must not be modified
+    *       otherwise.
+    */
+   LogFollower(String leaderName, VwiseApplicationContext leader, WorkspaceRepoImpl repo)
+   {
+      this.leaderName = leaderName;
+      this.leader = leader;
+      this.repo = repo;
+
+      status.leader = leaderName;
+      status.state = State.STARTING;
+
+      this.applier = new Thread(this::run, "vwise-replica-applier");
+      this.applier.setDaemon(true);
+   }
+
+   void start()
+   {
+      applier.start();
+   }
+
+   /**
+    * @return The current status of the replica.
+    */
+   ReplicationStatus getStatus()
+   {
+      synchronized (progress)
+      {
+         ReplicationStatus result = ReplicationStatus.copy(status);
+         Received oldest = received.peek();
+         result.lagMillis = oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.change.timestamp);
+         return result;
+      }
+   }
+
+   /**
+    * Waits until the replica has applied the supplied commit of the leader.
+    *
+    * @return {@code true} if the commit has been applied, {@code false} if the timeout
+    *       elapsed or the replica stopped applying changes first.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   boolean await(long sequence, long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (progress)
+      {
+         while (repo.getCommitSequence() < sequence)
+         {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0 || status.state == State.DIVERGED || status.state == State.STOPPED)
+               return false;
+
+            progress.wait(remaining);
+         }
+
+         return true;
+      }
+   }
+
+   private void run()
+   {
+      try
+      {
+         subscribe(repo.getCommitSequence());
+         while (!closed)
+         {
+            Received next = received.take();
+            if (next.generation != generation)
+               continue;
+
+            WorkspaceChange change = next.change;
+            if (change.type == WorkspaceChange.Type.RESET)
+            {
+               if (repo.getCommitSequence() == 0)
+               {
+                  restore();
+                  continue;
+               }
+
+               diverge(format("The leader no longer retains the changes following {0,number,#}.", Long.valueOf(repo.getCommitSequence())));
+               return;
+            }
+
+            // changes may be resent when the feed reconnects
+            if (change.sequence <= repo.getCommitSequence())
+               continue;
+
+            repo.apply(change);
+            applied(change);
+         }
+      }
+      catch (InterruptedException ex)
+      {
+         // the follower has been closed
+         Thread.currentThread().interrupt();
+      }
+      catch (RuntimeException ex)
+      {
+         logger.log(Level.SEVERE, format("Failed to apply the changes of {0}.", leaderName), ex);
+         diverge(format("Failed to apply a change: {0}", ex.getMessage()));
+      }
+      finally
+      {
+         unsubscribe();
+      }
+   }
+
+   private void subscribe(long after)
+   {
+      unsubscribe();
+
+      int gen = ++generation;
+      subscription = leader.getChangeFeed().subscribe(after, null, null, change -> {
+         received.add(new Received(gen, change));
+         synchronized (progress)
+         {
+            status.received = Math.max(status.received, change.sequence);
+         }
+      });
+
+      synchronized (progress)
+      {
+         if (status.state == State.STARTING)
+            status.state = State.STREAMING;
+      }
+   }
+
+   private void unsubscribe()
+   {
+      if (subscription == null)
+         return;
+
+      try
+      {
+         subscription.close();
+      }
+      catch (Exception ex)
+      {
+         logger.log(Level.WARNING, format("Failed to close the subscription to the changes of {0}.", leaderName), ex);
+      }
+
+      subscription = null;
+   }
+
+   /**
+    * Loads the leader's current workspaces into the empty repository and follows the log
+    * from the sequence number at which they were read. Retries until it succeeds or the
+    * follower is closed.
+    */
+   private void restore() throws InterruptedException
+   {
+      unsubscribe();
+      generation++;
+      received.clear();
+      synchronized (progress)
+      {
+         status.state = State.STARTING;
+      }
+
+      while (!closed)
+      {
+         try
+         {
+            WorkspaceRepository source = leader.getRepository();
+            try (RepositorySnapshot snapshot = source.snapshot())
+            {
+               repo.restore(snapshot.getSequence(), snapshot.listAll());
+               logger.log(Level.INFO, () -> format("Loaded the workspaces of {0} as of change {1,number,#}.", leaderName, Long.valueOf(snapshot.getSequence())));
+            }
+
+            synchronized (progress)
+            {
+               status.sequence = repo.getCommitSequence();
+               status.received = Math.max(status.received, status.sequence);
+               progress.notifyAll();
+            }
+
+            subscribe(repo.getCommitSequence());
+            return;
+         }
+         catch (RuntimeException ex)
+         {
+            logger.log(Level.WARNING, format("Failed to load the workspaces of {0}. Retrying.", leaderName), ex);
+            Thread.sleep(RETRY_DELAY_MS);
+         }
+      }
+   }
+
+   private void applied(WorkspaceChange change)
+   {
+      synchronized (progress)
+      {
+         status.sequence = change.sequence;
+         status.applyDelayMillis = Math.max(0, System.currentTimeMillis() - change.timestamp);
+         progress.notifyAll();
+      }
+   }
+
+   private void diverge(String message)
+   {
+      logger.log(Level.SEVERE, () -> format("Replica of {0} stopped applying changes at {1,number,#}. {2}", leaderName, Long.valueOf(repo.getCommitSequence()), message));
+      synchronized (progress)
+      {
+         status.state = State.DIVERGED;
+         status.message = message;
+         progress.notifyAll();
+      }
+   }
+
+   /**
+    * Stops applying changes. The repository is not closed.
+    */
+   void close()
+   {
+      closed = true;
+      applier.interrupt();
+      try
+      {
+         applier.join(TimeUnit.SECONDS.toMillis(5));
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      synchronized (progress)
+      {
+         status.state = State.STOPPED;
+         progress.notifyAll();
+      }
+   }
+
+   private static class Received
+   {
+      final int generation;
+      final WorkspaceChange change;
+
+      Received(int generation, WorkspaceChange change)
+      {
+         this.generation = generation;
+         this.change = change;
+      }
+   }
+}
@@ -0,0 +1,141 @@
+package edu.tamu.tcat.vwise.impl.replica;
+
+import static java.text.MessageFormat.format;
+
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.impl.memory.RetentionSweeper;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.ReplicationStatus;
+
+/**
+ * A read-only replica of the workspaces of another vWise server, the leader.
+ *
+ * <p>The replica follows the leader's change feed and applies each change to its own
+ * in-memory repository, preserving the leader's ids, versions and commit sequence
+ * numbers. Its own change feed republishes the leader's changes with the same sequence
+ * numbers, so clients may move between the leader and its replicas and further replicas
+ * may follow a replica. The repository is configured by the same properties as
+ * {@link WorkspaceRepoImpl}; the {@code ids.*} properties must match those of the leader.
+ * Removed workspaces are purged only when the leader purges them.
+ *
+ * <pre>
+ * # The base URI of the leader's REST API (required)
+ * replication.leader=http://localhost:18080/vwise/
+ *
+ * # Maximum time, in milliseconds, that a read waits for the replica to apply a change
+ * # the client requires to have been applied (default: 2000)
+ * replication.read_wait_ms=2000
+ * </pre>
+ *
+ * <p>Connections to the leader are configured by the {@code client.*} properties of
+ * {@link RestClientAppContext}.
+ */
+public class ReplicaApplicationContext implements VwiseApplicationContext
+{
+   public static final String PROP_LEADER = "replication.leader";
+   public static final String PROP_READ_WAIT = "replication.read_wait_ms";
+
+   private final URI leaderUri;
+   private final long readWaitMillis;
+   private final RestClientAppContext leader;
+   private final WorkspaceRepoImpl repo;
+   private final ReplicaWorkspaceRepo readOnly;
+   private final LogFollower follower;
+
+   public ReplicaApplicationContext(Properties config)
+   {
+      String leader = config.getProperty(PROP_LEADER, "").trim();
+      if (leader.isEmpty())
+         throw new IllegalStateException(format("Configuration error: The leader of the replica must be supplied by property {0}.", PROP_LEADER));
+
+      this.leaderUri = URI.create(leader);
+      this.readWaitMillis = getLongProperty(config, PROP_READ_WAIT, 2000);
+
+      // removed workspaces are purged by the leader, whose purges are replicated
+      Properties repoConfig = new Properties();
+      repoConfig.putAll(config);
+      repoConfig.setProperty(RetentionSweeper.PROP_TOMBSTONE_GRACE, "-1");
+
+      this.leader = new RestClientAppContext(leaderUri, config);
+      this.repo = new WorkspaceRepoImpl(repoConfig);
+      this.readOnly = new ReplicaWorkspaceRepo(repo, leader);
+      this.follower = new LogFollower(leader, this.leader, repo);
+      this.follower.start();
+   }
+
+   private static long getLongProperty(Properties props, String key, long defaultValue)
+   {
+      String property = props.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Long.parseLong(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   /**
+    * @return The base URI of the leader's REST API.
+    */
+   public URI getLeader()
+   {
+      return leaderUri;
+   }
+
+   /**
+    * @return The progress of the replica in applying the leader's changes.
+    */
+   public ReplicationStatus getStatus()
+   {
+      return follower.getStatus();
+   }
+
+   /**
+    * Waits, for no longer than the configured read wait, until the replica has applied
+    * the supplied commit of the leader.
+    *
+    * @return {@code true} if the commit has been applied.
+    * @throws InterruptedException If interrupted while waiting.
+    */
+   public boolean awaitSequence(long sequence) throws InterruptedException
+   {
+      return follower.await(sequence, readWaitMillis, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Provides read access to the replicated workspaces. Changes are rejected with an
+    * {@link IllegalStateException}.
+    */
+   @Override
+   public WorkspaceRepository getRepository()
+   {
+      return readOnly;
+   }
+
+   @Override
+   public WorkspaceChangeFeed getChangeFeed()
+   {
+      return repo.getChangeLog();
+   }
+
+   /**
+    * Stops following the leader and releases the replicated workspaces.
+    */
+   @Override
+   public void close() throws Exception
+   {
+      follower.close();
+      leader.shutdown();
+      repo.getChangeLog().close();
+      repo.close();
+   }
+}
@@ -0,0 +1,158 @@
+package edu.tamu.tcat.vwise.impl.replica;
+
+import static java.text.MessageFormat.format;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import edu.tamu.tcat.vwise.RepositorySnapshot;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
+
+/**
+ * Serves reads from the repository of a replica and rejects changes, which must be sent
+ * to the leader.
+ */
+class ReplicaWorkspaceRepo implements WorkspaceRepository
+{
+   private final WorkspaceRepoImpl repo;
+   private final String leader;
+
+   ReplicaWorkspaceRepo(WorkspaceRepoImpl repo, String leader)
+   {
+      this.repo = repo;
+      this.leader = leader;
+   }
+
+   private IllegalStateException readOnly()
+   {
+      return new IllegalStateException(format("This repository is a read-only replica of {0}. Changes must be sent to the leader.", leader));
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listAll()
+   {
+      return repo.listAll();
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listScope(String scope)
+   {
+      return repo.listScope(scope);
+   }
+
+   @Override
+   public ScopeSummary getScopeSummary(String scope)
+   {
+      return repo.getScopeSummary(scope);
+   }
+
+   @Override
+   public Collection<ScopeSummary> listScopes()
+   {
+      return repo.listScopes();
+   }
+
+   @Override
+   public WorkspaceQueryResult query(WorkspaceQuery query)
+   {
+      return repo.query(query);
+   }
+
+   @Override
+   public List<SearchHit> search(String query, int limit)
+   {
+      return repo.search(query, limit);
+   }
+
+   @Override
+   public List<WorkspaceMeta> suggest(String prefix, String scope, int limit)
+   {
+      return repo.suggest(prefix, scope, limit);
+   }
+
+   @Override
+   public RepositorySnapshot snapshot()
+   {
+      return repo.snapshot();
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> get(String id)
+   {
+      return repo.get(id);
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> get(String id, String version)
+   {
+      return repo.get(id, version);
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> getAsOf(String id, long timestamp)
+   {
+      return repo.getAsOf(id, timestamp);
+   }
+
+   @Override
+   public Optional<VersionPage> listVersions(String id, String from, String to, String cursor, int limit)
+   {
+      return repo.listVersions(id, from, to, cursor, limit);
+   }
+
+   @Override
+   public WorkspaceMeta create(WorkspaceMeta data)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data, String clientId)
+   {
+      throw readOnly();
+   }
+
+   /**
+    * Does nothing. Updates are coalesced by the leader.
+    */
+   @Override
+   public void flush(String id)
+   {
+      // no pending updates
+   }
+
+   @Override
+   public void remove(String id)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void purge(String id)
+   {
+      throw readOnly();
+   }
+
+   /**
+    * Does nothing. The repository is closed when the replica is shut down.
+    */
+   @Override
+   public void close() throws Exception
+   {
+      // shared by all callers
+   }
+}
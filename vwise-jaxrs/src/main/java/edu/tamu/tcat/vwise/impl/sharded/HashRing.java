@@ -0,0 +1,71 @@
+package edu.tamu.tcat.vwise.impl.sharded;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns keys to nodes by consistent hashing.
+ *
+ * <p>Each node is placed at several points on a ring of 32-bit hash values, and a key is
+ * assigned to the node at the first point at or after the hash of the key. Adding a node
+ * takes a proportional share of keys from every other node and moves no key between the
+ * existing nodes; removing one redistributes only its keys. The points of a node depend
+ * only on its name, so every router configured with the same nodes agrees on placement.
+ */
+class HashRing
+{
+   private final TreeMap<Integer, String> points = new TreeMap<>();
+
+   /**
+    * @param nodes The names of the nodes.
+    * @param pointsPerNode The number of points at which each node is placed. More points
+    *       divide keys more evenly.
+    */
+   HashRing(Collection<String> nodes, int pointsPerNode)
+   {
+      if (nodes.isEmpty())
+         throw new IllegalArgumentException("A hash ring requires at least one node.");
+      if (pointsPerNode <= 0)
+         throw new IllegalArgumentException("Each node must be placed at least once on the hash ring.");
+
+      for (String node : nodes)
+      {
+         for (int i = 0; i < pointsPerNode; i++)
+         {
+            // collisions are rare; the first node placed at a point keeps it
+            points.putIfAbsent(Integer.valueOf(hash(node + "#" + i)), node);
+         }
+      }
+   }
+
+   /**
+    * @return The node to which the supplied key is assigned.
+    */
+   String locate(String key)
+   {
+      Map.Entry<Integer, String> point = points.ceilingEntry(Integer.valueOf(hash(key)));
+      return point != null ? point.getValue() : points.firstEntry().getValue();
+   }
+
+   /**
+    * @return The first 32 bits of the MD5 digest of the supplied text. MD5 is used for its
+    *       uniform distribution rather than its security.
+    */
+   private static int hash(String text)
+   {
+      try
+      {
+         byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+         return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+      }
+      catch (NoSuchAlgorithmException ex)
+      {
+         // every Java platform is required to support MD5
+         throw new IllegalStateException("MD5 is not available.", ex);
+      }
+   }
+}
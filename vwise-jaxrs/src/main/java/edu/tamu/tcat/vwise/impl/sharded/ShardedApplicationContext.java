@@ -0,0 +1,149 @@
+package edu.tamu.tcat.vwise.impl.sharded;
+
+import static java.text.MessageFormat.format;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+
+/**
+ * Distributes workspaces across several vWise servers. See {@link ShardedWorkspaceRepo}.
+ *
+ * <pre>
+ * # The servers that hold workspaces, as a comma separated list of name=url pairs. Names
+ * # may contain lower-case letters and digits and are the prefix of the ids of the
+ * # workspaces on each server, so they must not change once workspaces have been created.
+ * shards.nodes=a=http://localhost:9001/vwise/,b=http://localhost:9002/vwise/
+ *
+ * # Number of points at which each server is placed on the hash ring (default: 128)
+ * shards.ring.points=128
+ * </pre>
+ *
+ * <p>Connections to the servers are configured by the {@code client.*} properties of
+ * {@link RestClientAppContext}.
+ */
+public class ShardedApplicationContext implements VwiseApplicationContext
+{
+   public static final String PROP_NODES = "shards.nodes";
+   public static final String PROP_RING_POINTS = "shards.ring.points";
+
+   private static final Pattern NODE_NAME = Pattern.compile("[a-z0-9]+");
+
+   private final Map<String, VwiseApplicationContext> nodes;
+   private final HashRing ring;
+   private final ShardedChangeFeed changeFeed;
+   private final ExecutorService executor;
+
+   /**
+    * Connects to the servers listed by the supplied configuration.
+    */
+   public ShardedApplicationContext(Properties config)
+   {
+      this(connect(config), getRingPoints(config));
+   }
+
+   /**
+    * @param nodes The contexts of the shards, by name.
+    * @param ringPoints The number of points at which each shard is placed on the hash ring.
+    */
+   public ShardedApplicationContext(Map<String, VwiseApplicationContext> nodes, int ringPoints)
+   {
+      for (String name : nodes.keySet())
+      {
+         if (!NODE_NAME.matcher(name).matches())
+            throw new IllegalArgumentException(format("Invalid shard name {0}. Names may contain only lower-case letters and digits.", name));
+      }
+
+      this.nodes = new TreeMap<>(nodes);
+      this.ring = new HashRing(this.nodes.keySet(), ringPoints);
+
+      Map<String, WorkspaceChangeFeed> feeds = new LinkedHashMap<>();
+      this.nodes.forEach((name, node) -> feeds.put(name, node.getChangeFeed()));
+      this.changeFeed = new ShardedChangeFeed(feeds);
+
+      AtomicInteger threads = new AtomicInteger();
+      this.executor = Executors.newCachedThreadPool(task -> {
+         Thread thread = new Thread(task, "vwise-shard-request-" + threads.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   private static Map<String, VwiseApplicationContext> connect(Properties config)
+   {
+      String nodes = config.getProperty(PROP_NODES, "").trim();
+      if (nodes.isEmpty())
+         throw new IllegalStateException(format("Configuration error: No servers are listed by property {0}.", PROP_NODES));
+
+      Map<String, VwiseApplicationContext> contexts = new LinkedHashMap<>();
+      for (String node : nodes.split(","))
+      {
+         int ix = node.indexOf('=');
+         if (ix < 0)
+            throw new IllegalStateException(format("Configuration error: The server {0} listed by property {1} must be given as name=url.", node.trim(), PROP_NODES));
+
+         String name = node.substring(0, ix).trim();
+         if (contexts.containsKey(name))
+            throw new IllegalStateException(format("Configuration error: The server name {0} is listed more than once by property {1}.", name, PROP_NODES));
+
+         contexts.put(name, new RestClientAppContext(URI.create(node.substring(ix + 1).trim()), config));
+      }
+
+      return contexts;
+   }
+
+   private static int getRingPoints(Properties config)
+   {
+      String property = config.getProperty(PROP_RING_POINTS, "128").trim();
+      try
+      {
+         return Integer.parseInt(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, PROP_RING_POINTS));
+      }
+   }
+
+   @Override
+   public WorkspaceRepository getRepository()
+   {
+      Map<String, WorkspaceRepository> repos = new LinkedHashMap<>();
+      nodes.forEach((name, node) -> repos.put(name, node.getRepository()));
+      return new ShardedWorkspaceRepo(repos, ring, executor);
+   }
+
+   /**
+    * Provides the changes published by every shard. See {@link ShardedChangeFeed}.
+    */
+   @Override
+   public WorkspaceChangeFeed getChangeFeed()
+   {
+      return changeFeed;
+   }
+
+   /**
+    * Stops sending requests to the shards and shuts down the contexts of remote shards.
+    */
+   @Override
+   public void close()
+   {
+      executor.shutdownNow();
+      for (VwiseApplicationContext node : nodes.values())
+      {
+         if (node instanceof RestClientAppContext)
+            ((RestClientAppContext)node).shutdown();
+      }
+   }
+}
@@ -0,0 +1,78 @@
+package edu.tamu.tcat.vwise.impl.sharded;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceChangeListener;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+
+/**
+ * Combines the change feeds of the shards of a {@link ShardedWorkspaceRepo}.
+ *
+ * <p>Sequence numbers are assigned by each shard, so a subscription to a single workspace
+ * is resumable, as it is served by the feed of the workspace's shard, but a subscription
+ * to several shards may only receive new changes. Changes from different shards are
+ * delivered in the order in which they are received.
+ */
+class ShardedChangeFeed implements WorkspaceChangeFeed
+{
+   private final TreeMap<String, WorkspaceChangeFeed> feeds;
+
+   /**
+    * @param feeds The change feeds of the shards, by shard name.
+    */
+   ShardedChangeFeed(Map<String, WorkspaceChangeFeed> feeds)
+   {
+      this.feeds = new TreeMap<>(feeds);
+   }
+
+   @Override
+   public AutoCloseable subscribe(long after, String scope, String wsId, WorkspaceChangeListener listener)
+   {
+      Objects.requireNonNull(listener, "A listener must be supplied.");
+
+      if (wsId != null)
+      {
+         int ix = wsId.indexOf('.');
+         WorkspaceChangeFeed feed = ix > 0 ? feeds.get(wsId.substring(0, ix)) : null;
+         if (feed == null)
+            // no such workspace; there will never be changes to deliver
+            return () -> {};
+
+         String shard = wsId.substring(0, ix);
+         return feed.subscribe(after, scope, wsId.substring(ix + 1), change -> listener.onChange(tag(shard, change)));
+      }
+
+      if (after != LATEST)
+         throw new IllegalArgumentException("Changes to workspaces on several shards can be received only as they are published. Sequence numbers are assigned by each shard.");
+
+      List<AutoCloseable> subscriptions = new ArrayList<>();
+      feeds.forEach((shard, feed) -> subscriptions.add(feed.subscribe(LATEST, scope, null, change -> {
+         // shards publish concurrently, but listeners are never called concurrently
+         synchronized (listener)
+         {
+            listener.onChange(tag(shard, change));
+         }
+      })));
+
+      return () -> {
+         for (AutoCloseable subscription : subscriptions)
+            subscription.close();
+      };
+   }
+
+   private static WorkspaceChange tag(String shard, WorkspaceChange orig)
+   {
+      WorkspaceChange change = WorkspaceChange.copy(orig);
+      if (change.id != null)
+         change.id = shard + "." + change.id;
+      if (change.workspace != null)
+         change.workspace.id = shard + "." + change.workspace.id;
+
+      return change;
+   }
+}
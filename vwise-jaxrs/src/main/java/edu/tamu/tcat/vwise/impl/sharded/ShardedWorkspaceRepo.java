@@ -0,0 +1,682 @@
+package edu.tamu.tcat.vwise.impl.sharded;
+
+import static java.text.MessageFormat.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import edu.tamu.tcat.vwise.RepositorySnapshot;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery.SortField;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
+
+/**
+ * A workspace repository that distributes workspaces across several shards, each of which
+ * is itself a repository, typically a remote vWise server.
+ *
+ * <p>New workspaces are placed by consistent hashing, so that every shard receives a share
+ * of new workspaces proportional to its share of the {@link HashRing hash ring}. The id of
+ * a workspace is the name of its shard followed by a period and the id assigned by the
+ * shard, for example {@code b.x7k2m}, so requests for a workspace are routed to its shard
+ * without a lookup. Workspaces are never moved: adding a shard changes only where new
+ * workspaces are placed.
+ *
+ * <p>Listings, queries, searches and suggestions are sent to every shard in parallel and
+ * their results merged. Workspaces are ordered by id as if by shard name and then by the id
+ * assigned by the shard. Queries merge the ordered pages of each shard, and their cursors
+ * record the position reached in each shard. Search scores are computed by each shard from
+ * the statistics of its own workspaces, and so are comparable across shards only when
+ * workspaces are evenly distributed.
+ *
+ * <p>Snapshots combine a snapshot of each shard. Shards are not coordinated, so changes
+ * committed while a snapshot is being taken may be visible in some shards but not others.
+ */
+public class ShardedWorkspaceRepo implements WorkspaceRepository
+{
+   /** Separates the name of a shard from the id assigned by the shard. */
+   private static final char SEPARATOR = '.';
+
+   private final TreeMap<String, WorkspaceRepository> shards;
+   private final HashRing ring;
+   private final Executor executor;
+
+   /**
+    * @param shards The shards, by name.
+    * @param ring Places new workspaces on shards.
+    * @param executor Sends requests to shards in parallel.
+    */
+   ShardedWorkspaceRepo(Map<String, WorkspaceRepository> shards, HashRing ring, Executor executor)
+   {
+      this.shards = new TreeMap<>(shards);
+      this.ring = ring;
+      this.executor = executor;
+   }
+
+   /**
+    * @return The name of the shard that holds the identified workspace, if the id is one
+    *       that could have been assigned by this repository.
+    */
+   public Optional<String> getShard(String id)
+   {
+      return route(id).map(route -> route.shard);
+   }
+
+   private Optional<Route> route(String id)
+   {
+      int ix = id == null ? -1 : id.indexOf(SEPARATOR);
+      if (ix <= 0 || ix == id.length() - 1)
+         return Optional.empty();
+
+      String shard = id.substring(0, ix);
+      WorkspaceRepository repo = shards.get(shard);
+      return repo == null ? Optional.empty() : Optional.of(new Route(shard, repo, id.substring(ix + 1)));
+   }
+
+   /**
+    * Replaces the id of a workspace returned by a shard with its id in this repository.
+    * Shards return copies, which may be modified.
+    */
+   private static WorkspaceMeta tag(String shard, WorkspaceMeta meta)
+   {
+      meta.id = shard + SEPARATOR + meta.id;
+      return meta;
+   }
+
+   private <T> Map<String, CompletableFuture<T>> submit(Function<WorkspaceRepository, T> call)
+   {
+      Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+      shards.forEach((name, repo) -> futures.put(name, CompletableFuture.supplyAsync(() -> call.apply(repo), executor)));
+      return futures;
+   }
+
+   /**
+    * Waits for every request to complete.
+    *
+    * @return The results of the requests, by shard name.
+    * @throws RuntimeException The failure of the first failed request, once all requests
+    *       have completed.
+    */
+   private static <T> Map<String, T> join(Map<String, CompletableFuture<T>> futures)
+   {
+      Map<String, T> results = new LinkedHashMap<>();
+      RuntimeException failure = null;
+      for (Map.Entry<String, CompletableFuture<T>> entry : futures.entrySet())
+      {
+         try
+         {
+            results.put(entry.getKey(), entry.getValue().join());
+         }
+         catch (CompletionException ex)
+         {
+            if (failure == null)
+               failure = unwrap(entry.getKey(), ex);
+         }
+      }
+
+      if (failure != null)
+         throw failure;
+
+      return results;
+   }
+
+   private static RuntimeException unwrap(String shard, CompletionException ex)
+   {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException)
+         return (RuntimeException)cause;
+
+      return new IllegalStateException(format("A request to shard {0} failed: {1}", shard, cause), cause);
+   }
+
+   private <T> Map<String, T> scatter(Function<WorkspaceRepository, T> call)
+   {
+      return join(submit(call));
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listAll()
+   {
+      List<WorkspaceMeta> result = new ArrayList<>();
+      scatter(WorkspaceRepository::listAll).forEach((shard, workspaces) -> workspaces.forEach(ws -> result.add(tag(shard, ws))));
+      return result;
+   }
+
+   @Override
+   public Collection<WorkspaceMeta> listScope(String scope)
+   {
+      List<WorkspaceMeta> result = new ArrayList<>();
+      scatter(repo -> repo.listScope(scope)).forEach((shard, workspaces) -> workspaces.forEach(ws -> result.add(tag(shard, ws))));
+      return result;
+   }
+
+   @Override
+   public ScopeSummary getScopeSummary(String scope)
+   {
+      ScopeSummary summary = new ScopeSummary();
+      summary.scope = scope;
+      for (ScopeSummary partial : scatter(repo -> repo.getScopeSummary(scope)).values())
+      {
+         summary.workspaces += partial.workspaces;
+         summary.removed += partial.removed;
+      }
+
+      return summary;
+   }
+
+   @Override
+   public Collection<ScopeSummary> listScopes()
+   {
+      Map<String, ScopeSummary> merged = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+      for (Collection<ScopeSummary> summaries : scatter(WorkspaceRepository::listScopes).values())
+      {
+         for (ScopeSummary partial : summaries)
+         {
+            ScopeSummary summary = merged.computeIfAbsent(partial.scope, scope -> {
+               ScopeSummary s = new ScopeSummary();
+               s.scope = scope;
+               return s;
+            });
+            summary.workspaces += partial.workspaces;
+            summary.removed += partial.removed;
+         }
+      }
+
+      return new ArrayList<>(merged.values());
+   }
+
+   /**
+    * Queries every shard and merges their results. Each shard is asked for as many
+    * workspaces as the merged page could take from it, starting from the position recorded
+    * for it by the cursor.
+    */
+   @Override
+   public WorkspaceQueryResult query(WorkspaceQuery criteria)
+   {
+      if (criteria.offset < 0)
+         throw new IllegalArgumentException("The offset must not be negative");
+
+      Map<String, Position> positions = criteria.cursor == null ? new TreeMap<>() : decodeCursor(criteria.cursor);
+      long end = criteria.limit > 0 ? (long)criteria.offset + criteria.limit : Long.MAX_VALUE;
+
+      Map<String, CompletableFuture<WorkspaceQueryResult>> futures = new LinkedHashMap<>();
+      shards.forEach((name, repo) -> {
+         // shards added after the first page are not included in later pages
+         Position position = criteria.cursor == null ? Position.START : positions.getOrDefault(name, Position.DONE);
+         if (position.done)
+            return;
+
+         WorkspaceQuery query = WorkspaceQuery.copy(criteria);
+         query.cursor = position.cursor;
+         query.offset = position.skip;
+         query.limit = criteria.limit > 0 ? (int)Math.min(end, Integer.MAX_VALUE) : 0;
+         futures.put(name, CompletableFuture.supplyAsync(() -> repo.query(query), executor));
+      });
+
+      Comparator<ShardPage> order = Comparator.comparing((ShardPage page) -> page.head(), comparator(criteria.sort))
+            .thenComparing(page -> page.shard);
+      if (criteria.descending)
+         order = order.reversed();
+
+      PriorityQueue<ShardPage> heads = new PriorityQueue<>(Math.max(1, futures.size()), order);
+      List<ShardPage> pages = new ArrayList<>();
+      List<String> plans = new ArrayList<>();
+      join(futures).forEach((shard, result) -> {
+         ShardPage page = new ShardPage(shard, positions.getOrDefault(shard, Position.START), result);
+         pages.add(page);
+         plans.add(shard + ": " + result.plan);
+         if (page.hasNext())
+            heads.add(page);
+      });
+
+      List<WorkspaceMeta> selected = new ArrayList<>();
+      for (long taken = 0; taken < end && !heads.isEmpty(); taken++)
+      {
+         ShardPage page = heads.poll();
+         WorkspaceMeta meta = page.take();
+         if (taken >= criteria.offset)
+            selected.add(tag(page.shard, meta));
+
+         if (page.hasNext())
+            heads.add(page);
+      }
+
+      boolean more = pages.stream().anyMatch(page -> page.hasNext() || page.result.next != null);
+
+      WorkspaceQueryResult result = new WorkspaceQueryResult();
+      result.workspaces = selected;
+      result.next = more && !selected.isEmpty() ? encodeCursor(pages) : null;
+      result.plan = String.join("; ", plans);
+      return result;
+   }
+
+   /**
+    * @return The order of workspaces by the supplied field, ignoring their ids. Workspaces
+    *       from the same shard are never compared, as each shard returns them in order.
+    */
+   private static Comparator<WorkspaceMeta> comparator(SortField sort)
+   {
+      Comparator<String> text = Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER);
+      switch (sort == null ? SortField.ID : sort)
+      {
+         case NAME:
+            return Comparator.comparing(meta -> meta.name, text);
+         case KEY:
+            return Comparator.comparing(meta -> meta.key, text);
+         case MODIFIED:
+            return Comparator.comparingLong(meta -> meta.modified);
+         case ID:
+         default:
+            // ids are ordered by shard
+            return (a, b) -> 0;
+      }
+   }
+
+   /**
+    * Encodes the position reached in each shard as a line holding the shard name and
+    * either {@code -} if the shard has no further matches or {@code +} followed by the
+    * number of matches to skip after the shard's cursor and the cursor itself.
+    */
+   private static String encodeCursor(List<ShardPage> pages)
+   {
+      StringBuilder sb = new StringBuilder();
+      for (ShardPage page : pages)
+      {
+         Position next = page.next();
+         sb.append(page.shard).append('\t');
+         if (next.done)
+            sb.append('-');
+         else
+            sb.append('+').append(next.skip).append('\t').append(next.cursor == null ? "" : next.cursor);
+         sb.append('\n');
+      }
+
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+   }
+
+   private Map<String, Position> decodeCursor(String cursor)
+   {
+      try
+      {
+         Map<String, Position> positions = new TreeMap<>();
+         String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+         for (String line : decoded.split("\n"))
+         {
+            String[] fields = line.split("\t", -1);
+            if (!shards.containsKey(fields[0]))
+               throw new IllegalArgumentException(format("Invalid cursor {0}", cursor));
+
+            if (fields.length == 2 && fields[1].equals("-"))
+               positions.put(fields[0], Position.DONE);
+            else if (fields.length == 3 && fields[1].startsWith("+"))
+               positions.put(fields[0], new Position(fields[2].isEmpty() ? null : fields[2], Integer.parseInt(fields[1].substring(1))));
+            else
+               throw new IllegalArgumentException(format("Invalid cursor {0}", cursor));
+         }
+
+         return positions;
+      }
+      catch (RuntimeException ex)
+      {
+         throw new IllegalArgumentException(format("Invalid cursor {0}", cursor), ex);
+      }
+   }
+
+   /**
+    * Merges the best results of each shard by score. Results with the same score are
+    * ordered by shard.
+    */
+   @Override
+   public List<SearchHit> search(String query, int limit)
+   {
+      List<SearchHit> hits = new ArrayList<>();
+      scatter(repo -> repo.search(query, limit)).forEach((shard, results) -> results.forEach(hit -> {
+         tag(shard, hit.workspace);
+         hits.add(hit);
+      }));
+
+      hits.sort(Comparator.comparingDouble((SearchHit hit) -> hit.score).reversed());
+      return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+   }
+
+   /**
+    * Merges the suggestions of each shard by the text that matched the prefix, as each
+    * shard orders them.
+    */
+   @Override
+   public List<WorkspaceMeta> suggest(String prefix, String scope, int limit)
+   {
+      String from = prefix == null ? "" : prefix.trim().toLowerCase(Locale.ROOT);
+
+      List<WorkspaceMeta> results = new ArrayList<>();
+      scatter(repo -> repo.suggest(prefix, scope, limit)).forEach((shard, workspaces) -> workspaces.forEach(ws -> results.add(tag(shard, ws))));
+
+      results.sort(Comparator.comparing((WorkspaceMeta ws) -> match(ws, from)));
+      return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+   }
+
+   /**
+    * @return The first of the key, the name, and the remainder of the name from each later
+    *       word, in lower case, that starts with the supplied prefix.
+    */
+   private static String match(WorkspaceMeta ws, String prefix)
+   {
+      String best = null;
+      List<String> candidates = new ArrayList<>();
+      if (ws.key != null)
+         candidates.add(ws.key.trim().toLowerCase(Locale.ROOT));
+
+      if (ws.name != null)
+      {
+         String name = ws.name.trim().toLowerCase(Locale.ROOT);
+         candidates.add(name);
+         for (int i = 1; i < name.length(); i++)
+         {
+            if (Character.isLetterOrDigit(name.charAt(i)) && !Character.isLetterOrDigit(name.charAt(i - 1)))
+               candidates.add(name.substring(i));
+         }
+      }
+
+      for (String candidate : candidates)
+      {
+         if (candidate.startsWith(prefix) && (best == null || candidate.compareTo(best) < 0))
+            best = candidate;
+      }
+
+      return best == null ? "" : best;
+   }
+
+   @Override
+   public RepositorySnapshot snapshot()
+   {
+      Map<String, CompletableFuture<RepositorySnapshot>> futures = submit(WorkspaceRepository::snapshot);
+      try
+      {
+         return new ShardedSnapshot(join(futures));
+      }
+      catch (RuntimeException ex)
+      {
+         // every request has completed; release the snapshots that were taken
+         futures.values().forEach(future -> future.thenAccept(RepositorySnapshot::close));
+         throw ex;
+      }
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> get(String id)
+   {
+      return route(id).flatMap(route -> route.repo.get(route.id).map(ws -> tag(route.shard, ws)));
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> get(String id, String version)
+   {
+      return route(id).flatMap(route -> route.repo.get(route.id, version).map(ws -> tag(route.shard, ws)));
+   }
+
+   @Override
+   public Optional<WorkspaceMeta> getAsOf(String id, long timestamp)
+   {
+      return route(id).flatMap(route -> route.repo.getAsOf(route.id, timestamp).map(ws -> tag(route.shard, ws)));
+   }
+
+   @Override
+   public Optional<VersionPage> listVersions(String id, String from, String to, String cursor, int limit)
+   {
+      if (limit <= 0)
+         throw new IllegalArgumentException(format("The page size must be positive [{0}]", Integer.valueOf(limit)));
+
+      return route(id).flatMap(route -> route.repo.listVersions(route.id, from, to, cursor, limit).map(page -> {
+         page.versions.forEach(ws -> tag(route.shard, ws));
+         return page;
+      }));
+   }
+
+   /**
+    * Creates the workspace on the shard to which a newly generated key is assigned by the
+    * hash ring.
+    */
+   @Override
+   public WorkspaceMeta create(WorkspaceMeta data)
+   {
+      String shard = ring.locate(UUID.randomUUID().toString());
+      return tag(shard, shards.get(shard).create(data));
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data)
+   {
+      Route route = routeUpdate(data);
+      return tag(route.shard, route.repo.update(local(data, route)));
+   }
+
+   @Override
+   public WorkspaceMeta update(WorkspaceMeta data, String clientId)
+   {
+      Route route = routeUpdate(data);
+      return tag(route.shard, route.repo.update(local(data, route), clientId));
+   }
+
+   private Route routeUpdate(WorkspaceMeta data)
+   {
+      if (data.id == null || data.id.trim().isEmpty())
+         throw new IllegalArgumentException("Cannot update workspace. No id supplied.");
+
+      String notFoundErr = "Cannot update the workspace, {0} [{1}]. No workspace with this id exists.";
+      return route(data.id).orElseThrow(() -> new IllegalArgumentException(format(notFoundErr, data.name, data.id)));
+   }
+
+   private static WorkspaceMeta local(WorkspaceMeta data, Route route)
+   {
+      WorkspaceMeta meta = WorkspaceMeta.copy(data);
+      meta.id = route.id;
+      return meta;
+   }
+
+   @Override
+   public void flush(String id)
+   {
+      route(id).ifPresent(route -> route.repo.flush(route.id));
+   }
+
+   @Override
+   public void remove(String id)
+   {
+      route(id).ifPresent(route -> route.repo.remove(route.id));
+   }
+
+   @Override
+   public void purge(String id)
+   {
+      route(id).ifPresent(route -> route.repo.purge(route.id));
+   }
+
+   /**
+    * Closes the repository of every shard.
+    */
+   @Override
+   public void close() throws Exception
+   {
+      Exception failure = null;
+      for (WorkspaceRepository repo : shards.values())
+      {
+         try
+         {
+            repo.close();
+         }
+         catch (Exception ex)
+         {
+            if (failure == null)
+               failure = ex;
+            else
+               failure.addSuppressed(ex);
+         }
+      }
+
+      if (failure != null)
+         throw failure;
+   }
+
+   /**
+    * The shard that holds a workspace and the id assigned to it by the shard.
+    */
+   private static class Route
+   {
+      final String shard;
+      final WorkspaceRepository repo;
+      final String id;
+
+      Route(String shard, WorkspaceRepository repo, String id)
+      {
+         this.shard = shard;
+         this.repo = repo;
+         this.id = id;
+      }
+   }
+
+   /**
+    * The position reached in the results of a shard: the shard's cursor and the number of
+    * matches following it that have already been returned.
+    */
+   private static class Position
+   {
+      static final Position START = new Position(null, 0);
+      static final Position DONE = new Position();
+
+      final String cursor;
+      final int skip;
+      final boolean done;
+
+      Position(String cursor, int skip)
+      {
+         this.cursor = cursor;
+         this.skip = skip;
+         this.done = false;
+      }
+
+      private Position()
+      {
+         this.cursor = null;
+         this.skip = 0;
+         this.done = true;
+      }
+   }
+
+   /**
+    * A page of results from a shard, consumed in order as the pages are merged.
+    */
+   private static class ShardPage
+   {
+      final String shard;
+      final Position position;
+      final WorkspaceQueryResult result;
+      private int taken = 0;
+
+      ShardPage(String shard, Position position, WorkspaceQueryResult result)
+      {
+         this.shard = shard;
+         this.position = position;
+         this.result = result;
+      }
+
+      boolean hasNext()
+      {
+         return taken < result.workspaces.size();
+      }
+
+      WorkspaceMeta head()
+      {
+         return result.workspaces.get(taken);
+      }
+
+      WorkspaceMeta take()
+      {
+         return result.workspaces.get(taken++);
+      }
+
+      /**
+       * @return The position that follows the workspaces taken from this page.
+       */
+      Position next()
+      {
+         if (hasNext())
+            return new Position(position.cursor, position.skip + taken);
+
+         return result.next != null ? new Position(result.next, 0) : Position.DONE;
+      }
+   }
+
+   /**
+    * Combines a snapshot of each shard.
+    */
+   private class ShardedSnapshot implements RepositorySnapshot
+   {
+      private final Map<String, RepositorySnapshot> snapshots;
+
+      ShardedSnapshot(Map<String, RepositorySnapshot> snapshots)
+      {
+         this.snapshots = snapshots;
+      }
+
+      /**
+       * @return The sum of the sequence numbers of the shard snapshots. Increases with every
+       *       change to any shard, but is not a position in the change feed of any shard.
+       */
+      @Override
+      public long getSequence()
+      {
+         return snapshots.values().stream().mapToLong(RepositorySnapshot::getSequence).sum();
+      }
+
+      @Override
+      public Collection<WorkspaceMeta> listAll()
+      {
+         List<WorkspaceMeta> result = new ArrayList<>();
+         snapshots.forEach((shard, snapshot) -> snapshot.listAll().forEach(ws -> result.add(tag(shard, ws))));
+         return result;
+      }
+
+      @Override
+      public Optional<WorkspaceMeta> get(String id)
+      {
+         return route(id).flatMap(route -> snapshots.get(route.shard).get(route.id).map(ws -> tag(route.shard, ws)));
+      }
+
+      @Override
+      public Map<String, WorkspaceMeta> getAll(Collection<String> ids)
+      {
+         Map<String, WorkspaceMeta> result = new LinkedHashMap<>();
+         for (String id : ids)
+         {
+            get(id).ifPresent(ws -> result.put(id, ws));
+         }
+
+         return result;
+      }
+
+      @Override
+      public void close()
+      {
+         snapshots.values().forEach(RepositorySnapshot::close);
+      }
+   }
+}
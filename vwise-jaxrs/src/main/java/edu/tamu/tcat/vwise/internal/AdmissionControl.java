@@ -0,0 +1,200 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.util.Properties;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+/**
+ * Sheds load that the server cannot process promptly. Reads and changes are admitted
+ * against separate {@link ConcurrencyLimit}s, which adapt to the latency observed for each,
+ * so that a burst of slow writes cannot starve reads and a burst of reads cannot delay
+ * writes.
+ *
+ * <p>A request that arrives while its limit is reached is answered at once with
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header, before it is matched to
+ * a resource, rather than waiting in the server's queues. Clients may repeat such a
+ * request, even one that is not idempotent, since it was not processed. A request holds its
+ * permit until its response has been written, so latency includes serializing the response.
+ *
+ * <p>Streams of changes, the replication status polled by replicas and administrative
+ * requests are not limited: change streams hold their connections open indefinitely and
+ * the others must remain available while the server is overloaded.
+ *
+ * <p>Configured using the following properties:
+ *
+ * <pre>
+ * # Whether to limit the requests being processed (default: false)
+ * admission.enabled=false
+ *
+ * # Initial, minimum and maximum concurrent reads (defaults: 32, 4, 256)
+ * admission.read.initial_limit=32
+ * admission.read.min_limit=4
+ * admission.read.max_limit=256
+ *
+ * # Read latency in milliseconds above which the read limit is reduced (default: 100)
+ * admission.read.latency_ms=100
+ *
+ * # Initial, minimum and maximum concurrent changes (defaults: 16, 2, 128)
+ * admission.write.initial_limit=16
+ * admission.write.min_limit=2
+ * admission.write.max_limit=128
+ *
+ * # Change latency in milliseconds above which the change limit is reduced (default: 250)
+ * admission.write.latency_ms=250
+ *
+ * # Seconds a client is asked to wait before repeating a rejected request (default: 1)
+ * admission.retry_after_s=1
+ * </pre>
+ */
+@PreMatching
+final class AdmissionControl implements ContainerRequestFilter, ApplicationEventListener
+{
+   static final String PROP_ENABLED = "admission.enabled";
+   static final String PROP_READ_INITIAL = "admission.read.initial_limit";
+   static final String PROP_READ_MIN = "admission.read.min_limit";
+   static final String PROP_READ_MAX = "admission.read.max_limit";
+   static final String PROP_READ_LATENCY = "admission.read.latency_ms";
+   static final String PROP_WRITE_INITIAL = "admission.write.initial_limit";
+   static final String PROP_WRITE_MIN = "admission.write.min_limit";
+   static final String PROP_WRITE_MAX = "admission.write.max_limit";
+   static final String PROP_WRITE_LATENCY = "admission.write.latency_ms";
+   static final String PROP_RETRY_AFTER = "admission.retry_after_s";
+
+   /** The request property holding the time at which an admitted request obtained its permit. */
+   private static final String ADMITTED_PROPERTY = AdmissionControl.class.getName() + ".admitted";
+
+   /** Paths, relative to the application root, of requests that are not limited. */
+   private static final String[] EXEMPT_PATHS = { "changes", "replication", "admin/" };
+
+   private final ConcurrencyLimit reads;
+   private final ConcurrencyLimit writes;
+   private final String retryAfter;
+
+   /** Releases the permit of an admitted request once its response has been written. */
+   private final RequestEventListener release = event -> {
+      if (event.getType() != RequestEvent.Type.FINISHED)
+         return;
+
+      ContainerRequest request = event.getContainerRequest();
+      Object admitted = request.getProperty(ADMITTED_PROPERTY);
+      if (admitted != null)
+         limit(request.getMethod()).release(System.nanoTime() - ((Long)admitted).longValue());
+   };
+
+   AdmissionControl(Properties cfg)
+   {
+      reads = new ConcurrencyLimit("reads",
+            getIntProperty(cfg, PROP_READ_INITIAL, 32),
+            getIntProperty(cfg, PROP_READ_MIN, 4),
+            getIntProperty(cfg, PROP_READ_MAX, 256),
+            getIntProperty(cfg, PROP_READ_LATENCY, 100));
+      writes = new ConcurrencyLimit("changes",
+            getIntProperty(cfg, PROP_WRITE_INITIAL, 16),
+            getIntProperty(cfg, PROP_WRITE_MIN, 2),
+            getIntProperty(cfg, PROP_WRITE_MAX, 128),
+            getIntProperty(cfg, PROP_WRITE_LATENCY, 250));
+
+      int seconds = getIntProperty(cfg, PROP_RETRY_AFTER, 1);
+      if (seconds < 0)
+         throw new IllegalArgumentException(format("The value of {0} must not be negative", PROP_RETRY_AFTER));
+      retryAfter = String.valueOf(seconds);
+   }
+
+   /**
+    * @return {@code true} if the supplied server configuration enables admission control.
+    */
+   static boolean isEnabled(Properties cfg)
+   {
+      return Boolean.parseBoolean(cfg.getProperty(PROP_ENABLED, "false").trim());
+   }
+
+   private static int getIntProperty(Properties cfg, String key, int defaultValue)
+   {
+      String property = cfg.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         return Integer.parseInt(property);
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   private static boolean isRead(String method)
+   {
+      return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method);
+   }
+
+   private static boolean isExempt(String path)
+   {
+      for (String exempt : EXEMPT_PATHS)
+      {
+         if (path.startsWith(exempt))
+            return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * @return The limit governing requests with the supplied HTTP method.
+    */
+   ConcurrencyLimit limit(String method)
+   {
+      return isRead(method) ? reads : writes;
+   }
+
+   @Override
+   public void filter(ContainerRequestContext request)
+   {
+      if (isExempt(request.getUriInfo().getPath()))
+         return;
+
+      ConcurrencyLimit limit = limit(request.getMethod());
+      if (limit.tryAcquire())
+      {
+         request.setProperty(ADMITTED_PROPERTY, Long.valueOf(System.nanoTime()));
+         return;
+      }
+
+      request.abortWith(Response.status(Status.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, retryAfter)
+            .type(MediaType.TEXT_PLAIN)
+            .entity(format("The server is overloaded and is processing as many {0} as it can. Retry after {1} s.", limit == reads ? "reads" : "changes", retryAfter))
+            .build());
+   }
+
+   @Override
+   public void onEvent(ApplicationEvent event)
+   {
+      // no application events are tracked
+   }
+
+   @Override
+   public RequestEventListener onRequest(RequestEvent event)
+   {
+      return release;
+   }
+
+   @Override
+   public String toString()
+   {
+      return reads + "; " + writes;
+   }
+}
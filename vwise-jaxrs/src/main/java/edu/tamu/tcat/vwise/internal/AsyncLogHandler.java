@@ -0,0 +1,450 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Handler} that moves logging I/O off of the calling thread. Records are placed
+ * into a bounded, lock-free ring buffer and written to the wrapped (delegate) handlers by a
+ * single background writer thread. This keeps slow consoles or disks from showing up as
+ * request latency in the REST API.
+ *
+ * <p>When the buffer is full, the configured {@link OverflowPolicy} determines whether the
+ * caller drops the record (and the drop is counted) or blocks until space is available.
+ * Dropped records are reported to the delegates as a single summary record once the writer
+ * catches up.
+ *
+ * <p>The handler is installed on the root logger by {@link GrizzlyServerMain} using the
+ * following configuration properties:
+ *
+ * <pre>
+ * # Enable asynchronous logging (default: false)
+ * logging.async.enabled=true
+ *
+ * # Number of records the ring buffer can hold. Rounded up to a power of two. (default: 8192)
+ * logging.async.capacity=8192
+ *
+ * # Behavior when the buffer is full, either 'drop' or 'block' (default: drop)
+ * logging.async.overflow=drop
+ * </pre>
+ */
+public class AsyncLogHandler extends Handler
+{
+   public static final String PROP_ENABLED = "logging.async.enabled";
+   public static final String PROP_CAPACITY = "logging.async.capacity";
+   public static final String PROP_OVERFLOW = "logging.async.overflow";
+
+   public static final int DEFAULT_CAPACITY = 8192;
+
+   /**
+    * Determines how a full buffer is handled.
+    */
+   public enum OverflowPolicy
+   {
+      /** Discard the record and increment the dropped record counter. */
+      DROP,
+
+      /** Wait for the writer thread to make room in the buffer. */
+      BLOCK
+   }
+
+   private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+   private final Handler[] delegates;
+   private final OverflowPolicy policy;
+
+   private final int capacity;
+   private final int mask;
+   private final AtomicReferenceArray<LogRecord> buffer;
+   private final AtomicLongArray sequences;
+
+   /** The next slot to be claimed by a producer. */
+   private final AtomicLong tail = new AtomicLong();
+
+   /** The next slot to be read by the writer. Written only by the writer thread. */
+   private volatile long head = 0;
+
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong highWaterMark = new AtomicLong();
+   private long droppedReported = 0;
+
+   private final Thread writer;
+   private volatile boolean writerParked = false;
+   private volatile boolean closed = false;
+
+   /**
+    * @param capacity The maximum number of records to buffer. Will be rounded up to the
+    *       next power of two.
+    * @param policy How to handle records published when the buffer is full.
+    * @param delegates The handlers that records will be written to.
+    */
+   public AsyncLogHandler(int capacity, OverflowPolicy policy, Handler... delegates)
+   {
+      if (capacity <= 0)
+         throw new IllegalArgumentException(format("Invalid buffer capacity {0}", Integer.valueOf(capacity)));
+
+      int size = 1;
+      while (size < capacity && size < (1 << 30))
+         size <<= 1;
+
+      this.capacity = size;
+      this.mask = this.capacity - 1;
+      this.policy = policy;
+      this.delegates = Arrays.copyOf(delegates, delegates.length);
+
+      this.buffer = new AtomicReferenceArray<>(this.capacity);
+      this.sequences = new AtomicLongArray(this.capacity);
+      for (int i = 0; i < this.capacity; i++)
+         sequences.set(i, i);
+
+      writer = new Thread(this::drain, "vwise-async-log");
+      writer.setDaemon(true);
+      writer.setPriority(Thread.NORM_PRIORITY - 1);
+      writer.start();
+   }
+
+   @Override
+   public void publish(LogRecord record)
+   {
+      if (closed || record == null || !isLoggable(record))
+         return;
+
+      // source class and method are inferred lazily from the current stack, so this
+      // must happen on the calling thread before handing off to the writer
+      record.getSourceClassName();
+
+      while (!offer(record))
+      {
+         if (policy == OverflowPolicy.DROP || closed)
+         {
+            dropped.incrementAndGet();
+            return;
+         }
+
+         wakeWriter();
+         LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+      }
+
+      long depth = tail.get() - head;
+      if (depth > highWaterMark.get())
+         highWaterMark.accumulateAndGet(depth, Math::max);
+
+      if (writerParked)
+         wakeWriter();
+   }
+
+   /**
+    * Attempts to claim a slot in the ring buffer and store the supplied record.
+    *
+    * @return {@code false} if the buffer is full.
+    */
+   private boolean offer(LogRecord record)
+   {
+      while (true)
+      {
+         long pos = tail.get();
+         int ix = (int)(pos & mask);
+         long diff = sequences.get(ix) - pos;
+         if (diff == 0)
+         {
+            if (tail.compareAndSet(pos, pos + 1))
+            {
+               buffer.set(ix, record);
+               sequences.set(ix, pos + 1);
+               return true;
+            }
+         }
+         else if (diff < 0)
+         {
+            // the writer has not yet consumed this slot from the previous lap
+            return false;
+         }
+      }
+   }
+
+   /**
+    * Removes the next record from the buffer. Must only be called by the writer thread.
+    *
+    * @return The next record or {@code null} if the buffer is empty or the next slot has
+    *       been claimed but not yet filled.
+    */
+   private LogRecord poll()
+   {
+      long pos = head;
+      int ix = (int)(pos & mask);
+      if (sequences.get(ix) != pos + 1)
+         return null;
+
+      LogRecord record = buffer.get(ix);
+      buffer.set(ix, null);
+      sequences.set(ix, pos + capacity);
+      head = pos + 1;
+      return record;
+   }
+
+   private void wakeWriter()
+   {
+      LockSupport.unpark(writer);
+   }
+
+   private void drain()
+   {
+      long parkNanos = 1000;
+      boolean unflushed = false;
+      while (true)
+      {
+         LogRecord record = poll();
+         if (record != null)
+         {
+            write(record);
+            unflushed = true;
+            parkNanos = 1000;
+            continue;
+         }
+
+         if (reportDropped() || unflushed)
+         {
+            flushDelegates();
+            unflushed = false;
+         }
+
+         if (closed && tail.get() == head)
+            return;
+
+         writerParked = true;
+         if (tail.get() == head)
+            LockSupport.parkNanos(this, parkNanos);
+         writerParked = false;
+         parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+      }
+   }
+
+   private void write(LogRecord record)
+   {
+      for (Handler h : delegates)
+      {
+         try
+         {
+            h.publish(record);
+         }
+         catch (Exception ex)
+         {
+            reportError("Failed to publish log record to " + h, ex, ErrorManager.WRITE_FAILURE);
+         }
+      }
+
+      written.incrementAndGet();
+   }
+
+   private boolean reportDropped()
+   {
+      long total = dropped.get();
+      if (total == droppedReported)
+         return false;
+
+      long count = total - droppedReported;
+      droppedReported = total;
+
+      LogRecord summary = new LogRecord(Level.WARNING,
+            format("Asynchronous log buffer overflow. Dropped {0} log records ({1} total).", Long.valueOf(count), Long.valueOf(total)));
+      summary.setLoggerName(AsyncLogHandler.class.getName());
+      summary.setSourceClassName(AsyncLogHandler.class.getName());
+      summary.setSourceMethodName("publish");
+      write(summary);
+      return true;
+   }
+
+   private void flushDelegates()
+   {
+      for (Handler h : delegates)
+      {
+         try
+         {
+            h.flush();
+         }
+         catch (Exception ex)
+         {
+            reportError("Failed to flush " + h, ex, ErrorManager.FLUSH_FAILURE);
+         }
+      }
+   }
+
+   /**
+    * Requests that the writer drain the buffer. Returns immediately; records are written
+    * to the delegates asynchronously.
+    */
+   @Override
+   public void flush()
+   {
+      wakeWriter();
+   }
+
+   /**
+    * Stops accepting new records, waits for buffered records to be written and closes
+    * the delegate handlers.
+    */
+   @Override
+   public void close() throws SecurityException
+   {
+      if (closed)
+         return;
+
+      closed = true;
+      wakeWriter();
+      try
+      {
+         writer.join(TimeUnit.SECONDS.toMillis(10));
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      for (Handler h : delegates)
+         h.close();
+   }
+
+   /**
+    * @return The number of records currently waiting to be written.
+    */
+   public long getDepth()
+   {
+      return Math.max(0, tail.get() - head);
+   }
+
+   /**
+    * @return The largest number of records observed waiting in the buffer.
+    */
+   public long getHighWaterMark()
+   {
+      return highWaterMark.get();
+   }
+
+   /**
+    * @return The total number of records discarded because the buffer was full.
+    */
+   public long getDroppedCount()
+   {
+      return dropped.get();
+   }
+
+   /**
+    * @return The total number of records written to the delegate handlers.
+    */
+   public long getWrittenCount()
+   {
+      return written.get();
+   }
+
+   /**
+    * @return The maximum number of records that can be buffered.
+    */
+   public int getCapacity()
+   {
+      return capacity;
+   }
+
+   public OverflowPolicy getOverflowPolicy()
+   {
+      return policy;
+   }
+
+   /**
+    * Replaces the handlers attached to the root logger with a single asynchronous handler
+    * that wraps them, if enabled by the supplied configuration.
+    *
+    * @param cfg The server configuration.
+    * @return The installed handler or {@code null} if asynchronous logging is not enabled.
+    * @see #uninstall(AsyncLogHandler)
+    */
+   public static AsyncLogHandler install(Properties cfg)
+   {
+      if (!Boolean.parseBoolean(cfg.getProperty(PROP_ENABLED, "false")))
+         return null;
+
+      int capacity = DEFAULT_CAPACITY;
+      String capacityValue = cfg.getProperty(PROP_CAPACITY);
+      if (capacityValue != null)
+      {
+         try
+         {
+            capacity = Integer.parseInt(capacityValue.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", capacityValue, PROP_CAPACITY));
+         }
+      }
+
+      String policyValue = cfg.getProperty(PROP_OVERFLOW, OverflowPolicy.DROP.name()).trim();
+      OverflowPolicy policy;
+      try
+      {
+         policy = OverflowPolicy.valueOf(policyValue.toUpperCase());
+      }
+      catch (IllegalArgumentException ex)
+      {
+         throw new IllegalArgumentException(format("Unsupported value {0} for property {1}. Expected 'drop' or 'block'.", policyValue, PROP_OVERFLOW));
+      }
+
+      Logger root = LogManager.getLogManager().getLogger("");
+      List<Handler> handlers = new ArrayList<>(Arrays.asList(root.getHandlers()));
+      for (Handler h : handlers)
+         root.removeHandler(h);
+
+      AsyncLogHandler async = new AsyncLogHandler(capacity, policy, handlers.toArray(new Handler[handlers.size()]));
+      root.addHandler(async);
+
+      String msg = "Installed asynchronous log handler [capacity: {0,number,#}, overflow: {1}, delegates: {2}]";
+      root.info(format(msg, Integer.valueOf(async.getCapacity()), policy, Integer.valueOf(handlers.size())));
+      return async;
+   }
+
+   /**
+    * Removes an asynchronous handler installed by {@link #install(Properties)} from the root
+    * logger, writes any buffered records and restores the original handlers.
+    *
+    * @param async The handler to remove. May be {@code null}.
+    */
+   public static void uninstall(AsyncLogHandler async)
+   {
+      if (async == null)
+         return;
+
+      Logger root = LogManager.getLogManager().getLogger("");
+      root.removeHandler(async);
+
+      async.closed = true;
+      async.wakeWriter();
+      try
+      {
+         async.writer.join(TimeUnit.SECONDS.toMillis(10));
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      String msg = "Removed asynchronous log handler [written: {0,number,#}, dropped: {1,number,#}, high water mark: {2,number,#}]";
+      for (Handler h : async.delegates)
+         root.addHandler(h);
+
+      root.info(format(msg, Long.valueOf(async.getWrittenCount()), Long.valueOf(async.getDroppedCount()), Long.valueOf(async.getHighWaterMark())));
+   }
+}
@@ -0,0 +1,132 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import edu.tamu.tcat.vwise.impl.jdbc.DatabaseBackup;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcWorkspaceRepo;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+
+/**
+ * Command line access to the backups of a {@code jdbc} repository.
+ *
+ * <pre>
+ * backup &lt;server-uri&gt;                  Backs up the repository of a running server.
+ * verify &lt;backup-dir&gt;                  Verifies the checksums of a backup.
+ * restore &lt;backup-dir&gt; &lt;database-dir&gt;  Restores a backup to a new directory and starts
+ *                                      a server on the restored database.
+ * </pre>
+ *
+ * <p>The server started by {@code restore} is configured by the file named by the
+ * {@code config.file} system property, as for {@link GrizzlyServerMain}, with its
+ * repository replaced by the restored database.
+ */
+public class BackupTool
+{
+   private static final String USAGE = "Usage: BackupTool backup <server-uri> | verify <backup-dir> | restore <backup-dir> <database-dir>";
+
+   /**
+    * Requests a backup from a running server.
+    *
+    * @param server The base URI of the server's REST API.
+    * @return The manifest of the backup, as returned by the server.
+    * @throws IllegalStateException If the server did not take the backup.
+    */
+   public static String backup(URI server)
+   {
+      Client client = ClientBuilder.newClient();
+      try
+      {
+         Response response = client.target(server).path("admin/backups")
+               .request(MediaType.APPLICATION_JSON)
+               .post(Entity.text(""));
+         String body = response.readEntity(String.class);
+         if (response.getStatus() != Response.Status.CREATED.getStatusCode())
+            throw new IllegalStateException(format("The server did not take a backup [{0,number,#}]: {1}", Integer.valueOf(response.getStatus()), body));
+
+         return body;
+      }
+      finally
+      {
+         client.close();
+      }
+   }
+
+   /**
+    * Restores a backup and starts a server on the restored database. The server must be
+    * stopped by the caller.
+    *
+    * @param config The configuration of the server. Its repository settings are replaced.
+    */
+   public static GrizzlyServerMain restore(Path backup, Path directory, Properties config)
+   {
+      String url = DatabaseBackup.restore(backup, directory);
+
+      Properties cfg = new Properties();
+      cfg.putAll(config);
+      cfg.setProperty(GrizzlyServerMain.CFG_REPOSITORY_TYPE, "jdbc");
+      cfg.setProperty(JdbcWorkspaceRepo.PROP_URL, url);
+
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+      return server;
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      String command = args.length > 0 ? args[0] : "";
+      switch (command)
+      {
+         case "backup":
+            require(args, 2);
+            System.out.println(backup(URI.create(args[1])));
+            break;
+
+         case "verify":
+            require(args, 2);
+            BackupManifest manifest = DatabaseBackup.verify(Paths.get(args[1]));
+            System.out.println(format("Backup {0} at commit {1,number,#} is intact.", manifest.id, Long.valueOf(manifest.sequence)));
+            break;
+
+         case "restore":
+            require(args, 3);
+            Properties config = System.getProperty(GrizzlyServerMain.CONFIG_FILE_PROP) != null ? GrizzlyServerMain.getConfig() : new Properties();
+            GrizzlyServerMain server = restore(Paths.get(args[1]), Paths.get(args[2]), config);
+            try
+            {
+               System.out.println(format("Restored {0} to {1}. Serving at {2}", args[1], args[2], server.getBaseUri()));
+               System.out.println("Hit enter to stop it...");
+               System.in.read();
+            }
+            finally
+            {
+               server.stop();
+            }
+            break;
+
+         default:
+            System.err.println(USAGE);
+            System.exit(2);
+      }
+   }
+
+   private static void require(String[] args, int count)
+   {
+      if (args.length != count)
+      {
+         System.err.println(USAGE);
+         System.exit(2);
+      }
+   }
+}
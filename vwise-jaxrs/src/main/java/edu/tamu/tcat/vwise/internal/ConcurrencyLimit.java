@@ -0,0 +1,166 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A limit on the number of requests of one class that may be processed at once, adapted to
+ * their observed latency by additive increase and multiplicative decrease.
+ *
+ * <p>While requests complete within the latency threshold and at least half of the
+ * permitted requests are in flight, each completed request raises the limit by the
+ * reciprocal of the limit, so that it grows by about one for each round of requests. A
+ * request that takes longer than the threshold cuts the limit to {@value #BACKOFF} of its
+ * value. The limit is cut at most once per threshold interval, so that the requests that
+ * queued behind a slow request do not cut it again. The limit stays within its configured
+ * bounds.
+ *
+ * <p>Permits are counted with an atomic counter and the limit is updated by
+ * compare-and-set, so admission does not serialize request threads.
+ */
+final class ConcurrencyLimit
+{
+   /** The factor by which the limit is reduced when latency exceeds the threshold. */
+   private static final double BACKOFF = 0.9;
+
+   private final String name;
+   private final int minLimit;
+   private final int maxLimit;
+   private final long thresholdNanos;
+
+   private final AtomicInteger inFlight = new AtomicInteger();
+
+   /** The bits of the current limit, a {@code double} so that it can grow by fractions. */
+   private final AtomicLong limit;
+   private final AtomicLong lastDecrease;
+
+   private final LongAdder admitted = new LongAdder();
+   private final LongAdder rejected = new LongAdder();
+
+   /**
+    * @param name The class of requests governed by the limit, used in messages.
+    * @param initialLimit The limit before any latency has been observed.
+    * @param minLimit The lowest value to which the limit may be reduced.
+    * @param maxLimit The highest value to which the limit may be raised.
+    * @param threshold The latency, in milliseconds, above which the limit is reduced.
+    */
+   ConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit, long threshold)
+   {
+      if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit)
+      {
+         String msg = "The {0} concurrency limits must satisfy 1 <= minimum [{1,number,#}] <= initial [{2,number,#}] <= maximum [{3,number,#}]";
+         throw new IllegalArgumentException(format(msg, name, Integer.valueOf(minLimit), Integer.valueOf(initialLimit), Integer.valueOf(maxLimit)));
+      }
+      if (threshold <= 0)
+         throw new IllegalArgumentException(format("The {0} latency threshold must be positive", name));
+
+      this.name = name;
+      this.minLimit = minLimit;
+      this.maxLimit = maxLimit;
+      this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+      this.limit = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+      this.lastDecrease = new AtomicLong(System.nanoTime() - thresholdNanos);
+   }
+
+   /**
+    * Obtains a permit if fewer requests than the limit are in flight. A request that obtains
+    * a permit must {@link #release(long) release} it once it completes.
+    *
+    * @return {@code true} if the request may proceed.
+    */
+   boolean tryAcquire()
+   {
+      int permitted = getLimit();
+      while (true)
+      {
+         int current = inFlight.get();
+         if (current >= permitted)
+         {
+            rejected.increment();
+            return false;
+         }
+
+         if (inFlight.compareAndSet(current, current + 1))
+         {
+            admitted.increment();
+            return true;
+         }
+      }
+   }
+
+   /**
+    * Returns a permit and adjusts the limit to the latency of the request that held it.
+    *
+    * @param latency The time, in nanoseconds, taken by the request.
+    */
+   void release(long latency)
+   {
+      int current = inFlight.getAndDecrement();
+      if (latency > thresholdNanos)
+      {
+         long now = System.nanoTime();
+         long last = lastDecrease.get();
+         if (now - last >= thresholdNanos && lastDecrease.compareAndSet(last, now))
+            update(value -> Math.max(minLimit, value * BACKOFF));
+      }
+      else if (current * 2 >= getLimit())
+      {
+         update(value -> Math.min(maxLimit, value + 1 / value));
+      }
+   }
+
+   private void update(DoubleUnaryOperator fn)
+   {
+      while (true)
+      {
+         long bits = limit.get();
+         long next = Double.doubleToRawLongBits(fn.applyAsDouble(Double.longBitsToDouble(bits)));
+         if (bits == next || limit.compareAndSet(bits, next))
+            return;
+      }
+   }
+
+   /**
+    * @return The number of requests that may currently be in flight.
+    */
+   int getLimit()
+   {
+      return (int)Double.longBitsToDouble(limit.get());
+   }
+
+   /**
+    * @return The number of requests currently holding a permit.
+    */
+   int getInFlight()
+   {
+      return inFlight.get();
+   }
+
+   /**
+    * @return The number of requests that obtained a permit.
+    */
+   long getAdmitted()
+   {
+      return admitted.sum();
+   }
+
+   /**
+    * @return The number of requests that were refused a permit.
+    */
+   long getRejected()
+   {
+      return rejected.sum();
+   }
+
+   @Override
+   public String toString()
+   {
+      return format("{0}: limit {1,number,#}, in flight {2,number,#}, admitted {3,number,#}, rejected {4,number,#}",
+            name, Integer.valueOf(getLimit()), Integer.valueOf(getInFlight()), Long.valueOf(getAdmitted()), Long.valueOf(getRejected()));
+   }
+}
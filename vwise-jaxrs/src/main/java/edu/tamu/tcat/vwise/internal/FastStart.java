@@ -0,0 +1,136 @@
+package edu.tamu.tcat.vwise.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.glassfish.jersey.CommonProperties;
+import org.glassfish.jersey.media.sse.SseFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+
+import com.fasterxml.jackson.jaxrs.base.JsonMappingExceptionMapper;
+import com.fasterxml.jackson.jaxrs.base.JsonParseExceptionMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+
+import edu.tamu.tcat.vwise.jaxrs.BackupResource;
+import edu.tamu.tcat.vwise.jaxrs.ChangeFeedResource;
+import edu.tamu.tcat.vwise.jaxrs.ReplicationFilter;
+import edu.tamu.tcat.vwise.jaxrs.ReplicationResource;
+import edu.tamu.tcat.vwise.jaxrs.ScopeResource;
+import edu.tamu.tcat.vwise.jaxrs.WorkspaceCollectionResource;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+import edu.tamu.tcat.vwise.model.ReplicationStatus;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Configures the REST API to start quickly.
+ *
+ * <p>Resources and providers are registered explicitly rather than found by scanning the
+ * class path, and the features that would otherwise be discovered through
+ * {@code META-INF/services} are registered directly. WADL generation, which initializes
+ * JAXB, is disabled. The JSON provider is created ahead of time and used to write and read
+ * each type exchanged by the API, so that Jackson has loaded its classes and built its
+ * serializers before the first request arrives.
+ */
+final class FastStart
+{
+   /**
+    * The root resources and providers of {@code edu.tamu.tcat.vwise.jaxrs}: every class
+    * in the package annotated with {@code @Path} or {@code @Provider}.
+    */
+   static final List<Class<?>> COMPONENTS = Collections.unmodifiableList(Arrays.asList(
+         WorkspaceCollectionResource.class,
+         ScopeResource.class,
+         ChangeFeedResource.class,
+         ReplicationResource.class,
+         ReplicationFilter.class,
+         BackupResource.class));
+
+   /** The types of the entities written and read by the REST API. */
+   private static final List<Type> JSON_TYPES = Collections.unmodifiableList(Arrays.asList(
+         WorkspaceMeta.class,
+         new GenericType<List<WorkspaceMeta>>() {}.getType(),
+         VersionPage.class,
+         ScopeSummary.class,
+         new GenericType<List<ScopeSummary>>() {}.getType(),
+         new GenericType<List<SearchHit>>() {}.getType(),
+         WorkspaceChange.class,
+         ReplicationStatus.class,
+         BackupManifest.class,
+         new GenericType<List<BackupManifest>>() {}.getType()));
+
+   private FastStart()
+   {
+   }
+
+   /**
+    * Registers the resources, providers and features of the REST API.
+    */
+   static void configure(ResourceConfig rc)
+   {
+      COMPONENTS.forEach(rc::register);
+      rc.register(SseFeature.class)
+            .register(JsonParseExceptionMapper.class)
+            .register(JsonMappingExceptionMapper.class)
+            .property(CommonProperties.FEATURE_AUTO_DISCOVERY_DISABLE, Boolean.TRUE)
+            .property(ServerProperties.WADL_FEATURE_DISABLE, Boolean.TRUE);
+   }
+
+   /**
+    * Registers a JSON provider that has written and read each type exchanged by the REST
+    * API.
+    */
+   static void registerJson(ResourceConfig rc) throws IOException
+   {
+      rc.register(warmJson(), MessageBodyReader.class, MessageBodyWriter.class);
+   }
+
+   private static JacksonJsonProvider warmJson() throws IOException
+   {
+      JacksonJsonProvider provider = new JacksonJsonProvider();
+      Annotation[] annotations = new Annotation[0];
+      for (Type type : JSON_TYPES)
+      {
+         boolean isList = type instanceof ParameterizedType;
+         Class<?> element = (Class<?>)(isList ? ((ParameterizedType)type).getActualTypeArguments()[0] : type);
+         Class<?> raw = isList ? List.class : element;
+         Object value;
+         try
+         {
+            value = element.newInstance();
+         }
+         catch (ReflectiveOperationException ex)
+         {
+            throw new IllegalStateException("Cannot create an instance of " + element, ex);
+         }
+
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         provider.writeTo(isList ? Collections.singletonList(value) : value, raw, type, annotations,
+               MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), out);
+
+         @SuppressWarnings("unchecked")
+         Class<Object> readType = (Class<Object>)raw;
+         provider.readFrom(readType, type, annotations, MediaType.APPLICATION_JSON_TYPE,
+               new MultivaluedHashMap<>(), new ByteArrayInputStream(out.toByteArray()));
+      }
+
+      return provider;
+   }
+}
@@ -4,13 +4,20 @@ import static java.text.MessageFormat.format;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
@@ -18,12 +25,21 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ws.rs.core.Configuration;
+
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcApplicationContext;
 import edu.tamu.tcat.vwise.impl.memory.InMemoryApplicationContext;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.impl.replica.ReplicaApplicationContext;
+import edu.tamu.tcat.vwise.impl.sharded.ShardedApplicationContext;
+import edu.tamu.tcat.vwise.jaxrs.ChangeFeedResource;
 
 /**
  * Responsible for initializing and starting the Grizzly server for testing and
@@ -31,7 +47,7 @@ import edu.tamu.tcat.vwise.impl.memory.InMemoryApplicationContext;
  */
 public class GrizzlyServerMain
 {
-   private static final String CONFIG_FILE_PROP = "config.file";
+   static final String CONFIG_FILE_PROP = "config.file";
 
    private final static Logger logger = Logger.getLogger(GrizzlyServerMain.class.getName());
 
@@ -39,9 +55,41 @@ public class GrizzlyServerMain
       "edu.tamu.tcat.vwise.jaxrs"
    };
 
-   private static final String CFG_HOST = "grizzly.server.host";
+   static final String CFG_HOST = "grizzly.server.host";
    private static final String CFG_APPROOT = "grizzly.server.approot";
 
+   /**
+    * Whether to register the REST API's resources explicitly rather than scanning for them,
+    * disable WADL and prepare JSON serialization before accepting connections. See
+    * {@link FastStart}. (default: false)
+    */
+   static final String CFG_FAST_START = "grizzly.server.fast_start";
+
+   /**
+    * The maximum time, in milliseconds, to spend sending synthetic requests through the
+    * REST API before accepting connections, so that its request handling is compiled before
+    * clients arrive. Warm-up ends earlier once compilation settles. See {@link JitWarmup}.
+    * (default: 0, no warm-up)
+    */
+   static final String CFG_WARMUP_BUDGET = "grizzly.server.warmup.budget_ms";
+
+   /**
+    * The maximum time, in milliseconds, that {@link #stop()} waits for requests in flight
+    * to complete once the server has stopped accepting connections. Requests still in
+    * flight when it elapses are reported and abandoned. (default: 10000)
+    */
+   static final String CFG_DRAIN_TIMEOUT = "grizzly.server.drain_timeout_ms";
+
+   /**
+    * The repository implementation: {@code memory}, {@code jdbc}, {@code sharded}, which
+    * routes requests to other servers, or {@code replica}, which serves a read-only copy of
+    * another server's workspaces. (default: memory)
+    */
+   static final String CFG_REPOSITORY_TYPE = "repository.type";
+
+   /** The Jersey configuration property that holds the application context of a server. */
+   private static final String CONTEXT_PROPERTY = "edu.tamu.tcat.vwise.context";
+
    private static final String HOST_DEFAULT = "http://localhost:8080";
    private static final String APPROOT_DEFAULT = "/ex";
 
@@ -68,7 +116,7 @@ public class GrizzlyServerMain
       try (AutoCloseable lck = initLock())
       {
          if (mgr != null) {
-            mgr.shutdownServer();
+            mgr.stop();
             mgr = null;
          }
 
@@ -105,11 +153,17 @@ public class GrizzlyServerMain
       mgr = new GrizzlyServerMain(cfg);
       mgr.start();
 
-      String startup_msg = "Jersey app started with WADL available at {0}/application.wadl";
+      String startup_msg = mgr.fastStart
+            ? "Jersey app started at {0}"
+            : "Jersey app started with WADL available at {0}/application.wadl";
       logger.info(format(startup_msg, mgr.getBaseUri()));
    }
 
-   private static Properties getConfig()
+   /**
+    * @return The configuration properties read from the file named by the {@code config.file}
+    *       system property.
+    */
+   static Properties getConfig()
    {
       String noConfigFileSupplied = "No configuration file supplied. The path to the configuration "
             + "properies file should be specified using the '{0}' system property.";
@@ -142,10 +196,21 @@ public class GrizzlyServerMain
    private final URI baseUri;
    private final String host;
    private final String appRoot;
+   private final boolean fastStart;
+   private final long warmupBudget;
+   private final long drainTimeout;
+   private final InFlightRequests inFlight = new InFlightRequests();
+
+   /** Limits the requests being processed, if enabled. See {@link AdmissionControl}. */
+   private final AdmissionControl admission;
+
+   /** The time, in milliseconds, taken by each phase of starting the server, in order. */
+   private final Map<String, Long> startupTimes = new LinkedHashMap<>();
 
    private HttpServer server;
+   private AsyncLogHandler asyncLog;
 
-   private final InMemoryApplicationContext ctx;
+   private final VwiseApplicationContext ctx;
 
    public GrizzlyServerMain(Properties cfg)
    {
@@ -153,13 +218,18 @@ public class GrizzlyServerMain
 
       host = cfg.getProperty(CFG_HOST, HOST_DEFAULT);
       appRoot = cfg.getProperty(CFG_APPROOT, APPROOT_DEFAULT);
+      fastStart = Boolean.parseBoolean(cfg.getProperty(CFG_FAST_START, "false").trim());
+      warmupBudget = getDuration(cfg, CFG_WARMUP_BUDGET, 0);
+      drainTimeout = getDuration(cfg, CFG_DRAIN_TIMEOUT, 10_000);
+      admission = AdmissionControl.isEnabled(cfg) ? new AdmissionControl(cfg) : null;
 
       try
       {
          // create and start a new instance of grizzly http server exposing the Jersey application at BASE_URI
          this.baseUri = new URI(host).resolve(appRoot);
-         this.ctx = new InMemoryApplicationContext(cfg);
-
+         long started = System.nanoTime();
+         this.ctx = createContext(cfg);
+         recordPhase("repository", started);
       }
       catch (URISyntaxException e)
       {
@@ -168,6 +238,41 @@ public class GrizzlyServerMain
       }
    }
 
+   private static long getDuration(Properties cfg, String key, long defaultValue)
+   {
+      String property = cfg.getProperty(key, String.valueOf(defaultValue)).trim();
+      try
+      {
+         long duration = Long.parseLong(property);
+         if (duration < 0)
+            throw new IllegalArgumentException(format("The value of {0} must not be negative", key));
+
+         return duration;
+      }
+      catch (NumberFormatException ex)
+      {
+         throw new IllegalArgumentException(format("The value {0} for property {1} must be an integer", property, key));
+      }
+   }
+
+   private static VwiseApplicationContext createContext(Properties cfg)
+   {
+      String type = cfg.getProperty(CFG_REPOSITORY_TYPE, "memory").trim();
+      switch (type)
+      {
+         case "memory":
+            return new InMemoryApplicationContext(cfg);
+         case "jdbc":
+            return new JdbcApplicationContext(cfg);
+         case "sharded":
+            return new ShardedApplicationContext(cfg);
+         case "replica":
+            return new ReplicaApplicationContext(cfg);
+         default:
+            throw new IllegalStateException(format("Configuration error: The value {0} for property {1} must be ''memory'', ''jdbc'', ''sharded'' or ''replica''.", type, CFG_REPOSITORY_TYPE));
+      }
+   }
+
    public Properties getConfiguration()
    {
       return cfg;
@@ -178,19 +283,95 @@ public class GrizzlyServerMain
       return ctx;
    }
 
+   /**
+    * @return The application context of the server that deployed the resources with the
+    *       supplied configuration. Several servers may be run in the same JVM, each on its
+    *       own address.
+    */
+   public static VwiseApplicationContext getVwiseContext(Configuration config)
+   {
+      Object ctx = config.getProperty(CONTEXT_PROPERTY);
+      return ctx != null ? (VwiseApplicationContext)ctx : getInstance().getVwiseContext();
+   }
+
    public URI getBaseUri()
    {
       return baseUri;
    }
 
+   /**
+    * @return The asynchronous log handler installed on the root logger, if enabled by the
+    *       server configuration. Provides access to buffer depth and dropped record counts.
+    */
+   public Optional<AsyncLogHandler> getAsyncLogHandler()
+   {
+      return Optional.ofNullable(asyncLog);
+   }
+
+   /**
+    * @return The admission control applied to requests, if enabled by the server
+    *       configuration.
+    */
+   Optional<AdmissionControl> getAdmissionControl()
+   {
+      return Optional.ofNullable(admission);
+   }
+
+   /**
+    * @return The time, in milliseconds, taken by each phase of creating and starting the
+    *       server, in the order in which they ran.
+    */
+   public Map<String, Long> getStartupTimes()
+   {
+      return Collections.unmodifiableMap(startupTimes);
+   }
+
+   /**
+    * Records the time since a phase of startup began.
+    *
+    * @return The current value of {@link System#nanoTime()}, at which the next phase begins.
+    */
+   private long recordPhase(String phase, long started)
+   {
+      long now = System.nanoTime();
+      startupTimes.put(phase, Long.valueOf(TimeUnit.NANOSECONDS.toMillis(now - started)));
+      return now;
+   }
+
    public void start()
    {
       try
       {
-         ResourceConfig rc = new ResourceConfig()
-               .packages(RESOURCE_PKGS)
-               .register(new ThrowableExceptionMapper());
-         server = GrizzlyHttpServerFactory.createHttpServer(getBaseUri(), rc);
+         long phase = System.nanoTime();
+         asyncLog = AsyncLogHandler.install(cfg);
+         phase = recordPhase("logging", phase);
+
+         ResourceConfig rc = configure(ctx).register(inFlight);
+         if (admission != null)
+            rc.register(admission);
+         phase = recordPhase("configure", phase);
+
+         if (fastStart)
+         {
+            FastStart.registerJson(rc);
+            phase = recordPhase("json", phase);
+         }
+
+         // initializes the Jersey application before the server accepts connections
+         server = GrizzlyHttpServerFactory.createHttpServer(getBaseUri(), rc, false);
+         phase = recordPhase("jersey", phase);
+
+         if (warmupBudget > 0)
+         {
+            warmUp();
+            phase = recordPhase("warmup", phase);
+         }
+
+         listen();
+         recordPhase("listen", phase);
+
+         long total = startupTimes.values().stream().mapToLong(Long::longValue).sum();
+         logger.info(format("Started {0} in {1,number,#} ms {2}", getBaseUri(), Long.valueOf(total), startupTimes));
       }
       catch (Exception e)
       {
@@ -198,16 +379,137 @@ public class GrizzlyServerMain
       }
    }
 
-   private void shutdownServer()
+   /**
+    * Starts the server and then its listeners. Grizzly starts the listeners of a server
+    * before it installs the server's handlers, and answers requests that arrive in between
+    * with {@code 404 Not Found}. Listeners added to a running server are started once the
+    * handlers are in place.
+    */
+   private void listen()
    {
+      List<NetworkListener> listeners = new ArrayList<>(server.getListeners());
+      listeners.forEach(listener -> server.removeListener(listener.getName()));
       try
       {
-         server.shutdown(10, TimeUnit.SECONDS).get();
+         server.start();
+      }
+      catch (IOException ex)
+      {
+         throw new UncheckedIOException(ex);
+      }
+
+      for (NetworkListener listener : listeners)
+      {
+         server.addListener(listener);
+         if (!listener.isStarted())
+            throw new IllegalStateException(format("Failed to listen on {0}:{1,number,#}", listener.getHost(), Integer.valueOf(listener.getPort())));
+      }
+   }
+
+   /**
+    * Creates the configuration of the REST API, serving the supplied application context.
+    */
+   private ResourceConfig configure(VwiseApplicationContext context)
+   {
+      ResourceConfig rc = new ResourceConfig()
+            .register(new ThrowableExceptionMapper())
+            .property(CONTEXT_PROPERTY, context);
+      if (fastStart)
+         FastStart.configure(rc);
+      else
+         rc.packages(RESOURCE_PKGS);
+
+      return rc;
+   }
+
+   /**
+    * Sends synthetic traffic through a copy of the REST API backed by a throwaway
+    * repository.
+    */
+   private void warmUp() throws Exception
+   {
+      try (InMemoryApplicationContext throwaway = new InMemoryApplicationContext(new Properties()))
+      {
+         ResourceConfig rc = configure(throwaway);
+         if (fastStart)
+            FastStart.registerJson(rc);
+         JitWarmup.run(rc, getBaseUri(), warmupBudget);
+      }
+   }
+
+   /**
+    * Stops the server. Servers that were not obtained from {@link #getInstance()} must be
+    * stopped by their creator.
+    *
+    * <p>The server stops accepting connections and waits, for up to the configured drain
+    * timeout, until the requests it has received have completed. Requests that arrive
+    * meanwhile on connections that are already open are served, and their responses ask
+    * the client to close the connection. Updates still pending in an in-memory repository
+    * are then committed. Requests that remain in flight once the timeout elapses are
+    * logged and abandoned. Finally, the application context is closed, which closes its
+    * repository and releases the resources held by both.
+    */
+   public void stop()
+   {
+      try
+      {
+         // streaming connections remain open until closed by the server
+         ChangeFeedResource.closeAll(ctx);
+
+         long started = System.nanoTime();
+         long completed = inFlight.getCompleted();
+         inFlight.startDraining();
+         for (NetworkListener listener : server.getListeners())
+            listener.getTransport().unbindAll();
+
+         boolean drained = inFlight.awaitIdle(drainTimeout);
+         long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+         Long drainedCount = Long.valueOf(inFlight.getCompleted() - completed);
+         if (drained)
+         {
+            logger.info(format("Stopped accepting connections at {0}; drained {1,number,#} requests in {2,number,#} ms.",
+                  getBaseUri(), drainedCount, Long.valueOf(elapsed)));
+         }
+         else
+         {
+            List<String> outstanding = inFlight.describe();
+            logger.warning(format("Drained {0,number,#} requests at {1} but {2,number,#} were still in flight after {3,number,#} ms: {4}",
+                  drainedCount, getBaseUri(), Integer.valueOf(outstanding.size()), Long.valueOf(elapsed), outstanding));
+         }
+
+         if (admission != null)
+            logger.info(format("Admission control at {0}: {1}", getBaseUri(), admission));
+
+         WorkspaceRepository repo = ctx.getRepository();
+         if (repo instanceof WorkspaceRepoImpl)
+         {
+            int flushed = ((WorkspaceRepoImpl)repo).flushAll();
+            if (flushed > 0)
+               logger.info(format("Committed the pending versions of {0,number,#} workspaces.", Integer.valueOf(flushed)));
+         }
+
+         // completes responses that are still being written and closes idle connections
+         long remaining = Math.max(1, drainTimeout - elapsed);
+         server.shutdown(remaining, TimeUnit.MILLISECONDS).get();
       }
       catch (Exception e)
       {
          logger.log(Level.SEVERE, format("Failed to cleanly shutdown Grizzly HTTP server: {0}", e));
       }
+      finally
+      {
+         try
+         {
+            ctx.close();
+         }
+         catch (Exception e)
+         {
+            logger.log(Level.SEVERE, format("Failed to close the vWise application context: {0}", e));
+         }
+
+         AsyncLogHandler.uninstall(asyncLog);
+         asyncLog = null;
+      }
    }
 
    /**
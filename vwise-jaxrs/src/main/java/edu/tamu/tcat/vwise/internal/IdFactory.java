@@ -19,6 +19,12 @@ public class IdFactory implements Supplier<String>, Comparator<String>
    private IdObfuscator obfuscator;
    private AtomicLong counter = new AtomicLong(1);
 
+   private String alphabet;
+   private int minLength;
+
+   /** Indicates that every id of the minimum length decodes exactly to its numeric value. */
+   private boolean exactAtMinLength;
+
    public IdFactory(Properties props, String type)
    {
       obfuscator = initId(props, type);
@@ -36,6 +42,10 @@ public class IdFactory implements Supplier<String>, Comparator<String>
       int minLength = getIntProperty(props, format(PROP_MIN_LENGTH, key), IdObfuscator.MIN_LENGTH);
 
       logger.finer(() -> format(INFO_OBFUSCATOR_CFG, alphabet, Integer.valueOf(blockSize), Integer.valueOf(minLength), key));
+
+      this.alphabet = alphabet;
+      this.minLength = minLength;
+      this.exactAtMinLength = blockSize < 31 && Math.pow(alphabet.length(), minLength) <= Integer.MAX_VALUE;
       return new IdObfuscator(alphabet, blockSize, minLength);
    }
 
@@ -57,6 +67,47 @@ public class IdFactory implements Supplier<String>, Comparator<String>
       return obfuscator.encode(id);
    }
 
+   /**
+    * @return The numeric value of an id created by this factory. Ids are created in
+    *       increasing numeric order.
+    */
+   public long decode(String id)
+   {
+      return obfuscator.decode(id);
+   }
+
+   /**
+    * @return The id with the supplied numeric value.
+    */
+   public String encode(long value)
+   {
+      return obfuscator.encode(value);
+   }
+
+   /**
+    * @return {@code true} if the supplied id is the one {@link #encode(long)} creates for
+    *       its numeric value. Ids of other forms, such as those supplied by clients, do not
+    *       survive a round trip through their numeric value.
+    */
+   public boolean isCanonical(String id)
+   {
+      // ids of the minimum length are canonical if they use only the alphabet, which
+      // avoids encoding the id again for the ids this factory creates
+      if (exactAtMinLength && id.length() == minLength)
+      {
+         for (int i = 0; i < id.length(); i++)
+         {
+            if (alphabet.indexOf(id.charAt(i)) < 0)
+               return false;
+         }
+
+         return true;
+      }
+
+      long value = obfuscator.decode(id);
+      return value >= 0 && id.equals(obfuscator.encode(value));
+   }
+
    @Override
    public int compare(String idA, String idB)
    {
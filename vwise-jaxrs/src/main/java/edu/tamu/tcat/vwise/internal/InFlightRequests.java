@@ -0,0 +1,168 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+/**
+ * Tracks the requests being processed by the REST API so that a server that is shutting
+ * down can wait for them to complete and report those that did not.
+ *
+ * <p>A request is in flight from the time Jersey starts processing it until its response
+ * has been written or processing has failed. Requests are added to and removed from a
+ * concurrent set, so tracking does not serialize request threads.
+ *
+ * <p>Once the server starts {@link #startDraining() draining}, every response asks the
+ * client to close its connection, so that clients holding keep-alive connections open a
+ * new connection, to another server or to this one once it has restarted, for their next
+ * request.
+ */
+final class InFlightRequests implements ApplicationEventListener, ContainerResponseFilter
+{
+   /** The interval at which {@link #awaitIdle(long)} checks for remaining requests. */
+   private static final long POLL_MS = 10;
+
+   /**
+    * The time, in milliseconds, for which no request may start before the server is
+    * considered idle. Clients that are still sending requests on open connections have
+    * then been asked to close them.
+    */
+   private static final long QUIET_MS = 100;
+
+   private final Set<Request> active = ConcurrentHashMap.newKeySet();
+   private final LongAdder completed = new LongAdder();
+   private volatile long lastStarted = System.nanoTime();
+   private volatile boolean draining;
+
+   /**
+    * A request being processed.
+    */
+   static final class Request
+   {
+      private final String method;
+      private final String path;
+      private final long started = System.nanoTime();
+
+      private Request(String method, String path)
+      {
+         this.method = method;
+         this.path = path;
+      }
+
+      @Override
+      public String toString()
+      {
+         long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+         return format("{0} {1} ({2,number,#} ms)", method, path, Long.valueOf(elapsed));
+      }
+   }
+
+   /**
+    * Records that a request has started.
+    */
+   Request begin(String method, String path)
+   {
+      Request request = new Request(method, path);
+      active.add(request);
+      lastStarted = request.started;
+      return request;
+   }
+
+   /**
+    * Records that a request has completed.
+    */
+   void end(Request request)
+   {
+      if (active.remove(request))
+         completed.increment();
+   }
+
+   /**
+    * Asks the clients of subsequent responses to close their connections.
+    */
+   void startDraining()
+   {
+      draining = true;
+   }
+
+   /**
+    * @return The number of requests that have completed.
+    */
+   long getCompleted()
+   {
+      return completed.sum();
+   }
+
+   /**
+    * @return A description of each request in flight, oldest first.
+    */
+   List<String> describe()
+   {
+      return active.stream()
+            .sorted((a, b) -> Long.compare(a.started, b.started))
+            .map(Request::toString)
+            .collect(Collectors.toList());
+   }
+
+   /**
+    * Waits until no requests are in flight and none has started for {@value #QUIET_MS} ms.
+    *
+    * @param timeout The maximum time to wait, in milliseconds.
+    * @return {@code true} if the server is idle, {@code false} if the timeout elapsed
+    *       first.
+    */
+   boolean awaitIdle(long timeout) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      while (true)
+      {
+         long now = System.nanoTime();
+         long quiet = TimeUnit.NANOSECONDS.toMillis(now - lastStarted);
+         if (active.isEmpty() && quiet >= QUIET_MS)
+            return true;
+
+         long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - now);
+         if (remaining <= 0)
+            return false;
+
+         Thread.sleep(Math.min(remaining, active.isEmpty() ? QUIET_MS - quiet : POLL_MS));
+      }
+   }
+
+   @Override
+   public void filter(ContainerRequestContext request, ContainerResponseContext response)
+   {
+      if (draining)
+         response.getHeaders().putSingle("Connection", "close");
+   }
+
+   @Override
+   public void onEvent(ApplicationEvent event)
+   {
+      // no application events are tracked
+   }
+
+   @Override
+   public RequestEventListener onRequest(RequestEvent event)
+   {
+      Request request = begin(event.getContainerRequest().getMethod(), event.getContainerRequest().getRequestUri().getRawPath());
+      return e -> {
+         if (e.getType() == RequestEvent.Type.FINISHED)
+            end(request);
+      };
+   }
+}
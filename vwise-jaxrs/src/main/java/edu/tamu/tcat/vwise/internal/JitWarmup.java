@@ -0,0 +1,206 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Runs synthetic traffic through the REST API so that the JIT compiler has compiled its
+ * request handling before a server accepts connections.
+ *
+ * <p>Requests are dispatched directly to a Jersey application configured like the server's
+ * own but backed by a throwaway in-memory repository, so they pass through the same
+ * resource methods, filters and JSON providers as client requests without reaching the
+ * server's repository or its network listener. Each round creates, reads, updates and
+ * lists workspaces, removing the oldest once more than {@value #LIVE_WORKSPACES} exist.
+ *
+ * <p>Warm-up ends once a minimum number of requests has been made and the time the JVM
+ * spends compiling has fallen below {@value #SETTLED_PERCENT}% of the elapsed time for
+ * {@value #SETTLED_WINDOWS} consecutive windows of {@value #WINDOW_MS} ms, or when the
+ * time budget runs out.
+ */
+final class JitWarmup
+{
+   private static final Logger logger = Logger.getLogger(JitWarmup.class.getName());
+
+   /** The length of the windows over which compilation activity is measured. */
+   private static final long WINDOW_MS = 200;
+
+   /** The share of a window, in percent, that compilation may take in a settled window. */
+   private static final int SETTLED_PERCENT = 2;
+
+   private static final int SETTLED_WINDOWS = 3;
+
+   /**
+    * The minimum number of requests. Methods called once per request are compiled by the
+    * optimizing compiler only after several thousand calls, and compilation often pauses
+    * between the two tiers.
+    */
+   private static final int MIN_REQUESTS = 15_000;
+
+   private static final int LIVE_WORKSPACES = 32;
+
+   private final ApplicationHandler app;
+   private final URI baseUri;
+   private final ObjectMapper mapper = ApiUtils.getObjectMapper();
+   private final Deque<String> live = new ArrayDeque<>();
+
+   private long requests;
+   private long round;
+
+   private JitWarmup(ApplicationHandler app, URI baseUri)
+   {
+      this.app = app;
+      String base = baseUri.toString();
+      this.baseUri = URI.create(base.endsWith("/") ? base : base + "/");
+   }
+
+   /**
+    * Makes requests of a Jersey application until compilation settles or the budget runs
+    * out. The application is discarded once warm-up ends.
+    *
+    * @param rc The configuration of the application. Its resources must be backed by a
+    *       repository that may be discarded.
+    * @param baseUri The base URI of the server being warmed up.
+    * @param budget The maximum time to spend, in milliseconds.
+    * @return The number of requests made.
+    */
+   static long run(ResourceConfig rc, URI baseUri, long budget) throws IOException
+   {
+      CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+      if (jit == null)
+      {
+         logger.info("Skipping JIT warm-up: the JVM has no JIT compiler.");
+         return 0;
+      }
+
+      ApplicationHandler app = new ApplicationHandler(rc);
+      try
+      {
+         return new JitWarmup(app, baseUri).warmUp(jit, budget);
+      }
+      finally
+      {
+         app.getServiceLocator().shutdown();
+      }
+   }
+
+   private long warmUp(CompilationMXBean jit, long budget) throws IOException
+   {
+      boolean monitored = jit.isCompilationTimeMonitoringSupported();
+      long started = System.nanoTime();
+      long deadline = started + TimeUnit.MILLISECONDS.toNanos(budget);
+      long windowStart = started;
+      long windowCompileTime = monitored ? jit.getTotalCompilationTime() : 0;
+      int settledWindows = 0;
+
+      while (System.nanoTime() - deadline < 0 && settledWindows < SETTLED_WINDOWS)
+      {
+         round();
+
+         long now = System.nanoTime();
+         long window = TimeUnit.NANOSECONDS.toMillis(now - windowStart);
+         if (!monitored || window < WINDOW_MS)
+            continue;
+
+         long compileTime = jit.getTotalCompilationTime();
+         boolean settled = (compileTime - windowCompileTime) * 100 <= window * SETTLED_PERCENT;
+         settledWindows = settled && requests >= MIN_REQUESTS ? settledWindows + 1 : 0;
+         windowStart = now;
+         windowCompileTime = compileTime;
+      }
+
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+      String outcome = settledWindows >= SETTLED_WINDOWS ? "compilation settled" : "the time budget ran out";
+      logger.info(format("JIT warm-up made {0,number,#} requests in {1,number,#} ms; {2}.",
+            Long.valueOf(requests), Long.valueOf(elapsed), outcome));
+      return requests;
+   }
+
+   private void round() throws IOException
+   {
+      round++;
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Warm-up " + round;
+      ws.description = "Created to warm up the server before it accepts connections.";
+      ws.scope = "warmup";
+      ws.key = "ws-" + round;
+
+      WorkspaceMeta created = mapper.readValue(send(HttpMethod.POST, "workspaces", ws), WorkspaceMeta.class);
+      live.addLast(created.id);
+
+      WorkspaceMeta current = mapper.readValue(send(HttpMethod.GET, "workspaces/" + created.id, null), WorkspaceMeta.class);
+      current.description = "Updated " + round;
+      send(HttpMethod.PUT, "workspaces/" + created.id, current);
+      send(HttpMethod.GET, "workspaces/" + created.id, null);
+      send(HttpMethod.GET, "workspaces", null);
+      send(HttpMethod.GET, "workspaces?scope=warmup&sort=name&limit=10", null);
+
+      if (live.size() > LIVE_WORKSPACES)
+         send(HttpMethod.DELETE, "workspaces/" + live.removeFirst() + "?purge=true", null);
+   }
+
+   /**
+    * Dispatches a request to the application and waits for its response.
+    *
+    * @return The body of the response.
+    * @throws IllegalStateException If the request did not succeed.
+    */
+   private byte[] send(String method, String path, Object entity) throws IOException
+   {
+      requests++;
+      ContainerRequest request = new ContainerRequest(baseUri, baseUri.resolve(path), method, null, new MapPropertiesDelegate());
+      request.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+      if (entity != null)
+      {
+         request.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+         request.setEntityStream(new ByteArrayInputStream(mapper.writeValueAsBytes(entity)));
+      }
+
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      ContainerResponse response;
+      try
+      {
+         response = app.apply(request, body).get();
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted during JIT warm-up.", ex);
+      }
+      catch (ExecutionException ex)
+      {
+         throw new IllegalStateException(format("Warm-up request {0} {1} failed.", method, path), ex.getCause());
+      }
+
+      if (response.getStatus() >= 300)
+         throw new IllegalStateException(format("Warm-up request {0} {1} failed [{2,number,#}]: {3}",
+               method, path, Integer.valueOf(response.getStatus()), body.toString("UTF-8")));
+
+      return body.toByteArray();
+   }
+}
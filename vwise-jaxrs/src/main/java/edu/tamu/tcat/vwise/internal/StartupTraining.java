@@ -0,0 +1,64 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Starts a server, makes a request of each common kind and stops it, reporting the time
+ * taken by each phase of startup and the time from the start of the JVM to the first
+ * response.
+ *
+ * <p>Used by the {@code appcds} build profile to record the classes loaded while a server
+ * starts and serves its first requests in a class data sharing archive. Servers started
+ * with the archive load those classes from it rather than from their jars. The server is
+ * configured by the file named by the {@code config.file} system property, if supplied,
+ * and otherwise listens on {@code http://localhost:18180} with an in-memory repository.
+ * Fast start is enabled unless the configuration disables it.
+ */
+public class StartupTraining
+{
+   public static void main(String[] args)
+   {
+      Properties cfg = System.getProperty(GrizzlyServerMain.CONFIG_FILE_PROP) != null ? GrizzlyServerMain.getConfig() : new Properties();
+      cfg.putIfAbsent(GrizzlyServerMain.CFG_HOST, "http://localhost:18180");
+      cfg.putIfAbsent(GrizzlyServerMain.CFG_FAST_START, "true");
+
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+      long ready = ManagementFactory.getRuntimeMXBean().getUptime();
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), new Properties());
+      try
+      {
+         WorkspaceRepository repo = client.getRepository();
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Startup training";
+         WorkspaceMeta created = repo.create(ws);
+         long firstResponse = ManagementFactory.getRuntimeMXBean().getUptime();
+
+         created.description = "Updated";
+         repo.update(created);
+         repo.get(created.id);
+         repo.listAll();
+         repo.listVersions(created.id, null, null, null, 10);
+         repo.remove(created.id);
+
+         System.out.println(format("Startup phases (ms): {0}", server.getStartupTimes()));
+         System.out.println(format("Ready {0,number,#} ms after the JVM started.", Long.valueOf(ready)));
+         System.out.println(format("First response {0,number,#} ms after the JVM started.", Long.valueOf(firstResponse)));
+      }
+      finally
+      {
+         client.shutdown();
+         server.stop();
+      }
+
+      // the class data sharing archive is written as the JVM exits
+      System.exit(0);
+   }
+}
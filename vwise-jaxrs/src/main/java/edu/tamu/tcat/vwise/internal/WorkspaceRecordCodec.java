@@ -0,0 +1,397 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static java.text.MessageFormat.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Encodes {@link WorkspaceMeta} as compact binary records.
+ *
+ * <p>A record starts with a single byte that identifies its format version, followed by
+ * its fields and a CRC-32 checksum of everything that precedes it, written as four
+ * big-endian bytes. Each field is written as a key followed by a value. The key is a
+ * varint holding the field number shifted left by two bits, combined with the wire type
+ * of the value:
+ *
+ * <ul>
+ *    <li>{@code 0} &mdash; an unsigned varint</li>
+ *    <li>{@code 1} &mdash; a varint length followed by that many bytes of UTF-8</li>
+ *    <li>{@code 2} &mdash; a varint index into the {@link Dictionary}</li>
+ * </ul>
+ *
+ * <p>Varints are written seven bits at a time, least significant first, with the high bit
+ * of each byte set if more bytes follow. Ids and versions that were created by the
+ * configured {@link IdFactory} are written as varints of their numeric values; other ids
+ * are written as strings. Scopes are written as references to a dictionary shared by the
+ * records of a store, which the store is responsible for persisting. Fields whose value is
+ * {@code null} are omitted.
+ *
+ * <p>Records may be read by older and newer versions of this codec:
+ *
+ * <ul>
+ *    <li>Fields with unrecognized numbers are skipped using their wire type, so new fields
+ *    may be added. Field numbers are never reused.</li>
+ *    <li>String fields accept both inline strings and dictionary references, and id
+ *    fields accept both varints and strings, so the encoding of a field may change
+ *    without affecting readers.</li>
+ *    <li>The format version is incremented only for changes that older readers cannot
+ *    skip. Records with a newer format version are rejected.</li>
+ * </ul>
+ *
+ * <p>Thread safe.
+ */
+public class WorkspaceRecordCodec
+{
+   /** The format version written by this codec. */
+   public static final int FORMAT_VERSION = 1;
+
+   private static final int VARINT = 0;
+   private static final int BYTES = 1;
+   private static final int DICTIONARY = 2;
+
+   private static final int ID = 1;
+   private static final int VERSION = 2;
+   private static final int MODIFIED = 3;
+   private static final int SCOPE = 4;
+   private static final int KEY = 5;
+   private static final int NAME = 6;
+   private static final int DESCRIPTION = 7;
+
+   private static final int CHECKSUM_BYTES = 4;
+
+   private final IdFactory wsIds;
+   private final IdFactory versionIds;
+   private final Dictionary dictionary;
+
+   /**
+    * @param config Configures the id factories that created the ids and versions of
+    *       encoded workspaces.
+    * @param dictionary Holds the scopes referenced by records.
+    */
+   public WorkspaceRecordCodec(Properties config, Dictionary dictionary)
+   {
+      this.wsIds = new IdFactory(config, "workspaces");
+      this.versionIds = new IdFactory(config, "workspace_version");
+      this.dictionary = dictionary;
+   }
+
+   /**
+    * @return The dictionary that holds the scopes referenced by records.
+    */
+   public Dictionary getDictionary()
+   {
+      return dictionary;
+   }
+
+   /**
+    * Encodes a workspace, adding its scope to the dictionary if it is not already present.
+    */
+   public byte[] encode(WorkspaceMeta meta)
+   {
+      Output out = new Output();
+      out.buffer[out.length++] = (byte)FORMAT_VERSION;
+
+      writeId(out, ID, meta.id, wsIds);
+      writeId(out, VERSION, meta.version, versionIds);
+      out.writeVarint(key(MODIFIED, VARINT));
+      out.writeVarint(meta.modified);
+      if (meta.scope != null)
+      {
+         out.writeVarint(key(SCOPE, DICTIONARY));
+         out.writeVarint(dictionary.intern(meta.scope));
+      }
+
+      writeString(out, KEY, meta.key);
+      writeString(out, NAME, meta.name);
+      writeString(out, DESCRIPTION, meta.description);
+
+      CRC32 crc = new CRC32();
+      crc.update(out.buffer, 0, out.length);
+      out.ensure(CHECKSUM_BYTES);
+      int checksum = (int)crc.getValue();
+      for (int shift = 24; shift >= 0; shift -= 8)
+         out.buffer[out.length++] = (byte)(checksum >>> shift);
+
+      return Arrays.copyOf(out.buffer, out.length);
+   }
+
+   private static int key(int field, int wireType)
+   {
+      return (field << 2) | wireType;
+   }
+
+   private static void writeId(Output out, int field, String id, IdFactory ids)
+   {
+      if (id == null)
+         return;
+
+      // ids not created by the factory may not survive a round trip through their numeric value
+      if (ids.isCanonical(id))
+      {
+         out.writeVarint(key(field, VARINT));
+         out.writeVarint(ids.decode(id));
+      }
+      else
+      {
+         writeString(out, field, id);
+      }
+   }
+
+   private static void writeString(Output out, int field, String value)
+   {
+      if (value == null)
+         return;
+
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeVarint(key(field, BYTES));
+      out.writeVarint(bytes.length);
+      out.ensure(bytes.length);
+      System.arraycopy(bytes, 0, out.buffer, out.length, bytes.length);
+      out.length += bytes.length;
+   }
+
+   /**
+    * Decodes a record.
+    *
+    * @throws IllegalArgumentException If the record is corrupt or was written in a newer
+    *       format version.
+    */
+   public WorkspaceMeta decode(byte[] record)
+   {
+      return decode(record, 0, record.length);
+   }
+
+   /**
+    * Decodes a record held within a larger array.
+    *
+    * @throws IllegalArgumentException If the record is corrupt or was written in a newer
+    *       format version.
+    */
+   public WorkspaceMeta decode(byte[] buffer, int offset, int length)
+   {
+      if (length < 1 + CHECKSUM_BYTES)
+         throw new IllegalArgumentException(format("A workspace record must hold at least {0} bytes [{1}]", Integer.valueOf(1 + CHECKSUM_BYTES), Integer.valueOf(length)));
+
+      int end = offset + length - CHECKSUM_BYTES;
+      CRC32 crc = new CRC32();
+      crc.update(buffer, offset, end - offset);
+      int checksum = 0;
+      for (int i = end; i < end + CHECKSUM_BYTES; i++)
+         checksum = (checksum << 8) | (buffer[i] & 0xFF);
+
+      if (checksum != (int)crc.getValue())
+         throw new IllegalArgumentException("The workspace record is corrupt: its checksum does not match its content.");
+
+      int version = buffer[offset] & 0xFF;
+      if (version > FORMAT_VERSION)
+         throw new IllegalArgumentException(format("Workspace records in format version {0} are not supported. The latest supported version is {1}.", Integer.valueOf(version), Integer.valueOf(FORMAT_VERSION)));
+
+      Input in = new Input(buffer, offset + 1, end);
+      WorkspaceMeta meta = new WorkspaceMeta();
+      while (in.position < end)
+      {
+         long key = in.readVarint();
+         int field = (int)(key >>> 2);
+         int wireType = (int)(key & 3);
+         switch (field)
+         {
+            case ID:
+               meta.id = readId(in, wireType, wsIds);
+               break;
+            case VERSION:
+               meta.version = readId(in, wireType, versionIds);
+               break;
+            case MODIFIED:
+               meta.modified = wireType == VARINT ? in.readVarint() : skip(in, wireType);
+               break;
+            case SCOPE:
+               meta.scope = readString(in, wireType);
+               break;
+            case KEY:
+               meta.key = readString(in, wireType);
+               break;
+            case NAME:
+               meta.name = readString(in, wireType);
+               break;
+            case DESCRIPTION:
+               meta.description = readString(in, wireType);
+               break;
+            default:
+               // added by a newer version of this codec
+               skip(in, wireType);
+         }
+      }
+
+      return meta;
+   }
+
+   private String readId(Input in, int wireType, IdFactory ids)
+   {
+      return wireType == VARINT ? ids.encode(in.readVarint()) : readString(in, wireType);
+   }
+
+   private String readString(Input in, int wireType)
+   {
+      switch (wireType)
+      {
+         case BYTES:
+            int length = in.readLength();
+            String value = new String(in.buffer, in.position, length, StandardCharsets.UTF_8);
+            in.position += length;
+            return value;
+         case DICTIONARY:
+            return dictionary.lookup((int)in.readVarint());
+         default:
+            throw new IllegalArgumentException(format("The workspace record is corrupt: unexpected wire type {0} for a string.", Integer.valueOf(wireType)));
+      }
+   }
+
+   private static long skip(Input in, int wireType)
+   {
+      switch (wireType)
+      {
+         case VARINT:
+         case DICTIONARY:
+            in.readVarint();
+            break;
+         case BYTES:
+            int length = in.readLength();
+            in.position += length;
+            break;
+         default:
+            throw new IllegalArgumentException(format("The workspace record is corrupt: unknown wire type {0}.", Integer.valueOf(wireType)));
+      }
+
+      return 0;
+   }
+
+   /**
+    * Assigns indexes to strings that recur across records. Indexes are assigned in the
+    * order strings are first added and are never reassigned.
+    */
+   public static class Dictionary
+   {
+      private final List<String> entries = new ArrayList<>();
+      private final Map<String, Integer> indexes = new HashMap<>();
+
+      public Dictionary()
+      {
+      }
+
+      /**
+       * @param entries The entries of a persisted dictionary, in index order.
+       */
+      public Dictionary(List<String> entries)
+      {
+         entries.forEach(this::intern);
+      }
+
+      /**
+       * @return The index of the supplied string, which is added if it is not present.
+       */
+      public synchronized int intern(String value)
+      {
+         Integer index = indexes.get(value);
+         if (index != null)
+            return index.intValue();
+
+         entries.add(value);
+         indexes.put(value, Integer.valueOf(entries.size() - 1));
+         return entries.size() - 1;
+      }
+
+      /**
+       * @throws IllegalArgumentException If no string has the supplied index.
+       */
+      public synchronized String lookup(int index)
+      {
+         if (index < 0 || index >= entries.size())
+            throw new IllegalArgumentException(format("The workspace record is corrupt: no dictionary entry {0}.", Integer.valueOf(index)));
+
+         return entries.get(index);
+      }
+
+      /**
+       * @return The entries of this dictionary, in index order, for persisting alongside
+       *       the records that reference them.
+       */
+      public synchronized List<String> getEntries()
+      {
+         return Collections.unmodifiableList(new ArrayList<>(entries));
+      }
+   }
+
+   private static class Output
+   {
+      byte[] buffer = new byte[64];
+      int length;
+
+      void ensure(int count)
+      {
+         if (length + count > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+      }
+
+      void writeVarint(long value)
+      {
+         ensure(10);
+         while ((value & ~0x7FL) != 0)
+         {
+            buffer[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+
+         buffer[length++] = (byte)value;
+      }
+   }
+
+   private static class Input
+   {
+      final byte[] buffer;
+      final int end;
+      int position;
+
+      Input(byte[] buffer, int position, int end)
+      {
+         this.buffer = buffer;
+         this.position = position;
+         this.end = end;
+      }
+
+      long readVarint()
+      {
+         long value = 0;
+         for (int shift = 0; shift < 64; shift += 7)
+         {
+            if (position >= end)
+               throw new IllegalArgumentException("The workspace record is corrupt: a varint is truncated.");
+
+            byte b = buffer[position++];
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+               return value;
+         }
+
+         throw new IllegalArgumentException("The workspace record is corrupt: a varint is too long.");
+      }
+
+      int readLength()
+      {
+         long length = readVarint();
+         if (length < 0 || length > Integer.MAX_VALUE || length > end - position)
+            throw new IllegalArgumentException(format("The workspace record is corrupt: a length of {0,number,#} exceeds the record.", Long.valueOf(length)));
+
+         return (int)length;
+      }
+   }
+}
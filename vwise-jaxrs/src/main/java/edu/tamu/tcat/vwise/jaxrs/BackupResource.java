@@ -0,0 +1,121 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static edu.tamu.tcat.vwise.internal.ApiUtils.raise;
+
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.impl.jdbc.DatabaseBackup;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcApplicationContext;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+
+/**
+ * Takes online backups of a repository stored in a database file. Backups are written
+ * to the server's configured backup directory and may be restored using the
+ * {@code BackupTool} command line.
+ */
+@Path("admin/backups")
+public class BackupResource
+{
+   public final VwiseApplicationContext ctx;
+
+   public BackupResource(@Context Configuration config)
+   {
+      this.ctx = GrizzlyServerMain.getVwiseContext(config);
+   }
+
+   private JdbcApplicationContext getBackupContext()
+   {
+      if (!(ctx instanceof JdbcApplicationContext) || !((JdbcApplicationContext)ctx).isBackupEnabled())
+         throw raise(Status.NOT_FOUND, "Backups are not enabled on this server.", Level.FINE, null);
+
+      return (JdbcApplicationContext)ctx;
+   }
+
+   /**
+    * @return The complete backups held by the server, newest first.
+    */
+   @GET
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<BackupManifest> listBackups()
+   {
+      JdbcApplicationContext backups = getBackupContext();
+      try
+      {
+         return backups.listBackups();
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+
+   /**
+    * Backs up the repository while it remains available for reads and writes.
+    *
+    * @return {@code 201 Created} with the manifest of the backup. {@code 409 Conflict} if
+    *       another backup is in progress or the database cannot be backed up.
+    */
+   @POST
+   @Produces(MediaType.APPLICATION_JSON)
+   public Response createBackup(@Context UriInfo uriInfo)
+   {
+      JdbcApplicationContext backups = getBackupContext();
+      try
+      {
+         BackupManifest manifest = backups.backup();
+         return Response.created(uriInfo.getAbsolutePathBuilder().path(manifest.id).build())
+               .entity(manifest)
+               .build();
+      }
+      catch (IllegalStateException ex)
+      {
+         throw raise(Status.CONFLICT, ex.getMessage(), Level.WARNING, null);
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Failed to back up the repository: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+
+   /**
+    * Verifies the checksums of a backup.
+    *
+    * @return The manifest of the backup. {@code 409 Conflict} if a file of the backup is
+    *       missing or corrupt.
+    */
+   @GET
+   @Path("{id}")
+   @Produces(MediaType.APPLICATION_JSON)
+   public BackupManifest verifyBackup(@PathParam("id") String id)
+   {
+      java.nio.file.Path backup = getBackupContext().getBackup(id)
+            .orElseThrow(() -> raise(Status.NOT_FOUND, "No backup with id [" + id + "] exists.", Level.FINE, null));
+      try
+      {
+         return DatabaseBackup.verify(backup);
+      }
+      catch (IllegalStateException ex)
+      {
+         throw raise(Status.CONFLICT, ex.getMessage(), Level.WARNING, null);
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+}
@@ -0,0 +1,320 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static edu.tamu.tcat.vwise.internal.ApiUtils.raise;
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseFeature;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceChangeListener;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+
+/**
+ * Streams workspace changes to clients as server-sent events.
+ *
+ * <p>Events are queued for each stream and written by a writer of its own, so that a slow
+ * client never holds up the delivery of changes to other subscribers. A stream that falls
+ * more than {@link #STREAM_BACKLOG} events behind is closed; its client reconnects and
+ * resumes from the {@code Last-Event-ID} of the last event it received.
+ */
+@Path("changes")
+public class ChangeFeedResource
+{
+   private final static Logger logger = Logger.getLogger(ChangeFeedResource.class.getName());
+
+   /** Interval between comments sent to idle streams in order to detect closed connections. */
+   private static final long HEARTBEAT_SECONDS = 15;
+
+   /** The maximum number of events queued for a stream before the stream is closed. */
+   private static final int STREAM_BACKLOG = 1024;
+
+   private static final ExecutorService writers = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "vwise-change-feed-writer");
+      t.setDaemon(true);
+      return t;
+   });
+
+   private static final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "vwise-change-feed-heartbeat");
+      t.setDaemon(true);
+      return t;
+   });
+
+   private static final Set<ChangeStream> openStreams = ConcurrentHashMap.newKeySet();
+
+   public final VwiseApplicationContext ctx;
+
+   public ChangeFeedResource(@Context Configuration config)
+   {
+      this.ctx = GrizzlyServerMain.getVwiseContext(config);
+   }
+
+   /**
+    * Opens a stream of workspace changes. Each event carries the sequence number of the
+    * change as its id so that clients can resume the stream using {@code Last-Event-ID}.
+    *
+    * @param lastEventId The sequence number of the last change received by a reconnecting
+    *       client. Takes precedence over {@code since}.
+    * @param since The sequence number of the last change known to the client. If neither
+    *       this nor {@code Last-Event-ID} is supplied, only new changes are sent.
+    * @param scope Restricts the stream to workspaces in the supplied scope.
+    * @param wsId Restricts the stream to a single workspace.
+    */
+   @GET
+   @Produces(SseFeature.SERVER_SENT_EVENTS)
+   public EventOutput getChanges(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) String lastEventId,
+                                 @QueryParam("since") String since,
+                                 @QueryParam("scope") String scope,
+                                 @QueryParam("ws") String wsId)
+   {
+      long after = parsePosition(lastEventId != null ? lastEventId : since);
+
+      EventOutput output = new EventOutput();
+      try
+      {
+         WorkspaceChangeFeed feed = ctx.getChangeFeed();
+
+         // registered before subscribing, so that a stream closed by the client or by
+         // the server stopping in the meantime also ends its subscription
+         ChangeStream stream = new ChangeStream(ctx, output);
+         stream.open();
+         try
+         {
+            stream.attach(feed.subscribe(after, emptyToNull(scope), emptyToNull(wsId), stream));
+         }
+         catch (RuntimeException ex)
+         {
+            stream.close();
+            throw ex;
+         }
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+
+      return output;
+   }
+
+   /**
+    * Ends the open change streams of an application context. Called when the server is
+    * shutting down so that long-lived connections do not hold up its shutdown.
+    */
+   public static void closeAll(VwiseApplicationContext ctx)
+   {
+      openStreams.stream()
+            .filter(stream -> stream.ctx == ctx)
+            .forEach(ChangeStream::close);
+   }
+
+   private static long parsePosition(String position)
+   {
+      if (position == null || position.trim().isEmpty())
+         return WorkspaceChangeFeed.LATEST;
+
+      try
+      {
+         return Long.parseLong(position.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         throw raise(Status.BAD_REQUEST, format("Invalid change sequence number [{0}]", position), Level.FINE, null);
+      }
+   }
+
+   private static String emptyToNull(String value)
+   {
+      return value == null || value.trim().isEmpty() ? null : value.trim();
+   }
+
+   /**
+    * Writes changes from a subscription to an event stream and ends the subscription once
+    * the client disconnects. Events are queued by the subscription's dispatcher and
+    * written by a writer thread, which is only held while the stream has a backlog.
+    */
+   private static class ChangeStream implements WorkspaceChangeListener
+   {
+      private final VwiseApplicationContext ctx;
+      private final EventOutput output;
+
+      private final BlockingQueue<OutboundEvent> backlog = new ArrayBlockingQueue<>(STREAM_BACKLOG);
+      private final AtomicBoolean draining = new AtomicBoolean(false);
+
+      private volatile AutoCloseable subscription;
+      private volatile ScheduledFuture<?> heartbeat;
+      private volatile boolean closed = false;
+
+      ChangeStream(VwiseApplicationContext ctx, EventOutput output)
+      {
+         this.ctx = ctx;
+         this.output = output;
+      }
+
+      void open()
+      {
+         openStreams.add(this);
+         this.heartbeat = heartbeats.scheduleWithFixedDelay(this::sendHeartbeat,
+               HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+      }
+
+      void attach(AutoCloseable subscription)
+      {
+         this.subscription = subscription;
+
+         // the stream may have been closed while subscribing
+         if (closed)
+            closeSubscription();
+      }
+
+      @Override
+      public void onChange(WorkspaceChange change)
+      {
+         OutboundEvent event = new OutboundEvent.Builder()
+               .id(String.valueOf(change.sequence))
+               .mediaType(MediaType.APPLICATION_JSON_TYPE)
+               .data(WorkspaceChange.class, change)
+               .build();
+         enqueue(event);
+      }
+
+      private void sendHeartbeat()
+      {
+         enqueue(new OutboundEvent.Builder().comment("heartbeat").build());
+      }
+
+      private void enqueue(OutboundEvent event)
+      {
+         if (closed)
+            return;
+
+         if (!backlog.offer(event))
+         {
+            overflowed();
+            return;
+         }
+
+         if (draining.compareAndSet(false, true))
+            writers.execute(this::drain);
+      }
+
+      private void drain()
+      {
+         try
+         {
+            OutboundEvent event;
+            while (!closed && (event = backlog.poll()) != null)
+               write(event);
+         }
+         finally
+         {
+            draining.set(false);
+         }
+
+         // an event may have been queued after the last poll but before the flag was cleared
+         if (!closed && !backlog.isEmpty() && draining.compareAndSet(false, true))
+            writers.execute(this::drain);
+      }
+
+      /**
+       * Ends a stream whose client does not keep up with its changes. The client resumes
+       * from the last event it received once it reconnects.
+       */
+      private void overflowed()
+      {
+         logger.info(() -> format("Closing a change feed stream that fell more than {0,number,#} events behind.",
+               Integer.valueOf(STREAM_BACKLOG)));
+
+         // stop delivery here; the output is closed by a writer since a write to it may block
+         closed = true;
+         openStreams.remove(this);
+         cancelHeartbeat();
+         closeSubscription();
+         backlog.clear();
+         writers.execute(this::close);
+      }
+
+      private void write(OutboundEvent event)
+      {
+         if (output.isClosed())
+         {
+            close();
+            return;
+         }
+
+         try
+         {
+            output.write(event);
+         }
+         catch (IOException ex)
+         {
+            logger.fine(() -> format("Change feed client disconnected: {0}", ex.getMessage()));
+            close();
+         }
+      }
+
+      private void close()
+      {
+         closed = true;
+         openStreams.remove(this);
+         cancelHeartbeat();
+         closeSubscription();
+         try
+         {
+            output.close();
+         }
+         catch (Exception ex)
+         {
+            logger.log(Level.FINE, "Failed to close change feed stream", ex);
+         }
+      }
+
+      private void cancelHeartbeat()
+      {
+         ScheduledFuture<?> hb = heartbeat;
+         if (hb != null)
+            hb.cancel(false);
+      }
+
+      private void closeSubscription()
+      {
+         try
+         {
+            AutoCloseable sub = subscription;
+            if (sub != null)
+               sub.close();
+         }
+         catch (Exception ex)
+         {
+            logger.log(Level.FINE, "Failed to close change feed subscription", ex);
+         }
+      }
+   }
+}
@@ -0,0 +1,130 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static java.text.MessageFormat.format;
+
+import java.net.URI;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.ext.Provider;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.replica.ReplicaApplicationContext;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+
+/**
+ * Supports read-your-writes consistency in replicated deployments.
+ *
+ * <p>Successful changes are answered with the sequence number of the most recent change
+ * published to the repository's change feed, which includes the change, in the
+ * {@code X-Commit-Sequence} header. Replicas apply changes with the same sequence numbers.
+ *
+ * <p>Changes that supply an {@code X-Client-Id} header are answered without the header.
+ * Such updates may be coalesced with later updates from the same client and held pending
+ * rather than committed, so no commit sequence number yet includes them. Clients that
+ * need to read them from a replica should flush the workspace; the response to the flush
+ * carries a sequence number that includes the pending update.
+ *
+ * <p>On a replica, reads that supply an {@code X-Min-Commit-Sequence} header wait until
+ * the replica has applied that change, and are answered {@code 503 Service Unavailable}
+ * if it does not do so within its configured wait. Changes sent to a replica are
+ * redirected to its leader.
+ */
+@Provider
+public class ReplicationFilter implements ContainerRequestFilter, ContainerResponseFilter
+{
+   public static final String MIN_SEQUENCE_HEADER = "X-Min-Commit-Sequence";
+
+   /** Suggested delay, in seconds, before retrying a read the replica could not serve. */
+   private static final String RETRY_AFTER_SECONDS = "1";
+
+   @Context
+   private Configuration config;
+
+   private static boolean isRead(String method)
+   {
+      return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method);
+   }
+
+   @Override
+   public void filter(ContainerRequestContext request)
+   {
+      VwiseApplicationContext ctx = GrizzlyServerMain.getVwiseContext(config);
+      if (!(ctx instanceof ReplicaApplicationContext))
+         return;
+
+      ReplicaApplicationContext replica = (ReplicaApplicationContext)ctx;
+      if (!isRead(request.getMethod()))
+      {
+         URI location = UriBuilder.fromUri(replica.getLeader())
+               .path(request.getUriInfo().getPath(false))
+               .replaceQuery(request.getUriInfo().getRequestUri().getRawQuery())
+               .build();
+         request.abortWith(Response.temporaryRedirect(location).build());
+         return;
+      }
+
+      String required = request.getHeaderString(MIN_SEQUENCE_HEADER);
+      if (required == null)
+         return;
+
+      long sequence;
+      try
+      {
+         sequence = Long.parseLong(required.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         request.abortWith(Response.status(Status.BAD_REQUEST)
+               .type(MediaType.TEXT_PLAIN)
+               .entity(format("Invalid {0} [{1}]. Expected a commit sequence number.", MIN_SEQUENCE_HEADER, required))
+               .build());
+         return;
+      }
+
+      try
+      {
+         if (replica.awaitSequence(sequence))
+            return;
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      request.abortWith(Response.status(Status.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+            .type(MediaType.TEXT_PLAIN)
+            .entity(format("This replica has not yet applied change {0,number,#}.", Long.valueOf(sequence)))
+            .build());
+   }
+
+   @Override
+   public void filter(ContainerRequestContext request, ContainerResponseContext response)
+   {
+      if (isRead(request.getMethod()) || response.getStatusInfo().getFamily() != Status.Family.SUCCESSFUL)
+         return;
+
+      // coalesced updates may be pending, and are not included by the latest commit
+      String clientId = request.getHeaderString(WorkspaceResource.CLIENT_ID_HEADER);
+      if (clientId != null && !clientId.trim().isEmpty())
+         return;
+
+      // repositories without a local change log, such as remote shards, have no single sequence
+      WorkspaceChangeFeed feed = GrizzlyServerMain.getVwiseContext(config).getChangeFeed();
+      if (feed instanceof ChangeLog)
+         response.getHeaders().putSingle(WorkspaceCollectionResource.COMMIT_SEQUENCE_HEADER, Long.valueOf(((ChangeLog)feed).getLatestSequence()));
+   }
+}
@@ -0,0 +1,46 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static edu.tamu.tcat.vwise.internal.ApiUtils.raise;
+
+import java.util.logging.Level;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.impl.replica.ReplicaApplicationContext;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.ReplicationStatus;
+
+/**
+ * Reports the progress of a replica in applying the changes of its leader.
+ */
+@Path("replication")
+public class ReplicationResource
+{
+   public final VwiseApplicationContext ctx;
+
+   public ReplicationResource(@Context Configuration config)
+   {
+      this.ctx = GrizzlyServerMain.getVwiseContext(config);
+   }
+
+   /**
+    * @return The status of this replica. Servers that are not replicas respond with
+    *       {@code 404 Not Found}.
+    */
+   @GET
+   @Produces(MediaType.APPLICATION_JSON)
+   public ReplicationStatus getStatus()
+   {
+      if (!(ctx instanceof ReplicaApplicationContext))
+         throw raise(Status.NOT_FOUND, "This server is not a replica.", Level.FINE, null);
+
+      return ((ReplicaApplicationContext)ctx).getStatus();
+   }
+}
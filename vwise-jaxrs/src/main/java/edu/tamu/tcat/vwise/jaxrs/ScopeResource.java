@@ -0,0 +1,92 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static edu.tamu.tcat.vwise.internal.ApiUtils.raise;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
+
+import edu.tamu.tcat.vwise.VwiseApplicationContext;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Provides access to workspaces by scope.
+ */
+@Path("scopes")
+public class ScopeResource
+{
+   public final VwiseApplicationContext ctx;
+
+   public ScopeResource(@Context Configuration config)
+   {
+      this.ctx = GrizzlyServerMain.getVwiseContext(config);
+   }
+
+   /**
+    * Lists the scopes that contain workspaces.
+    */
+   @GET
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<ScopeSummary> listScopes()
+   {
+      try
+      {
+         return new ArrayList<>(ctx.getRepository().listScopes());
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+
+   /**
+    * Summarizes the workspaces within a scope. Unknown scopes have no workspaces.
+    *
+    * @param scope The scope.
+    */
+   @GET
+   @Path("{scope}")
+   @Produces(MediaType.APPLICATION_JSON)
+   public ScopeSummary getScope(@PathParam("scope") String scope)
+   {
+      try
+      {
+         return ctx.getRepository().getScopeSummary(scope);
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+
+   /**
+    * Lists the workspaces within a scope that have not been deleted.
+    *
+    * @param scope The scope.
+    */
+   @GET
+   @Path("{scope}/workspaces")
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<WorkspaceMeta> listWorkspaces(@PathParam("scope") String scope)
+   {
+      try
+      {
+         return new ArrayList<>(ctx.getRepository().listScope(scope));
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+}
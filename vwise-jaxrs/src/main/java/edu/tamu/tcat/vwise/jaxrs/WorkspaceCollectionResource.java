@@ -3,49 +3,262 @@ package edu.tamu.tcat.vwise.jaxrs;
 import static edu.tamu.tcat.vwise.internal.ApiUtils.raise;
 import static java.text.MessageFormat.format;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.tamu.tcat.vwise.RepositorySnapshot;
 import edu.tamu.tcat.vwise.UnauthorizedActionException;
 import edu.tamu.tcat.vwise.VwiseApplicationContext;
 import edu.tamu.tcat.vwise.WorkspaceRepository;
 import edu.tamu.tcat.vwise.internal.ApiUtils;
 import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.SearchHit;
 import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
 
 @Path("workspaces")
 public class WorkspaceCollectionResource
 {
+   /** Response header that identifies the repository state from which a listing was read. */
+   public static final String COMMIT_SEQUENCE_HEADER = "X-Commit-Sequence";
+
+   /** Response header that holds the cursor for the next page of query results. */
+   public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+   /** Response header that describes how a query was executed. */
+   public static final String QUERY_PLAN_HEADER = "X-Query-Plan";
+
+   /** The maximum number of search results that may be requested. */
+   public static final int MAX_SEARCH_RESULTS = 100;
+
+   /** The maximum number of suggestions that may be requested. */
+   public static final int MAX_SUGGESTIONS = 50;
+
    public final VwiseApplicationContext ctx;
 
-   public WorkspaceCollectionResource()
+   public WorkspaceCollectionResource(@Context Configuration config)
    {
-      // HACK this should be set up via dependency injection
-      this.ctx = GrizzlyServerMain.getInstance().getVwiseContext();
+      this.ctx = GrizzlyServerMain.getVwiseContext(config);
    }
 
    /**
-    * Lists all defined workspaces.
+    * Lists all defined workspaces, the identified workspaces, or the workspaces that match
+    * the supplied query criteria.
+    *
+    * <p>Workspaces listed in full or by id are read from a single consistent snapshot of the
+    * repository, identified by the {@value #COMMIT_SEQUENCE_HEADER} response header. Queries
+    * read the most recently committed state of each workspace. If further matches remain,
+    * the cursor for the following page is returned in the {@value #NEXT_CURSOR_HEADER}
+    * response header.
+    *
+    * @param ids The ids of the workspaces to return. Unknown ids are ignored. May not be
+    *       combined with query criteria.
+    * @param scope Matches workspaces in this scope.
+    * @param scopePrefix Matches workspaces whose scope starts with this value.
+    * @param keyPrefix Matches workspaces whose key starts with this value.
+    * @param name Matches workspaces whose name contains this value, ignoring case.
+    * @param removed One of {@code exclude} (the default), {@code include} or {@code only}.
+    * @param sort One of {@code id} (the default), {@code name}, {@code key} or {@code modified}.
+    * @param order One of {@code asc} (the default) or {@code desc}.
+    * @param offset The number of matching workspaces to skip.
+    * @param limit The maximum number of workspaces to return.
+    * @param cursor The {@value #NEXT_CURSOR_HEADER} value returned with the previous page.
     */
    @GET
    @Produces(MediaType.APPLICATION_JSON)
-   public Collection<WorkspaceMeta> listWorkspaces()
+   public Response listWorkspaces(@QueryParam("id") List<String> ids,
+                                  @QueryParam("scope") String scope,
+                                  @QueryParam("scopePrefix") String scopePrefix,
+                                  @QueryParam("keyPrefix") String keyPrefix,
+                                  @QueryParam("name") String name,
+                                  @QueryParam("removed") String removed,
+                                  @QueryParam("sort") String sort,
+                                  @QueryParam("order") String order,
+                                  @QueryParam("offset") Integer offset,
+                                  @QueryParam("limit") Integer limit,
+                                  @QueryParam("cursor") String cursor)
+   {
+      boolean hasIds = ids != null && !ids.isEmpty();
+      boolean isQuery = scope != null || scopePrefix != null || keyPrefix != null || name != null
+            || removed != null || sort != null || order != null
+            || offset != null || limit != null || cursor != null;
+
+      if (hasIds && isQuery)
+         throw raise(Status.BAD_REQUEST, "The 'id' query parameter may not be combined with query criteria.", Level.FINE, null);
+
+      if (isQuery)
+         return query(buildQuery(scope, scopePrefix, keyPrefix, name, removed, sort, order, offset, limit, cursor));
+
+      WorkspaceRepository repository = ctx.getRepository();
+      try (RepositorySnapshot snapshot = repository.snapshot())
+      {
+         Collection<WorkspaceMeta> workspaces = hasIds
+               ? snapshot.getAll(ids).values()
+               : snapshot.listAll();
+
+         GenericEntity<List<WorkspaceMeta>> entity = new GenericEntity<List<WorkspaceMeta>>(new ArrayList<>(workspaces)) {};
+         return Response.ok(entity)
+               .header(COMMIT_SEQUENCE_HEADER, Long.valueOf(snapshot.getSequence()))
+               .build();
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+
+   private Response query(WorkspaceQuery query)
    {
+      WorkspaceQueryResult result;
       try
       {
-         WorkspaceRepository repository = ctx.getRepository();
-         return repository.listAll();
+         result = ctx.getRepository().query(query);
+      }
+      catch (IllegalArgumentException ex)
+      {
+         throw raise(Status.BAD_REQUEST, ex.getMessage(), Level.FINE, null);
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+
+      GenericEntity<List<WorkspaceMeta>> entity = new GenericEntity<List<WorkspaceMeta>>(result.workspaces) {};
+      return Response.ok(entity)
+            .header(NEXT_CURSOR_HEADER, result.next)
+            .header(QUERY_PLAN_HEADER, result.plan)
+            .build();
+   }
+
+   private static WorkspaceQuery buildQuery(String scope, String scopePrefix, String keyPrefix, String name,
+                                            String removed, String sort, String order,
+                                            Integer offset, Integer limit, String cursor)
+   {
+      WorkspaceQuery query = new WorkspaceQuery();
+      query.scope = scope;
+      query.scopePrefix = scopePrefix;
+      query.keyPrefix = keyPrefix;
+      query.nameContains = name;
+      query.cursor = emptyToNull(cursor);
+
+      if (removed != null)
+         query.removed = parseEnum(WorkspaceQuery.Removed.class, "removed", removed);
+      if (sort != null)
+         query.sort = parseEnum(WorkspaceQuery.SortField.class, "sort", sort);
+      if (order != null)
+      {
+         if (!order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc"))
+            throw raise(Status.BAD_REQUEST, format("Invalid order [{0}]. Expected ''asc'' or ''desc''.", order), Level.FINE, null);
+         query.descending = order.equalsIgnoreCase("desc");
+      }
+
+      if (offset != null)
+      {
+         if (offset.intValue() < 0)
+            throw raise(Status.BAD_REQUEST, format("The offset must not be negative [{0,number,#}]", offset), Level.FINE, null);
+         query.offset = offset.intValue();
+      }
+
+      if (limit != null)
+      {
+         if (limit.intValue() <= 0)
+            throw raise(Status.BAD_REQUEST, format("The page size must be positive [{0}]", limit), Level.FINE, null);
+         query.limit = limit.intValue();
+      }
+
+      return query;
+   }
+
+   private static <E extends Enum<E>> E parseEnum(Class<E> type, String param, String value)
+   {
+      try
+      {
+         return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+      }
+      catch (IllegalArgumentException ex)
+      {
+         throw raise(Status.BAD_REQUEST, format("Invalid value [{0}] for the ''{1}'' query parameter.", value, param), Level.FINE, null);
+      }
+   }
+
+   private static String emptyToNull(String value)
+   {
+      return value == null || value.trim().isEmpty() ? null : value.trim();
+   }
+
+   /**
+    * Finds the workspaces whose name or description contains every word of the supplied
+    * text, most relevant first. Deleted workspaces are not returned.
+    *
+    * @param q The words to search for.
+    * @param limit The maximum number of workspaces to return.
+    */
+   @GET
+   @Path("search")
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<SearchHit> search(@QueryParam("q") String q,
+                                 @QueryParam("limit") @DefaultValue("20") int limit)
+   {
+      if (q == null)
+         throw raise(Status.BAD_REQUEST, "The 'q' query parameter is required.", Level.FINE, null);
+      if (limit <= 0)
+         throw raise(Status.BAD_REQUEST, format("The page size must be positive [{0}]", Integer.valueOf(limit)), Level.FINE, null);
+
+      try
+      {
+         return ctx.getRepository().search(q, Math.min(limit, MAX_SEARCH_RESULTS));
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, "Unexpected server error: " + ex.getMessage(), Level.SEVERE, ex);
+      }
+   }
+
+   /**
+    * Completes a partially typed workspace key or name. A workspace matches if its key, its
+    * name, or any word of its name starts with the supplied prefix, ignoring case. Deleted
+    * workspaces are not returned.
+    *
+    * @param prefix The typed text.
+    * @param scope Restricts suggestions to this scope.
+    * @param limit The maximum number of workspaces to return.
+    */
+   @GET
+   @Path("suggest")
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<WorkspaceMeta> suggest(@QueryParam("prefix") String prefix,
+                                      @QueryParam("scope") String scope,
+                                      @QueryParam("limit") @DefaultValue("10") int limit)
+   {
+      if (prefix == null)
+         throw raise(Status.BAD_REQUEST, "The 'prefix' query parameter is required.", Level.FINE, null);
+      if (limit <= 0)
+         throw raise(Status.BAD_REQUEST, format("The page size must be positive [{0}]", Integer.valueOf(limit)), Level.FINE, null);
+
+      try
+      {
+         return ctx.getRepository().suggest(prefix, scope, Math.min(limit, MAX_SUGGESTIONS));
       }
       catch (Exception ex)
       {
@@ -3,26 +3,43 @@ package edu.tamu.tcat.vwise.jaxrs;
 import static edu.tamu.tcat.vwise.internal.ApiUtils.raise;
 import static java.text.MessageFormat.format;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
 import edu.tamu.tcat.vwise.UnauthorizedActionException;
 import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.model.VersionPage;
 import edu.tamu.tcat.vwise.model.WorkspaceMeta;
 
 public class WorkspaceResource
 {
+   /** Identifies the client making an update so that successive updates may be coalesced. */
+   public static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+   private static final int IMMUTABLE_MAX_AGE = (int)TimeUnit.DAYS.toSeconds(365);
+   private static final int MAX_PAGE_SIZE = 1000;
 
    private final WorkspaceRepository repo;
    private final String wsId;
@@ -33,16 +50,40 @@ public class WorkspaceResource
       this.wsId = wsId;
    }
 
+   /**
+    * Retrieves the latest or a specific version of the workspace. The version of the
+    * returned workspace is supplied as its entity tag. Clients may send a cached version
+    * using {@code If-None-Match} and will receive {@code 304 Not Modified} if it is still
+    * current.
+    *
+    * @param version The version to retrieve. If the version does not exist, the closest
+    *       preceding version is returned. Versions of updates that were coalesced return
+    *       the version they were coalesced into.
+    * @param asOf Retrieves the version that was current at the supplied time, given either
+    *       as milliseconds since the epoch or as an ISO-8601 instant. May not be combined
+    *       with {@code version}.
+    */
    @GET
    @Produces(MediaType.APPLICATION_JSON)
-   public WorkspaceMeta getWorkspace(@QueryParam("v") @DefaultValue("") String version)
+   public Response getWorkspace(@QueryParam("v") @DefaultValue("") String version,
+                                @QueryParam("asOf") @DefaultValue("") String asOf,
+                                @Context Request request)
    {
+      boolean latest = version.trim().isEmpty();
+      boolean historical = !asOf.trim().isEmpty();
+      if (!latest && historical)
+         throw raise(Status.BAD_REQUEST, "The 'v' and 'asOf' query parameters may not be combined.", Level.FINE, null);
+
+      long timestamp = historical ? parseTime(asOf) : 0;
       Optional<WorkspaceMeta> result;
       try
       {
-         result = version == null || version.trim().isEmpty()
-               ? repo.get(wsId)
-               : repo.get(wsId, version);
+         if (historical)
+            result = repo.getAsOf(wsId, timestamp);
+         else if (latest)
+            result = repo.get(wsId);
+         else
+            result = repo.get(wsId, version);
       }
       catch (UnauthorizedActionException uae)
       {
@@ -54,17 +95,122 @@ public class WorkspaceResource
       }
 
       String notFoundMsg = "No workspace available for [id: {0}]";
-      return result.orElseThrow(
+      WorkspaceMeta meta = result.orElseThrow(
             () -> raise(Status.NOT_FOUND, format(notFoundMsg, wsId), Level.FINE, null));
+
+      // the latest version must always be revalidated, requested versions never change once
+      // they have been superseded. Until then, further updates may be coalesced into them
+      CacheControl cacheControl = new CacheControl();
+      if (latest || !version.equals(meta.version) || isLatest(meta))
+         cacheControl.setNoCache(true);
+      else
+         cacheControl.setMaxAge(IMMUTABLE_MAX_AGE);
+
+      EntityTag etag = new EntityTag(meta.version);
+      ResponseBuilder builder = request.evaluatePreconditions(etag);
+      if (builder == null)
+         builder = Response.ok(meta);
+
+      return builder.tag(etag).cacheControl(cacheControl).build();
+   }
+
+   private boolean isLatest(WorkspaceMeta meta)
+   {
+      return repo.get(wsId).map(current -> current.version.equals(meta.version)).orElse(Boolean.FALSE).booleanValue();
+   }
+
+   private static long parseTime(String value)
+   {
+      String time = value.trim();
+      try
+      {
+         return time.chars().allMatch(Character::isDigit)
+               ? Long.parseLong(time)
+               : Instant.parse(time).toEpochMilli();
+      }
+      catch (NumberFormatException | DateTimeParseException ex)
+      {
+         throw raise(Status.BAD_REQUEST, format("Invalid time [{0}]. Expected milliseconds since the epoch or an ISO-8601 instant.", value), Level.FINE, null);
+      }
    }
 
+   /**
+    * Lists the version history of the workspace, newest first.
+    *
+    * @param from The oldest version to include.
+    * @param to The newest version to include.
+    * @param cursor The {@code next} value returned with the previous page.
+    * @param limit The maximum number of versions to return.
+    */
+   @GET
+   @Path("versions")
+   @Produces(MediaType.APPLICATION_JSON)
+   public VersionPage listVersions(@QueryParam("from") String from,
+                                   @QueryParam("to") String to,
+                                   @QueryParam("cursor") String cursor,
+                                   @QueryParam("limit") @DefaultValue("50") int limit)
+   {
+      if (limit <= 0)
+         throw raise(Status.BAD_REQUEST, format("The page size must be positive [{0}]", Integer.valueOf(limit)), Level.FINE, null);
+
+      Optional<VersionPage> result;
+      try
+      {
+         result = repo.listVersions(wsId, emptyToNull(from), emptyToNull(to), emptyToNull(cursor), Math.min(limit, MAX_PAGE_SIZE));
+      }
+      catch (UnauthorizedActionException uae)
+      {
+         throw forbidden("access", uae);
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, format("Unexpected error attempting to access workspace [id: {0}]", wsId), Level.SEVERE, ex);
+      }
+
+      return result.orElseThrow(
+            () -> raise(Status.NOT_FOUND, format("No workspace available for [id: {0}]", wsId), Level.FINE, null));
+   }
+
+   private static String emptyToNull(String value)
+   {
+      return value == null || value.trim().isEmpty() ? null : value.trim();
+   }
+
+   /**
+    * Updates the workspace.
+    *
+    * @param clientId Identifies the client making the update. If supplied, successive
+    *       updates from the same client may be coalesced into a single version.
+    */
    @PUT
    @Produces(MediaType.APPLICATION_JSON)
-   public WorkspaceMeta update(WorkspaceMeta data)
+   public WorkspaceMeta update(@HeaderParam(CLIENT_ID_HEADER) String clientId, WorkspaceMeta data)
    {
       try
       {
-         return repo.update(data);
+         return repo.update(data, emptyToNull(clientId));
+      }
+      catch (UnauthorizedActionException uae)
+      {
+         throw forbidden("access", uae);
+      }
+      catch (Exception ex)
+      {
+         throw raise(Status.INTERNAL_SERVER_ERROR, format("Unexpected error attempting to access workspace [id: {0}]", wsId), Level.SEVERE, ex);
+      }
+   }
+
+   /**
+    * Commits any coalesced updates to the workspace.
+    */
+   @POST
+   @Path("flush")
+   public Response flush()
+   {
+      try
+      {
+         repo.flush(wsId);
+         return Response.noContent().build();
       }
       catch (UnauthorizedActionException uae)
       {
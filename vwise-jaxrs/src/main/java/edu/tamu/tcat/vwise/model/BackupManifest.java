@@ -0,0 +1,62 @@
+package edu.tamu.tcat.vwise.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes a backup of a repository's data files.
+ */
+public class BackupManifest
+{
+   /**
+    * A file held by a backup.
+    */
+   public static class BackupFile
+   {
+      /** The name of the file, relative to the backup directory. */
+      public String name;
+
+      /** The length of the file in bytes. */
+      public long size;
+
+      /** The CRC-32 checksum of the file's content, as eight hexadecimal digits. */
+      public String checksum;
+   }
+
+   /**
+    * Creates a duplicate of the supplied manifest.
+    *
+    * @param orig the manifest to copy.
+    * @return A copy of the supplied manifest.
+    */
+   public static BackupManifest copy(BackupManifest orig)
+   {
+      BackupManifest manifest = new BackupManifest();
+      manifest.id = orig.id;
+      manifest.created = orig.created;
+      manifest.sequence = orig.sequence;
+      manifest.files = new ArrayList<>();
+      for (BackupFile file : orig.files)
+      {
+         BackupFile dup = new BackupFile();
+         dup.name = file.name;
+         dup.size = file.size;
+         dup.checksum = file.checksum;
+         manifest.files.add(dup);
+      }
+
+      return manifest;
+   }
+
+   /** Identifies the backup. The name of the directory that holds it. */
+   public String id;
+
+   /** The time, in milliseconds since the epoch, at which the backup was taken. */
+   public long created;
+
+   /** The commit sequence number of the repository state held by the backup. */
+   public long sequence;
+
+   /** The files held by the backup. */
+   public List<BackupFile> files;
+}
@@ -0,0 +1,80 @@
+package edu.tamu.tcat.vwise.model;
+
+/**
+ * Describes the progress of a replica in applying the changes of its leader.
+ */
+public class ReplicationStatus
+{
+   /**
+    * The state of a replica.
+    */
+   public enum State
+   {
+      /**
+       * The replica has not yet subscribed to the changes of its leader, or is loading
+       * its initial state.
+       */
+      STARTING,
+
+      /** The replica is applying changes as they are published by its leader. */
+      STREAMING,
+
+      /**
+       * The replica missed changes that its leader no longer retains. It continues to
+       * serve its last state but applies no further changes until it is restarted.
+       */
+      DIVERGED,
+
+      /** The replica has been shut down. */
+      STOPPED
+   }
+
+   /**
+    * Creates a duplicate of the supplied status.
+    *
+    * @param orig the status to copy.
+    * @return A copy of the supplied status.
+    */
+   public static ReplicationStatus copy(ReplicationStatus orig)
+   {
+      ReplicationStatus status = new ReplicationStatus();
+      status.leader = orig.leader;
+      status.state = orig.state;
+      status.sequence = orig.sequence;
+      status.received = orig.received;
+      status.lagMillis = orig.lagMillis;
+      status.applyDelayMillis = orig.applyDelayMillis;
+      status.message = orig.message;
+
+      return status;
+   }
+
+   /** The base URI of the leader's REST API. */
+   public String leader;
+
+   /** The state of the replica. */
+   public State state;
+
+   /** The commit sequence number of the leader that the replica has applied. */
+   public long sequence;
+
+   /** The sequence number of the most recent change received from the leader. */
+   public long received;
+
+   /**
+    * The time, in milliseconds, since the leader published the oldest change that the
+    * replica has received but not yet applied. {@code 0} if every received change has been
+    * applied.
+    */
+   public long lagMillis;
+
+   /**
+    * The time, in milliseconds, between the leader publishing the most recently applied
+    * change and the replica applying it. Includes any difference between the clocks of
+    * the two servers.
+    */
+   public long applyDelayMillis;
+
+   /** Describes why the replica diverged. {@code null} in other states. */
+   public String message;
+}
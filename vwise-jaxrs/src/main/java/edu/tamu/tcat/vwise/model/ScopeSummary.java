@@ -0,0 +1,32 @@
+package edu.tamu.tcat.vwise.model;
+
+/**
+ * Summarizes the workspaces within a scope.
+ */
+public class ScopeSummary
+{
+   /**
+    * Creates a duplicate of the supplied summary.
+    *
+    * @param orig the summary to copy.
+    * @return A copy of the supplied summary.
+    */
+   public static ScopeSummary copy(ScopeSummary orig)
+   {
+      ScopeSummary summary = new ScopeSummary();
+      summary.scope = orig.scope;
+      summary.workspaces = orig.workspaces;
+      summary.removed = orig.removed;
+
+      return summary;
+   }
+
+   /** The scope. See {@link WorkspaceMeta#scope}. */
+   public String scope;
+
+   /** The number of workspaces in the scope that have not been deleted. */
+   public int workspaces;
+
+   /** The number of deleted workspaces in the scope whose history is still retained. */
+   public int removed;
+}
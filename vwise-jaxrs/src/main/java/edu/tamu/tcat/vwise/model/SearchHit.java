@@ -0,0 +1,31 @@
+package edu.tamu.tcat.vwise.model;
+
+/**
+ * A workspace that matches a full-text search.
+ */
+public class SearchHit
+{
+   /**
+    * Creates a duplicate of the supplied hit.
+    *
+    * @param orig the hit to copy.
+    * @return A copy of the supplied hit.
+    */
+   public static SearchHit copy(SearchHit orig)
+   {
+      SearchHit hit = new SearchHit();
+      hit.workspace = orig.workspace == null ? null : WorkspaceMeta.copy(orig.workspace);
+      hit.score = orig.score;
+
+      return hit;
+   }
+
+   /** The matching workspace. */
+   public WorkspaceMeta workspace;
+
+   /**
+    * The relevance of the workspace to the search. Higher scores are more relevant. Scores
+    * are comparable only within the results of a single search.
+    */
+   public double score;
+}
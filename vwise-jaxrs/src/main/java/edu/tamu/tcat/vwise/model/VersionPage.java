@@ -0,0 +1,19 @@
+package edu.tamu.tcat.vwise.model;
+
+import java.util.List;
+
+/**
+ * A page of the version history of a workspace, ordered from the newest to the oldest
+ * version.
+ */
+public class VersionPage
+{
+   /** The versions on this page, newest first. */
+   public List<WorkspaceMeta> versions;
+
+   /**
+    * A cursor that may be supplied to retrieve the next (older) page of versions. Will be
+    * {@code null} if this is the last page.
+    */
+   public String next;
+}
@@ -0,0 +1,81 @@
+package edu.tamu.tcat.vwise.model;
+
+/**
+ * Describes a single change to a workspace as published to the workspace change feed.
+ *
+ * Changes are assigned a sequence number that increases monotonically across all
+ * workspaces in a repository. Clients that record the sequence number of the last change
+ * they processed may resume the feed from that point. If the requested changes are no
+ * longer retained, a {@link Type#RESET} change is delivered to indicate that the client
+ * must reload any state it holds.
+ */
+public class WorkspaceChange
+{
+   /**
+    * The type of change.
+    */
+   public enum Type
+   {
+      /** A new workspace was created. */
+      CREATED,
+
+      /** A new version of a workspace was recorded. */
+      UPDATED,
+
+      /** A workspace was deleted. Its history remains available. */
+      REMOVED,
+
+      /** A workspace and all of its history were permanently removed. */
+      PURGED,
+
+      /**
+       * Changes preceding this one are no longer available. Clients should discard any
+       * state derived from the feed and reload it from the repository.
+       */
+      RESET
+   }
+
+   /**
+    * Creates a duplicate of the supplied change.
+    *
+    * @param orig the change to copy.
+    * @return A copy of the supplied change.
+    */
+   public static WorkspaceChange copy(WorkspaceChange orig)
+   {
+      WorkspaceChange change = new WorkspaceChange();
+      change.sequence = orig.sequence;
+      change.type = orig.type;
+      change.timestamp = orig.timestamp;
+      change.id = orig.id;
+      change.version = orig.version;
+      change.scope = orig.scope;
+      change.workspace = orig.workspace == null ? null : WorkspaceMeta.copy(orig.workspace);
+
+      return change;
+   }
+
+   /** The position of this change within the change feed. */
+   public long sequence;
+
+   /** The type of change. */
+   public Type type;
+
+   /** The server time at which the change was made, in milliseconds since the epoch. */
+   public long timestamp;
+
+   /** The id of the changed workspace. Will be {@code null} for {@link Type#RESET}. */
+   public String id;
+
+   /** The version of the workspace produced by this change, if any. */
+   public String version;
+
+   /** The scope of the workspace at the time of the change. */
+   public String scope;
+
+   /**
+    * The state of the workspace following the change. Will be {@code null} for purged
+    * workspaces and {@link Type#RESET}.
+    */
+   public WorkspaceMeta workspace;
+}
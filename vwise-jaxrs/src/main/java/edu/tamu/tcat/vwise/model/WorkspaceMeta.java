@@ -31,6 +31,7 @@ public class WorkspaceMeta
      WorkspaceMeta ws = new WorkspaceMeta();
      ws.id = orig.id;
      ws.version = orig.version;
+     ws.modified = orig.modified;
      ws.scope = orig.scope;
      ws.key = orig.key;
      ws.name = orig.name;
@@ -55,6 +56,12 @@ public class WorkspaceMeta
     */
    public String version;
 
+   /**
+    * The server time at which this version of the workspace was recorded, in milliseconds
+    * since the epoch. Set by the repository; values supplied by clients are ignored.
+    */
+   public long modified;
+
    /**
     * Defines a grouping of workspaces in order to facilitate personal and group-based
     * organization of workspaces and to provide user-friendly workspace URIs. Scope names
@@ -0,0 +1,98 @@
+package edu.tamu.tcat.vwise.model;
+
+/**
+ * Describes a set of workspaces to retrieve from a repository. All supplied criteria must
+ * be satisfied. Criteria that are {@code null} are ignored.
+ */
+public class WorkspaceQuery
+{
+   /**
+    * Determines whether deleted workspaces are returned.
+    */
+   public enum Removed
+   {
+      /** Returns only workspaces that have not been deleted. */
+      EXCLUDE,
+
+      /** Returns workspaces whether or not they have been deleted. */
+      INCLUDE,
+
+      /** Returns only deleted workspaces. */
+      ONLY
+   }
+
+   /**
+    * The fields by which results may be ordered. Workspaces with the same value are
+    * ordered by id.
+    */
+   public enum SortField
+   {
+      /** Orders workspaces by id, which is the order in which they were created. */
+      ID,
+
+      /** Orders workspaces by name, ignoring case. */
+      NAME,
+
+      /** Orders workspaces by key, ignoring case. */
+      KEY,
+
+      /** Orders workspaces by the time their current version was recorded. */
+      MODIFIED
+   }
+
+   /**
+    * Creates a duplicate of the supplied query.
+    *
+    * @param orig the query to copy.
+    * @return A copy of the supplied query.
+    */
+   public static WorkspaceQuery copy(WorkspaceQuery orig)
+   {
+      WorkspaceQuery query = new WorkspaceQuery();
+      query.scope = orig.scope;
+      query.scopePrefix = orig.scopePrefix;
+      query.keyPrefix = orig.keyPrefix;
+      query.nameContains = orig.nameContains;
+      query.removed = orig.removed;
+      query.sort = orig.sort;
+      query.descending = orig.descending;
+      query.offset = orig.offset;
+      query.limit = orig.limit;
+      query.cursor = orig.cursor;
+
+      return query;
+   }
+
+   /** Matches workspaces in this scope. */
+   public String scope;
+
+   /** Matches workspaces whose scope starts with this value. */
+   public String scopePrefix;
+
+   /** Matches workspaces whose key starts with this value. */
+   public String keyPrefix;
+
+   /** Matches workspaces whose name contains this value, ignoring case. */
+   public String nameContains;
+
+   /** Determines whether deleted workspaces are returned. */
+   public Removed removed = Removed.EXCLUDE;
+
+   /** The field by which results are ordered. */
+   public SortField sort = SortField.ID;
+
+   /** Orders results from largest to smallest. */
+   public boolean descending;
+
+   /** The number of matching workspaces to skip. Applied after the cursor. */
+   public int offset;
+
+   /** The maximum number of workspaces to return. If not positive, all are returned. */
+   public int limit;
+
+   /**
+    * The {@link WorkspaceQueryResult#next} value of the previous page of results. The
+    * remaining criteria, including the sort order, must be the same as for that page.
+    */
+   public String cursor;
+}
@@ -0,0 +1,110 @@
+package edu.tamu.tcat.vwise.model;
+
+import static java.text.MessageFormat.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import edu.tamu.tcat.vwise.model.WorkspaceQuery.SortField;
+
+/**
+ * Encodes the {@link WorkspaceQuery#cursor cursors} that repositories return with a page of
+ * query results. A cursor identifies the last workspace of a page by its sort value and id,
+ * so that pages remain stable as workspaces are added or removed.
+ */
+public final class WorkspaceQueryCursor
+{
+   private WorkspaceQueryCursor()
+   {
+   }
+
+   /**
+    * Encodes the position of a workspace in the requested order as its sort value followed
+    * by its id.
+    *
+    * @param last The last workspace of a page.
+    * @param sort The field by which the results are ordered.
+    * @return The cursor of the following page.
+    */
+   public static String encode(WorkspaceMeta last, SortField sort)
+   {
+      String value;
+      switch (sort)
+      {
+         case NAME:
+            value = tag(last.name);
+            break;
+         case KEY:
+            value = tag(last.key);
+            break;
+         case MODIFIED:
+            value = String.valueOf(last.modified);
+            break;
+         case ID:
+         default:
+            value = "";
+      }
+
+      byte[] bytes = (value + "\n" + last.id).getBytes(StandardCharsets.UTF_8);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+   }
+
+   /**
+    * Decodes a cursor into the position it identifies.
+    *
+    * @param cursor A cursor returned by {@link #encode(WorkspaceMeta, SortField)}.
+    * @param sort The field by which the results are ordered.
+    * @return A workspace that holds only the id and the sort value of the position.
+    * @throws IllegalArgumentException If the cursor is invalid.
+    */
+   public static WorkspaceMeta decode(String cursor, SortField sort)
+   {
+      try
+      {
+         String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+         int ix = decoded.lastIndexOf('\n');
+         if (ix < 0)
+            throw new IllegalArgumentException(format("Invalid cursor {0}", cursor));
+
+         String value = decoded.substring(0, ix);
+         WorkspaceMeta position = new WorkspaceMeta();
+         position.id = decoded.substring(ix + 1);
+         switch (sort)
+         {
+            case NAME:
+               position.name = untag(value, cursor);
+               break;
+            case KEY:
+               position.key = untag(value, cursor);
+               break;
+            case MODIFIED:
+               position.modified = Long.parseLong(value);
+               break;
+            case ID:
+            default:
+               break;
+         }
+
+         return position;
+      }
+      catch (RuntimeException ex)
+      {
+         throw new IllegalArgumentException(format("Invalid cursor {0}", cursor), ex);
+      }
+   }
+
+   private static String tag(String value)
+   {
+      return value == null ? "-" : "+" + value;
+   }
+
+   private static String untag(String value, String cursor)
+   {
+      if (value.equals("-"))
+         return null;
+      if (value.startsWith("+"))
+         return value.substring(1);
+
+      throw new IllegalArgumentException(format("Invalid cursor {0}", cursor));
+   }
+}
@@ -0,0 +1,21 @@
+package edu.tamu.tcat.vwise.model;
+
+import java.util.List;
+
+/**
+ * A page of workspaces that match a {@link WorkspaceQuery}.
+ */
+public class WorkspaceQueryResult
+{
+   /** The matching workspaces, in the requested order. */
+   public List<WorkspaceMeta> workspaces;
+
+   /**
+    * A cursor that may be supplied as {@link WorkspaceQuery#cursor} to retrieve the
+    * following page. {@code null} if there are no further matches.
+    */
+   public String next;
+
+   /** Describes how the query was executed. Intended for diagnostics. */
+   public String plan;
+}
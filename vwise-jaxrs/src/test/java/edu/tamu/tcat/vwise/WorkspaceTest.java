@@ -4,15 +4,20 @@ import static java.text.MessageFormat.format;
 import static junit.framework.Assert.assertFalse;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
@@ -20,7 +25,12 @@ import java.util.logging.Logger;
 
 import org.junit.Test;
 
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.VersionPage;
 import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
 
 /**
  *  Performs core functionality testing of workspaces. Intended to be sub-classed
@@ -238,6 +248,37 @@ public abstract class WorkspaceTest
       }
    }
 
+   @Test
+   public void testGetVersionBetweenVersions() throws Exception
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Test Workspace";
+      ws.description = "This is a test workspace.";
+
+      WorkspaceMeta other = new WorkspaceMeta();
+      other.name = "Other Workspace";
+      other.description = "This workspace is created between two versions of the first.";
+
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta created = repo.create(ws);
+
+         // a version id issued between the two versions of the workspace
+         String between = repo.create(other).version;
+
+         created.name = "Updated Workspace";
+         WorkspaceMeta updated = repo.update(created);
+
+         Optional<WorkspaceMeta> opt = repo.get(created.id, between);
+         assertTrue("Should retrieve the workspace using a version between its versions", opt.isPresent());
+         assertEquals("The closest preceding version should be returned", created.version, opt.get().version);
+         assertEquals("The retrieved name should match the original name", ws.name, opt.get().name);
+
+         assertEquals("The latest version should be retrieved using its own version",
+               updated.version, repo.get(created.id, updated.version).get().version);
+      }
+   }
+
    @Test
    public void testRemoveWorkspace() throws Exception
    {
@@ -296,4 +337,343 @@ public abstract class WorkspaceTest
          assertFalse("Should not be able to retrieve the purged workspace using its id and version", opt.isPresent());
       }
    }
+
+   @Test
+   public void testListVersions() throws Exception
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Version 0";
+
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta current = repo.create(ws);
+         List<String> versions = new ArrayList<>(Arrays.asList(current.version));
+         for (int i = 1; i < 5; i++)
+         {
+            current.name = "Version " + i;
+            current = repo.update(current);
+            versions.add(current.version);
+         }
+
+         // pages are returned newest first
+         VersionPage page = repo.listVersions(current.id, null, null, null, 2).get();
+         assertEquals(Arrays.asList(versions.get(4), versions.get(3)), versionsOf(page));
+         assertNotNull("A cursor should be returned when more versions are available", page.next);
+
+         page = repo.listVersions(current.id, null, null, page.next, 2).get();
+         assertEquals(Arrays.asList(versions.get(2), versions.get(1)), versionsOf(page));
+
+         page = repo.listVersions(current.id, null, null, page.next, 2).get();
+         assertEquals(Arrays.asList(versions.get(0)), versionsOf(page));
+         assertEquals("No cursor should be returned for the last page", null, page.next);
+
+         // ranges are inclusive
+         page = repo.listVersions(current.id, versions.get(1), versions.get(3), null, 10).get();
+         assertEquals(Arrays.asList(versions.get(3), versions.get(2), versions.get(1)), versionsOf(page));
+
+         // versions are stamped in order and can be retrieved by time
+         WorkspaceMeta first = repo.get(current.id, versions.get(0)).get();
+         assertTrue("Versions should be stamped with the time they were recorded", first.modified > 0);
+         assertTrue("Timestamps should not decrease", current.modified >= first.modified);
+         assertEquals(current.version, repo.getAsOf(current.id, current.modified).get().version);
+         assertFalse("No version should exist prior to creation", repo.getAsOf(current.id, first.modified - 1).isPresent());
+
+         assertFalse(repo.listVersions("no-such-workspace", null, null, null, 10).isPresent());
+      }
+   }
+
+   @Test
+   public void testClientUpdates() throws Exception
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Autosaved";
+
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta current = repo.create(ws);
+         for (int i = 0; i < 3; i++)
+         {
+            current.name = "Autosaved " + i;
+            current = repo.update(current, "test-client");
+            assertEquals("Updates are visible whether or not they are coalesced", current.name, repo.get(current.id).get().name);
+            assertEquals(current.name, repo.get(current.id, current.version).get().name);
+         }
+
+         repo.flush(current.id);
+
+         WorkspaceMeta latest = repo.get(current.id).get();
+         assertEquals("Autosaved 2", latest.name);
+         assertEquals(current.version, latest.version);
+
+         VersionPage page = repo.listVersions(current.id, null, null, null, 10).get();
+         assertEquals("Flushed updates are recorded in the history", current.version, page.versions.get(0).version);
+      }
+   }
+
+   @Test
+   public void testListScope() throws Exception
+   {
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         List<String> ids = new ArrayList<>();
+         for (int i = 0; i < 3; i++)
+         {
+            WorkspaceMeta ws = new WorkspaceMeta();
+            ws.scope = "~test.scope";
+            ws.key = "workspace-" + i;
+            ids.add(repo.create(ws).id);
+         }
+
+         WorkspaceMeta other = new WorkspaceMeta();
+         other.scope = "@someone-else";
+         repo.create(other);
+         repo.remove(ids.get(1));
+
+         List<String> listed = new ArrayList<>();
+         repo.listScope("~test.scope").forEach(ws -> listed.add(ws.id));
+         assertEquals(Arrays.asList(ids.get(0), ids.get(2)), listed);
+
+         ScopeSummary summary = repo.getScopeSummary("~test.scope");
+         assertEquals("~test.scope", summary.scope);
+         assertEquals(2, summary.workspaces);
+         assertEquals(1, summary.removed);
+
+         assertEquals(0, repo.getScopeSummary("@nobody").workspaces);
+         assertTrue(repo.listScope("@nobody").isEmpty());
+      }
+   }
+
+   @Test
+   public void testQuery() throws Exception
+   {
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         String[] names = { "Delta Notes", "alpha notes", "Charlie", "Bravo Notes" };
+         List<String> ids = new ArrayList<>();
+         for (int i = 0; i < names.length; i++)
+         {
+            WorkspaceMeta ws = new WorkspaceMeta();
+            ws.scope = i % 2 == 0 ? "~query.a" : "~query.b";
+            ws.key = (i < 2 ? "draft-" : "final-") + i;
+            ws.name = names[i];
+            ids.add(repo.create(ws).id);
+         }
+
+         WorkspaceMeta other = new WorkspaceMeta();
+         other.scope = "~other";
+         other.name = "Other Notes";
+         repo.create(other);
+         repo.remove(ids.get(2));
+
+         // pages through a scope in id order
+         WorkspaceQuery query = new WorkspaceQuery();
+         query.scope = "~query.a";
+         query.removed = WorkspaceQuery.Removed.INCLUDE;
+         query.limit = 1;
+         WorkspaceQueryResult page = repo.query(query);
+         assertEquals(Arrays.asList(ids.get(0)), idsOf(page));
+         assertNotNull(page.next);
+
+         query.cursor = page.next;
+         page = repo.query(query);
+         assertEquals(Arrays.asList(ids.get(2)), idsOf(page));
+         assertNull(page.next);
+
+         // removed workspaces are excluded by default
+         query = new WorkspaceQuery();
+         query.scope = "~query.a";
+         assertEquals(Arrays.asList(ids.get(0)), idsOf(repo.query(query)));
+
+         query.removed = WorkspaceQuery.Removed.ONLY;
+         assertEquals(Arrays.asList(ids.get(2)), idsOf(repo.query(query)));
+
+         // combines a scope prefix with name and key criteria
+         query = new WorkspaceQuery();
+         query.scopePrefix = "~query.";
+         query.nameContains = "NOTES";
+         query.sort = WorkspaceQuery.SortField.NAME;
+         assertEquals(Arrays.asList(ids.get(1), ids.get(3), ids.get(0)), idsOf(repo.query(query)));
+
+         query.descending = true;
+         query.offset = 1;
+         assertEquals(Arrays.asList(ids.get(3), ids.get(1)), idsOf(repo.query(query)));
+
+         query = new WorkspaceQuery();
+         query.keyPrefix = "draft-";
+         query.sort = WorkspaceQuery.SortField.KEY;
+         query.descending = true;
+         assertEquals(Arrays.asList(ids.get(1), ids.get(0)), idsOf(repo.query(query)));
+
+         // cursors from a sort on a field other than the id
+         query = new WorkspaceQuery();
+         query.scopePrefix = "~query.";
+         query.sort = WorkspaceQuery.SortField.NAME;
+         query.limit = 2;
+         page = repo.query(query);
+         assertEquals(Arrays.asList(ids.get(1), ids.get(3)), idsOf(page));
+
+         query.cursor = page.next;
+         page = repo.query(query);
+         assertEquals(Arrays.asList(ids.get(0)), idsOf(page));
+         assertNull(page.next);
+
+         query.cursor = "not a cursor";
+         try
+         {
+            repo.query(query);
+            fail("Expected an invalid cursor to be rejected");
+         }
+         catch (IllegalArgumentException ex)
+         {
+            // expected
+         }
+      }
+   }
+
+   @Test
+   public void testSearch() throws Exception
+   {
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Field notes";
+         ws.description = "Observations from the survey of the river delta.";
+         WorkspaceMeta inName = repo.create(ws);
+
+         ws = new WorkspaceMeta();
+         ws.name = "Survey results";
+         ws.description = "Tables compiled from the field notes.";
+         WorkspaceMeta inDescription = repo.create(ws);
+
+         ws = new WorkspaceMeta();
+         ws.name = "Unrelated";
+         ws.description = "Nothing to see here.";
+         WorkspaceMeta unrelated = repo.create(ws);
+
+         List<SearchHit> hits = repo.search("Field, notes!", 10);
+         assertEquals(2, hits.size());
+         assertEquals("Matches in the name rank first", inName.id, hits.get(0).workspace.id);
+         assertEquals(inDescription.id, hits.get(1).workspace.id);
+         assertTrue(hits.get(0).score > hits.get(1).score);
+
+         // every word must match
+         assertTrue(repo.search("field unrelated", 10).isEmpty());
+         assertEquals(1, repo.search("field notes", 1).size());
+
+         // the index follows updates and removals
+         unrelated.description = "Now with field notes.";
+         repo.update(unrelated);
+         assertEquals(3, repo.search("field notes", 10).size());
+
+         repo.remove(inName.id);
+         List<String> ids = new ArrayList<>();
+         repo.search("notes", 10).forEach(hit -> ids.add(hit.workspace.id));
+         assertEquals(new HashSet<>(Arrays.asList(inDescription.id, unrelated.id)), new HashSet<>(ids));
+      }
+   }
+
+   @Test
+   public void testSuggest() throws Exception
+   {
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.scope = "~suggest.a";
+         ws.key = "river-survey";
+         ws.name = "Delta Field Notes";
+         WorkspaceMeta notes = repo.create(ws);
+
+         ws = new WorkspaceMeta();
+         ws.scope = "~suggest.b";
+         ws.key = "notebook";
+         ws.name = "Scratch";
+         WorkspaceMeta notebook = repo.create(ws);
+
+         ws = new WorkspaceMeta();
+         ws.scope = "~suggest.a";
+         ws.key = "riverbank";
+         ws.name = "Riverbank";
+         WorkspaceMeta riverbank = repo.create(ws);
+
+         // keys, names and later words of names, ordered by the matching text
+         assertEquals(Arrays.asList(notebook.id, notes.id), idsOf(repo.suggest("NOTE", null, 10)));
+         assertEquals(Arrays.asList(notes.id), idsOf(repo.suggest("fie", null, 10)));
+         assertEquals(Arrays.asList(notes.id, riverbank.id), idsOf(repo.suggest("river", null, 10)));
+         assertEquals(Arrays.asList(notes.id), idsOf(repo.suggest("river", null, 1)));
+
+         assertEquals(Arrays.asList(notes.id), idsOf(repo.suggest("note", "~suggest.a", 10)));
+         assertTrue(repo.suggest("note", "~suggest.none", 10).isEmpty());
+
+         // suggestions follow updates and removals
+         notebook.key = "journal";
+         notebook.scope = "~suggest.a";
+         repo.update(notebook);
+         assertEquals(Arrays.asList(notebook.id), idsOf(repo.suggest("jour", "~suggest.a", 10)));
+         assertEquals(Arrays.asList(notes.id), idsOf(repo.suggest("note", null, 10)));
+
+         repo.remove(riverbank.id);
+         assertEquals(Arrays.asList(notes.id), idsOf(repo.suggest("river", null, 10)));
+      }
+   }
+
+   private static List<String> idsOf(Collection<WorkspaceMeta> workspaces)
+   {
+      List<String> ids = new ArrayList<>();
+      workspaces.forEach(ws -> ids.add(ws.id));
+      return ids;
+   }
+
+   private static List<String> idsOf(WorkspaceQueryResult result)
+   {
+      List<String> ids = new ArrayList<>();
+      result.workspaces.forEach(ws -> ids.add(ws.id));
+      return ids;
+   }
+
+   @Test
+   public void testSnapshot() throws Exception
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Snapshot A";
+
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta a = repo.create(ws);
+         ws.name = "Snapshot B";
+         WorkspaceMeta b = repo.create(ws);
+
+         try (RepositorySnapshot snapshot = repo.snapshot())
+         {
+            // changes made after the snapshot was taken are not visible to it
+            WorkspaceMeta modified = WorkspaceMeta.copy(a);
+            modified.name = "Snapshot A (modified)";
+            repo.update(modified);
+            repo.purge(b.id);
+            ws.name = "Snapshot C";
+            WorkspaceMeta c = repo.create(ws);
+
+            assertEquals("Snapshot A", snapshot.get(a.id).get().name);
+            assertTrue("Purged workspaces remain visible to earlier snapshots", snapshot.get(b.id).isPresent());
+            assertFalse("Later workspaces are not visible", snapshot.get(c.id).isPresent());
+
+            HashSet<String> ids = new HashSet<>();
+            snapshot.listAll().forEach(meta -> ids.add(meta.id));
+            assertTrue(ids.contains(a.id) && ids.contains(b.id));
+            assertFalse(ids.contains(c.id));
+
+            assertEquals(2, snapshot.getAll(Arrays.asList(a.id, b.id, c.id)).size());
+
+            // the repository reflects the latest state
+            assertEquals(modified.name, repo.get(a.id).get().name);
+            assertFalse(repo.get(b.id).isPresent());
+         }
+      }
+   }
+
+   private static List<String> versionsOf(VersionPage page)
+   {
+      List<String> versions = new ArrayList<>();
+      page.versions.forEach(v -> versions.add(v.version));
+      return versions;
+   }
 }
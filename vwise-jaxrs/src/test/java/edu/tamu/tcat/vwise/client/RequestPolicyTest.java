@@ -0,0 +1,149 @@
+package edu.tamu.tcat.vwise.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.client.RequestPolicy.Mode;
+import edu.tamu.tcat.vwise.client.RequestPolicy.PolicyStats;
+
+public class RequestPolicyTest
+{
+   private static Properties config()
+   {
+      Properties cfg = new Properties();
+      cfg.setProperty(RequestPolicy.PROP_BACKOFF_BASE, "1");
+      cfg.setProperty(RequestPolicy.PROP_BACKOFF_MAX, "5");
+      return cfg;
+   }
+
+   @Test
+   public void testRetriesTransientFailures()
+   {
+      AtomicInteger attempts = new AtomicInteger();
+      try (RequestPolicy policy = new RequestPolicy(config()))
+      {
+         int status = policy.execute("test", Mode.RETRY, () -> {
+               if (attempts.incrementAndGet() == 1)
+                  throw new ProcessingException("connection reset");
+               return Response.status(attempts.get() == 2 ? 503 : 200).build();
+            },
+            Response::getStatus).intValue();
+
+         assertEquals("The request should eventually succeed", 200, status);
+         assertEquals("The request should have been attempted three times", 3, attempts.get());
+         assertEquals(2, policy.getStats().retries);
+      }
+   }
+
+   @Test
+   public void testDoesNotRetryUnsafeRequests()
+   {
+      AtomicInteger attempts = new AtomicInteger();
+      try (RequestPolicy policy = new RequestPolicy(config()))
+      {
+         int status = policy.execute("test", Mode.ONCE, () -> {
+               attempts.incrementAndGet();
+               return Response.status(503).build();
+            },
+            Response::getStatus).intValue();
+
+         assertEquals("The transient status should be returned to the caller", 503, status);
+         assertEquals("The request should not have been repeated", 1, attempts.get());
+      }
+   }
+
+   @Test
+   public void testHonorsRetryAfter()
+   {
+      AtomicInteger attempts = new AtomicInteger();
+      try (RequestPolicy policy = new RequestPolicy(config()))
+      {
+         long start = System.nanoTime();
+         int status = policy.execute("test", Mode.ONCE, () -> attempts.incrementAndGet() == 1
+                  ? Response.status(503).header(HttpHeaders.RETRY_AFTER, "1").build()
+                  : Response.ok().build(),
+            Response::getStatus).intValue();
+         long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+         assertEquals("A rejected request should be repeated even if it is not idempotent", 200, status);
+         assertEquals(2, attempts.get());
+         assertTrue("The client should wait as long as the server asked", elapsed >= 1000);
+         assertEquals(1, policy.getStats().throttled);
+      }
+   }
+
+   @Test
+   public void testRetryBudgetLimitsRetries()
+   {
+      Properties cfg = config();
+      cfg.setProperty(RequestPolicy.PROP_BUDGET_RATIO, "0");
+      cfg.setProperty(RequestPolicy.PROP_BUDGET_MIN, "2");
+
+      AtomicInteger attempts = new AtomicInteger();
+      try (RequestPolicy policy = new RequestPolicy(cfg))
+      {
+         for (int i = 0; i < 5; i++)
+         {
+            policy.execute("test", Mode.RETRY, () -> {
+                  attempts.incrementAndGet();
+                  return Response.status(503).build();
+               },
+               Response::getStatus);
+         }
+
+         PolicyStats stats = policy.getStats();
+         assertEquals("Only the reserved retries should have been made", 2, stats.retries);
+         assertEquals(7, attempts.get());
+      }
+   }
+
+   @Test
+   public void testHedgesSlowReads()
+   {
+      Properties cfg = config();
+      cfg.setProperty(RequestPolicy.PROP_HEDGE_ENABLED, "true");
+      cfg.setProperty(RequestPolicy.PROP_HEDGE_MIN_DELAY, "20");
+
+      AtomicInteger attempts = new AtomicInteger();
+      try (RequestPolicy policy = new RequestPolicy(cfg))
+      {
+         // reads are only hedged once enough latencies have been observed
+         for (int i = 0; i < 20; i++)
+            policy.execute("test", Mode.HEDGE, () -> Response.ok().build(), Response::getStatus);
+
+         String result = policy.execute("test", Mode.HEDGE, () -> {
+               int attempt = attempts.incrementAndGet();
+               if (attempt == 1)
+                  sleep(2000);
+               return Response.ok("attempt " + attempt).build();
+            },
+            resp -> (String)resp.getEntity());
+
+         assertEquals("The hedged request should win", "attempt 2", result);
+         assertEquals(1, policy.getStats().hedges);
+         assertEquals(1, policy.getStats().hedgeWins);
+      }
+   }
+
+   private static void sleep(long millis)
+   {
+      try
+      {
+         Thread.sleep(millis);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
@@ -0,0 +1,164 @@
+package edu.tamu.tcat.vwise.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Compares throughput and latency of the REST client using Jersey's default
+ * HttpURLConnection connector and the pooled keep-alive connector under high concurrency.
+ *
+ * <p>Not run as part of the unit tests. To run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.tamu.tcat.vwise.client.RestClientBenchmark \
+ *       -Dconfig.file=path/to/config.properties [-Dbench.threads=64] [-Dbench.seconds=10] \
+ *       [-Dbench.connectors=default,pooled] [-Dbench.pool=64]
+ * </pre>
+ */
+public class RestClientBenchmark
+{
+   private static final int WORKSPACES = 100;
+
+   public static void main(String[] args) throws Exception
+   {
+      int threads = Integer.getInteger("bench.threads", 64).intValue();
+      int seconds = Integer.getInteger("bench.seconds", 10).intValue();
+
+      try
+      {
+         URI baseUri = GrizzlyServerMain.getInstance().getBaseUri();
+
+         List<String> ids = new ArrayList<>();
+         RestClientAppContext setup = new RestClientAppContext(baseUri);
+         try (WorkspaceRepository repo = setup.getRepository())
+         {
+            for (int i = 0; i < WORKSPACES; i++)
+            {
+               WorkspaceMeta ws = new WorkspaceMeta();
+               ws.name = "Benchmark Workspace " + i;
+               ws.description = "A workspace used to benchmark the REST client.";
+               ids.add(repo.create(ws).id);
+            }
+         }
+         setup.shutdown();
+
+         String connectors = System.getProperty("bench.connectors", "default,pooled");
+         for (String connector : connectors.split(","))
+         {
+            Properties cfg = new Properties();
+            cfg.setProperty(RestClientAppContext.PROP_CONNECTOR, connector);
+            cfg.setProperty(RestClientAppContext.PROP_MAX_PER_ROUTE, System.getProperty("bench.pool", String.valueOf(threads)));
+
+            // warm up both client and server before measuring
+            run(baseUri, cfg, ids, threads, seconds);
+            Result result = run(baseUri, cfg, ids, threads, seconds);
+
+            String msg = "%-8s: %8.0f req/s, p50 %7.3f ms, p99 %7.3f ms, max %8.3f ms, errors %d";
+            System.out.println(String.format(msg, connector,
+                  Double.valueOf(result.count / (double)seconds),
+                  Double.valueOf(result.percentile(0.50) / 1e6),
+                  Double.valueOf(result.percentile(0.99) / 1e6),
+                  Double.valueOf(result.percentile(1.0) / 1e6),
+                  Long.valueOf(result.errors)));
+         }
+      }
+      finally
+      {
+         GrizzlyServerMain.shutdown();
+      }
+   }
+
+   private static Result run(URI baseUri, Properties cfg, List<String> ids, int threads, int seconds) throws Exception
+   {
+      RestClientAppContext ctx = new RestClientAppContext(baseUri, cfg);
+      ExecutorService exec = Executors.newFixedThreadPool(threads);
+      try
+      {
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+         List<Future<Result>> futures = new ArrayList<>();
+         for (int i = 0; i < threads; i++)
+         {
+            futures.add(exec.submit(() -> {
+               Result r = new Result();
+               try (WorkspaceRepository repo = ctx.getRepository())
+               {
+                  ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                  while (System.nanoTime() < deadline)
+                  {
+                     String id = ids.get(rnd.nextInt(ids.size()));
+                     long start = System.nanoTime();
+                     try
+                     {
+                        repo.get(id);
+                        r.record(System.nanoTime() - start);
+                     }
+                     catch (Exception ex)
+                     {
+                        r.errors++;
+                     }
+                  }
+               }
+               return r;
+            }));
+         }
+
+         Result total = new Result();
+         for (Future<Result> f : futures)
+            total.merge(f.get());
+
+         return total;
+      }
+      finally
+      {
+         exec.shutdownNow();
+         ctx.shutdown();
+      }
+   }
+
+   private static class Result
+   {
+      private long[] latencies = new long[1 << 16];
+      private int count = 0;
+      private long errors = 0;
+
+      void record(long nanos)
+      {
+         if (count == latencies.length)
+            latencies = Arrays.copyOf(latencies, count * 2);
+
+         latencies[count++] = nanos;
+      }
+
+      void merge(Result other)
+      {
+         for (int i = 0; i < other.count; i++)
+            record(other.latencies[i]);
+
+         errors += other.errors;
+      }
+
+      long percentile(double p)
+      {
+         if (count == 0)
+            return 0;
+
+         long[] sorted = Arrays.copyOf(latencies, count);
+         Arrays.sort(sorted);
+         int ix = (int)Math.min(count - 1, Math.ceil(p * count) - 1);
+         return sorted[Math.max(0, ix)];
+      }
+   }
+}
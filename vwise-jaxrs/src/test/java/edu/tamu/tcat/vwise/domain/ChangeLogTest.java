@@ -0,0 +1,122 @@
+package edu.tamu.tcat.vwise.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+import edu.tamu.tcat.vwise.model.WorkspaceChange.Type;
+
+public class ChangeLogTest
+{
+   private static ChangeLog createLog(int capacity)
+   {
+      Properties cfg = new Properties();
+      cfg.setProperty(ChangeLog.PROP_CAPACITY, String.valueOf(capacity));
+      return new ChangeLog(cfg);
+   }
+
+   @Test
+   public void testResumeFromSequence() throws Exception
+   {
+      ChangeLog log = createLog(16);
+      for (int i = 0; i < 5; i++)
+         log.publish(i + 1, Type.UPDATED, "ws" + i, null, null);
+
+      List<WorkspaceChange> changes = log.read(2, 0, TimeUnit.MILLISECONDS);
+      assertEquals(3, changes.size());
+      assertEquals(3, changes.get(0).sequence);
+      assertEquals("ws4", changes.get(2).id);
+   }
+
+   @Test
+   public void testResetWhenChangesEvicted() throws Exception
+   {
+      ChangeLog log = createLog(4);
+      for (int i = 0; i < 10; i++)
+         log.publish(i + 1, Type.UPDATED, "ws" + i, null, null);
+
+      List<WorkspaceChange> changes = log.read(2, 0, TimeUnit.MILLISECONDS);
+      assertEquals("Subscribers that fall behind should be reset", Type.RESET, changes.get(0).type);
+      assertEquals(6, changes.get(0).sequence);
+      assertEquals("Retained changes should follow the reset", 5, changes.size());
+
+      changes = log.read(20, 1, TimeUnit.SECONDS);
+      assertEquals("Positions ahead of the log should be reset", Type.RESET, changes.get(0).type);
+      assertEquals(10, changes.get(0).sequence);
+   }
+
+   @Test
+   public void testFilteredSubscription() throws Exception
+   {
+      ChangeLog log = createLog(16);
+      BlockingQueue<WorkspaceChange> received = new LinkedBlockingQueue<>();
+      try (AutoCloseable sub = log.subscribe(0, "@test", null, received::add))
+      {
+         log.publish(1, Type.CREATED, "a", "@test", null);
+         log.publish(2, Type.CREATED, "b", "@other", null);
+         log.publish(3, Type.PURGED, "a", "@test", null);
+
+         assertEquals(Type.CREATED, received.poll(5, TimeUnit.SECONDS).type);
+         assertEquals(Type.PURGED, received.poll(5, TimeUnit.SECONDS).type);
+         assertTrue("Changes in other scopes should not be delivered", received.isEmpty());
+      }
+      finally
+      {
+         log.close();
+      }
+   }
+
+   @Test
+   public void testAppendedChangesAreDeliveredOnceAnnounced() throws Exception
+   {
+      Properties cfg = new Properties();
+      cfg.setProperty(ChangeLog.PROP_DISPATCHERS, "2");
+      ChangeLog log = new ChangeLog(cfg);
+
+      // many more subscriptions than dispatcher threads
+      List<BlockingQueue<WorkspaceChange>> queues = new ArrayList<>();
+      List<AutoCloseable> subs = new ArrayList<>();
+      for (int i = 0; i < 50; i++)
+      {
+         BlockingQueue<WorkspaceChange> received = new LinkedBlockingQueue<>();
+         queues.add(received);
+         subs.add(log.subscribe(0, null, null, received::add));
+      }
+
+      try
+      {
+         log.append(1, Type.CREATED, "a", null, null);
+         log.append(2, Type.UPDATED, "a", null, null);
+         assertEquals("Appended changes are not visible until announced", 0, log.getLatestSequence());
+         assertTrue(log.read(0, 0, TimeUnit.MILLISECONDS).isEmpty());
+         assertNull(queues.get(0).poll(100, TimeUnit.MILLISECONDS));
+
+         log.announce();
+         assertEquals(2, log.getLatestSequence());
+         for (BlockingQueue<WorkspaceChange> received : queues)
+         {
+            assertEquals(1, received.poll(5, TimeUnit.SECONDS).sequence);
+            assertEquals(2, received.poll(5, TimeUnit.SECONDS).sequence);
+         }
+
+         for (AutoCloseable sub : subs)
+            sub.close();
+         assertEquals(0, log.getSubscriptionCount());
+      }
+      finally
+      {
+         log.close();
+      }
+   }
+}
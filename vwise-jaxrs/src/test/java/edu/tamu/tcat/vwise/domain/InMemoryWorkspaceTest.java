@@ -1,13 +1,37 @@
 package edu.tamu.tcat.vwise.domain;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Stream;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import edu.tamu.tcat.vwise.RepositorySnapshot;
 import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.impl.memory.HistoryTiers;
 import edu.tamu.tcat.vwise.impl.memory.InMemoryApplicationContext;
+import edu.tamu.tcat.vwise.impl.memory.OffHeapArena;
+import edu.tamu.tcat.vwise.impl.memory.RetentionSweeper;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.VersionPage;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
 
 public class InMemoryWorkspaceTest extends WorkspaceTest
 {
+   private final List<WorkspaceRepoImpl> repos = new ArrayList<>();
+
    @Before
    public void setUp() throws Exception
    {
@@ -17,6 +41,382 @@ public class InMemoryWorkspaceTest extends WorkspaceTest
    @After
    public void tearDown() throws Exception
    {
+      for (WorkspaceRepoImpl repo : repos)
+         repo.close();
+
+      repos.clear();
+      ctx.getRepository().close();
       ctx = null;
    }
+
+   private WorkspaceRepoImpl createRepo(Properties config)
+   {
+      WorkspaceRepoImpl repo = new WorkspaceRepoImpl(config);
+      repos.add(repo);
+      return repo;
+   }
+
+   @Test
+   public void testSnapshotReclamation() throws Exception
+   {
+      WorkspaceRepoImpl repo = (WorkspaceRepoImpl)ctx.getRepository();
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Reclaimed";
+      WorkspaceMeta created = repo.create(ws);
+      long sequence = repo.getCommitSequence();
+
+      RepositorySnapshot snapshot = repo.snapshot();
+      assertEquals("Snapshots read the latest commit", sequence, snapshot.getSequence());
+
+      repo.purge(created.id);
+      assertTrue("The commit sequence should advance", repo.getCommitSequence() > sequence);
+      assertEquals("The purged workspace is retained for the open snapshot", 1, repo.getRetainedPurgeCount());
+
+      snapshot.close();
+      assertEquals(0, repo.getOpenSnapshotCount());
+      assertEquals("The purged workspace is reclaimed once the snapshot is closed", 0, repo.getRetainedPurgeCount());
+   }
+
+   @Test
+   public void testVersionReconstruction() throws Exception
+   {
+      Properties config = getConfig();
+      config.setProperty(WorkspaceRepoImpl.PROP_CHECKPOINT_INTERVAL, "4");
+      WorkspaceRepoImpl repo = createRepo(config);
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = "@test";
+      ws.key = "history";
+      ws.name = "History";
+      ws.description = "Unchanged description";
+
+      List<WorkspaceMeta> expected = new ArrayList<>();
+      WorkspaceMeta current = repo.create(ws);
+      expected.add(current);
+
+      // mixes single and multiple field changes, changes to null and no change at all
+      for (int i = 0; i < 13; i++)
+      {
+         WorkspaceMeta edit = WorkspaceMeta.copy(current);
+         edit.name = "History " + i;
+         if (i % 3 == 0)
+            edit.key = i % 2 == 0 ? null : "history-" + i;
+         if (i == 7)
+            edit.name = current.name;
+
+         current = repo.update(edit);
+         expected.add(current);
+      }
+
+      for (WorkspaceMeta version : expected)
+      {
+         assertSameVersion(version, repo.get(version.id, version.version).get());
+      }
+
+      VersionPage page = repo.listVersions(current.id, null, null, null, 100).get();
+      assertEquals(expected.size(), page.versions.size());
+      for (int i = 0; i < expected.size(); i++)
+      {
+         assertSameVersion(expected.get(expected.size() - 1 - i), page.versions.get(i));
+      }
+   }
+
+   @Test
+   public void testRetentionSweep() throws Exception
+   {
+      Properties config = getConfig();
+      config.setProperty(WorkspaceRepoImpl.PROP_CHECKPOINT_INTERVAL, "4");
+      config.setProperty(RetentionSweeper.PROP_MAX_COUNT, "3");
+      config.setProperty(RetentionSweeper.PROP_TOMBSTONE_GRACE, "0");
+      config.setProperty(RetentionSweeper.PROP_INTERVAL, "0");
+      WorkspaceRepoImpl repo = createRepo(config);
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Retained";
+      List<WorkspaceMeta> expected = new ArrayList<>();
+      WorkspaceMeta current = repo.create(ws);
+      expected.add(current);
+      for (int i = 0; i < 9; i++)
+      {
+         WorkspaceMeta edit = WorkspaceMeta.copy(current);
+         edit.name = "Retained " + i;
+         current = repo.update(edit);
+         expected.add(current);
+      }
+
+      ws.name = "Removed";
+      WorkspaceMeta removed = repo.create(ws);
+      repo.remove(removed.id);
+      Thread.sleep(5);
+
+      RetentionSweeper.Report report = repo.getRetentionSweeper().sweep();
+      assertEquals(2, report.examined);
+      assertEquals(7, report.versionsDiscarded);
+      assertEquals(1, report.workspacesPurged);
+
+      assertFalse("The removed workspace should be purged", repo.listVersions(removed.id, null, null, null, 10).isPresent());
+      assertFalse("Discarded versions are no longer available", repo.get(current.id, expected.get(6).version).isPresent());
+
+      VersionPage page = repo.listVersions(current.id, null, null, null, 10).get();
+      assertEquals(3, page.versions.size());
+      for (int i = 0; i < 3; i++)
+      {
+         WorkspaceMeta version = expected.get(expected.size() - 1 - i);
+         assertSameVersion(version, page.versions.get(i));
+         assertSameVersion(version, repo.get(version.id, version.version).get());
+      }
+
+      assertEquals("Nothing remains to be reclaimed", 0, repo.getRetentionSweeper().sweep().versionsDiscarded);
+   }
+
+   @Test
+   public void testOffHeapHistory() throws Exception
+   {
+      Properties config = getConfig();
+      config.setProperty(WorkspaceRepoImpl.PROP_STORAGE, "offheap");
+      config.setProperty(WorkspaceRepoImpl.PROP_OFFHEAP_SEGMENT_SIZE, "1024");
+      config.setProperty(WorkspaceRepoImpl.PROP_CHECKPOINT_INTERVAL, "4");
+      config.setProperty(RetentionSweeper.PROP_MAX_COUNT, "3");
+      config.setProperty(RetentionSweeper.PROP_INTERVAL, "0");
+      WorkspaceRepoImpl repo = createRepo(config);
+      OffHeapArena arena = repo.getOffHeapArena().get();
+
+      // descriptions are long enough that versions span several segments
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Off-heap";
+      ws.description = String.join("", Collections.nCopies(20, "\u00e9t\u00e9 "));
+      List<WorkspaceMeta> expected = new ArrayList<>();
+      WorkspaceMeta current = repo.create(ws);
+      expected.add(current);
+      for (int i = 0; i < 30; i++)
+      {
+         WorkspaceMeta edit = WorkspaceMeta.copy(current);
+         edit.name = i % 5 == 0 ? null : "Off-heap " + i;
+         edit.description = ws.description + i;
+         current = repo.update(edit);
+         expected.add(current);
+      }
+
+      for (WorkspaceMeta version : expected)
+      {
+         assertSameVersion(version, repo.get(version.id, version.version).get());
+      }
+
+      long live = arena.getLiveBytes();
+      assertTrue("Versions are stored off-heap", live > 1024);
+
+      assertEquals(28, repo.getRetentionSweeper().sweep().versionsDiscarded);
+      assertTrue("Discarded versions are freed", arena.getLiveBytes() < live);
+      VersionPage page = repo.listVersions(current.id, null, null, null, 10).get();
+      assertEquals(3, page.versions.size());
+      for (int i = 0; i < 3; i++)
+      {
+         assertSameVersion(expected.get(expected.size() - 1 - i), page.versions.get(i));
+      }
+
+      repo.purge(current.id);
+      assertEquals("Purged workspaces are freed", 0, arena.getLiveBytes());
+   }
+
+   @Test
+   public void testTieredHistory() throws Exception
+   {
+      Path directory = Files.createTempDirectory("vwise-test-");
+      Properties config = getConfig();
+      config.setProperty(WorkspaceRepoImpl.PROP_STORAGE, "tiered");
+      config.setProperty(WorkspaceRepoImpl.PROP_CHECKPOINT_INTERVAL, "4");
+      config.setProperty(HistoryTiers.PROP_MEMORY_BUDGET, "0");
+      config.setProperty(HistoryTiers.PROP_DIRECTORY, directory.toString());
+      config.setProperty(HistoryTiers.PROP_SEGMENT_SIZE, "1024");
+      WorkspaceRepoImpl repo = createRepo(config);
+      HistoryTiers tiers = repo.getHistoryTiers().get();
+
+      List<List<WorkspaceMeta>> histories = new ArrayList<>();
+      for (int w = 0; w < 3; w++)
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Tiered " + w;
+         ws.description = "Description of workspace " + w;
+         List<WorkspaceMeta> expected = new ArrayList<>();
+         WorkspaceMeta current = repo.create(ws);
+         expected.add(current);
+         for (int i = 0; i < 10; i++)
+         {
+            WorkspaceMeta edit = WorkspaceMeta.copy(current);
+            edit.name = i % 4 == 0 ? null : "Tiered " + w + "." + i;
+            if (i % 3 == 0)
+               edit.description = "Revised description " + i;
+            current = repo.update(edit);
+            expected.add(current);
+         }
+
+         histories.add(expected);
+      }
+
+      tiers.enforce();
+      assertEquals("Every history is spilled", 0, tiers.getResidentBytes());
+      assertTrue(tiers.getSpilledBytes() > 0);
+
+      // current states are held in memory
+      long reloads = tiers.getReloadCount();
+      assertEquals(3, repo.listAll().size());
+      WorkspaceMeta latest = histories.get(0).get(10);
+      assertSameVersion(latest, repo.get(latest.id, latest.version).get());
+      assertEquals(reloads, tiers.getReloadCount());
+
+      for (List<WorkspaceMeta> expected : histories)
+      {
+         for (WorkspaceMeta version : expected)
+            assertSameVersion(version, repo.get(version.id, version.version).get());
+
+         tiers.enforce();
+      }
+
+      assertTrue("Spilled histories are read back", tiers.getReloadCount() > reloads);
+
+      // unchanged histories are not written again, and modified ones replace their records
+      long spilled = tiers.getSpilledBytes();
+      List<WorkspaceMeta> expected = histories.get(1);
+      WorkspaceMeta edit = WorkspaceMeta.copy(expected.get(expected.size() - 1));
+      edit.name = "Edited while spilled";
+      expected.add(repo.update(edit));
+      tiers.enforce();
+      assertTrue(tiers.getSpilledBytes() > spilled);
+
+      VersionPage page = repo.listVersions(edit.id, null, null, null, 100).get();
+      assertEquals(expected.size(), page.versions.size());
+      for (int i = 0; i < expected.size(); i++)
+         assertSameVersion(expected.get(expected.size() - 1 - i), page.versions.get(i));
+
+      for (List<WorkspaceMeta> history : histories)
+         repo.purge(history.get(0).id);
+
+      assertEquals("Purged histories are discarded", 0, tiers.getSpilledBytes());
+      repo.close();
+
+      try (Stream<Path> files = Files.list(directory))
+      {
+         assertEquals("Spill files are deleted on close", 0, files.count());
+      }
+
+      Files.delete(directory);
+   }
+
+   @Test
+   public void testCoalescedUpdates() throws Exception
+   {
+      Properties config = getConfig();
+      config.setProperty(WorkspaceRepoImpl.PROP_COALESCE_WINDOW, "60000");
+      WorkspaceRepoImpl repo = createRepo(config);
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Draft";
+      WorkspaceMeta created = repo.create(ws);
+      long sequence = repo.getCommitSequence();
+
+      WorkspaceMeta first = WorkspaceMeta.copy(created);
+      first.name = "Draft 1";
+      first = repo.update(first, "editor");
+
+      WorkspaceMeta second = WorkspaceMeta.copy(first);
+      second.description = "Edited";
+      second = repo.update(second, "editor");
+
+      assertEquals("Coalesced updates are not committed", sequence, repo.getCommitSequence());
+      assertEquals(1, repo.listVersions(created.id, null, null, null, 10).get().versions.size());
+      assertEquals(second.version, repo.get(created.id).get().version);
+      assertEquals("Tokens of coalesced updates remain valid", "Edited", repo.get(created.id, first.version).get().description);
+
+      // an update from another client commits the pending version before it is applied
+      WorkspaceMeta other = WorkspaceMeta.copy(second);
+      other.key = "other";
+      other = repo.update(other, "other-editor");
+      assertEquals(sequence + 1, repo.getCommitSequence());
+
+      repo.flush(created.id);
+      assertEquals(sequence + 2, repo.getCommitSequence());
+
+      VersionPage page = repo.listVersions(created.id, null, null, null, 10).get();
+      assertEquals(3, page.versions.size());
+      assertEquals(other.version, page.versions.get(0).version);
+      assertEquals(second.version, page.versions.get(1).version);
+      assertEquals("Draft 1", page.versions.get(1).name);
+      assertEquals("Edited", page.versions.get(1).description);
+
+      WorkspaceMeta absorbed = repo.get(created.id, first.version).get();
+      assertEquals("Coalesced tokens resolve to the version they were folded into", second.version, absorbed.version);
+
+      // windows are committed once they elapse
+      config.setProperty(WorkspaceRepoImpl.PROP_COALESCE_WINDOW, "50");
+      WorkspaceRepoImpl timed = createRepo(config);
+      WorkspaceMeta draft = timed.create(ws);
+      draft.name = "Saved";
+      draft = timed.update(draft, "editor");
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (timed.listVersions(draft.id, null, null, null, 10).get().versions.size() < 2 && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(10);
+      }
+
+      assertEquals(draft.version, timed.listVersions(draft.id, null, null, null, 10).get().versions.get(0).version);
+   }
+
+   @Test
+   public void testSearchIndexMaintenance() throws Exception
+   {
+      WorkspaceRepoImpl repo = (WorkspaceRepoImpl)ctx.getRepository();
+
+      // enough changes to each shared term to fold its postings into the compressed form
+      List<WorkspaceMeta> created = new ArrayList<>();
+      for (int i = 0; i < 100; i++)
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Project " + i;
+         ws.description = "Shared notes about item" + i;
+         created.add(repo.create(ws));
+      }
+
+      Set<String> expected = new HashSet<>();
+      for (int i = 0; i < created.size(); i++)
+      {
+         WorkspaceMeta ws = created.get(i);
+         if (i % 3 == 0)
+         {
+            ws.description = "Private";
+            repo.update(ws);
+         }
+         else if (i % 3 == 1)
+         {
+            repo.purge(ws.id);
+         }
+         else
+         {
+            expected.add(ws.id);
+         }
+      }
+
+      repo.remove(created.get(2).id);
+      expected.remove(created.get(2).id);
+
+      Set<String> found = new HashSet<>();
+      repo.search("shared NOTES", 1000).forEach(hit -> found.add(hit.workspace.id));
+      assertEquals(expected, found);
+
+      assertEquals(1, repo.search("item5", 10).size());
+      assertTrue(repo.search("item4", 10).isEmpty());
+      assertEquals(1, repo.search("private project 3", 10).size());
+      assertEquals(3, repo.search("project", 3).size());
+   }
+
+   private static void assertSameVersion(WorkspaceMeta expected, WorkspaceMeta actual)
+   {
+      assertEquals(expected.version, actual.version);
+      assertEquals(expected.modified, actual.modified);
+      assertEquals(expected.scope, actual.scope);
+      assertEquals(expected.key, actual.key);
+      assertEquals(expected.name, actual.name);
+      assertEquals(expected.description, actual.description);
+   }
 }
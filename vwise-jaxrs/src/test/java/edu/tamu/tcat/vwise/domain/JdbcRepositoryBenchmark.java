@@ -0,0 +1,152 @@
+package edu.tamu.tcat.vwise.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcWorkspaceRepo;
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+
+/**
+ * Compares the throughput of the embedded database repository with the in-memory
+ * repository for the operations used by the REST API: creating workspaces one at a time,
+ * reading current and historical versions, updating, querying a scope by key prefix and
+ * searching names and descriptions. Bulk creation through
+ * {@link JdbcWorkspaceRepo#createAll(List)} is measured for the database repository only.
+ *
+ * <p>Each repository is exercised twice and the second round is reported, so that both are
+ * measured after JIT compilation.
+ *
+ * <p>Not run as part of the unit tests. To run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.tamu.tcat.vwise.domain.JdbcRepositoryBenchmark \
+ *       [-Dbench.workspaces=10000] [-Dbench.operations=20000] [-Dbench.url=jdbc:h2:mem:]
+ * </pre>
+ */
+public class JdbcRepositoryBenchmark
+{
+   private static final String[] WORDS = { "survey", "letters", "archive", "edition", "maps",
+         "sermons", "journals", "drafts", "travel", "poetry", "census", "ledgers" };
+
+   public static void main(String[] args) throws Exception
+   {
+      int workspaces = Integer.getInteger("bench.workspaces", 10_000).intValue();
+      int operations = Integer.getInteger("bench.operations", 20_000).intValue();
+      String url = System.getProperty("bench.url");
+
+      System.out.println(String.format("%,d workspaces, %,d operations", Integer.valueOf(workspaces), Integer.valueOf(operations)));
+      for (int round = 0; round < 2; round++)
+      {
+         boolean report = round == 1;
+         Properties config = new Properties();
+         config.setProperty(ChangeLog.PROP_CAPACITY, "1024");
+
+         try (WorkspaceRepoImpl repo = new WorkspaceRepoImpl(config))
+         {
+            run("memory", repo, workspaces, operations, report);
+         }
+
+         if (url != null)
+            config.setProperty(JdbcWorkspaceRepo.PROP_URL, url);
+
+         try (JdbcWorkspaceRepo repo = new JdbcWorkspaceRepo(config))
+         {
+            run("jdbc", repo, workspaces, operations, report);
+         }
+
+         try (JdbcWorkspaceRepo repo = new JdbcWorkspaceRepo(config))
+         {
+            List<WorkspaceMeta> data = new ArrayList<>(workspaces);
+            for (int w = 0; w < workspaces; w++)
+               data.add(initial(w));
+
+            long start = System.nanoTime();
+            repo.createAll(data);
+            if (report)
+               report("jdbc", "createAll", System.nanoTime() - start, workspaces);
+         }
+      }
+   }
+
+   private static void run(String label, WorkspaceRepository repo, int workspaces, int operations, boolean report)
+   {
+      Random random = new Random(1);
+      List<WorkspaceMeta> created = new ArrayList<>(workspaces);
+
+      long start = System.nanoTime();
+      for (int w = 0; w < workspaces; w++)
+         created.add(repo.create(initial(w)));
+      if (report)
+         report(label, "create", System.nanoTime() - start, workspaces);
+
+      start = System.nanoTime();
+      for (int i = 0; i < operations; i++)
+      {
+         int w = random.nextInt(workspaces);
+         WorkspaceMeta edit = WorkspaceMeta.copy(created.get(w));
+         edit.name = "Workspace " + w + " edit " + i;
+         created.set(w, repo.update(edit));
+      }
+      if (report)
+         report(label, "update", System.nanoTime() - start, operations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < operations; i++)
+         repo.get(created.get(random.nextInt(workspaces)).id);
+      if (report)
+         report(label, "get", System.nanoTime() - start, operations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < operations; i++)
+      {
+         WorkspaceMeta ws = created.get(random.nextInt(workspaces));
+         repo.get(ws.id, ws.version);
+      }
+      if (report)
+         report(label, "get version", System.nanoTime() - start, operations);
+
+      int queries = Math.max(1, operations / 10);
+      start = System.nanoTime();
+      for (int i = 0; i < queries; i++)
+      {
+         WorkspaceQuery query = new WorkspaceQuery();
+         query.scope = "@scope-" + random.nextInt(10);
+         query.keyPrefix = "workspace-" + random.nextInt(10);
+         query.sort = WorkspaceQuery.SortField.KEY;
+         query.limit = 20;
+         repo.query(query);
+      }
+      if (report)
+         report(label, "query", System.nanoTime() - start, queries);
+
+      start = System.nanoTime();
+      for (int i = 0; i < queries; i++)
+         repo.search(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)], 20);
+      if (report)
+         report(label, "search", System.nanoTime() - start, queries);
+   }
+
+   private static WorkspaceMeta initial(int w)
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = "@scope-" + (w % 10);
+      ws.key = "workspace-" + w;
+      ws.name = "Workspace " + w;
+      ws.description = "Transcribed " + WORDS[w % WORDS.length] + " and " + WORDS[(w / WORDS.length) % WORDS.length]
+            + " from collection " + (w % 97);
+      return ws;
+   }
+
+   private static void report(String label, String operation, long nanos, int count)
+   {
+      System.out.println(String.format("%-6s  %-12s  %10.1f us per operation",
+            label, operation, Double.valueOf(nanos / 1000.0 / count)));
+   }
+}
@@ -0,0 +1,139 @@
+package edu.tamu.tcat.vwise.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.RepositorySnapshot;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcApplicationContext;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcWorkspaceRepo;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+
+public class JdbcWorkspaceTest extends WorkspaceTest
+{
+   @Before
+   public void setUp() throws Exception
+   {
+      ctx = new JdbcApplicationContext(getConfig());
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      ctx.getRepository().close();
+      ctx = null;
+   }
+
+   @Test
+   public void testSnapshotReclamation() throws Exception
+   {
+      JdbcWorkspaceRepo repo = (JdbcWorkspaceRepo)ctx.getRepository();
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Reclaimed";
+      WorkspaceMeta created = repo.create(ws);
+      long sequence = repo.getCommitSequence();
+
+      RepositorySnapshot snapshot = repo.snapshot();
+      repo.purge(created.id);
+      assertFalse(repo.get(created.id).isPresent());
+      assertEquals("The purged workspace is retained for the open snapshot", 1, repo.getRetainedPurgeCount());
+      assertEquals(created.version, snapshot.get(created.id).get().version);
+
+      snapshot.close();
+      assertEquals(0, repo.getOpenSnapshotCount());
+      assertEquals("The purged workspace is reclaimed once the snapshot is closed", 0, repo.getRetainedPurgeCount());
+      assertTrue(repo.getCommitSequence() > sequence);
+   }
+
+   @Test
+   public void testBatchedCreate() throws Exception
+   {
+      Properties config = getConfig();
+      config.setProperty(JdbcWorkspaceRepo.PROP_BATCH_SIZE, "16");
+      try (JdbcWorkspaceRepo repo = new JdbcWorkspaceRepo(config))
+      {
+         List<WorkspaceMeta> data = new ArrayList<>();
+         for (int i = 0; i < 100; i++)
+         {
+            WorkspaceMeta ws = new WorkspaceMeta();
+            ws.scope = "@batch";
+            ws.key = String.format("ws-%03d", Integer.valueOf(i));
+            ws.name = "Batch " + i;
+            data.add(ws);
+         }
+
+         long prepared = repo.getPreparedStatementCount();
+         List<WorkspaceMeta> created = repo.createAll(data);
+         assertEquals(100, created.size());
+         assertEquals("Each workspace is a separate commit", 100, repo.getCommitSequence());
+         assertTrue("Statements are not prepared for each row", repo.getPreparedStatementCount() - prepared < data.size() / 2);
+
+         for (int i = 0; i < created.size(); i++)
+            assertEquals(data.get(i).key, repo.get(created.get(i).id).get().key);
+
+         WorkspaceQuery query = new WorkspaceQuery();
+         query.scope = "@batch";
+         query.keyPrefix = "ws-05";
+         query.limit = 5;
+         assertEquals(5, repo.query(query).workspaces.size());
+         assertEquals(1, repo.search("batch 42", 1).size());
+      }
+   }
+
+   @Test
+   public void testReopen() throws Exception
+   {
+      Path directory = Files.createTempDirectory("vwise-test-");
+      Properties config = getConfig();
+      config.setProperty(JdbcWorkspaceRepo.PROP_URL, "jdbc:h2:" + directory.resolve("vwise").toAbsolutePath());
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Durable";
+      WorkspaceMeta created;
+      WorkspaceMeta purged;
+      long sequence;
+      try (JdbcWorkspaceRepo repo = new JdbcWorkspaceRepo(config))
+      {
+         created = repo.create(ws);
+         created.description = "Updated";
+         created = repo.update(created);
+         purged = repo.create(ws);
+         repo.purge(purged.id);
+         sequence = repo.getCommitSequence();
+      }
+
+      try (JdbcWorkspaceRepo repo = new JdbcWorkspaceRepo(config))
+      {
+         assertEquals("The commit sequence resumes", sequence, repo.getCommitSequence());
+         assertEquals(sequence, repo.getChangeLog().getLatestSequence());
+         assertEquals("Updated", repo.get(created.id).get().description);
+         assertEquals(2, repo.listVersions(created.id, null, null, null, 10).get().versions.size());
+         assertFalse(repo.get(purged.id).isPresent());
+
+         WorkspaceMeta next = repo.create(ws);
+         assertFalse("Ids are not reused", next.id.equals(purged.id) || next.id.equals(created.id));
+         assertEquals(sequence + 1, repo.getCommitSequence());
+      }
+
+      try (Stream<Path> files = Files.list(directory))
+      {
+         files.forEach(file -> file.toFile().delete());
+      }
+
+      Files.delete(directory);
+   }
+}
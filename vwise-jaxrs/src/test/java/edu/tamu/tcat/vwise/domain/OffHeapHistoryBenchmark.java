@@ -0,0 +1,186 @@
+package edu.tamu.tcat.vwise.domain;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.memory.HistoryTiers;
+import edu.tamu.tcat.vwise.impl.memory.OffHeapArena;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Compares the heap retained by version history, and the time spent in garbage collection
+ * while the repository is in use, when history is stored on the heap, off-heap, or tiered
+ * between the heap and local disk.
+ *
+ * <p>Each workspace is edited repeatedly, changing its name on every edit and its
+ * description on every fifth edit, so that most of the retained data is history. The
+ * repository is then exercised with a mix of historical reads and further edits while
+ * collections are counted, and finally a full collection is timed.
+ *
+ * <p>Not run as part of the unit tests. Run each mode in a separate JVM so that one does
+ * not affect the heap of the other. System properties whose names start with
+ * {@code versions.} are passed to the repository, for example to set the memory budget
+ * of tiered storage:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.tamu.tcat.vwise.domain.OffHeapHistoryBenchmark \
+ *       -Dbench.storage=offheap [-Dbench.workspaces=2000] [-Dbench.edits=200] \
+ *       [-Dbench.operations=500000] [-Dbench.interval=16] [-Dversions.tiered.memory_budget=8388608]
+ * </pre>
+ */
+public class OffHeapHistoryBenchmark
+{
+   private static final String DESCRIPTION = "A workspace used to measure the cost of retaining version history "
+         + "on the heap. Descriptions are typically a sentence or two.";
+
+   public static void main(String[] args) throws Exception
+   {
+      String storage = System.getProperty("bench.storage", "heap");
+      int workspaces = Integer.getInteger("bench.workspaces", 2000).intValue();
+      int edits = Integer.getInteger("bench.edits", 200).intValue();
+      int operations = Integer.getInteger("bench.operations", 500_000).intValue();
+
+      Properties config = new Properties();
+      config.setProperty(WorkspaceRepoImpl.PROP_STORAGE, storage);
+      config.setProperty(WorkspaceRepoImpl.PROP_CHECKPOINT_INTERVAL, System.getProperty("bench.interval", "16"));
+      config.setProperty(ChangeLog.PROP_CAPACITY, "1");
+      for (String name : System.getProperties().stringPropertyNames())
+      {
+         if (name.startsWith("versions."))
+            config.setProperty(name, System.getProperty(name));
+      }
+
+      System.out.println(String.format("%s: %,d workspaces, %,d edits each",
+            storage, Integer.valueOf(workspaces), Integer.valueOf(edits)));
+
+      long baseline = usedHeap();
+      WorkspaceRepoImpl repo = new WorkspaceRepoImpl(config);
+      List<WorkspaceMeta> versions = new ArrayList<>();
+      List<WorkspaceMeta> heads = new ArrayList<>();
+      for (int w = 0; w < workspaces; w++)
+      {
+         WorkspaceMeta current = repo.create(initial(w));
+         for (int e = 1; e <= edits; e++)
+         {
+            current = repo.update(edit(current, e));
+            if (e % 16 == 0)
+               versions.add(reference(current));
+         }
+
+         heads.add(current);
+      }
+
+      long heap = usedHeap() - baseline;
+      System.out.println(String.format("heap retained   %8.1f MB", Double.valueOf(heap / 1e6)));
+      if (repo.getOffHeapArena().isPresent())
+      {
+         OffHeapArena arena = repo.getOffHeapArena().get();
+         System.out.println(String.format("off-heap        %8.1f MB live, %.1f MB reserved",
+               Double.valueOf(arena.getLiveBytes() / 1e6), Double.valueOf(arena.getReservedBytes() / 1e6)));
+      }
+      if (repo.getHistoryTiers().isPresent())
+      {
+         HistoryTiers tiers = repo.getHistoryTiers().get();
+         System.out.println(String.format("tiered          %8.1f MB estimated in memory, %.1f MB on disk",
+               Double.valueOf(tiers.getResidentBytes() / 1e6), Double.valueOf(tiers.getSpilledBytes() / 1e6)));
+      }
+
+      // one edit for every nine historical reads
+      Random random = new Random(1);
+      long[] gc = collections();
+      long start = System.nanoTime();
+      for (int i = 0; i < operations; i++)
+      {
+         if (i % 10 == 0)
+         {
+            int w = random.nextInt(heads.size());
+            heads.set(w, repo.update(edit(heads.get(w), edits + i)));
+         }
+         else
+         {
+            WorkspaceMeta version = versions.get(random.nextInt(versions.size()));
+            repo.get(version.id, version.version);
+         }
+      }
+
+      double micros = (System.nanoTime() - start) / 1e3 / operations;
+      long[] after = collections();
+      System.out.println(String.format("workload        %8.2f us per operation, %,d collections, %,d ms in GC",
+            Double.valueOf(micros), Long.valueOf(after[0] - gc[0]), Long.valueOf(after[1] - gc[1])));
+
+      gc = collections();
+      System.gc();
+      after = collections();
+      System.out.println(String.format("full collection %8d ms", Long.valueOf(after[1] - gc[1])));
+      if (repo.getHistoryTiers().isPresent())
+      {
+         HistoryTiers tiers = repo.getHistoryTiers().get();
+         System.out.println(String.format("tiered          %,d spills, %,d reloads",
+               Long.valueOf(tiers.getSpillCount()), Long.valueOf(tiers.getReloadCount())));
+      }
+
+      repo.close();
+   }
+
+   private static WorkspaceMeta reference(WorkspaceMeta version)
+   {
+      WorkspaceMeta ref = new WorkspaceMeta();
+      ref.id = version.id;
+      ref.version = version.version;
+      return ref;
+   }
+
+   private static WorkspaceMeta initial(int w)
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = "@benchmark";
+      ws.key = "workspace-" + w;
+      ws.name = "Workspace " + w;
+      ws.description = DESCRIPTION;
+      return ws;
+   }
+
+   private static WorkspaceMeta edit(WorkspaceMeta current, int e)
+   {
+      WorkspaceMeta edit = WorkspaceMeta.copy(current);
+      edit.name = "Workspace " + current.key + " edit " + e;
+      if (e % 5 == 0)
+         edit.description = DESCRIPTION + " Edit " + e + ".";
+
+      return edit;
+   }
+
+   /**
+    * @return The total number of collections and the total time spent in them, in milliseconds.
+    */
+   private static long[] collections()
+   {
+      long[] totals = new long[2];
+      for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+      {
+         totals[0] += Math.max(0, bean.getCollectionCount());
+         totals[1] += Math.max(0, bean.getCollectionTime());
+      }
+
+      return totals;
+   }
+
+   private static long usedHeap() throws InterruptedException
+   {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 4; i++)
+      {
+         System.gc();
+         Thread.sleep(100);
+      }
+
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+}
@@ -1,20 +1,30 @@
 package edu.tamu.tcat.vwise.domain;
 
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import edu.tamu.tcat.vwise.WorkspaceRepository;
 import edu.tamu.tcat.vwise.WorkspaceTest;
 import edu.tamu.tcat.vwise.impl.memory.InMemoryApplicationContext;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
 
 /**
- *
- * Currently a placeholder to remind that we need to pay special attention
- * to the logic of scoping.
- *
+ * Tests the partitioning of workspaces by scope.
  */
 public class ScopedWorkspaceTest
 {
-   @SuppressWarnings("unused")
    private InMemoryApplicationContext ctx;
 
    @Before
@@ -29,5 +39,96 @@ public class ScopedWorkspaceTest
       ctx = null;
    }
 
+   @Test
+   public void testScopeCounts() throws Exception
+   {
+      WorkspaceRepository repo = ctx.getRepository();
+
+      WorkspaceMeta a = repo.create(workspace("@user", "a"));
+      WorkspaceMeta b = repo.create(workspace("@user", "b"));
+      WorkspaceMeta c = repo.create(workspace("~group", "c"));
+      WorkspaceMeta d = repo.create(workspace(null, "d"));
+
+      assertCounts(repo.getScopeSummary("@user"), 2, 0);
+      assertEquals(Arrays.asList(a.id, b.id), ids(repo.listScope("@user")));
+      assertEquals(Arrays.asList(d.id), ids(repo.listScope(null)));
+
+      // moving a workspace updates both partitions
+      b.scope = "~group";
+      repo.update(b);
+      assertCounts(repo.getScopeSummary("@user"), 1, 0);
+      assertEquals(Arrays.asList(b.id, c.id), ids(repo.listScope("~group")));
+
+      // removed workspaces are counted until they are purged
+      repo.remove(c.id);
+      assertCounts(repo.getScopeSummary("~group"), 1, 1);
+      assertEquals(Arrays.asList(b.id), ids(repo.listScope("~group")));
+
+      repo.purge(c.id);
+      assertCounts(repo.getScopeSummary("~group"), 1, 0);
+
+      repo.purge(a.id);
+      assertCounts(repo.getScopeSummary("@user"), 0, 0);
+      assertTrue(repo.listScope("@user").isEmpty());
+
+      List<String> scopes = repo.listScopes().stream().map(summary -> summary.scope).collect(toList());
+      assertEquals("Empty scopes are not listed", Arrays.asList(null, "~group"), scopes);
+   }
+
+   @Test
+   public void testQueryPlans() throws Exception
+   {
+      WorkspaceRepository repo = ctx.getRepository();
+
+      WorkspaceMeta a = repo.create(workspace("@user", "a"));
+      repo.create(workspace("@user.archive", "b"));
+      WorkspaceMeta c = repo.create(workspace("@user", "c"));
+      for (int i = 0; i < 8; i++)
+         repo.create(workspace("~group", "g" + i));
 
+      WorkspaceQuery query = new WorkspaceQuery();
+      query.scope = "@user";
+      query.sort = WorkspaceQuery.SortField.ID;
+      query.descending = true;
+      WorkspaceQueryResult result = repo.query(query);
+      assertTrue(result.plan, result.plan.startsWith("scope index"));
+      assertEquals(Arrays.asList(c.id, a.id), ids(result.workspaces));
+
+      query = new WorkspaceQuery();
+      query.scopePrefix = "@user";
+      result = repo.query(query);
+      assertTrue(result.plan, result.plan.startsWith("scope prefix index"));
+      assertEquals(3, result.workspaces.size());
+
+      // a prefix that selects most workspaces is cheaper to scan
+      query.scopePrefix = "";
+      assertTrue(repo.query(query).plan.startsWith("full scan"));
+
+      query = new WorkspaceQuery();
+      query.keyPrefix = "g";
+      query.limit = 3;
+      result = repo.query(query);
+      assertTrue(result.plan, result.plan.startsWith("full scan"));
+      assertEquals(Arrays.asList("g0", "g1", "g2"), result.workspaces.stream().map(ws -> ws.key).collect(toList()));
+   }
+
+   private static WorkspaceMeta workspace(String scope, String key)
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = scope;
+      ws.key = key;
+      ws.name = key;
+      return ws;
+   }
+
+   private static List<String> ids(Collection<WorkspaceMeta> workspaces)
+   {
+      return workspaces.stream().map(ws -> ws.id).collect(toList());
+   }
+
+   private static void assertCounts(ScopeSummary summary, int workspaces, int removed)
+   {
+      assertEquals(workspaces, summary.workspaces);
+      assertEquals(removed, summary.removed);
+   }
 }
@@ -0,0 +1,182 @@
+package edu.tamu.tcat.vwise.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import edu.tamu.tcat.vwise.internal.IdFactory;
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Measures the heap retained by the version history of heavily edited workspaces and the
+ * cost of reading historical versions. Compares the delta-encoded history at several
+ * checkpoint intervals with a history that stores a full copy of every version, indexed
+ * by version id and by time, as the in-memory repository previously did.
+ *
+ * <p>Most edits change only the name of a workspace. Every tenth edit also changes its
+ * description.
+ *
+ * <p>Not run as part of the unit tests. To run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.tamu.tcat.vwise.domain.VersionHistoryBenchmark \
+ *       [-Dbench.workspaces=1000] [-Dbench.edits=200] [-Dbench.intervals=1,4,16,64] \
+ *       [-Dbench.reads=200000]
+ * </pre>
+ */
+public class VersionHistoryBenchmark
+{
+   private static final String DESCRIPTION = "A workspace used to measure the memory consumed by version history. "
+         + "Descriptions are typically a sentence or two and are rarely edited.";
+
+   public static void main(String[] args) throws Exception
+   {
+      int workspaces = Integer.getInteger("bench.workspaces", 1000).intValue();
+      int edits = Integer.getInteger("bench.edits", 200).intValue();
+      int reads = Integer.getInteger("bench.reads", 200_000).intValue();
+      String intervals = System.getProperty("bench.intervals", "1,4,16,64");
+
+      System.out.println(String.format("%,d workspaces, %,d edits each", Integer.valueOf(workspaces), Integer.valueOf(edits)));
+
+      long baseline = usedHeap();
+      List<Object[]> histories = fullCopies(workspaces, edits);
+      report("full copies", usedHeap() - baseline, workspaces, edits);
+      histories.clear();
+
+      for (String interval : intervals.split(","))
+      {
+         Properties config = new Properties();
+         config.setProperty(WorkspaceRepoImpl.PROP_CHECKPOINT_INTERVAL, interval.trim());
+         config.setProperty(ChangeLog.PROP_CAPACITY, "1");
+
+         WorkspaceRepoImpl repo = new WorkspaceRepoImpl(config);
+         List<WorkspaceMeta> versions = populate(repo, workspaces, edits);
+
+         // the sampled versions are measured separately from the history that holds them
+         long used = usedHeap();
+         WorkspaceRepoImpl measured = new WorkspaceRepoImpl(config);
+         populate(measured, workspaces, edits);
+         report("interval " + interval.trim(), usedHeap() - used, workspaces, edits);
+         measured.close();
+
+         // read random historical versions
+         Random random = new Random(1);
+         long start = System.nanoTime();
+         for (int i = 0; i < reads; i++)
+         {
+            WorkspaceMeta version = versions.get(random.nextInt(versions.size()));
+            repo.get(version.id, version.version);
+         }
+         double nanos = (System.nanoTime() - start) / (double)reads;
+         System.out.println(String.format("%-14s  %8.0f ns per historical read", "", Double.valueOf(nanos)));
+
+         repo.close();
+      }
+   }
+
+   /**
+    * Creates and edits workspaces, returning a reference to one randomly chosen version of
+    * each workspace.
+    */
+   private static List<WorkspaceMeta> populate(WorkspaceRepoImpl repo, int workspaces, int edits)
+   {
+      Random random = new Random(1);
+      List<WorkspaceMeta> sample = new ArrayList<>(workspaces);
+      for (int w = 0; w < workspaces; w++)
+      {
+         WorkspaceMeta current = repo.create(initial(w));
+         WorkspaceMeta chosen = current;
+         int pick = random.nextInt(edits + 1);
+         for (int e = 1; e <= edits; e++)
+         {
+            current = repo.update(edit(current, e));
+            if (e == pick)
+               chosen = current;
+         }
+
+         WorkspaceMeta ref = new WorkspaceMeta();
+         ref.id = chosen.id;
+         ref.version = chosen.version;
+         sample.add(ref);
+      }
+
+      return sample;
+   }
+
+   /**
+    * Builds the same history using a full copy of each version.
+    */
+   private static List<Object[]> fullCopies(int workspaces, int edits)
+   {
+      Properties config = new Properties();
+      IdFactory wsIds = new IdFactory(config, "workspaces");
+      List<Object[]> histories = new ArrayList<>(workspaces);
+      for (int w = 0; w < workspaces; w++)
+      {
+         IdFactory versionIds = new IdFactory(config, "workspace_version");
+         TreeMap<String, WorkspaceMeta> versions = new TreeMap<>(versionIds);
+         TreeMap<Long, String> versionsByTime = new TreeMap<>();
+
+         WorkspaceMeta current = initial(w);
+         current.id = wsIds.get();
+         for (int e = 0; e <= edits; e++)
+         {
+            if (e > 0)
+               current = edit(current, e);
+
+            current.version = versionIds.get();
+            current.modified = System.currentTimeMillis();
+            versions.put(current.version, current);
+            versionsByTime.put(Long.valueOf(current.modified), current.version);
+         }
+
+         histories.add(new Object[] { versions, versionsByTime });
+      }
+
+      return histories;
+   }
+
+   private static WorkspaceMeta initial(int w)
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = "@benchmark";
+      ws.key = "workspace-" + w;
+      ws.name = "Workspace " + w;
+      ws.description = new String(DESCRIPTION);
+      return ws;
+   }
+
+   private static WorkspaceMeta edit(WorkspaceMeta current, int e)
+   {
+      WorkspaceMeta edit = WorkspaceMeta.copy(current);
+      edit.name = "Workspace " + current.key + " edit " + e;
+      if (e % 10 == 0)
+         edit.description = DESCRIPTION + " Edit " + e + ".";
+
+      return edit;
+   }
+
+   private static void report(String label, long bytes, int workspaces, int edits)
+   {
+      double perVersion = bytes / (double)(workspaces * (long)(edits + 1));
+      System.out.println(String.format("%-14s  %8.1f MB retained, %6.1f bytes per version",
+            label, Double.valueOf(bytes / 1e6), Double.valueOf(perVersion)));
+   }
+
+   private static long usedHeap() throws InterruptedException
+   {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 4; i++)
+      {
+         System.gc();
+         Thread.sleep(100);
+      }
+
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+}
@@ -0,0 +1,160 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Checks that concurrency limits adapt to latency and that a server sheds requests that
+ * exceed them.
+ */
+public class AdmissionControlTest
+{
+   private static final long FAST = 0;
+   private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+   @Test
+   public void testLimitAdaptsToLatency()
+   {
+      ConcurrencyLimit limit = new ConcurrencyLimit("reads", 4, 2, 6, 1000);
+      for (int i = 0; i < 4; i++)
+         assertTrue(limit.tryAcquire());
+      assertFalse("Requests beyond the limit are rejected", limit.tryAcquire());
+      assertEquals(1, limit.getRejected());
+
+      for (int round = 0; round < 100; round++)
+      {
+         while (limit.tryAcquire())
+            ;
+         while (limit.getInFlight() > 0)
+            limit.release(FAST);
+      }
+      assertEquals("Fast, fully used permits raise the limit to its maximum", 6, limit.getLimit());
+
+      limit.tryAcquire();
+      limit.release(SLOW);
+      assertEquals("A slow request cuts the limit", 5, limit.getLimit());
+      limit.tryAcquire();
+      limit.release(SLOW);
+      assertEquals("Slow requests cut the limit once per threshold interval", 5, limit.getLimit());
+
+      limit.tryAcquire();
+      limit.release(FAST);
+      assertEquals("The limit does not grow while most permits are unused", 5, limit.getLimit());
+   }
+
+   @Test
+   public void testLimitStaysAboveMinimum() throws Exception
+   {
+      ConcurrencyLimit limit = new ConcurrencyLimit("changes", 4, 2, 8, 1);
+      for (int i = 0; i < 20; i++)
+      {
+         Thread.sleep(2);
+         limit.tryAcquire();
+         limit.release(SLOW);
+      }
+      assertEquals(2, limit.getLimit());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidBoundsRejected()
+   {
+      new ConcurrencyLimit("reads", 1, 2, 8, 100);
+   }
+
+   @Test
+   public void testOverloadedServerSheds() throws Exception
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty(GrizzlyServerMain.CFG_HOST, "http://localhost:18124");
+      cfg.setProperty(GrizzlyServerMain.CFG_REPOSITORY_TYPE, "memory");
+      cfg.setProperty(AdmissionControl.PROP_ENABLED, "true");
+      for (String key : new String[] { AdmissionControl.PROP_READ_INITIAL, AdmissionControl.PROP_READ_MIN, AdmissionControl.PROP_READ_MAX,
+            AdmissionControl.PROP_WRITE_INITIAL, AdmissionControl.PROP_WRITE_MIN, AdmissionControl.PROP_WRITE_MAX })
+         cfg.setProperty(key, "1");
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), new Properties());
+      Client rest = ClientBuilder.newClient();
+      try
+      {
+         AdmissionControl admission = server.getAdmissionControl().get();
+         WorkspaceRepository repo = client.getRepository();
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Admitted";
+         WorkspaceMeta created = repo.create(ws);
+
+         // occupy the only read permit
+         ConcurrencyLimit reads = admission.limit("GET");
+         assertTrue(reads.tryAcquire());
+         Response shed = rest.target(server.getBaseUri()).path("workspaces").path(created.id).request(MediaType.APPLICATION_JSON).get();
+         assertEquals(503, shed.getStatus());
+         assertEquals("1", shed.getHeaderString(HttpHeaders.RETRY_AFTER));
+         shed.close();
+
+         // reads and changes have separate limits
+         ConcurrencyLimit writes = admission.limit("POST");
+         awaitReleased(writes);
+         Response created2 = rest.target(server.getBaseUri()).path("workspaces").request(MediaType.APPLICATION_JSON)
+               .post(Entity.json("{\"name\":\"Also admitted\"}"));
+         assertEquals(200, created2.getStatus());
+         created2.close();
+
+         // the client waits as asked and repeats the read once the permit is free
+         Thread releaser = new Thread(() -> {
+            try
+            {
+               Thread.sleep(200);
+            }
+            catch (InterruptedException ex)
+            {
+               // release early
+            }
+            reads.release(0);
+         });
+         releaser.start();
+         assertEquals("Admitted", repo.get(created.id).get().name);
+         releaser.join();
+         assertTrue(client.getRequestStats().throttled >= 1);
+
+         awaitReleased(reads);
+         awaitReleased(writes);
+      }
+      finally
+      {
+         rest.close();
+         client.shutdown();
+         server.stop();
+      }
+   }
+
+   /**
+    * Waits for the permits of admitted requests to be released, which happens once their
+    * responses have been written and so may be after the client has read them.
+    */
+   private static void awaitReleased(ConcurrencyLimit limit) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (limit.getInFlight() > 0 && System.nanoTime() < deadline)
+         Thread.sleep(5);
+      assertEquals(0, limit.getInFlight());
+   }
+}
@@ -0,0 +1,107 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.internal.AsyncLogHandler.OverflowPolicy;
+
+public class AsyncLogHandlerTest
+{
+   @Test
+   public void testRecordsAreWrittenInOrder() throws Exception
+   {
+      RecordingHandler target = new RecordingHandler(null);
+      AsyncLogHandler handler = new AsyncLogHandler(16, OverflowPolicy.BLOCK, target);
+
+      for (int i = 0; i < 1000; i++)
+         handler.publish(new LogRecord(Level.INFO, "message " + i));
+
+      handler.close();
+
+      assertEquals("All records should be written", 1000, target.records.size());
+      for (int i = 0; i < 1000; i++)
+         assertEquals("Records should be written in order", "message " + i, target.records.get(i).getMessage());
+
+      assertEquals("No records should be dropped", 0, handler.getDroppedCount());
+      assertTrue("The delegate should be closed", target.closed);
+   }
+
+   @Test
+   public void testOverflowDropsAndCounts() throws Exception
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      RecordingHandler target = new RecordingHandler(release);
+      AsyncLogHandler handler = new AsyncLogHandler(8, OverflowPolicy.DROP, target);
+
+      // wait until the writer has taken the first record and is blocked in the delegate,
+      // so that the burst sees an empty buffer with exactly 8 free slots
+      handler.publish(new LogRecord(Level.INFO, "first"));
+      assertTrue("The writer should take the first record", target.entered.await(10, TimeUnit.SECONDS));
+
+      for (int i = 0; i < 100; i++)
+         handler.publish(new LogRecord(Level.INFO, "message " + i));
+
+      assertEquals("The buffer should be full", 8, handler.getDepth());
+      assertEquals("Records beyond the capacity should be dropped", 92, handler.getDroppedCount());
+
+      release.countDown();
+      handler.close();
+
+      // the first record, the 8 buffered records and the overflow summary
+      assertEquals("Every record should be either written or dropped", 10, target.records.size());
+      assertEquals("Buffered records should be written in order", "message 7", target.records.get(8).getMessage());
+      LogRecord summary = target.records.get(target.records.size() - 1);
+      assertEquals("A summary of dropped records should be written", Level.WARNING, summary.getLevel());
+   }
+
+   private static class RecordingHandler extends Handler
+   {
+      private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+      private final CountDownLatch latch;
+      private final CountDownLatch entered = new CountDownLatch(1);
+      private volatile boolean closed = false;
+
+      RecordingHandler(CountDownLatch latch)
+      {
+         this.latch = latch;
+      }
+
+      @Override
+      public void publish(LogRecord record)
+      {
+         entered.countDown();
+         try
+         {
+            if (latch != null)
+               latch.await(10, TimeUnit.SECONDS);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+
+         records.add(record);
+      }
+
+      @Override
+      public void flush()
+      {
+      }
+
+      @Override
+      public void close() throws SecurityException
+      {
+         closed = true;
+      }
+   }
+}
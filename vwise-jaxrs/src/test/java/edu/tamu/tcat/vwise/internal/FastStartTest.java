@@ -0,0 +1,72 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Starts a server in fast start mode and checks that it serves the same API as one
+ * configured by scanning the class path.
+ */
+public class FastStartTest
+{
+   @Test
+   public void testComponentsMatchPackageScan()
+   {
+      ResourceConfig scanned = new ResourceConfig().packages("edu.tamu.tcat.vwise.jaxrs");
+      assertEquals(scanned.getClasses(), new HashSet<>(FastStart.COMPONENTS));
+   }
+
+   @Test
+   public void testFastStart()
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty(GrizzlyServerMain.CFG_HOST, "http://localhost:18120");
+      cfg.setProperty(GrizzlyServerMain.CFG_REPOSITORY_TYPE, "memory");
+      cfg.setProperty(GrizzlyServerMain.CFG_FAST_START, "true");
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), new Properties());
+      Client rest = ClientBuilder.newClient();
+      try
+      {
+         List<String> phases = Arrays.asList("repository", "logging", "configure", "json", "jersey", "listen");
+         assertEquals(phases, Arrays.asList(server.getStartupTimes().keySet().toArray()));
+
+         WorkspaceRepository repo = client.getRepository();
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Fast start";
+         WorkspaceMeta created = repo.create(ws);
+         assertEquals("Fast start", repo.get(created.id).get().name);
+         assertTrue(repo.listAll().stream().anyMatch(w -> w.id.equals(created.id)));
+
+         // a malformed body is reported by the JSON exception mappers
+         assertEquals(400, rest.target(server.getBaseUri()).path("workspaces").request()
+               .post(Entity.json("{ not json")).getStatus());
+         assertEquals(404, rest.target(server.getBaseUri()).path("admin/backups").request().get().getStatus());
+      }
+      finally
+      {
+         rest.close();
+         client.shutdown();
+         server.stop();
+      }
+   }
+}
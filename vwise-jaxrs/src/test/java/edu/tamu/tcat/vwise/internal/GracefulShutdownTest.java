@@ -0,0 +1,178 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RequestPolicy;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcWorkspaceRepo;
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Stops servers while requests are in flight.
+ */
+public class GracefulShutdownTest
+{
+   @Test
+   public void testAwaitIdle() throws Exception
+   {
+      InFlightRequests requests = new InFlightRequests();
+      InFlightRequests.Request slow = requests.begin("PUT", "/vwise/workspaces/1");
+      InFlightRequests.Request stuck = requests.begin("GET", "/vwise/workspaces");
+
+      Thread completer = new Thread(() -> {
+         try
+         {
+            Thread.sleep(100);
+         }
+         catch (InterruptedException ex)
+         {
+            // complete early
+         }
+         requests.end(slow);
+      });
+      completer.start();
+
+      assertFalse(requests.awaitIdle(300));
+      List<String> outstanding = requests.describe();
+      assertEquals(1, outstanding.size());
+      assertTrue(outstanding.get(0), outstanding.get(0).startsWith("GET /vwise/workspaces ("));
+      assertEquals(1, requests.getCompleted());
+
+      requests.end(stuck);
+      assertTrue(requests.awaitIdle(1000));
+      assertEquals(2, requests.getCompleted());
+   }
+
+   @Test
+   public void testPendingUpdatesCommittedOnStop() throws Exception
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty(GrizzlyServerMain.CFG_HOST, "http://localhost:18122");
+      cfg.setProperty(GrizzlyServerMain.CFG_REPOSITORY_TYPE, "memory");
+      cfg.setProperty(WorkspaceRepoImpl.PROP_COALESCE_WINDOW, "600000");
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+
+      WorkspaceRepository repo = server.getVwiseContext().getRepository();
+      ChangeLog changes = (ChangeLog)server.getVwiseContext().getChangeFeed();
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Edited";
+      WorkspaceMeta created = repo.create(ws);
+      created.description = "Pending";
+      repo.update(created, "editor");
+      assertEquals(1, repo.listVersions(created.id, null, null, null, 10).get().versions.size());
+
+      // the repository is closed once the server stops; its change log records the commit
+      server.stop();
+      List<WorkspaceChange> committed = changes.read(1, 0, TimeUnit.MILLISECONDS);
+      assertEquals(1, committed.size());
+      assertEquals(WorkspaceChange.Type.UPDATED, committed.get(0).type);
+      assertEquals("Pending", committed.get(0).workspace.description);
+   }
+
+   @Test
+   public void testRestartUnderLoad() throws Exception
+   {
+      Path directory = Files.createTempDirectory("vwise-shutdown-test-");
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty(GrizzlyServerMain.CFG_HOST, "http://localhost:18123");
+      cfg.setProperty(GrizzlyServerMain.CFG_REPOSITORY_TYPE, "jdbc");
+      cfg.setProperty(JdbcWorkspaceRepo.PROP_URL, "jdbc:h2:" + directory.resolve("vwise").toAbsolutePath());
+
+      Properties clientCfg = new Properties();
+      clientCfg.setProperty(RequestPolicy.PROP_MAX_ATTEMPTS, "20");
+      clientCfg.setProperty(RequestPolicy.PROP_BACKOFF_MAX, "200");
+      clientCfg.setProperty(RequestPolicy.PROP_BUDGET_MIN, "1000");
+
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), clientCfg);
+      List<Thread> threads = new ArrayList<>();
+      AtomicBoolean running = new AtomicBoolean(true);
+      try
+      {
+         WorkspaceRepository repo = client.getRepository();
+         AtomicInteger completed = new AtomicInteger();
+         ConcurrentLinkedQueue<Exception> failures = new ConcurrentLinkedQueue<>();
+         for (int t = 0; t < 8; t++)
+         {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+               for (int i = 0; running.get(); i++)
+               {
+                  try
+                  {
+                     WorkspaceMeta ws = new WorkspaceMeta();
+                     ws.name = "Worker " + thread + " workspace " + i;
+                     WorkspaceMeta created = repo.create(ws);
+                     assertEquals(ws.name, repo.get(created.id).get().name);
+                     completed.incrementAndGet();
+                  }
+                  catch (Exception | AssertionError ex)
+                  {
+                     failures.add(new Exception(ex));
+                  }
+               }
+            });
+            threads.add(worker);
+            worker.start();
+         }
+
+         while (completed.get() < 200)
+            Thread.sleep(5);
+
+         // a rolling restart: the server drains and a replacement starts on the same address
+         server.stop();
+         server = new GrizzlyServerMain(cfg);
+         server.start();
+
+         int restarted = completed.get();
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+         while (completed.get() < restarted + 200 && System.nanoTime() < deadline)
+            Thread.sleep(5);
+
+         running.set(false);
+         for (Thread worker : threads)
+            worker.join();
+
+         assertTrue("Requests are served after the restart", completed.get() >= restarted + 200);
+         assertEquals(failures.stream().map(Throwable::toString).collect(Collectors.toList()).toString(), 0, failures.size());
+      }
+      finally
+      {
+         running.set(false);
+         for (Thread worker : threads)
+            worker.join();
+
+         client.shutdown();
+         server.stop();
+         try (Stream<Path> files = Files.walk(directory))
+         {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+               Files.delete(file);
+         }
+      }
+   }
+}
@@ -0,0 +1,80 @@
+package edu.tamu.tcat.vwise.internal;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Reports the latency of the first requests served by a newly started server, in blocks,
+ * so that a server started with {@code grizzly.server.warmup.budget_ms} may be compared
+ * with one started without it. Each comparison must be run in a new JVM.
+ *
+ * <p>Not run as part of the unit tests. To run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.tamu.tcat.vwise.internal.JitWarmupBenchmark \
+ *       -Dconfig.file=path/to/config.properties [-Dbench.blocks=10] [-Dbench.block_size=1000]
+ * </pre>
+ */
+public class JitWarmupBenchmark
+{
+   public static void main(String[] args) throws Exception
+   {
+      int blocks = Integer.getInteger("bench.blocks", 10).intValue();
+      int blockSize = Integer.getInteger("bench.block_size", 1000).intValue();
+
+      GrizzlyServerMain server = GrizzlyServerMain.getInstance();
+      System.out.println("Startup phases (ms): " + server.getStartupTimes());
+
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), new Properties());
+      try
+      {
+         WorkspaceRepository repo = client.getRepository();
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Benchmark Workspace";
+         ws.description = "A workspace used to measure the latency of a newly started server.";
+         WorkspaceMeta created = repo.create(ws);
+
+         long[] latencies = new long[blockSize];
+         for (int block = 0; block < blocks; block++)
+         {
+            for (int i = 0; i < blockSize; i++)
+            {
+               long start = System.nanoTime();
+               switch (i % 4)
+               {
+                  case 0:
+                     created = repo.get(created.id).get();
+                     break;
+                  case 1:
+                     created.description = "Updated " + i;
+                     created = repo.update(created);
+                     break;
+                  case 2:
+                     repo.listAll();
+                     break;
+                  default:
+                     repo.listVersions(created.id, null, null, null, 10);
+               }
+               latencies[i] = System.nanoTime() - start;
+            }
+
+            Arrays.sort(latencies);
+            String msg = "requests %6d-%6d: p50 %7.3f ms, p99 %7.3f ms, max %8.3f ms";
+            System.out.println(String.format(msg, Integer.valueOf(block * blockSize), Integer.valueOf((block + 1) * blockSize - 1),
+                  Double.valueOf(latencies[blockSize / 2] / 1e6),
+                  Double.valueOf(latencies[(int)(blockSize * 0.99)] / 1e6),
+                  Double.valueOf(latencies[blockSize - 1] / 1e6)));
+         }
+      }
+      finally
+      {
+         client.shutdown();
+         GrizzlyServerMain.shutdown();
+      }
+   }
+}
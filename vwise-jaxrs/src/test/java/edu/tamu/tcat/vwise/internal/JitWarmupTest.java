@@ -0,0 +1,58 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Starts a server that warms up before accepting connections.
+ */
+public class JitWarmupTest
+{
+   @Test
+   public void testWarmUpLeavesRepositoryEmpty()
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty(GrizzlyServerMain.CFG_HOST, "http://localhost:18121");
+      cfg.setProperty(GrizzlyServerMain.CFG_REPOSITORY_TYPE, "memory");
+      cfg.setProperty(GrizzlyServerMain.CFG_WARMUP_BUDGET, "1500");
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), new Properties());
+      try
+      {
+         long warmup = server.getStartupTimes().get("warmup").longValue();
+         assertTrue("Warm-up ends once its budget runs out", warmup < 5000);
+
+         WorkspaceRepository repo = client.getRepository();
+         assertTrue("Warm-up traffic does not reach the server's repository", repo.listAll().isEmpty());
+
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "After warm-up";
+         WorkspaceMeta created = repo.create(ws);
+         assertEquals("After warm-up", repo.get(created.id).get().name);
+      }
+      finally
+      {
+         client.shutdown();
+         server.stop();
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNegativeBudgetRejected()
+   {
+      Properties cfg = new Properties();
+      cfg.setProperty(GrizzlyServerMain.CFG_WARMUP_BUDGET, "-1");
+      new GrizzlyServerMain(cfg);
+   }
+}
@@ -0,0 +1,141 @@
+package edu.tamu.tcat.vwise.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Compares the size of workspace records, and the time taken to encode and decode them,
+ * using {@link WorkspaceRecordCodec} and Jackson JSON.
+ *
+ * <p>Records resemble a repository of personal and group workspaces: scopes are drawn
+ * from a pool in which a few are much more common than the rest, keys are derived from
+ * names of two to five words, and descriptions range from empty to a few sentences.
+ *
+ * <p>Not run as part of the unit tests. To run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.tamu.tcat.vwise.internal.WorkspaceRecordBenchmark \
+ *       [-Dbench.records=100000] [-Dbench.scopes=500] [-Dbench.rounds=5]
+ * </pre>
+ */
+public class WorkspaceRecordBenchmark
+{
+   private static final String[] WORDS = {
+         "field", "notes", "twitter", "digital", "humanities", "krakow", "vacation", "aggies",
+         "reading", "group", "archive", "letters", "maps", "timeline", "project", "research",
+         "seminar", "spring", "fall", "draft", "sources", "images", "poetry", "census" };
+
+   public static void main(String[] args) throws Exception
+   {
+      int count = Integer.getInteger("bench.records", 100_000).intValue();
+      int scopes = Integer.getInteger("bench.scopes", 500).intValue();
+      int rounds = Integer.getInteger("bench.rounds", 5).intValue();
+
+      Properties config = new Properties();
+      List<WorkspaceMeta> records = generate(config, count, scopes);
+
+      WorkspaceRecordCodec codec = new WorkspaceRecordCodec(config, new WorkspaceRecordCodec.Dictionary());
+      ObjectMapper mapper = new ObjectMapper();
+
+      long binaryBytes = 0;
+      long jsonBytes = 0;
+      for (WorkspaceMeta meta : records)
+      {
+         binaryBytes += codec.encode(meta).length;
+         jsonBytes += mapper.writeValueAsBytes(meta).length;
+      }
+
+      long dictionaryBytes = 0;
+      for (String entry : codec.getDictionary().getEntries())
+         dictionaryBytes += entry.length() + 1;
+
+      System.out.println(String.format("%,d records, %,d scopes", Integer.valueOf(count), Integer.valueOf(scopes)));
+      System.out.println(String.format("json    %7.1f bytes per record", Double.valueOf(jsonBytes / (double)count)));
+      System.out.println(String.format("binary  %7.1f bytes per record (%.0f%% of json), plus a %,d byte dictionary",
+            Double.valueOf(binaryBytes / (double)count), Double.valueOf(100.0 * binaryBytes / jsonBytes), Long.valueOf(dictionaryBytes)));
+
+      byte[][] binary = new byte[count][];
+      byte[][] json = new byte[count][];
+      for (int round = 1; round <= rounds; round++)
+      {
+         long start = System.nanoTime();
+         for (int i = 0; i < count; i++)
+            binary[i] = codec.encode(records.get(i));
+         long binaryEncode = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int i = 0; i < count; i++)
+            codec.decode(binary[i]);
+         long binaryDecode = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int i = 0; i < count; i++)
+            json[i] = mapper.writeValueAsBytes(records.get(i));
+         long jsonEncode = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int i = 0; i < count; i++)
+            mapper.readValue(json[i], WorkspaceMeta.class);
+         long jsonDecode = System.nanoTime() - start;
+
+         // earlier rounds warm up the JIT
+         System.out.println(String.format("round %d  encode: binary %6.0f ns, json %6.0f ns   decode: binary %6.0f ns, json %6.0f ns",
+               Integer.valueOf(round),
+               Double.valueOf(binaryEncode / (double)count), Double.valueOf(jsonEncode / (double)count),
+               Double.valueOf(binaryDecode / (double)count), Double.valueOf(jsonDecode / (double)count)));
+      }
+   }
+
+   private static List<WorkspaceMeta> generate(Properties config, int count, int scopes)
+   {
+      IdFactory wsIds = new IdFactory(config, "workspaces");
+      IdFactory versionIds = new IdFactory(config, "workspace_version");
+      Random random = new Random(1);
+      long now = System.currentTimeMillis();
+
+      List<WorkspaceMeta> records = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+      {
+         // squaring a uniform value favours the first scopes of the pool
+         double u = random.nextDouble();
+         int scope = (int)(u * u * scopes);
+
+         StringBuilder name = new StringBuilder();
+         int words = 2 + random.nextInt(4);
+         for (int w = 0; w < words; w++)
+         {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (w > 0)
+               name.append(' ');
+            name.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+         }
+
+         StringBuilder description = new StringBuilder();
+         int sentences = random.nextInt(4);
+         for (int s = 0; s < sentences; s++)
+         {
+            description.append("A workspace for ").append(WORDS[random.nextInt(WORDS.length)])
+                  .append(" and ").append(WORDS[random.nextInt(WORDS.length)]).append(" shared with the group. ");
+         }
+
+         WorkspaceMeta meta = new WorkspaceMeta();
+         meta.id = wsIds.get();
+         meta.version = versionIds.get();
+         meta.modified = now - random.nextInt(365 * 24 * 3600) * 1000L;
+         meta.scope = scope % 3 == 0 ? "~tamu.group" + scope : "@user" + scope;
+         meta.name = name.toString();
+         meta.key = meta.name.toLowerCase().replace(' ', '_');
+         meta.description = description.toString().trim();
+         records.add(meta);
+      }
+
+      return records;
+   }
+}
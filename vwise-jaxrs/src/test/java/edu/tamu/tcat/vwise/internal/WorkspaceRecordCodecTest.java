@@ -0,0 +1,161 @@
+package edu.tamu.tcat.vwise.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+public class WorkspaceRecordCodecTest
+{
+   private final Properties config = new Properties();
+   private final IdFactory wsIds = new IdFactory(config, "workspaces");
+   private final IdFactory versionIds = new IdFactory(config, "workspace_version");
+
+   @Test
+   public void testRoundTrip() throws Exception
+   {
+      WorkspaceRecordCodec codec = new WorkspaceRecordCodec(config, new WorkspaceRecordCodec.Dictionary());
+
+      WorkspaceMeta ws = workspace("@audenaert", "vacation_krakow", "Vacation in Krak\u00f3w");
+      ws.description = "";
+      assertSameWorkspace(ws, codec.decode(codec.encode(ws)));
+
+      WorkspaceMeta sparse = new WorkspaceMeta();
+      sparse.id = "not-a-factory-id";
+      sparse.name = "Sparse";
+      WorkspaceMeta decoded = codec.decode(codec.encode(sparse));
+      assertSameWorkspace(sparse, decoded);
+      assertNull(decoded.scope);
+      assertNull(decoded.version);
+
+      // records may be read from within a larger buffer
+      byte[] record = codec.encode(ws);
+      byte[] buffer = new byte[record.length + 10];
+      System.arraycopy(record, 0, buffer, 7, record.length);
+      assertSameWorkspace(ws, codec.decode(buffer, 7, record.length));
+   }
+
+   @Test
+   public void testScopesAreSharedThroughTheDictionary() throws Exception
+   {
+      WorkspaceRecordCodec.Dictionary dictionary = new WorkspaceRecordCodec.Dictionary();
+      WorkspaceRecordCodec codec = new WorkspaceRecordCodec(config, dictionary);
+
+      WorkspaceMeta ws = workspace("~tamu.cpsc410.spring2017", "a", "A");
+      byte[] first = codec.encode(ws);
+      byte[] second = codec.encode(workspace("~tamu.cpsc410.spring2017", "b", "B"));
+      ws.scope = "@a";
+      assertEquals("Scopes are not written inline", first.length, codec.encode(ws).length);
+      assertEquals(Arrays.asList("~tamu.cpsc410.spring2017", "@a"), dictionary.getEntries());
+
+      // a store restores its dictionary before reading records
+      WorkspaceRecordCodec restored = new WorkspaceRecordCodec(config, new WorkspaceRecordCodec.Dictionary(dictionary.getEntries()));
+      assertEquals("~tamu.cpsc410.spring2017", restored.decode(second).scope);
+   }
+
+   @Test
+   public void testCorruptRecordsAreRejected() throws Exception
+   {
+      WorkspaceRecordCodec codec = new WorkspaceRecordCodec(config, new WorkspaceRecordCodec.Dictionary());
+      byte[] record = codec.encode(workspace("@scope", "key", "Name"));
+
+      for (int i = 0; i < record.length; i++)
+      {
+         byte[] corrupt = record.clone();
+         corrupt[i] ^= 0x10;
+         try
+         {
+            codec.decode(corrupt);
+            fail("A corrupt byte at " + i + " should be detected");
+         }
+         catch (IllegalArgumentException ex)
+         {
+            // expected
+         }
+      }
+
+      try
+      {
+         codec.decode(Arrays.copyOf(record, record.length - 1));
+         fail("A truncated record should be detected");
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testSchemaEvolution() throws Exception
+   {
+      WorkspaceRecordCodec codec = new WorkspaceRecordCodec(config, new WorkspaceRecordCodec.Dictionary());
+      WorkspaceMeta ws = workspace("@scope", "key", "Name");
+      byte[] record = codec.encode(ws);
+
+      // a newer writer adds a string field 9 and a varint field 10, and writes the scope inline
+      byte[] body = Arrays.copyOf(record, record.length - 4);
+      byte[] added = { (byte)(9 << 2 | 1), 3, 'n', 'e', 'w', (byte)(10 << 2), (byte)0x96, 0x01, (byte)(4 << 2 | 1), 2, '@', 'x' };
+      byte[] evolved = Arrays.copyOf(body, body.length + added.length);
+      System.arraycopy(added, 0, evolved, body.length, added.length);
+
+      WorkspaceMeta decoded = codec.decode(withChecksum(evolved));
+      assertEquals(ws.name, decoded.name);
+      assertEquals(ws.version, decoded.version);
+      assertEquals("@x", decoded.scope);
+
+      // incompatible format versions are rejected
+      body[0] = (byte)(WorkspaceRecordCodec.FORMAT_VERSION + 1);
+      try
+      {
+         codec.decode(withChecksum(body));
+         fail("A newer format version should be rejected");
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // expected
+      }
+   }
+
+   private static byte[] withChecksum(byte[] body)
+   {
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      int checksum = (int)crc.getValue();
+      byte[] record = Arrays.copyOf(body, body.length + 4);
+      for (int i = 0; i < 4; i++)
+         record[body.length + i] = (byte)(checksum >>> (24 - 8 * i));
+
+      return record;
+   }
+
+   private WorkspaceMeta workspace(String scope, String key, String name)
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.id = wsIds.get();
+      ws.version = versionIds.get();
+      ws.modified = System.currentTimeMillis();
+      ws.scope = scope;
+      ws.key = key;
+      ws.name = name;
+      ws.description = "A description of " + name;
+      return ws;
+   }
+
+   private static void assertSameWorkspace(WorkspaceMeta expected, WorkspaceMeta actual)
+   {
+      assertEquals(expected.id, actual.id);
+      assertEquals(expected.version, actual.version);
+      assertEquals(expected.modified, actual.modified);
+      assertEquals(expected.scope, actual.scope);
+      assertEquals(expected.key, actual.key);
+      assertEquals(expected.name, actual.name);
+      assertEquals(expected.description, actual.description);
+   }
+}
@@ -0,0 +1,218 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.impl.jdbc.DatabaseBackup;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcApplicationContext;
+import edu.tamu.tcat.vwise.impl.jdbc.JdbcWorkspaceRepo;
+import edu.tamu.tcat.vwise.internal.ApiUtils;
+import edu.tamu.tcat.vwise.internal.BackupTool;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.BackupManifest;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Backs up a server's database while workspaces are being created and restores it to a
+ * new server.
+ */
+public class BackupTest
+{
+   private Path directory;
+   private GrizzlyServerMain server;
+   private GrizzlyServerMain restored;
+   private RestClientAppContext client;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      directory = Files.createTempDirectory("vwise-backup-test-");
+
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty("grizzly.server.host", "http://localhost:18110");
+      cfg.setProperty("repository.type", "jdbc");
+      cfg.setProperty(JdbcWorkspaceRepo.PROP_URL, "jdbc:h2:" + directory.resolve("db").resolve("vwise").toAbsolutePath());
+      cfg.setProperty(JdbcApplicationContext.PROP_BACKUP_DIR, directory.resolve("backups").toString());
+      server = new GrizzlyServerMain(cfg);
+      server.start();
+      client = new RestClientAppContext(server.getBaseUri(), new Properties());
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      client.shutdown();
+      for (GrizzlyServerMain s : new GrizzlyServerMain[] { server, restored })
+      {
+         if (s != null)
+            s.stop();
+      }
+
+      try (Stream<Path> files = Files.walk(directory))
+      {
+         for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            Files.delete(file);
+      }
+   }
+
+   private static List<WorkspaceMeta> createAll(WorkspaceRepository repo, String prefix, int count)
+   {
+      List<WorkspaceMeta> created = new ArrayList<>();
+      for (int i = 0; i < count; i++)
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = prefix + " " + i;
+         ws.description = "A workspace that is backed up while others are created.";
+         created.add(repo.create(ws));
+      }
+
+      return created;
+   }
+
+   private static List<String> ids(WorkspaceRepository repo)
+   {
+      return repo.listAll().stream().map(ws -> ws.id).collect(Collectors.toList());
+   }
+
+   @Test
+   public void testOnlineBackupAndRestore() throws Exception
+   {
+      WorkspaceRepository repo = server.getVwiseContext().getRepository();
+      createAll(client.getRepository(), "Before", 200);
+
+      // writes continue while the backup is taken
+      AtomicBoolean writing = new AtomicBoolean(true);
+      AtomicInteger written = new AtomicInteger();
+      Thread writer = new Thread(() -> {
+         while (writing.get())
+         {
+            createAll(repo, "During", 1);
+            written.incrementAndGet();
+         }
+      });
+      writer.start();
+      while (written.get() < 20)
+         Thread.sleep(5);
+
+      BackupManifest manifest = ApiUtils.getObjectMapper().readValue(BackupTool.backup(server.getBaseUri()), BackupManifest.class);
+      int writtenDuringBackup = written.get();
+      while (written.get() < writtenDuringBackup + 20)
+         Thread.sleep(5);
+      writing.set(false);
+      writer.join();
+
+      Path backup = directory.resolve("backups").resolve(manifest.id);
+      assertEquals(manifest.sequence, DatabaseBackup.verify(backup).sequence);
+      assertTrue("The backup holds state committed while it was taken", manifest.sequence > 200);
+      assertTrue(manifest.sequence < ((JdbcWorkspaceRepo)repo).getCommitSequence());
+
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty("grizzly.server.host", "http://localhost:18111");
+      restored = BackupTool.restore(backup, directory.resolve("restored"), cfg);
+      JdbcWorkspaceRepo restoredRepo = (JdbcWorkspaceRepo)restored.getVwiseContext().getRepository();
+
+      // every commit created one workspace, so the backup holds exactly the first of them
+      assertEquals(manifest.sequence, restoredRepo.getCommitSequence());
+      List<String> expected = ids(repo).subList(0, (int)manifest.sequence);
+      assertEquals(expected, ids(restoredRepo));
+
+      RestClientAppContext restoredClient = new RestClientAppContext(restored.getBaseUri(), new Properties());
+      try
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "After restore";
+         restoredClient.getRepository().create(ws);
+         assertEquals(manifest.sequence + 1, restoredRepo.getCommitSequence());
+      }
+      finally
+      {
+         restoredClient.shutdown();
+      }
+   }
+
+   @Test
+   public void testCorruptBackupRejected() throws Exception
+   {
+      createAll(client.getRepository(), "Corrupted", 20);
+      BackupManifest manifest = ((JdbcApplicationContext)server.getVwiseContext()).backup();
+      Path backup = directory.resolve("backups").resolve(manifest.id);
+
+      Client rest = ClientBuilder.newClient();
+      try
+      {
+         assertEquals(200, rest.target(server.getBaseUri()).path("admin/backups").path(manifest.id).request().get().getStatus());
+
+         try (RandomAccessFile file = new RandomAccessFile(backup.resolve(manifest.files.get(0).name).toFile(), "rw"))
+         {
+            long position = file.length() / 2;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+         }
+
+         Response response = rest.target(server.getBaseUri()).path("admin/backups").path(manifest.id).request().get();
+         assertEquals(409, response.getStatus());
+      }
+      finally
+      {
+         rest.close();
+      }
+
+      try
+      {
+         DatabaseBackup.restore(backup, directory.resolve("restored"));
+         fail("A corrupt backup must not be restored");
+      }
+      catch (IllegalStateException ex)
+      {
+         // expected
+      }
+
+      assertTrue("Nothing is restored from a corrupt backup", !Files.exists(directory.resolve("restored")));
+   }
+
+   @Test
+   public void testBackupsDisabled()
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty("grizzly.server.host", "http://localhost:18112");
+      GrizzlyServerMain memory = new GrizzlyServerMain(cfg);
+      memory.start();
+
+      Client rest = ClientBuilder.newClient();
+      try
+      {
+         assertEquals(404, rest.target(memory.getBaseUri()).path("admin/backups").request().get().getStatus());
+      }
+      finally
+      {
+         rest.close();
+         memory.stop();
+      }
+   }
+}
@@ -0,0 +1,159 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.client.WorkspaceCache.CacheStats;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Runs the core workspace tests against the REST API using a client with caching enabled.
+ */
+public class CachedRestApiWorkspaceTest extends WorkspaceTest
+{
+   private final static Logger logger = Logger.getLogger(CachedRestApiWorkspaceTest.class.getName());
+
+   @Before
+   public void setUp() throws Exception
+   {
+      try
+      {
+         GrizzlyServerMain server = GrizzlyServerMain.getInstance();
+
+         Properties cfg = new Properties();
+         cfg.setProperty(RestClientAppContext.PROP_CACHE_ENABLED, "true");
+         cfg.setProperty(RestClientAppContext.PROP_CACHE_MAX_ENTRIES, "100");
+
+         URI baseUri = server.getBaseUri();
+         logger.log(Level.INFO, "Creating caching client for: " + baseUri.toString());
+         ctx = new RestClientAppContext(baseUri, cfg);
+      }
+      catch (Exception ex)
+      {
+         logger.log(Level.SEVERE, "Failed to initialize unit test", ex);
+         throw ex;
+      }
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      try
+      {
+         GrizzlyServerMain.shutdown();
+         if (ctx != null)
+            ((RestClientAppContext)ctx).shutdown();
+      }
+      catch (Exception ex)
+      {
+         logger.log(Level.SEVERE, "Failed to clean up after unit test", ex);
+         throw ex;
+      }
+   }
+
+   @Test
+   public void testCachedReads() throws Exception
+   {
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Test Workspace";
+      ws.description = "This is a test workspace.";
+
+      RestClientAppContext client = (RestClientAppContext)ctx;
+      try (WorkspaceRepository repo = ctx.getRepository())
+      {
+         WorkspaceMeta created = repo.create(ws);
+
+         // latest reads are revalidated against the version known to the client
+         repo.get(created.id);
+         repo.get(created.id);
+         CacheStats stats = client.getCacheStats().get();
+         assertEquals("Latest reads should be revalidated", 2, stats.revalidated);
+
+         // specific versions are served from the cache
+         repo.get(created.id, created.version);
+         stats = client.getCacheStats().get();
+         assertEquals("Versioned reads should not contact the server", 2, stats.revalidated);
+         assertEquals("Versioned reads should be cache hits", 3, stats.hits);
+
+         // updates from other clients are detected on revalidation
+         WorkspaceMeta modified = WorkspaceMeta.copy(created);
+         modified.name = "Modified Workspace";
+         // NOTE: the server's repository is shared and must not be closed here
+         GrizzlyServerMain.getInstance().getVwiseContext().getRepository().update(modified);
+
+         WorkspaceMeta current = repo.get(created.id).get();
+         assertEquals("The modified workspace should be returned", modified.name, current.name);
+         assertTrue("The read should be a miss", client.getCacheStats().get().misses > stats.misses);
+
+         // returned workspaces are detached from the cache
+         current.name = "Local change";
+         assertEquals("Local changes should not affect the cache", modified.name, repo.get(created.id).get().name);
+      }
+   }
+
+   @Test
+   public void testPendingVersionsAreNotCached() throws Exception
+   {
+      Properties serverCfg = WorkspaceTest.getConfig();
+      serverCfg.setProperty("grizzly.server.host", "http://localhost:18125");
+      serverCfg.setProperty("repository.type", "memory");
+      serverCfg.setProperty(WorkspaceRepoImpl.PROP_COALESCE_WINDOW, "600000");
+      GrizzlyServerMain server = new GrizzlyServerMain(serverCfg);
+      server.start();
+
+      Properties cfg = new Properties();
+      cfg.setProperty(RestClientAppContext.PROP_CACHE_ENABLED, "true");
+      cfg.setProperty(RestClientAppContext.PROP_CACHE_MAX_ENTRIES, "100");
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), cfg);
+      try (WorkspaceRepository repo = client.getRepository())
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Draft";
+         WorkspaceMeta created = repo.create(ws);
+
+         WorkspaceMeta pending = WorkspaceMeta.copy(created);
+         pending.name = "Draft 1";
+         pending = repo.update(pending, "editor");
+         assertEquals("Draft 1", repo.get(created.id, pending.version).get().name);
+
+         // a further update from the same client is folded into the pending version
+         WorkspaceMeta folded = WorkspaceMeta.copy(pending);
+         folded.description = "Edited";
+         folded = repo.update(folded, "editor");
+
+         WorkspaceMeta reread = repo.get(created.id, pending.version).get();
+         assertEquals("The pending version resolves to the version it was folded into", folded.version, reread.version);
+         assertEquals("Edited", reread.description);
+
+         // once committed and superseded, versions are immutable and served from the cache
+         repo.flush(created.id);
+         WorkspaceMeta superseding = WorkspaceMeta.copy(folded);
+         superseding.name = "Final";
+         repo.update(superseding);
+
+         repo.get(created.id, folded.version);
+         long hits = client.getCacheStats().get().hits;
+         assertEquals("Edited", repo.get(created.id, folded.version).get().description);
+         assertEquals("Committed versions are cache hits", hits + 1, client.getCacheStats().get().hits);
+      }
+      finally
+      {
+         client.shutdown();
+         server.stop();
+      }
+   }
+}
@@ -0,0 +1,88 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceChangeFeed;
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.WorkspaceChange;
+import edu.tamu.tcat.vwise.model.WorkspaceChange.Type;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+
+/**
+ * Verifies that workspace changes are streamed to REST clients as server-sent events.
+ */
+public class ChangeFeedTest
+{
+   private RestClientAppContext ctx;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      ctx = new RestClientAppContext(GrizzlyServerMain.getInstance().getBaseUri());
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      GrizzlyServerMain.shutdown();
+      ctx.shutdown();
+   }
+
+   private static WorkspaceChange next(BlockingQueue<WorkspaceChange> queue) throws InterruptedException
+   {
+      WorkspaceChange change = queue.poll(10, TimeUnit.SECONDS);
+      assertNotNull("Expected a change to be delivered", change);
+      return change;
+   }
+
+   @Test
+   public void testStreamAndResume() throws Exception
+   {
+      WorkspaceRepository repo = ctx.getRepository();
+      WorkspaceChangeFeed feed = ctx.getChangeFeed();
+
+      BlockingQueue<WorkspaceChange> all = new LinkedBlockingQueue<>();
+      try (AutoCloseable sub = feed.subscribe(0, null, null, all::add))
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Change Feed";
+         ws.scope = "@feed";
+         WorkspaceMeta created = repo.create(ws);
+
+         created.name = "Change Feed (renamed)";
+         WorkspaceMeta updated = repo.update(created);
+         repo.remove(created.id);
+
+         WorkspaceChange first = next(all);
+         assertEquals(Type.CREATED, first.type);
+         assertEquals(created.id, first.id);
+         assertEquals("@feed", first.scope);
+
+         WorkspaceChange second = next(all);
+         assertEquals(Type.UPDATED, second.type);
+         assertEquals(updated.version, second.version);
+         assertEquals(updated.name, second.workspace.name);
+
+         assertEquals(Type.REMOVED, next(all).type);
+
+         // a new subscriber may resume from a known position, filtered to one workspace
+         BlockingQueue<WorkspaceChange> resumed = new LinkedBlockingQueue<>();
+         try (AutoCloseable sub2 = feed.subscribe(first.sequence, null, created.id, resumed::add))
+         {
+            assertEquals(second.sequence, next(resumed).sequence);
+            assertEquals(Type.REMOVED, next(resumed).type);
+         }
+      }
+   }
+}
@@ -0,0 +1,292 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.ReadYourWrites;
+import edu.tamu.tcat.vwise.client.RequestPolicy;
+import edu.tamu.tcat.vwise.client.RestApiException;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.impl.memory.ChangeLog;
+import edu.tamu.tcat.vwise.impl.memory.WorkspaceRepoImpl;
+import edu.tamu.tcat.vwise.impl.replica.ReplicaApplicationContext;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.ReplicationStatus;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+
+/**
+ * Runs a leader and replicas on localhost and verifies that the replicas serve the
+ * leader's workspaces.
+ */
+public class ReplicationTest
+{
+   private static final int LEADER_PORT = 18101;
+
+   private final List<GrizzlyServerMain> servers = new ArrayList<>();
+   private final List<RestClientAppContext> clients = new ArrayList<>();
+   private GrizzlyServerMain leader;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      leader = startLeader(new Properties());
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      for (RestClientAppContext client : clients)
+         client.shutdown();
+
+      // replicas are stopped before the leader whose changes they follow
+      for (int i = servers.size() - 1; i >= 0; i--)
+         servers.get(i).stop();
+   }
+
+   private GrizzlyServerMain startLeader(Properties overrides)
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.putAll(overrides);
+      cfg.setProperty("grizzly.server.host", "http://localhost:" + LEADER_PORT);
+      return start(cfg);
+   }
+
+   private GrizzlyServerMain startReplica(int port, Properties overrides)
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.putAll(overrides);
+      cfg.setProperty("grizzly.server.host", "http://localhost:" + port);
+      cfg.setProperty("repository.type", "replica");
+      cfg.setProperty(ReplicaApplicationContext.PROP_LEADER, leader.getBaseUri().toString());
+      return start(cfg);
+   }
+
+   private GrizzlyServerMain start(Properties cfg)
+   {
+      GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+      server.start();
+      servers.add(server);
+      return server;
+   }
+
+   private RestClientAppContext connect(GrizzlyServerMain server, Properties config, ReadYourWrites session)
+   {
+      RestClientAppContext client = new RestClientAppContext(server.getBaseUri(), config, session);
+      clients.add(client);
+      return client;
+   }
+
+   private static long leaderSequence(GrizzlyServerMain server)
+   {
+      return ((ChangeLog)server.getVwiseContext().getChangeFeed()).getLatestSequence();
+   }
+
+   private static ReplicaApplicationContext replicaOf(GrizzlyServerMain server)
+   {
+      return (ReplicaApplicationContext)server.getVwiseContext();
+   }
+
+   private static List<WorkspaceMeta> createAll(WorkspaceRepository repo, int count)
+   {
+      List<WorkspaceMeta> created = new ArrayList<>();
+      for (int i = 0; i < count; i++)
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.scope = "@replicated";
+         ws.key = String.format("ws-%02d", Integer.valueOf(i));
+         ws.name = "Replicated workspace " + i;
+         created.add(repo.create(ws));
+      }
+
+      return created;
+   }
+
+   @Test
+   public void testReplicatesChanges() throws Exception
+   {
+      GrizzlyServerMain replica = startReplica(18102, new Properties());
+      WorkspaceRepository leaderRepo = connect(leader, new Properties(), null).getRepository();
+      WorkspaceRepository replicaRepo = connect(replica, new Properties(), null).getRepository();
+
+      List<WorkspaceMeta> created = createAll(leaderRepo, 10);
+      WorkspaceMeta first = created.get(0);
+      WorkspaceMeta renamed = WorkspaceMeta.copy(first);
+      renamed.name = "Renamed";
+      renamed = leaderRepo.update(renamed);
+      leaderRepo.remove(created.get(1).id);
+      leaderRepo.purge(created.get(2).id);
+
+      long sequence = leaderSequence(leader);
+      assertTrue(replicaOf(replica).awaitSequence(sequence));
+
+      // the replica serves the leader's ids, versions and history
+      assertEquals("Renamed", replicaRepo.get(first.id).get().name);
+      assertEquals(renamed.version, replicaRepo.get(first.id).get().version);
+      assertEquals(first.name, replicaRepo.get(first.id, first.version).get().name);
+      assertEquals(2, replicaRepo.listVersions(first.id, null, null, null, 10).get().versions.size());
+      assertFalse(replicaRepo.get(created.get(1).id).isPresent());
+      assertFalse(replicaRepo.get(created.get(2).id).isPresent());
+
+      assertEquals(ids(leaderRepo.listAll()), ids(replicaRepo.listAll()));
+      assertEquals(1, replicaRepo.search("renamed", 10).size());
+
+      WorkspaceQuery query = new WorkspaceQuery();
+      query.scope = "@replicated";
+      query.sort = WorkspaceQuery.SortField.KEY;
+      assertEquals(ids(leaderRepo.query(query).workspaces), ids(replicaRepo.query(query).workspaces));
+
+      ReplicationStatus status = replicaOf(replica).getStatus();
+      assertEquals(ReplicationStatus.State.STREAMING, status.state);
+      assertEquals(sequence, status.sequence);
+      assertEquals(0, status.lagMillis);
+
+      // the replica republishes the leader's changes with the same sequence numbers
+      assertEquals(sequence, ((ChangeLog)replica.getVwiseContext().getChangeFeed()).getLatestSequence());
+   }
+
+   private static List<String> ids(Collection<WorkspaceMeta> workspaces)
+   {
+      return workspaces.stream().map(ws -> ws.id).collect(Collectors.toList());
+   }
+
+   @Test
+   public void testReadYourWrites() throws Exception
+   {
+      GrizzlyServerMain replica = startReplica(18103, new Properties());
+
+      ReadYourWrites session = new ReadYourWrites();
+      WorkspaceRepository leaderRepo = connect(leader, new Properties(), session).getRepository();
+      WorkspaceRepository replicaRepo = connect(replica, new Properties(), session).getRepository();
+
+      for (int i = 0; i < 20; i++)
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.name = "Session " + i;
+         WorkspaceMeta created = leaderRepo.create(ws);
+         assertEquals(leaderSequence(leader), session.getSequence());
+
+         // the replica waits until it has applied the change
+         assertEquals(created.version, replicaRepo.get(created.id).get().version);
+      }
+
+      // a replica that cannot reach the required change within its wait is unavailable
+      Properties noRetry = new Properties();
+      noRetry.setProperty(RequestPolicy.PROP_MAX_ATTEMPTS, "1");
+      ReadYourWrites ahead = new ReadYourWrites();
+      ahead.require(session.getSequence() + 100);
+      try
+      {
+         connect(replica, noRetry, ahead).getRepository().listAll();
+         fail("The replica has not applied the required change");
+      }
+      catch (RestApiException ex)
+      {
+         assertEquals(503, ex.getStatus());
+      }
+   }
+
+   @Test
+   public void testCoalescedUpdatesAnsweredWithoutSequence() throws Exception
+   {
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty("grizzly.server.host", "http://localhost:18106");
+      cfg.setProperty(WorkspaceRepoImpl.PROP_COALESCE_WINDOW, "600000");
+      GrizzlyServerMain server = start(cfg);
+
+      ReadYourWrites session = new ReadYourWrites();
+      WorkspaceRepository repo = connect(server, new Properties(), session).getRepository();
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Draft";
+      WorkspaceMeta created = repo.create(ws);
+      long committed = session.getSequence();
+      assertEquals(leaderSequence(server), committed);
+
+      // the pending update is not included by any commit
+      WorkspaceMeta pending = WorkspaceMeta.copy(created);
+      pending.name = "Draft 1";
+      repo.update(pending, "editor");
+      assertEquals(committed, session.getSequence());
+      assertEquals(committed, leaderSequence(server));
+
+      // flushing commits it and answers with a sequence number that includes it
+      repo.flush(created.id);
+      assertEquals(committed + 1, session.getSequence());
+      assertEquals(leaderSequence(server), session.getSequence());
+   }
+
+   @Test
+   public void testWritesRedirected() throws Exception
+   {
+      GrizzlyServerMain replica = startReplica(18104, new Properties());
+      Properties noRetry = new Properties();
+      noRetry.setProperty(RequestPolicy.PROP_MAX_ATTEMPTS, "1");
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.name = "Misdirected";
+      try
+      {
+         connect(replica, noRetry, null).getRepository().create(ws);
+         fail("Replicas do not accept changes");
+      }
+      catch (RestApiException ex)
+      {
+         assertEquals(307, ex.getStatus());
+      }
+
+      try
+      {
+         replica.getVwiseContext().getRepository().create(ws);
+         fail("Replicas do not accept changes");
+      }
+      catch (IllegalStateException ex)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testStartFromSnapshot() throws Exception
+   {
+      // a leader that no longer retains its first changes
+      for (GrizzlyServerMain server : servers)
+         server.stop();
+      servers.clear();
+      Properties small = new Properties();
+      small.setProperty(ChangeLog.PROP_CAPACITY, "4");
+      leader = startLeader(small);
+
+      WorkspaceRepository leaderRepo = connect(leader, new Properties(), null).getRepository();
+      List<WorkspaceMeta> created = createAll(leaderRepo, 12);
+      leaderRepo.remove(created.get(3).id);
+
+      GrizzlyServerMain replica = startReplica(18105, new Properties());
+      assertTrue(replicaOf(replica).awaitSequence(leaderSequence(leader)));
+
+      // subsequent changes are streamed
+      WorkspaceMeta update = WorkspaceMeta.copy(created.get(0));
+      update.name = "Updated after restore";
+      leaderRepo.update(update);
+      assertTrue(replicaOf(replica).awaitSequence(leaderSequence(leader)));
+
+      WorkspaceRepository replicaRepo = replica.getVwiseContext().getRepository();
+      assertEquals(ids(leaderRepo.listAll()), ids(replicaRepo.listAll()));
+      assertEquals("Updated after restore", replicaRepo.get(created.get(0).id).get().name);
+      assertEquals(ReplicationStatus.State.STREAMING, replicaOf(replica).getStatus().state);
+   }
+}
@@ -0,0 +1,269 @@
+package edu.tamu.tcat.vwise.jaxrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.tamu.tcat.vwise.WorkspaceRepository;
+import edu.tamu.tcat.vwise.WorkspaceTest;
+import edu.tamu.tcat.vwise.client.RestClientAppContext;
+import edu.tamu.tcat.vwise.impl.sharded.ShardedApplicationContext;
+import edu.tamu.tcat.vwise.impl.sharded.ShardedWorkspaceRepo;
+import edu.tamu.tcat.vwise.internal.GrizzlyServerMain;
+import edu.tamu.tcat.vwise.model.ScopeSummary;
+import edu.tamu.tcat.vwise.model.SearchHit;
+import edu.tamu.tcat.vwise.model.WorkspaceMeta;
+import edu.tamu.tcat.vwise.model.WorkspaceQuery;
+import edu.tamu.tcat.vwise.model.WorkspaceQueryResult;
+
+/**
+ * Distributes workspaces across three servers, accessed both directly through a sharded
+ * context and through a server configured to use one.
+ */
+public class ShardedWorkspaceTest
+{
+   private static final String[] SHARDS = { "a", "b", "c" };
+
+   private final List<GrizzlyServerMain> shardServers = new ArrayList<>();
+   private ShardedApplicationContext ctx;
+   private GrizzlyServerMain router;
+   private RestClientAppContext client;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      List<String> nodes = new ArrayList<>();
+      for (int i = 0; i < SHARDS.length; i++)
+      {
+         Properties cfg = WorkspaceTest.getConfig();
+         cfg.setProperty("grizzly.server.host", "http://localhost:" + (18091 + i));
+         GrizzlyServerMain server = new GrizzlyServerMain(cfg);
+         server.start();
+         shardServers.add(server);
+         nodes.add(SHARDS[i] + "=" + server.getBaseUri());
+      }
+
+      Properties cfg = WorkspaceTest.getConfig();
+      cfg.setProperty(ShardedApplicationContext.PROP_NODES, String.join(",", nodes));
+      ctx = new ShardedApplicationContext(cfg);
+
+      cfg.setProperty("grizzly.server.host", "http://localhost:18090");
+      cfg.setProperty("repository.type", "sharded");
+      router = new GrizzlyServerMain(cfg);
+      router.start();
+      client = new RestClientAppContext(router.getBaseUri());
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      client.shutdown();
+      router.stop();
+      ctx.close();
+      for (GrizzlyServerMain server : shardServers)
+         server.stop();
+   }
+
+   private static List<WorkspaceMeta> createAll(WorkspaceRepository repo, String scope, int count)
+   {
+      List<WorkspaceMeta> created = new ArrayList<>();
+      for (int i = 0; i < count; i++)
+      {
+         WorkspaceMeta ws = new WorkspaceMeta();
+         ws.scope = scope;
+         ws.key = String.format("ws-%02d", Integer.valueOf(i));
+         ws.name = "Workspace " + (count - i);
+         created.add(repo.create(ws));
+      }
+
+      return created;
+   }
+
+   @Test
+   public void testPlacement() throws Exception
+   {
+      ShardedWorkspaceRepo repo = (ShardedWorkspaceRepo)ctx.getRepository();
+      List<WorkspaceMeta> created = createAll(repo, "@placement", 60);
+
+      Set<String> used = new HashSet<>();
+      for (WorkspaceMeta ws : created)
+      {
+         String shard = repo.getShard(ws.id).get();
+         assertTrue(ws.id.startsWith(shard + "."));
+         used.add(shard);
+
+         assertEquals(ws.version, repo.get(ws.id).get().version);
+
+         // the shard holds the workspace under the id it assigned
+         String localId = ws.id.substring(shard.length() + 1);
+         WorkspaceRepository node = shardServers.get(shard.charAt(0) - 'a').getVwiseContext().getRepository();
+         assertEquals(ws.key, node.get(localId).get().key);
+      }
+
+      assertEquals("Every shard receives new workspaces", SHARDS.length, used.size());
+      assertEquals(60, repo.listScope("@placement").size());
+
+      assertFalse(repo.getShard("z.abc").isPresent());
+      assertFalse(repo.get("z.abc").isPresent());
+      assertFalse(repo.get("no-shard").isPresent());
+   }
+
+   @Test
+   public void testQueryPages() throws Exception
+   {
+      WorkspaceRepository repo = ctx.getRepository();
+      List<WorkspaceMeta> created = createAll(repo, "@pages", 30);
+      List<String> keys = created.stream().map(ws -> ws.key).collect(Collectors.toList());
+
+      WorkspaceQuery query = new WorkspaceQuery();
+      query.scope = "@pages";
+      query.sort = WorkspaceQuery.SortField.KEY;
+      query.limit = 7;
+      assertEquals(keys, readAll(repo, query));
+
+      query.descending = true;
+      List<String> reversed = new ArrayList<>(keys);
+      Collections.reverse(reversed);
+      assertEquals(reversed, readAll(repo, query));
+
+      // names run in the opposite order to keys
+      query.sort = WorkspaceQuery.SortField.NAME;
+      query.descending = false;
+      query.offset = 0;
+      WorkspaceQueryResult byName = repo.query(query);
+      assertEquals("Workspace 1", byName.workspaces.get(0).name);
+      assertEquals("Workspace 10", byName.workspaces.get(1).name);
+
+      query.sort = WorkspaceQuery.SortField.KEY;
+      query.offset = 5;
+      query.limit = 3;
+      WorkspaceQueryResult page = repo.query(query);
+      assertEquals(keys.subList(5, 8), page.workspaces.stream().map(ws -> ws.key).collect(Collectors.toList()));
+      assertNotNull(page.next);
+
+      query.limit = 0;
+      query.offset = 0;
+      WorkspaceQueryResult unlimited = repo.query(query);
+      assertEquals(keys, unlimited.workspaces.stream().map(ws -> ws.key).collect(Collectors.toList()));
+      assertNull(unlimited.next);
+
+      query.cursor = "not-a-cursor";
+      try
+      {
+         repo.query(query);
+         fail("An invalid cursor is rejected");
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // expected
+      }
+   }
+
+   private static List<String> readAll(WorkspaceRepository repo, WorkspaceQuery criteria)
+   {
+      WorkspaceQuery query = WorkspaceQuery.copy(criteria);
+      List<String> keys = new ArrayList<>();
+      do
+      {
+         WorkspaceQueryResult result = repo.query(query);
+         assertTrue(result.workspaces.size() <= query.limit);
+         result.workspaces.forEach(ws -> keys.add(ws.key));
+         query.cursor = result.next;
+      }
+      while (query.cursor != null);
+
+      return keys;
+   }
+
+   @Test
+   public void testSummaries() throws Exception
+   {
+      WorkspaceRepository repo = ctx.getRepository();
+      List<WorkspaceMeta> created = createAll(repo, "@summary", 12);
+      createAll(repo, "@other", 4);
+      repo.remove(created.get(0).id);
+
+      ScopeSummary summary = repo.getScopeSummary("@summary");
+      assertEquals(11, summary.workspaces);
+      assertEquals(1, summary.removed);
+
+      List<ScopeSummary> scopes = new ArrayList<>(repo.listScopes());
+      assertEquals(2, scopes.size());
+      assertEquals("@other", scopes.get(0).scope);
+      assertEquals(4, scopes.get(0).workspaces);
+      assertEquals(11, scopes.get(1).workspaces);
+   }
+
+   @Test
+   public void testSearchAndSuggest() throws Exception
+   {
+      WorkspaceRepository repo = ctx.getRepository();
+      createAll(repo, "@search", 20);
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = "@search";
+      ws.key = "maps";
+      ws.name = "Medieval maps of Sicily";
+      WorkspaceMeta maps = repo.create(ws);
+
+      List<SearchHit> hits = repo.search("sicily", 10);
+      assertEquals(1, hits.size());
+      assertEquals(maps.id, hits.get(0).workspace.id);
+
+      assertEquals(5, repo.search("workspace", 5).size());
+
+      List<WorkspaceMeta> suggestions = repo.suggest("ws-1", "@search", 4);
+      assertEquals(4, suggestions.size());
+      assertEquals("ws-10", suggestions.get(0).key);
+      assertEquals("ws-13", suggestions.get(3).key);
+      assertEquals(maps.id, repo.suggest("sic", null, 5).get(0).id);
+   }
+
+   @Test
+   public void testRouterServer() throws Exception
+   {
+      WorkspaceRepository repo = client.getRepository();
+
+      WorkspaceMeta ws = new WorkspaceMeta();
+      ws.scope = "@router";
+      ws.name = "Routed";
+      WorkspaceMeta created = repo.create(ws);
+      assertTrue(ctx.getRepository().get(created.id).isPresent());
+
+      created.name = "Routed again";
+      WorkspaceMeta updated = repo.update(created);
+      assertEquals(created.id, updated.id);
+      assertEquals("Routed again", repo.get(created.id).get().name);
+      assertEquals("Routed", repo.get(created.id, created.version).get().name);
+      assertEquals(2, repo.listVersions(created.id, null, null, null, 10).get().versions.size());
+
+      repo.remove(created.id);
+      assertFalse(repo.get(created.id).isPresent());
+
+      WorkspaceMeta unknown = WorkspaceMeta.copy(updated);
+      unknown.id = "z" + updated.id;
+      try
+      {
+         ctx.getRepository().update(unknown);
+         fail("Workspaces on unknown shards cannot be updated");
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // expected
+      }
+   }
+}